@@ -0,0 +1,68 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Deterministic inputs, so that results are comparable between runs.
+ */
+final class BenchmarkData {
+
+    static final long SEED = 20180607L;
+
+    private BenchmarkData() { }
+
+    /**
+     * @param size The number of bytes
+     * @return HTML like text, compressible as real pages are
+     */
+    static byte [] html(int size) {
+        final Random random = new Random(SEED);
+        final String [] words = {"<div class=\"content\">", "</div>", "<p>", "</p>", "news", "the", 
+            "of", "and", "<a href=\"/feeds/", "\">", "</a>", "report", "market", "today", " ", " ", "\n"};
+        final StringBuilder builder = new StringBuilder(size + 32);
+        while(builder.length() < size) {
+            builder.append(words[random.nextInt(words.length)]);
+        }
+        builder.setLength(size);
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param count The number of parameters
+     * @return Parameters with a mix of plain and encodable values
+     */
+    static Map<String, Object> params(int count) {
+        final Random random = new Random(SEED);
+        final Map<String, Object> params = new LinkedHashMap<>(count * 2);
+        for(int i = 0; i < count; i++) {
+            final String value;
+            switch(i % 4) {
+                case 0: value = "value" + random.nextInt(100_000); break;
+                case 1: value = "A to Z & more=" + random.nextInt(1000); break;
+                case 2: value = "café naïve über " + random.nextInt(1000); break;
+                default: value = "/path/to/page.html?x=" + random.nextInt(1000); break;
+            }
+            params.put("param" + i, value);
+        }
+        return params;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.benchmarks;
+
+import com.bc.net.util.PercentCodec;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link com.bc.net.util.PercentCodec} compared with {@link java.net.URLEncoder}
+ * and {@link java.net.URLDecoder}, as previously used by
+ * {@link com.bc.net.util.QueryParametersConverter}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PercentCodecBenchmark {
+
+    @Param({"plainvalue_123", "A to Z & more=", "café naïve über", "/path/to/page.html?x="})
+    private String value;
+
+    @Param({"UTF-8", "ISO-8859-1"})
+    private String charsetName;
+
+    private Charset charset;
+
+    private String encoded;
+
+    private StringBuilder builder;
+
+    private ByteBuffer buffer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws UnsupportedEncodingException {
+        this.charset = Charset.forName(charsetName);
+        this.encoded = URLEncoder.encode(value, charsetName);
+        this.builder = new StringBuilder(256);
+        this.buffer = ByteBuffer.allocate(256);
+    }
+
+    @Benchmark
+    public String urlEncoder() throws UnsupportedEncodingException {
+        return URLEncoder.encode(value, charsetName);
+    }
+
+    @Benchmark
+    public String encode() {
+        return PercentCodec.encode(value, charset);
+    }
+
+    @Benchmark
+    public int encodeToBuilder() {
+        builder.setLength(0);
+        return PercentCodec.encode(value, charset, builder).length();
+    }
+
+    @Benchmark
+    public int encodeToBuffer() {
+        buffer.clear();
+        return PercentCodec.encode(value, charset, buffer).position();
+    }
+
+    @Benchmark
+    public String urlDecoder() throws UnsupportedEncodingException {
+        return URLDecoder.decode(encoded, charsetName);
+    }
+
+    @Benchmark
+    public String decode() {
+        return PercentCodec.decode(encoded, charset);
+    }
+}
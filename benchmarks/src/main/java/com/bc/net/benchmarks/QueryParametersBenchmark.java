@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.benchmarks;
+
+import com.bc.net.util.QueryParametersConverter;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link com.bc.net.util.QueryParametersConverter#toMap(java.lang.String, java.lang.String, boolean, java.lang.String)}
+ * and {@link com.bc.net.util.QueryParametersConverter#toQueryString(java.util.Map, boolean, java.lang.String)}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class QueryParametersBenchmark {
+
+    private static final String CHARSET = StandardCharsets.UTF_8.name();
+
+    @Param({"4", "32"})
+    private int paramCount;
+
+    @Param({"&", "&amp;"})
+    private String separator;
+
+    private QueryParametersConverter converter;
+
+    private Map<String, Object> params;
+
+    private String encodedQuery;
+
+    private String plainQuery;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.converter = new QueryParametersConverter(separator);
+        this.params = BenchmarkData.params(paramCount);
+        this.encodedQuery = converter.toQueryString(params, true, CHARSET);
+        this.plainQuery = converter.toQueryString(params, false, CHARSET);
+    }
+
+    @Benchmark
+    public String toQueryString() {
+        return converter.toQueryString(params, false, CHARSET);
+    }
+
+    @Benchmark
+    public String toQueryStringEncoded() {
+        return converter.toQueryString(params, true, CHARSET);
+    }
+
+    @Benchmark
+    public Map<String, String> toMap() {
+        return converter.toMap(plainQuery, separator, false, CHARSET);
+    }
+
+    @Benchmark
+    public Map<String, String> toMapDecoded() {
+        return converter.toMap(encodedQuery, separator, true, CHARSET);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.benchmarks;
+
+import com.bc.net.RequestBodyWriter;
+import com.bc.net.impl.RequestBodyWriterImpl;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@link com.bc.net.impl.RequestBodyWriterImpl#write(java.io.OutputStream)}
+ * for url-encoded and multipart bodies, written to a stream which discards
+ * its input.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RequestBodyWriterBenchmark {
+
+    @Param({"16", "256"})
+    private int paramCount;
+
+    @Param({"65536"})
+    private int fileSize;
+
+    private Map<String, Object> params;
+
+    private File file;
+
+    private OutputStream sink;
+
+    @Setup(Level.Trial)
+    public void setUp(Blackhole blackhole) throws IOException {
+        this.params = BenchmarkData.params(paramCount);
+        this.file = File.createTempFile("bcnet-benchmark", ".html");
+        Files.write(file.toPath(), BenchmarkData.html(fileSize));
+        this.sink = new OutputStream() {
+            @Override
+            public void write(int b) { blackhole.consume(b); }
+            @Override
+            public void write(byte [] b, int off, int len) { blackhole.consume(b); }
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.file.delete();
+    }
+
+    @Benchmark
+    public void urlEncoded() throws IOException {
+        final RequestBodyWriter<Object> writer = new RequestBodyWriterImpl<>();
+        writer.params(params, true);
+        writer.write(sink);
+    }
+
+    @Benchmark
+    public void multipartParams() throws IOException {
+        final RequestBodyWriter<Object> writer = new RequestBodyWriterImpl<>();
+        writer.multiPartParams(params);
+        writer.write(sink);
+    }
+
+    @Benchmark
+    public void multipartFile() throws IOException {
+        final RequestBodyWriter<Object> writer = new RequestBodyWriterImpl<>();
+        writer.multiPartParam("name", "value").file("file", file);
+        writer.write(sink);
+    }
+}
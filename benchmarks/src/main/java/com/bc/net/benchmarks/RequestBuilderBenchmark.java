@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.benchmarks;
+
+import com.bc.net.RequestBuilder;
+import com.bc.net.Response;
+import com.bc.net.impl.RequestBuilderImpl;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link com.bc.net.impl.RequestBuilderImpl#build()} and full exchanges,
+ * against a {@link LoopbackServer}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RequestBuilderBenchmark {
+
+    private LoopbackServer server;
+
+    private URL url;
+
+    private Map<String, Object> params;
+
+    private RequestBuilder builder;
+
+    private final byte [] buffer = new byte[8192];
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.server = new LoopbackServer(BenchmarkData.html(16 * 1024));
+        this.url = server.url("/page");
+        this.params = BenchmarkData.params(16);
+        this.builder = new RequestBuilderImpl();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.server.close();
+    }
+
+    /**
+     * No I/O, measures request population only
+     * @return The built connection
+     * @throws IOException Not expected
+     */
+    @Benchmark
+    public URLConnection buildGet() throws IOException {
+        return this.builder.url(url).build();
+    }
+
+    @Benchmark
+    public long buildPostForm() throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection)this.builder
+                .url(url).body().params(params, true).back().build();
+        try(InputStream in = connection.getInputStream()) {
+            return connection.getResponseCode() + this.drain(in);
+        }
+    }
+
+    @Benchmark
+    public long responseGet() throws IOException {
+        final Response response = this.builder.url(url).response();
+        try(InputStream in = response.getInputStream()) {
+            return response.getCode() + this.drain(in);
+        }
+    }
+
+    private long drain(InputStream in) throws IOException {
+        long total = 0;
+        int n;
+        while((n = in.read(buffer)) != -1) {
+            total += n;
+        }
+        return total;
+    }
+}
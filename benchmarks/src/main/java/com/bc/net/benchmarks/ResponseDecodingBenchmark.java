@@ -0,0 +1,136 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.benchmarks;
+
+import com.bc.net.impl.ResponseImpl;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding of compressed bodies by {@link com.bc.net.impl.ResponseImpl},
+ * from an in-memory connection so that only decoding is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ResponseDecodingBenchmark {
+
+    @Param({"identity", "gzip", "deflate"})
+    private String encoding;
+
+    @Param({"16384", "262144"})
+    private int size;
+
+    private URL url;
+
+    private byte [] body;
+
+    private final byte [] buffer = new byte[8192];
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.url = new URL("http://127.0.0.1/page");
+        final byte [] html = BenchmarkData.html(size);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        switch(encoding) {
+            case "gzip":
+                try(OutputStream gzip = new GZIPOutputStream(out)) {
+                    gzip.write(html);
+                }
+                break;
+            case "deflate":
+                // ResponseImpl expects raw deflate, without zlib wrapper
+                try(OutputStream deflate = new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION, true))) {
+                    deflate.write(html);
+                }
+                break;
+            default:
+                out.write(html);
+        }
+        this.body = out.toByteArray();
+    }
+
+    @Benchmark
+    public long decode() throws IOException {
+        final ResponseImpl response = new ResponseImpl(new StaticConnection(url, encoding, body));
+        long total = 0;
+        try(InputStream in = response.getInputStream()) {
+            int n;
+            while((n = in.read(buffer)) != -1) {
+                total += n;
+            }
+        }
+        return total;
+    }
+
+    private static final class StaticConnection extends URLConnection {
+
+        private final String encoding;
+
+        private final byte [] body;
+
+        private StaticConnection(URL url, String encoding, byte [] body) {
+            super(url);
+            this.encoding = encoding;
+            this.body = body;
+        }
+
+        @Override
+        public void connect() { 
+            this.connected = true;
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            if("content-encoding".equalsIgnoreCase(name)) {
+                return "identity".equals(encoding) ? null : encoding;
+            }else if("content-length".equalsIgnoreCase(name)) {
+                return String.valueOf(body.length);
+            }
+            return null;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(body);
+        }
+    }
+}
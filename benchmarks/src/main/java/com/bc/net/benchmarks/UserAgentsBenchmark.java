@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.benchmarks;
+
+import com.bc.net.util.UserAgents;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link com.bc.net.util.UserAgents#getAny(boolean)}, and with a URL as
+ * called by {@link com.bc.net.impl.RequestBuilderImpl#addRandomUserAgentFor(java.net.URL)}
+ * with a new instance per request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class UserAgentsBenchmark {
+
+    private UserAgents userAgents;
+
+    private URL url;
+
+    @Setup(Level.Trial)
+    public void setUp() throws MalformedURLException {
+        this.userAgents = new UserAgents();
+        this.url = new URL("http://www.looseboxes.com/idisc/feeds.jsp");
+    }
+
+    @Benchmark
+    public String getAny() {
+        return userAgents.getAny(false);
+    }
+
+    @Benchmark
+    public String getAnyMobile() {
+        return userAgents.getAny(true);
+    }
+
+    @Benchmark
+    public String getAnyForUrlNewInstance() {
+        return new UserAgents().getAny(url, false);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net;
+
+import java.net.URL;
+import java.util.stream.Stream;
+
+/**
+ * Fetches many URLs concurrently, within a global and a per-host limit
+ * of requests in flight.
+ * @see com.bc.net.impl.BatchFetcherImpl
+ */
+public interface BatchFetcher {
+
+    /**
+     * Receives the outcome of each URL in a batch, as soon as it is available.
+     * Methods of this interface may be called concurrently from many threads.
+     */
+    interface Listener {
+
+        /**
+         * @param url The URL fetched
+         * @param response To be closed by the listener. Closed by the 
+         * fetcher instead, if this method throws an exception.
+         */
+        void onResponse(URL url, Response response);
+
+        default void onFailure(URL url, Throwable t) { }
+    }
+
+    final class Result {
+
+        private final int succeeded;
+        private final int failed;
+
+        public Result(int succeeded, int failed) {
+            this.succeeded = succeeded;
+            this.failed = failed;
+        }
+
+        public int getTotal() {
+            return succeeded + failed;
+        }
+
+        public int getSucceeded() {
+            return succeeded;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{succeeded=" + succeeded + ", failed=" + failed + '}';
+        }
+    }
+
+    default Result fetch(Stream<URL> urls, Listener listener) throws InterruptedException {
+        return this.fetch(urls::iterator, listener);
+    }
+
+    /**
+     * Fetches each of the input URLs, blocking until all have completed.
+     * A failure is reported to the listener and does not abort the batch.
+     * <p>
+     * URLs are taken from the input as capacity becomes available, so the
+     * input may be a lazily produced sequence of any size.
+     * </p>
+     * @param urls The URLs to fetch
+     * @param listener Receives each response or failure
+     * @return The number of URLs which succeeded and failed
+     * @throws InterruptedException If the calling thread was interrupted
+     * while waiting. No more URLs are started, those in flight continue.
+     */
+    Result fetch(Iterable<URL> urls, Listener listener) throws InterruptedException;
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net;
+
+/**
+ * Immutable limits on the size of a response body. Once a limit is 
+ * exceeded, reading the body fails with a {@link ResponseTooLargeException},
+ * and the body is closed. A limit of -1 means no limit. Also limits how 
+ * much of an unread body is skipped when the response is closed.
+ * <p>
+ * The compression ratio is checked only once the decoded body exceeds
+ * {@link #RATIO_CHECK_MIN_BYTES}, as small bodies of repetitive text
+ * may legitimately compress very well.
+ * </p>
+ * Usage:
+ * <pre><code>
+ * final BodyLimits limits = BodyLimits.NONE
+ *         .withMaxDecodedBytes(16 * 1024 * 1024)
+ *         .withMaxRatio(100);
+ * </code></pre>
+ */
+public final class BodyLimits {
+
+    public static final long DEFAULT_MAX_DRAIN_BYTES = 64 * 1024;
+
+    public static final BodyLimits NONE = new BodyLimits(-1, -1, -1, DEFAULT_MAX_DRAIN_BYTES);
+
+    public static final long RATIO_CHECK_MIN_BYTES = 1024 * 1024;
+
+    private final long maxDecodedBytes;
+
+    private final long maxEncodedBytes;
+
+    private final int maxRatio;
+
+    private final long maxDrainBytes;
+
+    private BodyLimits(long maxDecodedBytes, long maxEncodedBytes, int maxRatio, long maxDrainBytes) {
+        if(maxDecodedBytes < -1 || maxEncodedBytes < -1 || maxRatio < -1 || maxRatio == 0) {
+            throw new IllegalArgumentException("Limits must be positive or -1, found: max decoded bytes: " + 
+                    maxDecodedBytes + ", max encoded bytes: " + maxEncodedBytes + ", max ratio: " + maxRatio);
+        }
+        if(maxDrainBytes < 0) {
+            throw new IllegalArgumentException("Max drain bytes must not be negative, found: " + maxDrainBytes);
+        }
+        this.maxDecodedBytes = maxDecodedBytes;
+        this.maxEncodedBytes = maxEncodedBytes;
+        this.maxRatio = maxRatio;
+        this.maxDrainBytes = maxDrainBytes;
+    }
+
+    /**
+     * @param maxDecodedBytes The maximum number of bytes of the body, after
+     * any content coding is decoded
+     * @return A copy of this instance with the specified limit
+     */
+    public BodyLimits withMaxDecodedBytes(long maxDecodedBytes) {
+        return new BodyLimits(maxDecodedBytes, maxEncodedBytes, maxRatio, maxDrainBytes);
+    }
+
+    /**
+     * @param maxEncodedBytes The maximum number of bytes received, before
+     * any content coding is decoded
+     * @return A copy of this instance with the specified limit
+     */
+    public BodyLimits withMaxEncodedBytes(long maxEncodedBytes) {
+        return new BodyLimits(maxDecodedBytes, maxEncodedBytes, maxRatio, maxDrainBytes);
+    }
+
+    /**
+     * @param maxRatio The maximum ratio of decoded to encoded bytes, a guard
+     * against decompression bombs
+     * @return A copy of this instance with the specified limit
+     */
+    public BodyLimits withMaxRatio(int maxRatio) {
+        return new BodyLimits(maxDecodedBytes, maxEncodedBytes, maxRatio, maxDrainBytes);
+    }
+
+    /**
+     * @param maxDrainBytes The maximum number of unread bytes skipped when 
+     * a response is closed, so that its connection may be kept alive. 
+     * Larger bodies are closed without being read to the end.
+     * @return A copy of this instance with the specified limit
+     */
+    public BodyLimits withMaxDrainBytes(long maxDrainBytes) {
+        return new BodyLimits(maxDecodedBytes, maxEncodedBytes, maxRatio, maxDrainBytes);
+    }
+
+    /**
+     * @return true if there is no limit on the size of the body. The drain
+     * limit is not considered.
+     */
+    public boolean isNone() {
+        return maxDecodedBytes == -1 && maxEncodedBytes == -1 && maxRatio == -1;
+    }
+
+    public long getMaxDecodedBytes() {
+        return maxDecodedBytes;
+    }
+
+    public long getMaxEncodedBytes() {
+        return maxEncodedBytes;
+    }
+
+    public int getMaxRatio() {
+        return maxRatio;
+    }
+
+    public long getMaxDrainBytes() {
+        return maxDrainBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "BodyLimits{maxDecodedBytes=" + maxDecodedBytes + ", maxEncodedBytes=" + 
+                maxEncodedBytes + ", maxRatio=" + maxRatio + ", maxDrainBytes=" + maxDrainBytes + '}';
+    }
+}
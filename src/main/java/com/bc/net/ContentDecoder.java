@@ -0,0 +1,36 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes a response body of one content coding, e.g gzip.
+ * @see com.bc.net.util.ContentDecoders
+ */
+@FunctionalInterface
+public interface ContentDecoder {
+
+    /**
+     * @param encoded The encoded body
+     * @return The decoded body. Closing it closes the input stream.
+     * @throws IOException If the stream could not be read, or is not 
+     * of the expected coding
+     */
+    InputStream decode(InputStream encoded) throws IOException;
+}
@@ -47,6 +47,19 @@ public interface CookieProcessor
         this.addCookiesToRequest(connection, cookies);
     }
 
+    /**
+     * A stateful processor keeps the cookies of the responses it loads,
+     * and adds them to later requests itself. A {@link RequestBuilder} then
+     * does not keep the cookies of responses, and passes only those added
+     * with {@link RequestBuilder#addCookies(java.util.Collection)} to
+     * {@link #addCookiesToRequest(java.net.URLConnection, java.util.Collection)}.
+     * @return true if this processor keeps cookies itself
+     * @see com.bc.net.cookies.CookieStoreProcessor
+     */
+    default boolean isStateful() {
+        return false;
+    }
+
     void addCookiesToRequest(URLConnection connection, Collection<String> cookies);
 
     List<String> loadCookiesFromResponse(URLConnection connection);
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net;
+
+import java.io.IOException;
+
+/**
+ * Intercepts each call to {@link RequestBuilder#response()}. Interceptors 
+ * are called in the order added, each around those added after it, and may 
+ * change the request, return a response without sending the request, send 
+ * the request more than once, or observe the response.
+ * <p>
+ * When no interceptor is added, none of this machinery is used.
+ * </p>
+ * Usage:
+ * <pre><code>
+ * final Interceptor timing = (chain) -&gt; {
+ *     final long tb4 = System.nanoTime();
+ *     final Response res = chain.proceed();
+ *     LOG.fine(() -&gt; chain.request().getUrl() + " took " + (System.nanoTime() - tb4) + "ns");
+ *     return res;
+ * };
+ * final RequestTemplate template = RequestTemplate.DEFAULT.withInterceptor(timing);
+ * </code></pre>
+ * Implementations are shared by all requests of a template, so should be 
+ * thread-safe.
+ */
+@FunctionalInterface
+public interface Interceptor {
+
+    /**
+     * @param chain The rest of the chain
+     * @return The response, usually that of {@link Chain#proceed()}
+     * @throws IOException 
+     */
+    Response intercept(Chain chain) throws IOException;
+
+    interface Chain {
+
+        /**
+         * @return The builder of the request. Changes made before calling
+         * {@link #proceed()} apply to the request sent. Note that changing
+         * a builder once it has been built starts a new request, clearing 
+         * the URL and headers.
+         */
+        RequestBuilder request();
+
+        /**
+         * Passes the request to the next interceptor, or sends it if there
+         * is none. May be called more than once, e.g to retry, in which case
+         * the request is built again each time. A response not returned 
+         * should be {@link Response#close() closed}.
+         * @return The response
+         * @throws IOException 
+         */
+        Response proceed() throws IOException;
+    }
+}
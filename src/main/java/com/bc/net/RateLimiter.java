@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net;
+
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate of requests. A request first reserves a permit, then 
+ * waits until the permit is due before being sent. Synchronous requests
+ * wait by blocking, asynchronous requests by being scheduled to connect
+ * once due.
+ * <p>
+ * Implementations are shared by all requests of a template, so must be
+ * thread-safe.
+ * </p>
+ * @see com.bc.net.impl.HostRateLimiter
+ */
+public interface RateLimiter {
+
+    /**
+     * Reserves a permit for a request to the input URL. Never blocks.
+     * @param url The URL of the request
+     * @return The nanoseconds to wait before sending the request, 0 if it 
+     * may be sent now
+     */
+    long reserve(URL url);
+
+    /**
+     * Called with the response code of each request sent, so that the rate
+     * may be adapted.
+     * @param url The URL of the request
+     * @param code The response code
+     * @param retryAfterMillis The value of any <tt>Retry-After</tt> header 
+     * for 429 and 503 responses, otherwise -1
+     */
+    default void onResponse(URL url, int code, long retryAfterMillis) { }
+
+    /**
+     * Reserves a permit, then blocks until it is due.
+     * @param url The URL of the request
+     * @throws InterruptedIOException If interrupted while waiting
+     */
+    default void acquire(URL url) throws InterruptedIOException {
+        final long nanos = this.reserve(url);
+        if(nanos <= 0) {
+            return;
+        }
+        try{
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            final InterruptedIOException ioe = new InterruptedIOException("Interrupted while waiting for rate limit");
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
+}
@@ -88,6 +88,14 @@ public interface RequestBodyWriter<T> {
     }
     
     void write(OutputStream out) throws UnsupportedEncodingException, IOException;
+    
+    /**
+     * @return The exact number of bytes {@link #write(java.io.OutputStream)}
+     * will write, or -1 if not known in advance
+     */
+    default long contentLength() {
+        return -1;
+    }
 
     String getCharset();
 
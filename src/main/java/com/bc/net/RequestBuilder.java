@@ -24,6 +24,8 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * @author Chinomso Bassey Ikwuagwu on Jun 7, 2018 7:12:14 PM
@@ -33,6 +35,42 @@ public interface RequestBuilder {
     RequestBuilder clearCookies();
         
     RequestBuilder cookieProcessor(CookieProcessor cookieProcessor);
+    
+    RequestBuilder transport(Transport transport);
+    
+    /**
+     * @param executor The executor used by {@link #responseAsync()}
+     * @return This instance
+     * @see com.bc.net.util.AsyncExecutors#getVirtualThreadPerTask() 
+     */
+    RequestBuilder executor(Executor executor);
+    
+    /**
+     * @param listener Receives the timings of each request made by this builder
+     * @return This instance
+     * @see RequestListener#NO_OP
+     */
+    RequestBuilder listener(RequestListener listener);
+    
+    /**
+     * @param limits The limits on the size of each response body
+     * @return This instance
+     * @see BodyLimits#NONE
+     */
+    RequestBuilder bodyLimits(BodyLimits limits);
+    
+    /**
+     * @param interceptor Added after any interceptors already added
+     * @return This instance
+     */
+    RequestBuilder interceptor(Interceptor interceptor);
+    
+    /**
+     * @param rateLimiter Limits the rate at which this request, and each 
+     * retry of it, is sent. <tt>null</tt> for no limit.
+     * @return This instance
+     */
+    RequestBuilder rateLimiter(RateLimiter rateLimiter);
         
     RequestBodyWriter<RequestBuilder> body();
     
@@ -50,6 +88,42 @@ public interface RequestBuilder {
     
     Response response() throws IOException;
     
+    default CompletableFuture<Response> responseAsync(URL url) {
+        return this.url(url).responseAsync(); 
+    }
+    
+    default CompletableFuture<Response> responseAsync() {
+        return this.responseAsync(this.getExecutor());
+    }
+    
+    /**
+     * The request is built on the calling thread, so that this builder 
+     * may be re-used as soon as this method returns. The returned future 
+     * completes when the response headers have been received.
+     * <p>
+     * Whether any thread is blocked while waiting for the response depends
+     * on the {@link Transport}. The {@link Transport#DEFAULT} engine blocks
+     * a thread of the input executor, and writes any request body on the
+     * calling thread.
+     * </p>
+     * <p>
+     * When {@link #interceptor(com.bc.net.Interceptor) interceptors} have 
+     * been added, the request is instead built, and the interceptors called,
+     * on the input executor, against a copy of this builder taken on the 
+     * calling thread. Interceptors see the copy as {@link Interceptor.Chain#request()}.
+     * </p>
+     * @param executor The executor on which any blocking work is done
+     * @return A future which completes with the response
+     */
+    CompletableFuture<Response> responseAsync(Executor executor);
+    
+    /**
+     * Builds the request, writing any body. No <tt>Accept-Encoding</tt> is 
+     * added, unless set by the caller, as the body of the connection is not 
+     * decoded. Use {@link #response()} for a decoded body.
+     * @return The connection
+     * @throws IOException 
+     */
     URLConnection build() throws IOException;
     
     RequestBuilder reset();
@@ -110,10 +184,32 @@ public interface RequestBuilder {
 
     CookieProcessor getCookieProcessor();
     
+    Transport getTransport();
+    
+    Executor getExecutor();
+    
+    RequestListener getListener();
+    
+    BodyLimits getBodyLimits();
+    
+    /**
+     * @return An unmodifiable list of the interceptors, in the order added
+     */
+    List<Interceptor> getInterceptors();
+    
+    /**
+     * @return The rate limiter, or <tt>null</tt> if none
+     */
+    RateLimiter getRateLimiter();
+    
     int getChunkedStreamingBuffer();
 
     int getConnectTimeout();
 
+    /**
+     * @return The raw cookies added, and those of responses unless the
+     * {@link CookieProcessor#isStateful() cookie processor is stateful}
+     */
     List<String> getCookies();
 
     int getFixedLengthStreamingBuffer();
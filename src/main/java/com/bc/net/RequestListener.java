@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net;
+
+import java.net.URL;
+import java.util.Objects;
+
+/**
+ * Receives the timings of each stage of a request. All durations are
+ * in nanoseconds.
+ * <p>
+ * When the listener is {@link #NO_OP}, the default, no timing is taken
+ * at all. Methods may be called from any thread, and should return quickly.
+ * </p>
+ * @see com.bc.net.metrics.HistogramRequestListener
+ * @see com.bc.net.metrics.JfrRequestListener
+ * @see com.bc.net.metrics.KeepAliveStats
+ */
+public interface RequestListener {
+
+    RequestListener NO_OP = new RequestListener() { };
+
+    /**
+     * Not called for engines which do not connect separately from
+     * sending the request, e.g {@link com.bc.net.impl.HttpClientTransport}.
+     * Also not called for asynchronous requests, for which the connect time
+     * is part of the time to the response headers.
+     * @param url The URL connected to
+     * @param nanos Time to resolve the host and connect, including any TLS handshake
+     */
+    default void onConnected(URL url, long nanos) { }
+
+    /**
+     * @param url The URL of the request
+     * @param bytes The number of bytes in the request body
+     * @param nanos Time to write the request body
+     */
+    default void onRequestWritten(URL url, long bytes, long nanos) { }
+
+    /**
+     * @param url The URL of the request
+     * @param code The response code, or -1 if not available
+     * @param nanos Time from the request being sent, to the response
+     * headers being received
+     */
+    default void onResponseHeaders(URL url, int code, long nanos) { }
+
+    /**
+     * Called once the response body has been read to the end, or closed.
+     * @param url The URL of the request
+     * @param bytes The number of bytes received, before decoding
+     * @param decodedBytes The number of bytes after decoding
+     * @param decodeNanos Time spent decoding, excluding time spent waiting
+     * for input
+     */
+    default void onBodyRead(URL url, long bytes, long decodedBytes, long decodeNanos) { }
+
+    /**
+     * Called once, when the response is {@link Response#close() closed}.
+     * @param url The URL of the request
+     * @param reusable true if the body was read or drained to the end, so
+     * that the connection may be kept alive
+     * @param drainedBytes The number of unread bytes skipped on close
+     */
+    default void onClosed(URL url, boolean reusable, long drainedBytes) { }
+
+    /**
+     * @param after The listener to notify after this one
+     * @return A listener which notifies this listener, then the input listener
+     */
+    default RequestListener andThen(RequestListener after) {
+        Objects.requireNonNull(after);
+        if(this == NO_OP) {
+            return after;
+        }
+        if(after == NO_OP) {
+            return this;
+        }
+        final RequestListener before = this;
+        return new RequestListener() {
+            @Override
+            public void onConnected(URL url, long nanos) {
+                before.onConnected(url, nanos);
+                after.onConnected(url, nanos);
+            }
+            @Override
+            public void onRequestWritten(URL url, long bytes, long nanos) {
+                before.onRequestWritten(url, bytes, nanos);
+                after.onRequestWritten(url, bytes, nanos);
+            }
+            @Override
+            public void onResponseHeaders(URL url, int code, long nanos) {
+                before.onResponseHeaders(url, code, nanos);
+                after.onResponseHeaders(url, code, nanos);
+            }
+            @Override
+            public void onBodyRead(URL url, long bytes, long decodedBytes, long decodeNanos) {
+                before.onBodyRead(url, bytes, decodedBytes, decodeNanos);
+                after.onBodyRead(url, bytes, decodedBytes, decodeNanos);
+            }
+            @Override
+            public void onClosed(URL url, boolean reusable, long drainedBytes) {
+                before.onClosed(url, reusable, drainedBytes);
+                after.onClosed(url, reusable, drainedBytes);
+            }
+        };
+    }
+}
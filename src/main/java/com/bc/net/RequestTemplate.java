@@ -0,0 +1,497 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net;
+
+import com.bc.net.impl.CookieProcessorImpl;
+import com.bc.net.impl.RequestBuilderImpl;
+import com.bc.net.impl.RetryInterceptor;
+import com.bc.net.util.AsyncExecutors;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+/**
+ * An immutable set of request settings, which may be shared by any number
+ * of threads. Each call to {@link #newRequest()} returns a fresh
+ * {@link RequestBuilder} populated with these settings.
+ * <p>
+ * The <tt>with*</tt> methods do not modify this instance, they return a copy
+ * with the specified setting changed.
+ * </p>
+ * <p>
+ * The {@link CookieProcessor} and {@link Transport} are shared by all
+ * requests created from a template, and should be thread-safe.
+ * </p>
+ * Usage:
+ * <pre><code>
+ * final RequestTemplate template = RequestTemplate.DEFAULT
+ *         .withConnectTimeout(10_000)
+ *         .withReadTimeout(30_000)
+ *         .withHeader("Accept", "text/html");
+ * // In each worker thread
+ * final Response res = template.newRequest(url).response();
+ * </code></pre>
+ */
+public final class RequestTemplate {
+
+    public static final RequestTemplate DEFAULT = new RequestTemplate();
+
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final int chunkedStreamingBuffer;
+    private final int fixedLengthStreamingBuffer;
+    private final boolean followRedirects;
+    private final boolean generateRandomUserAgent;
+    private final boolean mobileUserAgent;
+    private final String method;
+    private final String charset;
+    private final CookieProcessor cookieProcessor;
+    private final Transport transport;
+    private final Executor executor;
+    private final RequestListener listener;
+    private final BodyLimits bodyLimits;
+    private final List<Interceptor> interceptors;
+    private final RateLimiter rateLimiter;
+    private final Map<String, Object> headers;
+
+    private RequestTemplate() {
+        this.connectTimeout = -1;
+        this.readTimeout = -1;
+        this.chunkedStreamingBuffer = 0;
+        this.fixedLengthStreamingBuffer = 0;
+        this.followRedirects = true;
+        this.generateRandomUserAgent = true;
+        this.mobileUserAgent = false;
+        this.method = null;
+        this.charset = null;
+        this.cookieProcessor = new CookieProcessorImpl();
+        this.transport = Transport.DEFAULT;
+        this.executor = null;
+        this.listener = RequestListener.NO_OP;
+        this.bodyLimits = BodyLimits.NONE;
+        this.interceptors = Collections.emptyList();
+        this.rateLimiter = null;
+        this.headers = Collections.emptyMap();
+    }
+
+    private RequestTemplate(Copy copy) {
+        this.connectTimeout = copy.connectTimeout;
+        this.readTimeout = copy.readTimeout;
+        this.chunkedStreamingBuffer = copy.chunkedStreamingBuffer;
+        this.fixedLengthStreamingBuffer = copy.fixedLengthStreamingBuffer;
+        this.followRedirects = copy.followRedirects;
+        this.generateRandomUserAgent = copy.generateRandomUserAgent;
+        this.mobileUserAgent = copy.mobileUserAgent;
+        this.method = copy.method;
+        this.charset = copy.charset;
+        this.cookieProcessor = Objects.requireNonNull(copy.cookieProcessor);
+        this.transport = Objects.requireNonNull(copy.transport);
+        this.executor = copy.executor;
+        this.listener = Objects.requireNonNull(copy.listener);
+        this.bodyLimits = Objects.requireNonNull(copy.bodyLimits);
+        this.interceptors = copy.interceptors;
+        this.rateLimiter = copy.rateLimiter;
+        this.headers = copy.headers;
+    }
+
+    /**
+     * The settings of a template, changed by name before creating a new
+     * template, so that adding a setting does not touch every <tt>with*</tt> 
+     * method.
+     */
+    private static final class Copy {
+        private int connectTimeout;
+        private int readTimeout;
+        private int chunkedStreamingBuffer;
+        private int fixedLengthStreamingBuffer;
+        private boolean followRedirects;
+        private boolean generateRandomUserAgent;
+        private boolean mobileUserAgent;
+        private String method;
+        private String charset;
+        private CookieProcessor cookieProcessor;
+        private Transport transport;
+        private Executor executor;
+        private RequestListener listener;
+        private BodyLimits bodyLimits;
+        private List<Interceptor> interceptors;
+        private RateLimiter rateLimiter;
+        private Map<String, Object> headers;
+        private Copy(RequestTemplate source) {
+            this.connectTimeout = source.connectTimeout;
+            this.readTimeout = source.readTimeout;
+            this.chunkedStreamingBuffer = source.chunkedStreamingBuffer;
+            this.fixedLengthStreamingBuffer = source.fixedLengthStreamingBuffer;
+            this.followRedirects = source.followRedirects;
+            this.generateRandomUserAgent = source.generateRandomUserAgent;
+            this.mobileUserAgent = source.mobileUserAgent;
+            this.method = source.method;
+            this.charset = source.charset;
+            this.cookieProcessor = source.cookieProcessor;
+            this.transport = source.transport;
+            this.executor = source.executor;
+            this.listener = source.listener;
+            this.bodyLimits = source.bodyLimits;
+            this.interceptors = source.interceptors;
+            this.rateLimiter = source.rateLimiter;
+            this.headers = source.headers;
+        }
+        private RequestTemplate build() {
+            return new RequestTemplate(this);
+        }
+    }
+
+    /**
+     * @param builder The builder whose current settings will be copied
+     * @return A template having the settings of the input builder, excluding
+     * its URL, cookies and request body. The executor is copied only if one
+     * was set, and the charset only if other than the default UTF-8.
+     */
+    public static RequestTemplate from(RequestBuilder builder) {
+        final Copy copy = new Copy(DEFAULT);
+        copy.connectTimeout = builder.getConnectTimeout();
+        copy.readTimeout = builder.getReadTimeout();
+        copy.chunkedStreamingBuffer = builder.getChunkedStreamingBuffer();
+        copy.fixedLengthStreamingBuffer = builder.getFixedLengthStreamingBuffer();
+        copy.followRedirects = builder instanceof RequestBuilderImpl ? ((RequestBuilderImpl)builder).isFollowRedirects() : true;
+        copy.generateRandomUserAgent = builder.isGenerateRandomUserAgent();
+        copy.mobileUserAgent = builder.isMobileUserAgent();
+        copy.method = builder.getMethod();
+        copy.cookieProcessor = builder.getCookieProcessor();
+        copy.transport = builder.getTransport();
+        // Returned when none was set, so left for each request to look up
+        final Executor executor = builder.getExecutor();
+        copy.executor = executor == AsyncExecutors.getDefault() ? null : executor;
+        final String charset = builder.body().getCharset();
+        copy.charset = StandardCharsets.UTF_8.name().equalsIgnoreCase(charset) ? null : charset;
+        copy.listener = builder.getListener();
+        copy.bodyLimits = builder.getBodyLimits();
+        copy.interceptors = builder.getInterceptors();
+        copy.rateLimiter = builder.getRateLimiter();
+        copy.headers = copyOf(builder.getRequestProperties());
+        return copy.build();
+    }
+
+    /**
+     * @return A new request populated with the settings of this template
+     */
+    public RequestBuilder newRequest() {
+        return new RequestBuilderImpl(this);
+    }
+
+    public RequestBuilder newRequest(URL url) {
+        return this.newRequest().url(url);
+    }
+
+    /**
+     * Applies the settings of this template to the input builder.
+     * @param builder The builder to populate
+     * @return The input builder
+     */
+    public RequestBuilder applyTo(RequestBuilder builder) {
+        builder.connectTimeout(connectTimeout)
+                .readTimeout(readTimeout)
+                .chunkedStreamingBuffer(chunkedStreamingBuffer)
+                .fixedLengthStreamingBuffer(fixedLengthStreamingBuffer)
+                .followRedirects(followRedirects)
+                .randomUserAgent(generateRandomUserAgent)
+                .mobileUserAgent(mobileUserAgent)
+                .cookieProcessor(cookieProcessor)
+                .transport(transport)
+                .listener(listener)
+                .bodyLimits(bodyLimits)
+                .rateLimiter(rateLimiter);
+        for(Interceptor interceptor : interceptors) {
+            builder.interceptor(interceptor);
+        }
+        if(executor != null) {
+            builder.executor(executor);
+        }
+        if(method != null) {
+            builder.method(method);
+        }
+        if(charset != null) {
+            builder.charset(charset);
+        }
+        if(!headers.isEmpty()) {
+            builder.addAll(headers);
+        }
+        return builder;
+    }
+
+    public RequestTemplate withConnectTimeout(int connectTimeout) {
+        final Copy copy = new Copy(this);
+        copy.connectTimeout = connectTimeout;
+        return copy.build();
+    }
+
+    public RequestTemplate withReadTimeout(int readTimeout) {
+        final Copy copy = new Copy(this);
+        copy.readTimeout = readTimeout;
+        return copy.build();
+    }
+
+    public RequestTemplate withChunkedStreamingBuffer(int chunkedStreamingBuffer) {
+        final Copy copy = new Copy(this);
+        copy.chunkedStreamingBuffer = chunkedStreamingBuffer;
+        return copy.build();
+    }
+
+    public RequestTemplate withFixedLengthStreamingBuffer(int fixedLengthStreamingBuffer) {
+        final Copy copy = new Copy(this);
+        copy.fixedLengthStreamingBuffer = fixedLengthStreamingBuffer;
+        return copy.build();
+    }
+
+    public RequestTemplate withFollowRedirects(boolean followRedirects) {
+        final Copy copy = new Copy(this);
+        copy.followRedirects = followRedirects;
+        return copy.build();
+    }
+
+    public RequestTemplate withRandomUserAgent(boolean generateRandomUserAgent) {
+        final Copy copy = new Copy(this);
+        copy.generateRandomUserAgent = generateRandomUserAgent;
+        return copy.build();
+    }
+
+    public RequestTemplate withMobileUserAgent(boolean mobileUserAgent) {
+        final Copy copy = new Copy(this);
+        copy.mobileUserAgent = mobileUserAgent;
+        return copy.build();
+    }
+
+    public RequestTemplate withUserAgent(String userAgent) {
+        return this.withHeader("User-Agent", userAgent);
+    }
+
+    public RequestTemplate withMethod(String method) {
+        final Copy copy = new Copy(this);
+        copy.method = method;
+        return copy.build();
+    }
+
+    public RequestTemplate withCharset(String charset) {
+        final Copy copy = new Copy(this);
+        copy.charset = charset;
+        return copy.build();
+    }
+
+    public RequestTemplate withCookieProcessor(CookieProcessor cookieProcessor) {
+        final Copy copy = new Copy(this);
+        copy.cookieProcessor = cookieProcessor;
+        return copy.build();
+    }
+
+    public RequestTemplate withTransport(Transport transport) {
+        final Copy copy = new Copy(this);
+        copy.transport = transport;
+        return copy.build();
+    }
+
+    /**
+     * @param executor The executor used by {@link RequestBuilder#responseAsync()}
+     * @return A copy of this template using the input executor
+     */
+    public RequestTemplate withExecutor(Executor executor) {
+        final Copy copy = new Copy(this);
+        copy.executor = executor;
+        return copy.build();
+    }
+
+    /**
+     * @param listener Receives the timings of each request
+     * @return A copy of this template using the input listener
+     */
+    public RequestTemplate withListener(RequestListener listener) {
+        final Copy copy = new Copy(this);
+        copy.listener = listener;
+        return copy.build();
+    }
+
+    /**
+     * @param bodyLimits The limits on the size of each response body
+     * @return A copy of this template using the input limits
+     */
+    public RequestTemplate withBodyLimits(BodyLimits bodyLimits) {
+        final Copy copy = new Copy(this);
+        copy.bodyLimits = bodyLimits;
+        return copy.build();
+    }
+
+    /**
+     * @param interceptor Called around each request, after any interceptors 
+     * already added
+     * @return A copy of this template with the input interceptor added
+     * @see Interceptor
+     */
+    public RequestTemplate withInterceptor(Interceptor interceptor) {
+        final List<Interceptor> update = new ArrayList<>(interceptors);
+        update.add(Objects.requireNonNull(interceptor));
+        final Copy copy = new Copy(this);
+        copy.interceptors = Collections.unmodifiableList(update);
+        return copy.build();
+    }
+
+    /**
+     * @param policy The rules for retrying failed requests
+     * @return A copy of this template which retries requests, the retries
+     * wrapped by any interceptors already added
+     * @see com.bc.net.impl.RetryInterceptor
+     */
+    public RequestTemplate withRetryPolicy(RetryPolicy policy) {
+        return this.withInterceptor(new RetryInterceptor(policy));
+    }
+
+    /**
+     * @param rateLimiter Shared by all requests of the returned template,
+     * <tt>null</tt> for no limit
+     * @return A copy of this template using the input rate limiter
+     * @see com.bc.net.impl.HostRateLimiter
+     */
+    public RequestTemplate withRateLimiter(RateLimiter rateLimiter) {
+        final Copy copy = new Copy(this);
+        copy.rateLimiter = rateLimiter;
+        return copy.build();
+    }
+
+    /**
+     * Each asynchronous request will run on its own virtual thread, where
+     * supported by the JVM.
+     * @return A copy of this template using virtual threads
+     * @see com.bc.net.util.AsyncExecutors#getVirtualThreadPerTask() 
+     */
+    public RequestTemplate withVirtualThreads() {
+        return this.withExecutor(AsyncExecutors.getVirtualThreadPerTask());
+    }
+
+    public RequestTemplate withHeader(String name, Object value) {
+        final Map<String, Object> update = new LinkedHashMap<>(headers);
+        if(value == null) {
+            update.remove(name);
+        }else{
+            update.put(name, value);
+        }
+        return this.withHeaders(update);
+    }
+
+    public RequestTemplate withHeaders(Map<String, Object> headers) {
+        final Copy copy = new Copy(this);
+        copy.headers = copyOf(headers);
+        return copy.build();
+    }
+
+    private static Map<String, Object> copyOf(Map<String, Object> headers) {
+        return headers.isEmpty() ? Collections.emptyMap() :
+                Collections.unmodifiableMap(new LinkedHashMap<>(headers));
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public int getChunkedStreamingBuffer() {
+        return chunkedStreamingBuffer;
+    }
+
+    public int getFixedLengthStreamingBuffer() {
+        return fixedLengthStreamingBuffer;
+    }
+
+    public boolean isFollowRedirects() {
+        return followRedirects;
+    }
+
+    public boolean isGenerateRandomUserAgent() {
+        return generateRandomUserAgent;
+    }
+
+    public boolean isMobileUserAgent() {
+        return mobileUserAgent;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getCharset() {
+        return charset;
+    }
+
+    public CookieProcessor getCookieProcessor() {
+        return cookieProcessor;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * @return The executor for asynchronous requests, or <tt>null</tt> if
+     * the {@link com.bc.net.util.AsyncExecutors#getDefault() default} is used.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public RequestListener getListener() {
+        return listener;
+    }
+
+    public BodyLimits getBodyLimits() {
+        return bodyLimits;
+    }
+
+    /**
+     * @return The rate limiter, or <tt>null</tt> if none
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * @return An unmodifiable list of the interceptors, in the order called
+     */
+    public List<Interceptor> getInterceptors() {
+        return interceptors;
+    }
+
+    /**
+     * @return An unmodifiable view of the headers sent with each request
+     */
+    public Map<String, Object> getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "{connectTimeout=" + connectTimeout +
+                ", readTimeout=" + readTimeout + ", followRedirects=" + followRedirects +
+                ", randomUserAgent=" + generateRandomUserAgent + ", mobileUserAgent=" + mobileUserAgent +
+                ", method=" + method + ", transport=" + transport + ", headers=" + headers + '}';
+    }
+}
@@ -16,14 +16,29 @@
 
 package com.bc.net;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import com.bc.net.util.ResponseBodies;
 
 /**
+ * Responses should be closed once no longer required, so that their 
+ * connection may be kept alive and reused. Usage:
+ * <pre><code>
+ * try(Response res = builder.response()) {
+ *     final String body = res.bodyAsString();
+ * }
+ * </code></pre>
  * @author Chinomso Bassey Ikwuagwu on Jun 9, 2018 9:44:12 AM
  */
-public interface Response {
+public interface Response extends AutoCloseable {
 
     URLConnection getUrlConnection();
     
@@ -34,4 +49,90 @@ public interface Response {
     String getMessage();
     
     List<String> getCookies();
+    
+    /**
+     * @return The charset of the Content-Type header, or null if none or 
+     * not supported
+     */
+    default Charset getCharset() {
+        return ResponseBodies.charsetOf(this.getUrlConnection().getContentType());
+    }
+    
+    /**
+     * Reads the remaining bytes of the {@link #getInputStream() input stream},
+     * then closes the stream.
+     * @param limit The maximum number of bytes to read
+     * @return The body
+     * @throws IOException If the body could not be read, or exceeds the limit
+     */
+    default byte[] bodyAsBytes(int limit) throws IOException {
+        try(InputStream in = this.getInputStream()) {
+            return ResponseBodies.readBytes(in, this.getUrlConnection().getContentLengthLong(), limit);
+        }
+    }
+    
+    /**
+     * Same as {@link #bodyAsString(java.nio.charset.Charset)} with UTF-8 as 
+     * the charset used when none is declared.
+     * @return The body as text
+     * @throws IOException If the body could not be read
+     */
+    default String bodyAsString() throws IOException {
+        return this.bodyAsString(StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Reads the remaining bytes of the {@link #getInputStream() input stream}
+     * as text, then closes the stream. The charset is that of any byte order 
+     * mark, else that of the Content-Type header.
+     * @param defaultCharset The charset used when none is declared
+     * @return The body as text
+     * @throws IOException If the body could not be read
+     */
+    default String bodyAsString(Charset defaultCharset) throws IOException {
+        final Charset charset = this.getCharset();
+        try(InputStream in = this.getInputStream()) {
+            return ResponseBodies.readString(in, charset == null ? defaultCharset : charset, 
+                    this.getUrlConnection().getContentLengthLong());
+        }
+    }
+    
+    /**
+     * The charset is that of any byte order mark, else that of the 
+     * Content-Type header, else UTF-8.
+     * @return A reader of the {@link #getInputStream() input stream}, which
+     * closes the stream when closed.
+     * @throws IOException If the byte order mark could not be read
+     */
+    default Reader bodyAsReader() throws IOException {
+        final Charset charset = this.getCharset();
+        return ResponseBodies.newReader(this.getInputStream(), charset == null ? StandardCharsets.UTF_8 : charset);
+    }
+    
+    /**
+     * Closes the {@link #getInputStream() input stream}. Implementations 
+     * may first read the rest of the body, so that the connection is
+     * kept alive.
+     * @throws IOException 
+     */
+    @Override
+    default void close() throws IOException {
+        this.getInputStream().close();
+    }
+    
+    /**
+     * Reads the remaining bytes of the {@link #getInputStream() input stream}
+     * on the input executor, then closes the stream.
+     * @param executor The executor on which the body is read
+     * @return A future which completes with the body
+     */
+    default CompletableFuture<byte[]> readAllAsync(Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try(InputStream in = this.getInputStream()) {
+                return in.readAllBytes();
+            }catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
 }
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net;
+
+import java.io.IOException;
+
+/**
+ * Thrown when reading a response body which exceeds one of its 
+ * {@link BodyLimits}.
+ */
+public class ResponseTooLargeException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long limit;
+
+    public ResponseTooLargeException(String message, long limit) {
+        super(message);
+        this.limit = limit;
+    }
+
+    /**
+     * @return The limit which was exceeded
+     */
+    public long getLimit() {
+        return limit;
+    }
+}
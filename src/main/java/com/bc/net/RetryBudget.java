@@ -0,0 +1,120 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits retries to a fraction of requests, so that when a service fails,
+ * clients do not multiply its load by retrying. Each request deposits
+ * <tt>retryRatio</tt> of a token, up to <tt>maxTokens</tt>, and each retry
+ * withdraws a whole token. A retry is refused when there is no whole 
+ * token left.
+ * <p>
+ * The budget starts full, so that a burst of up to <tt>maxTokens</tt> 
+ * retries is allowed before any requests have been made. Instances are 
+ * thread-safe and lock-free, and are meant to be shared by all the requests 
+ * to a service.
+ * </p>
+ */
+public final class RetryBudget {
+
+    public static final RetryBudget UNLIMITED = new RetryBudget(1, Integer.MAX_VALUE / 1000);
+
+    /**
+     * Tokens are held in thousandths, so that fractions of a token may be 
+     * deposited
+     */
+    private static final long SCALE = 1000;
+
+    private final long deposit;
+
+    private final long maxBalance;
+
+    private final AtomicLong balance;
+
+    /**
+     * @param retryRatio The number of retries allowed per request, e.g 0.1 
+     * for one retry per 10 requests. Between 0 and 1.
+     * @param maxTokens The maximum number of retries which may be saved up
+     */
+    public RetryBudget(double retryRatio, int maxTokens) {
+        if(retryRatio < 0 || retryRatio > 1) {
+            throw new IllegalArgumentException("Retry ratio must be between 0 and 1, found: " + retryRatio);
+        }
+        if(maxTokens < 1) {
+            throw new IllegalArgumentException("Max tokens must be positive, found: " + maxTokens);
+        }
+        this.deposit = Math.round(retryRatio * SCALE);
+        this.maxBalance = maxTokens * SCALE;
+        this.balance = new AtomicLong(this.maxBalance);
+    }
+
+    /**
+     * Called once for each request, not for each attempt
+     */
+    public void onRequest() {
+        if(this == UNLIMITED) {
+            return;
+        }
+        long current;
+        do{
+            current = balance.get();
+            if(current >= maxBalance) {
+                return;
+            }
+        }while(!balance.compareAndSet(current, Math.min(maxBalance, current + deposit)));
+    }
+
+    /**
+     * @return true if a token was withdrawn and the retry may go ahead
+     */
+    public boolean tryAcquire() {
+        if(this == UNLIMITED) {
+            return true;
+        }
+        long current;
+        do{
+            current = balance.get();
+            if(current < SCALE) {
+                return false;
+            }
+        }while(!balance.compareAndSet(current, current - SCALE));
+        return true;
+    }
+
+    /**
+     * @return The number of tokens available, including any fraction
+     */
+    public double getTokens() {
+        return (double)balance.get() / SCALE;
+    }
+
+    public double getRetryRatio() {
+        return (double)deposit / SCALE;
+    }
+
+    public int getMaxTokens() {
+        return (int)(maxBalance / SCALE);
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "{tokens=" + this.getTokens() + 
+                ", retryRatio=" + this.getRetryRatio() + ", maxTokens=" + this.getMaxTokens() + '}';
+    }
+}
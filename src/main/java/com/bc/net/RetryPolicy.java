@@ -0,0 +1,277 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.MalformedURLException;
+import java.net.ProtocolException;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.net.ssl.SSLException;
+
+/**
+ * Immutable rules for retrying a request which failed with an exception
+ * or a retryable response code.
+ * <p>
+ * The delay before the n<sup>th</sup> retry is 
+ * <tt>min(maxDelay, initialDelay * multiplier<sup>n-1</sup>)</tt>, reduced
+ * by a random fraction of up to <tt>jitter</tt>, so that many clients failing 
+ * together do not retry together. For 429 and 503 responses, any 
+ * <tt>Retry-After</tt> header is used instead; when it asks for longer than 
+ * {@link #getMaxRetryAfterMillis()}, the response is returned as is.
+ * </p>
+ * <p>
+ * Only requests with an idempotent method (GET, HEAD, OPTIONS, TRACE, PUT, 
+ * DELETE) are retried, unless {@link #withRetryNonIdempotent(boolean)}
+ * is set. Any request is retried if it failed to connect, as it was then 
+ * never sent. Unknown hosts, malformed URLs and SSL failures are not retried.
+ * </p>
+ * <p>
+ * Each retry needs a token of the {@link RetryBudget}, which is shared by 
+ * all copies of a policy. The budget of {@link #DEFAULT} is shared by all 
+ * users of it; use {@link #withBudget(com.bc.net.RetryBudget)} for one of 
+ * your own.
+ * </p>
+ * Usage:
+ * <pre><code>
+ * final RequestTemplate template = RequestTemplate.DEFAULT.withRetryPolicy(
+ *         RetryPolicy.DEFAULT.withMaxAttempts(5).withBudget(new RetryBudget(0.1, 20)));
+ * </code></pre>
+ * @see com.bc.net.impl.RetryInterceptor
+ */
+public final class RetryPolicy {
+
+    private static final Set<String> IDEMPOTENT_METHODS = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList("GET", "HEAD", "OPTIONS", "TRACE", "PUT", "DELETE")));
+
+    public static final RetryPolicy DEFAULT = new RetryPolicy(3, 100, 10_000, 2.0, 0.5, 60_000, 
+            new int[]{429, 502, 503, 504}, false, new RetryBudget(0.1, 10));
+
+    private final int maxAttempts;
+
+    private final long initialDelayMillis;
+
+    private final long maxDelayMillis;
+
+    private final double multiplier;
+
+    private final double jitter;
+
+    private final long maxRetryAfterMillis;
+
+    private final int [] retryCodes;
+
+    private final boolean retryNonIdempotent;
+
+    private final RetryBudget budget;
+
+    private RetryPolicy(int maxAttempts, long initialDelayMillis, long maxDelayMillis, 
+            double multiplier, double jitter, long maxRetryAfterMillis, 
+            int [] retryCodes, boolean retryNonIdempotent, RetryBudget budget) {
+        if(maxAttempts < 1) {
+            throw new IllegalArgumentException("Max attempts must be positive, found: " + maxAttempts);
+        }
+        if(initialDelayMillis < 0 || maxDelayMillis < initialDelayMillis || multiplier < 1) {
+            throw new IllegalArgumentException("Invalid backoff, initial delay: " + initialDelayMillis + 
+                    ", max delay: " + maxDelayMillis + ", multiplier: " + multiplier);
+        }
+        if(jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("Jitter must be between 0 and 1, found: " + jitter);
+        }
+        if(maxRetryAfterMillis < 0) {
+            throw new IllegalArgumentException("Max Retry-After must not be negative, found: " + maxRetryAfterMillis);
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.multiplier = multiplier;
+        this.jitter = jitter;
+        this.maxRetryAfterMillis = maxRetryAfterMillis;
+        this.retryCodes = retryCodes;
+        this.retryNonIdempotent = retryNonIdempotent;
+        this.budget = Objects.requireNonNull(budget);
+    }
+
+    /**
+     * @param maxAttempts The maximum number of attempts, including the first.
+     * 1 disables retrying.
+     * @return A copy of this instance with the specified value
+     */
+    public RetryPolicy withMaxAttempts(int maxAttempts) {
+        return new RetryPolicy(maxAttempts, initialDelayMillis, maxDelayMillis, multiplier, 
+                jitter, maxRetryAfterMillis, retryCodes, retryNonIdempotent, budget);
+    }
+
+    /**
+     * @param initialDelayMillis The delay before the first retry
+     * @param maxDelayMillis The maximum delay before any retry
+     * @param multiplier The factor by which the delay grows on each retry
+     * @return A copy of this instance with the specified values
+     */
+    public RetryPolicy withBackoff(long initialDelayMillis, long maxDelayMillis, double multiplier) {
+        return new RetryPolicy(maxAttempts, initialDelayMillis, maxDelayMillis, multiplier, 
+                jitter, maxRetryAfterMillis, retryCodes, retryNonIdempotent, budget);
+    }
+
+    /**
+     * @param jitter The maximum fraction of each delay removed at random. 
+     * 0 for none, 1 for delays anywhere between 0 and the backoff.
+     * @return A copy of this instance with the specified value
+     */
+    public RetryPolicy withJitter(double jitter) {
+        return new RetryPolicy(maxAttempts, initialDelayMillis, maxDelayMillis, multiplier, 
+                jitter, maxRetryAfterMillis, retryCodes, retryNonIdempotent, budget);
+    }
+
+    /**
+     * @param maxRetryAfterMillis The longest <tt>Retry-After</tt> waited for
+     * @return A copy of this instance with the specified value
+     */
+    public RetryPolicy withMaxRetryAfterMillis(long maxRetryAfterMillis) {
+        return new RetryPolicy(maxAttempts, initialDelayMillis, maxDelayMillis, multiplier, 
+                jitter, maxRetryAfterMillis, retryCodes, retryNonIdempotent, budget);
+    }
+
+    /**
+     * @param codes The response codes to retry on. By default 429, 502, 503 and 504.
+     * @return A copy of this instance with the specified value
+     */
+    public RetryPolicy withRetryCodes(int... codes) {
+        return new RetryPolicy(maxAttempts, initialDelayMillis, maxDelayMillis, multiplier, 
+                jitter, maxRetryAfterMillis, codes.clone(), retryNonIdempotent, budget);
+    }
+
+    /**
+     * @param retryNonIdempotent true to also retry e.g POST requests, which
+     * may then be processed more than once
+     * @return A copy of this instance with the specified value
+     */
+    public RetryPolicy withRetryNonIdempotent(boolean retryNonIdempotent) {
+        return new RetryPolicy(maxAttempts, initialDelayMillis, maxDelayMillis, multiplier, 
+                jitter, maxRetryAfterMillis, retryCodes, retryNonIdempotent, budget);
+    }
+
+    /**
+     * @param budget The budget shared by all requests using the returned policy
+     * @return A copy of this instance with the specified value
+     */
+    public RetryPolicy withBudget(RetryBudget budget) {
+        return new RetryPolicy(maxAttempts, initialDelayMillis, maxDelayMillis, multiplier, 
+                jitter, maxRetryAfterMillis, retryCodes, retryNonIdempotent, budget);
+    }
+
+    /**
+     * @param method The request method
+     * @return true if a request with the input method may be retried
+     */
+    public boolean isRetryable(String method) {
+        return retryNonIdempotent || IDEMPOTENT_METHODS.contains(method.toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * @param method The request method
+     * @param e The exception the attempt failed with
+     * @return true if the request may be retried after the exception
+     */
+    public boolean isRetryable(String method, IOException e) {
+        if(e instanceof ConnectException) {
+            return true;
+        }
+        if(e instanceof UnknownHostException || e instanceof MalformedURLException ||
+                e instanceof ProtocolException || e instanceof SSLException ||
+                e instanceof ResponseTooLargeException) {
+            return false;
+        }
+        return this.isRetryable(method);
+    }
+
+    /**
+     * @param method The request method
+     * @param code The response code
+     * @return true if the request may be retried after the response code
+     */
+    public boolean isRetryable(String method, int code) {
+        for(int retryCode : retryCodes) {
+            if(retryCode == code) {
+                return this.isRetryable(method);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param retry The number of the retry, starting at 1
+     * @return The delay before the retry, with jitter
+     */
+    public long getDelayMillis(int retry) {
+        final double backoff = Math.min(maxDelayMillis, initialDelayMillis * Math.pow(multiplier, retry - 1));
+        final double fraction = jitter == 0 ? 0 : ThreadLocalRandom.current().nextDouble() * jitter;
+        return (long)(backoff * (1 - fraction));
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getInitialDelayMillis() {
+        return initialDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    public long getMaxRetryAfterMillis() {
+        return maxRetryAfterMillis;
+    }
+
+    public int[] getRetryCodes() {
+        return retryCodes.clone();
+    }
+
+    public boolean isRetryNonIdempotent() {
+        return retryNonIdempotent;
+    }
+
+    public RetryBudget getBudget() {
+        return budget;
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "{maxAttempts=" + maxAttempts + 
+                ", initialDelayMillis=" + initialDelayMillis + ", maxDelayMillis=" + maxDelayMillis + 
+                ", multiplier=" + multiplier + ", jitter=" + jitter + 
+                ", maxRetryAfterMillis=" + maxRetryAfterMillis + ", retryCodes=" + Arrays.toString(retryCodes) + 
+                ", retryNonIdempotent=" + retryNonIdempotent + ", budget=" + budget + '}';
+    }
+}
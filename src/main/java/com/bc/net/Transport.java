@@ -0,0 +1,71 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * The engine used by {@link RequestBuilder#build()} to open connections.
+ * <p>
+ * Implementations return a {@link java.net.URLConnection} so that the
+ * {@link CookieProcessor}, {@link RequestBodyWriter} and
+ * {@link com.bc.net.impl.ResponseImpl} work unchanged on top of any engine.
+ * </p>
+ * @see com.bc.net.impl.HttpClientTransport
+ */
+public interface Transport {
+
+    /**
+     * The legacy engine, simply calls {@link java.net.URL#openConnection()}
+     */
+    Transport DEFAULT = (url) -> url.openConnection();
+
+    URLConnection openConnection(URL url) throws IOException;
+
+    /**
+     * Connects the input connection without blocking the calling thread.
+     * <p>
+     * The default implementation blocks a thread of the input executor 
+     * until the response headers have been received. Engines which support 
+     * non-blocking exchanges should override this method.
+     * </p>
+     * @param connection A connection opened by this transport
+     * @param executor The executor on which any blocking work is done
+     * @return A future which completes with the input connection, when 
+     * its response headers are available.
+     */
+    default CompletableFuture<URLConnection> connectAsync(URLConnection connection, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try{
+                if(connection instanceof HttpURLConnection) {
+                    ((HttpURLConnection)connection).getResponseCode();
+                }else{
+                    connection.connect();
+                }
+                return connection;
+            }catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+}
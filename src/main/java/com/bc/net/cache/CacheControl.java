@@ -0,0 +1,171 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.cache;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The directives of one or more <tt>Cache-Control</tt> headers, of a 
+ * request or response. Durations are in seconds, -1 if not present.
+ */
+public final class CacheControl {
+
+    public static final CacheControl NONE = new CacheControl();
+
+    private boolean noStore;
+    private boolean noCache;
+    private boolean mustRevalidate;
+    private boolean isPublic;
+    private boolean isPrivate;
+    private boolean onlyIfCached;
+    private long maxAge = -1;
+    private long sMaxAge = -1;
+    private long maxStale = -1;
+    private long minFresh = -1;
+
+    private CacheControl() { }
+
+    public static CacheControl parse(String header) {
+        return header == null ? NONE : parse(Collections.singletonList(header));
+    }
+
+    /**
+     * @param headers The values of all <tt>Cache-Control</tt> headers
+     * @return The parsed directives. Unknown directives are ignored.
+     */
+    public static CacheControl parse(List<String> headers) {
+        if(headers == null || headers.isEmpty()) {
+            return NONE;
+        }
+        final CacheControl cc = new CacheControl();
+        for(String header : headers) {
+            if(header != null) {
+                cc.parseDirectives(header);
+            }
+        }
+        return cc;
+    }
+
+    private void parseDirectives(String header) {
+        int pos = 0;
+        final int len = header.length();
+        while(pos < len) {
+            int end = pos;
+            boolean quoted = false;
+            while(end < len && (quoted || header.charAt(end) != ',')) {
+                if(header.charAt(end) == '"') {
+                    quoted = !quoted;
+                }
+                ++end;
+            }
+            this.parseDirective(header.substring(pos, end).trim());
+            pos = end + 1;
+        }
+    }
+
+    private void parseDirective(String directive) {
+        if(directive.isEmpty()) {
+            return;
+        }
+        final int eq = directive.indexOf('=');
+        final String name = (eq == -1 ? directive : directive.substring(0, eq)).trim().toLowerCase(Locale.ROOT);
+        final String value = eq == -1 ? null : unquote(directive.substring(eq + 1).trim());
+        switch(name) {
+            case "no-store": this.noStore = true; break;
+            // no-cache="field" only restricts the named fields, treat as no-cache
+            case "no-cache": this.noCache = true; break;
+            case "must-revalidate":
+            case "proxy-revalidate": this.mustRevalidate = true; break;
+            case "public": this.isPublic = true; break;
+            case "private": this.isPrivate = true; break;
+            case "only-if-cached": this.onlyIfCached = true; break;
+            case "max-age": this.maxAge = seconds(value, -1); break;
+            case "s-maxage": this.sMaxAge = seconds(value, -1); break;
+            case "max-stale": this.maxStale = seconds(value, Integer.MAX_VALUE); break;
+            case "min-fresh": this.minFresh = seconds(value, -1); break;
+            default: break;
+        }
+    }
+
+    private static String unquote(String value) {
+        return value.length() > 1 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"' ?
+                value.substring(1, value.length() - 1) : value;
+    }
+
+    private static long seconds(String value, long outputIfNone) {
+        if(value == null || value.isEmpty()) {
+            return outputIfNone;
+        }
+        try{
+            final long seconds = Long.parseLong(value);
+            return seconds < 0 ? 0 : seconds;
+        }catch(NumberFormatException e) {
+            // Too large values are treated as 'forever', others as invalid
+            return value.chars().allMatch(Character::isDigit) ? Integer.MAX_VALUE : 0;
+        }
+    }
+
+    public boolean isNoStore() {
+        return noStore;
+    }
+
+    public boolean isNoCache() {
+        return noCache;
+    }
+
+    public boolean isMustRevalidate() {
+        return mustRevalidate;
+    }
+
+    public boolean isPublic() {
+        return isPublic;
+    }
+
+    public boolean isPrivate() {
+        return isPrivate;
+    }
+
+    public boolean isOnlyIfCached() {
+        return onlyIfCached;
+    }
+
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    public long getSMaxAge() {
+        return sMaxAge;
+    }
+
+    public long getMaxStale() {
+        return maxStale;
+    }
+
+    public long getMinFresh() {
+        return minFresh;
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "{noStore=" + noStore + ", noCache=" + noCache + 
+                ", mustRevalidate=" + mustRevalidate + ", public=" + isPublic + ", private=" + isPrivate + 
+                ", onlyIfCached=" + onlyIfCached + ", maxAge=" + maxAge + ", sMaxAge=" + sMaxAge + 
+                ", maxStale=" + maxStale + ", minFresh=" + minFresh + '}';
+    }
+}
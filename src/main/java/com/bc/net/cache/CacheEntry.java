@@ -0,0 +1,197 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * An immutable stored response. The body is stored as received, i.e 
+ * still in any <tt>Content-Encoding</tt>, so that it is decoded by 
+ * {@link com.bc.net.impl.ResponseImpl} like a response from the network.
+ */
+public final class CacheEntry {
+
+    /**
+     * The stored bytes of a response body. Each call to {@link #openStream()} 
+     * returns a new stream over the whole body.
+     */
+    public interface Body {
+
+        long getLength();
+
+        InputStream openStream() throws IOException;
+
+        static Body of(byte [] bytes) {
+            return new ByteArrayBody(bytes);
+        }
+    }
+
+    static final class ByteArrayBody implements Body {
+        private final byte [] bytes;
+        ByteArrayBody(byte [] bytes) {
+            this.bytes = Objects.requireNonNull(bytes);
+        }
+        @Override
+        public long getLength() { return bytes.length; }
+        @Override
+        public InputStream openStream() { return new ByteArrayInputStream(bytes); }
+        byte [] getBytes() { return bytes; }
+    }
+
+    private final String key;
+    private final int code;
+    private final String message;
+    private final Map<String, List<String>> headers;
+    private final Map<String, String> varyHeaders;
+    private final long requestMillis;
+    private final long responseMillis;
+    private final Body body;
+
+    /**
+     * @param key The key the entry is stored under, usually the normalized URL
+     * @param code The response code
+     * @param message The response message
+     * @param headers The response headers
+     * @param varyHeaders The values of the request headers named by the 
+     * <tt>Vary</tt> response header, keyed by lower case name. A null value 
+     * means the header was not sent.
+     * @param requestMillis When the request was sent
+     * @param responseMillis When the response headers were received
+     * @param body The response body
+     */
+    public CacheEntry(String key, int code, String message, 
+            Map<String, List<String>> headers, Map<String, String> varyHeaders,
+            long requestMillis, long responseMillis, Body body) {
+        this.key = Objects.requireNonNull(key);
+        this.code = code;
+        this.message = message;
+        this.headers = Collections.unmodifiableMap(new LinkedHashMap<>(headers));
+        this.varyHeaders = varyHeaders.isEmpty() ? Collections.emptyMap() :
+                Collections.unmodifiableMap(new LinkedHashMap<>(varyHeaders));
+        this.requestMillis = requestMillis;
+        this.responseMillis = responseMillis;
+        this.body = Objects.requireNonNull(body);
+    }
+
+    public CacheEntry withBody(Body body) {
+        return new CacheEntry(key, code, message, headers, varyHeaders, requestMillis, responseMillis, body);
+    }
+
+    /**
+     * @param update Headers from a <tt>304 Not Modified</tt> response, which 
+     * replace any stored headers of the same name
+     * @param requestMillis When the revalidation request was sent
+     * @param responseMillis When the revalidation response was received
+     * @return A copy of this entry, updated after a successful revalidation
+     */
+    public CacheEntry withRevalidation(Map<String, List<String>> update, 
+            long requestMillis, long responseMillis) {
+        final Map<String, List<String>> merged = new LinkedHashMap<>(this.headers);
+        update.forEach((name, values) -> {
+            if(name != null && !CachePolicy.isExcludedFromUpdate(name)) {
+                merged.keySet().removeIf((existing) -> existing.equalsIgnoreCase(name));
+                merged.put(name, values);
+            }
+        });
+        return new CacheEntry(key, code, message, merged, varyHeaders, requestMillis, responseMillis, body);
+    }
+
+    /**
+     * @param name The header name, case insensitive
+     * @return The last value of the header, or null if none
+     */
+    public String getHeader(String name) {
+        final List<String> values = this.getHeaders(name);
+        return values.isEmpty() ? null : values.get(values.size() - 1);
+    }
+
+    /**
+     * @param name The header name, case insensitive
+     * @return The values of the header, possibly empty
+     */
+    public List<String> getHeaders(String name) {
+        for(Map.Entry<String, List<String>> header : this.headers.entrySet()) {
+            if(name.equalsIgnoreCase(header.getKey())) {
+                return header.getValue();
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * @param requestHeaders The headers of a request for this entry
+     * @return true if the request headers named by <tt>Vary</tt> have the
+     * same values as those of the request which fetched this entry
+     */
+    public boolean matchesVary(Map<String, List<String>> requestHeaders) {
+        for(Map.Entry<String, String> vary : this.varyHeaders.entrySet()) {
+            if(!Objects.equals(vary.getValue(), CachePolicy.join(requestHeaders, vary.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return An unmodifiable view of the response headers, excluding the 
+     * status line
+     */
+    public Map<String, List<String>> getHeaders() {
+        return headers;
+    }
+
+    public Map<String, String> getVaryHeaders() {
+        return varyHeaders;
+    }
+
+    public long getRequestMillis() {
+        return requestMillis;
+    }
+
+    public long getResponseMillis() {
+        return responseMillis;
+    }
+
+    public Body getBody() {
+        return body;
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "{key=" + key + ", code=" + code + 
+                ", body=" + body.getLength() + " bytes, headers=" + headers + '}';
+    }
+}
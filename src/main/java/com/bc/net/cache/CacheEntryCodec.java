@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes everything but the body of a {@link CacheEntry}, 
+ * followed by the length of the body.
+ */
+final class CacheEntryCodec {
+
+    /**
+     * Body of the given length, starting where the head ended
+     */
+    @FunctionalInterface
+    interface BodyFactory {
+        CacheEntry.Body create(long length) throws IOException;
+    }
+
+    private static final int MAGIC = 0x62634345;
+
+    private static final int VERSION = 1;
+
+    private CacheEntryCodec() { }
+
+    static void writeHead(DataOutput out, CacheEntry entry) throws IOException {
+        writeKey(out, entry.getKey());
+        out.writeInt(entry.getCode());
+        writeString(out, entry.getMessage());
+        out.writeLong(entry.getRequestMillis());
+        out.writeLong(entry.getResponseMillis());
+        out.writeInt(entry.getHeaders().size());
+        for(Map.Entry<String, List<String>> header : entry.getHeaders().entrySet()) {
+            writeString(out, header.getKey());
+            out.writeInt(header.getValue().size());
+            for(String value : header.getValue()) {
+                writeString(out, value);
+            }
+        }
+        out.writeInt(entry.getVaryHeaders().size());
+        for(Map.Entry<String, String> vary : entry.getVaryHeaders().entrySet()) {
+            writeString(out, vary.getKey());
+            writeString(out, vary.getValue());
+        }
+        out.writeLong(entry.getBody().getLength());
+    }
+
+    static CacheEntry readHead(DataInput in, BodyFactory bodyFactory) throws IOException {
+        final String key = readKey(in);
+        final int code = in.readInt();
+        final String message = readString(in);
+        final long requestMillis = in.readLong();
+        final long responseMillis = in.readLong();
+        final int headerCount = in.readInt();
+        final Map<String, List<String>> headers = new LinkedHashMap<>(headerCount * 2);
+        for(int i = 0; i < headerCount; i++) {
+            final String name = readString(in);
+            final int valueCount = in.readInt();
+            final List<String> values = new ArrayList<>(valueCount);
+            for(int j = 0; j < valueCount; j++) {
+                values.add(readString(in));
+            }
+            headers.put(name, Collections.unmodifiableList(values));
+        }
+        final int varyCount = in.readInt();
+        final Map<String, String> varyHeaders = new LinkedHashMap<>(varyCount * 2);
+        for(int i = 0; i < varyCount; i++) {
+            varyHeaders.put(readString(in), readString(in));
+        }
+        final long bodyLength = in.readLong();
+        return new CacheEntry(key, code, message, headers, varyHeaders, 
+                requestMillis, responseMillis, bodyFactory.create(bodyLength));
+    }
+
+    /**
+     * Writes the start of a head, as far as the key
+     * @param out The output to write to
+     * @param key The key to write
+     * @throws IOException 
+     */
+    static void writeKey(DataOutput out, String key) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeString(out, key);
+    }
+
+    /**
+     * Reads only as far as the key
+     * @param in The head of an entry
+     * @return The key of the entry
+     * @throws IOException 
+     */
+    static String readKey(DataInput in) throws IOException {
+        if(in.readInt() != MAGIC) {
+            throw new IOException("Not a cache entry");
+        }
+        final int version = in.readInt();
+        if(version != VERSION) {
+            throw new IOException("Unsupported cache entry version: " + version);
+        }
+        return readString(in);
+    }
+
+    private static void writeString(DataOutput out, String s) throws IOException {
+        if(s == null) {
+            out.writeInt(-1);
+        }else{
+            final byte [] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        final int length = in.readInt();
+        if(length == -1) {
+            return null;
+        }
+        if(length < 0) {
+            throw new IOException("Invalid length: " + length);
+        }
+        final byte [] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.cache;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The rules of RFC 7234 for a private cache. All times are in milliseconds.
+ */
+final class CachePolicy {
+
+    /**
+     * Codes cacheable by default, RFC 7231 section 6.1, and RFC 7538
+     */
+    private static final Set<Integer> CACHEABLE_CODES = new HashSet<>(Arrays.asList(
+            200, 203, 204, 300, 301, 308, 404, 405, 410, 414, 501));
+
+    /**
+     * Not stored, as they apply to the connection, or should not be replayed
+     */
+    private static final Set<String> NOT_STORED = new HashSet<>(Arrays.asList(
+            "connection", "keep-alive", "proxy-authenticate", "proxy-authorization", 
+            "te", "trailer", "transfer-encoding", "upgrade", "set-cookie", "set-cookie2"));
+
+    /**
+     * Not updated from a 304 response, as they describe the stored body
+     */
+    private static final Set<String> NOT_UPDATED = new HashSet<>(Arrays.asList(
+            "content-length", "content-encoding", "content-range", "transfer-encoding"));
+
+    /**
+     * Heuristic freshness is capped, as the Last-Modified of a frequently 
+     * polled page says little about when it will change next
+     */
+    private static final long MAX_HEURISTIC_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private CachePolicy() { }
+
+    static boolean isCacheable(int code, Map<String, List<String>> responseHeaders, 
+            Map<String, List<String>> requestHeaders, CacheControl requestControl) {
+        if(!CACHEABLE_CODES.contains(code) || requestControl.isNoStore()) {
+            return false;
+        }
+        final CacheControl responseControl = CacheControl.parse(headers(responseHeaders, "Cache-Control"));
+        if(responseControl.isNoStore()) {
+            return false;
+        }
+        final String vary = join(responseHeaders, "Vary");
+        if(vary != null && vary.contains("*")) {
+            return false;
+        }
+        // RFC 7234 section 3.2
+        if(join(requestHeaders, "Authorization") != null && !responseControl.isPublic() &&
+                !responseControl.isMustRevalidate() && responseControl.getSMaxAge() == -1) {
+            return false;
+        }
+        // Worth storing only if it may be fresh, or can be revalidated
+        return responseControl.getMaxAge() != -1 || responseControl.isNoCache() ||
+                join(responseHeaders, "Expires") != null || join(responseHeaders, "ETag") != null ||
+                join(responseHeaders, "Last-Modified") != null;
+    }
+
+    static boolean isFresh(CacheEntry entry, CacheControl requestControl, long now) {
+        final CacheControl responseControl = CacheControl.parse(entry.getHeaders("Cache-Control"));
+        if(responseControl.isNoCache() || requestControl.isNoCache()) {
+            return false;
+        }
+        long lifetime = freshnessLifetime(entry, responseControl);
+        if(requestControl.getMaxAge() != -1) {
+            lifetime = Math.min(lifetime, TimeUnit.SECONDS.toMillis(requestControl.getMaxAge()));
+        }
+        long age = currentAge(entry, now);
+        if(requestControl.getMinFresh() != -1) {
+            age += TimeUnit.SECONDS.toMillis(requestControl.getMinFresh());
+        }
+        if(requestControl.getMaxStale() != -1 && !responseControl.isMustRevalidate()) {
+            lifetime = saturatedAdd(lifetime, TimeUnit.SECONDS.toMillis(requestControl.getMaxStale()));
+        }
+        return age < lifetime;
+    }
+
+    /**
+     * RFC 7234 section 4.2.1
+     */
+    static long freshnessLifetime(CacheEntry entry, CacheControl responseControl) {
+        if(responseControl.getMaxAge() != -1) {
+            return TimeUnit.SECONDS.toMillis(responseControl.getMaxAge());
+        }
+        final long date = dateOf(entry);
+        final String expires = entry.getHeader("Expires");
+        if(expires != null) {
+            // An invalid date, e.g 0, means already expired
+            final long expiresMillis = parseDate(expires);
+            return expiresMillis == -1 ? 0 : Math.max(0, expiresMillis - date);
+        }
+        final long lastModified = parseDate(entry.getHeader("Last-Modified"));
+        if(lastModified != -1 && lastModified < date) {
+            return Math.min(MAX_HEURISTIC_MILLIS, (date - lastModified) / 10);
+        }
+        return 0;
+    }
+
+    /**
+     * RFC 7234 section 4.2.3
+     */
+    static long currentAge(CacheEntry entry, long now) {
+        final long apparentAge = Math.max(0, entry.getResponseMillis() - dateOf(entry));
+        long ageValue = 0;
+        final String age = entry.getHeader("Age");
+        if(age != null) {
+            try{
+                ageValue = TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(age.trim())));
+            }catch(NumberFormatException ignored) { }
+        }
+        final long responseDelay = entry.getResponseMillis() - entry.getRequestMillis();
+        final long initialAge = Math.max(apparentAge, ageValue + responseDelay);
+        return initialAge + Math.max(0, now - entry.getResponseMillis());
+    }
+
+    private static long dateOf(CacheEntry entry) {
+        final long date = parseDate(entry.getHeader("Date"));
+        return date == -1 ? entry.getResponseMillis() : date;
+    }
+
+    /**
+     * @param value An HTTP date, in the preferred RFC 1123 format
+     * @return The date in milliseconds, or -1 if null or invalid
+     */
+    static long parseDate(String value) {
+        if(value == null) {
+            return -1;
+        }
+        try{
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        }catch(DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param responseHeaders The headers of a response to store
+     * @return The headers to store
+     */
+    static Map<String, List<String>> storedHeaders(Map<String, List<String>> responseHeaders) {
+        final Map<String, List<String>> output = new LinkedHashMap<>(responseHeaders.size());
+        responseHeaders.forEach((name, values) -> {
+            if(name != null && !NOT_STORED.contains(name.toLowerCase(Locale.ROOT))) {
+                output.put(name, values);
+            }
+        });
+        return output;
+    }
+
+    /**
+     * @return The values of the request headers named by the <tt>Vary</tt>
+     * response header, keyed by lower case name
+     */
+    static Map<String, String> varyHeaders(Map<String, List<String>> responseHeaders, 
+            Map<String, List<String>> requestHeaders) {
+        final String vary = join(responseHeaders, "Vary");
+        if(vary == null) {
+            return Collections.emptyMap();
+        }
+        final Map<String, String> output = new LinkedHashMap<>();
+        for(String name : vary.split(",")) {
+            final String trimmed = name.trim().toLowerCase(Locale.ROOT);
+            if(!trimmed.isEmpty()) {
+                output.put(trimmed, join(requestHeaders, trimmed));
+            }
+        }
+        return output;
+    }
+
+    static boolean isExcludedFromUpdate(String name) {
+        return NOT_STORED.contains(name.toLowerCase(Locale.ROOT)) || 
+                NOT_UPDATED.contains(name.toLowerCase(Locale.ROOT));
+    }
+
+    static List<String> headers(Map<String, List<String>> headers, String name) {
+        for(Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if(name.equalsIgnoreCase(header.getKey())) {
+                return header.getValue();
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return The values of the named header joined by commas, or null if 
+     * there are none
+     */
+    static String join(Map<String, List<String>> headers, String name) {
+        final List<String> values = headers(headers, name);
+        return values == null || values.isEmpty() ? null : String.join(",", values);
+    }
+
+    private static long saturatedAdd(long a, long b) {
+        final long sum = a + b;
+        return ((a ^ sum) & (b ^ sum)) < 0 ? Long.MAX_VALUE : sum;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.cache;
+
+/**
+ * Stores {@link CacheEntry cache entries} by key. Implementations must be 
+ * thread-safe. Failures to read or write are logged and treated as misses,
+ * so that a failing cache never fails a request.
+ * @see MemoryCacheStore
+ * @see DiskCacheStore
+ * @see SegmentedCacheStore
+ * @see TieredCacheStore
+ */
+public interface CacheStore {
+
+    /**
+     * @param key The key to look up
+     * @return The entry stored for the key, or null if none
+     */
+    CacheEntry get(String key);
+
+    /**
+     * Stores the input entry, replacing any entry stored for the same key.
+     * The store may decline to keep the entry, e.g if it is too large.
+     * @param key The key to store the entry under
+     * @param entry The entry to store
+     */
+    void put(String key, CacheEntry entry);
+
+    void remove(String key);
+
+    void clear();
+
+    /**
+     * @return The approximate number of bytes stored
+     */
+    long getSize();
+}
@@ -0,0 +1,465 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A connection opened by {@link CachingTransport}. Request settings are 
+ * collected until {@link #connect()}, which either serves the response 
+ * from the store, or opens a connection with the delegate transport and 
+ * copies the settings to it.
+ */
+public class CachingConnection extends HttpURLConnection {
+
+    private transient static final Logger LOG = Logger.getLogger(CachingConnection.class.getName());
+
+    private static final CacheEntry.Body EMPTY_BODY = CacheEntry.Body.of(new byte[0]);
+
+    private final CachingTransport transport;
+
+    private final String key;
+
+    /**
+     * Null when served from the store
+     */
+    private HttpURLConnection delegate;
+
+    /**
+     * Not null when served from the store
+     */
+    private CacheEntry cached;
+
+    /**
+     * The entry to store, once the body of the delegate has been read
+     */
+    private CacheEntry pending;
+
+    private List<Map.Entry<String, String>> headerList;
+
+    CachingConnection(URL url, CachingTransport transport) {
+        super(url);
+        this.transport = transport;
+        this.key = CachingTransport.keyOf(url);
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if(this.connected) {
+            return;
+        }
+
+        final Map<String, List<String>> requestHeaders = this.getRequestProperties();
+        final CacheStore store = this.transport.getStore();
+
+        if(!"GET".equals(this.method) || this.doOutput) {
+            if(!"HEAD".equals(this.method) && !"OPTIONS".equals(this.method) && !"TRACE".equals(this.method)) {
+                // Unsafe methods invalidate, RFC 7234 section 4.4
+                store.remove(this.key);
+            }
+            // Not connected here, as some engines send the whole request on connect
+            this.openDelegate(requestHeaders);
+            this.connected = true;
+            return;
+        }
+
+        final CacheControl requestControl = requestControlOf(requestHeaders);
+
+        CacheEntry entry = requestControl.isNoStore() ? null : store.get(this.key);
+        if(entry != null && !entry.matchesVary(requestHeaders)) {
+            entry = null;
+        }
+
+        final long now = System.currentTimeMillis();
+        if(entry != null && CachePolicy.isFresh(entry, requestControl, now)) {
+            LOG.finer(() -> "Fresh in cache: " + this.key);
+            this.serve(entry);
+            return;
+        }
+
+        if(requestControl.isOnlyIfCached()) {
+            // RFC 7234 section 5.2.1.7
+            this.serve(new CacheEntry(this.key, HTTP_GATEWAY_TIMEOUT, "Gateway Timeout", 
+                    Collections.emptyMap(), Collections.emptyMap(), now, now, EMPTY_BODY));
+            return;
+        }
+
+        final HttpURLConnection conn = this.openDelegate(requestHeaders);
+        final boolean conditional = entry != null && addValidators(conn, entry, requestHeaders);
+
+        final long requestMillis = System.currentTimeMillis();
+        final int code = conn.getResponseCode();
+        final long responseMillis = System.currentTimeMillis();
+        this.connected = true;
+
+        final Map<String, List<String>> responseHeaders = conn.getHeaderFields();
+
+        if(conditional && code == HTTP_NOT_MODIFIED) {
+            LOG.finer(() -> "Revalidated: " + this.key);
+            final CacheEntry updated = entry.withRevalidation(responseHeaders, requestMillis, responseMillis);
+            store.put(this.key, updated);
+            discard(conn);
+            this.delegate = null;
+            this.serve(updated);
+            return;
+        }
+
+        if(CachePolicy.isCacheable(code, responseHeaders, requestHeaders, requestControl) &&
+                conn.getContentLengthLong() <= this.transport.getMaxEntrySize()) {
+            this.pending = new CacheEntry(this.key, code, conn.getResponseMessage(), 
+                    CachePolicy.storedHeaders(responseHeaders), 
+                    CachePolicy.varyHeaders(responseHeaders, requestHeaders),
+                    requestMillis, responseMillis, EMPTY_BODY);
+        }else if(entry != null && code < HTTP_INTERNAL_ERROR) {
+            // Replaced by a response we may not store
+            store.remove(this.key);
+        }
+    }
+
+    private HttpURLConnection openDelegate(Map<String, List<String>> requestHeaders) throws IOException {
+        final URLConnection opened = this.transport.getDelegate().openConnection(this.url);
+        if(!(opened instanceof HttpURLConnection)) {
+            throw new IOException("Expected an HTTP connection, found: " + opened);
+        }
+        final HttpURLConnection conn = (HttpURLConnection)opened;
+        conn.setRequestMethod(this.method);
+        conn.setDoInput(this.doInput);
+        conn.setDoOutput(this.doOutput);
+        conn.setInstanceFollowRedirects(this.instanceFollowRedirects);
+        conn.setConnectTimeout(this.getConnectTimeout());
+        conn.setReadTimeout(this.getReadTimeout());
+        conn.setUseCaches(this.useCaches);
+        conn.setAllowUserInteraction(this.allowUserInteraction);
+        if(this.ifModifiedSince != 0) {
+            conn.setIfModifiedSince(this.ifModifiedSince);
+        }
+        if(this.fixedContentLengthLong != -1) {
+            conn.setFixedLengthStreamingMode(this.fixedContentLengthLong);
+        }else if(this.fixedContentLength != -1) {
+            conn.setFixedLengthStreamingMode(this.fixedContentLength);
+        }else if(this.chunkLength != -1) {
+            conn.setChunkedStreamingMode(this.chunkLength);
+        }
+        requestHeaders.forEach((name, values) -> {
+            if(name != null) {
+                for(String value : values) {
+                    conn.addRequestProperty(name, value);
+                }
+            }
+        });
+        this.delegate = conn;
+        return conn;
+    }
+
+    /**
+     * @return false if there is nothing to validate with, or the caller 
+     * has set validators of their own, in which case a 304 is theirs to handle
+     */
+    private static boolean addValidators(HttpURLConnection conn, CacheEntry entry, 
+            Map<String, List<String>> requestHeaders) {
+        if(CachePolicy.join(requestHeaders, "If-None-Match") != null || 
+                CachePolicy.join(requestHeaders, "If-Modified-Since") != null) {
+            return false;
+        }
+        final String etag = entry.getHeader("ETag");
+        if(etag != null) {
+            conn.setRequestProperty("If-None-Match", etag);
+        }
+        final String lastModified = entry.getHeader("Last-Modified");
+        if(lastModified != null) {
+            conn.setRequestProperty("If-Modified-Since", lastModified);
+        }
+        return etag != null || lastModified != null;
+    }
+
+    private static CacheControl requestControlOf(Map<String, List<String>> requestHeaders) {
+        final List<String> values = new ArrayList<>(CachePolicy.headers(requestHeaders, "Cache-Control"));
+        // RFC 7234 section 5.4
+        if(values.isEmpty() && "no-cache".equalsIgnoreCase(CachePolicy.join(requestHeaders, "Pragma"))) {
+            values.add("no-cache");
+        }
+        return CacheControl.parse(values);
+    }
+
+    private void serve(CacheEntry entry) {
+        this.cached = entry;
+        this.responseCode = entry.getCode();
+        this.responseMessage = entry.getMessage();
+        this.connected = true;
+    }
+
+    private static void discard(HttpURLConnection conn) {
+        try(InputStream in = conn.getInputStream()) {
+            while(in.read() != -1) { }
+        }catch(IOException e) {
+            LOG.log(Level.FINER, "Failed to discard 304 body", e);
+        }
+    }
+
+    /**
+     * @return The input stream, which stores the response once read to the end
+     */
+    private InputStream capture(InputStream in) {
+        final CacheEntry head = this.pending;
+        if(head == null || in == null) {
+            return in;
+        }
+        this.pending = null;
+        final long length = this.delegate.getContentLengthLong();
+        final long max = this.transport.getMaxEntrySize();
+        final CacheStore store = this.transport.getStore();
+        return new FilterInputStream(in) {
+            private ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+                    length > 0 ? (int)Math.min(length, max) : 8192);
+            @Override
+            public int read() throws IOException {
+                final int b = super.read();
+                if(b == -1) {
+                    this.complete();
+                }else if(this.buffer != null) {
+                    this.buffer.write(b);
+                    this.checkSize();
+                }
+                return b;
+            }
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                final int n = super.read(b, off, len);
+                if(n == -1) {
+                    this.complete();
+                }else if(this.buffer != null) {
+                    this.buffer.write(b, off, n);
+                    this.checkSize();
+                }
+                return n;
+            }
+            @Override
+            public long skip(long n) throws IOException {
+                // Skipped bytes are not seen, so the body can not be stored
+                this.buffer = null;
+                return super.skip(n);
+            }
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+            @Override
+            public void close() throws IOException {
+                try{
+                    // Decoders such as GZIPInputStream stop at the end of 
+                    // their data, without reading to the end of the body
+                    if(this.buffer != null) {
+                        final byte [] discard = new byte[8192];
+                        while(this.buffer != null && this.read(discard, 0, discard.length) != -1) { }
+                    }
+                }finally{
+                    super.close();
+                }
+            }
+            private void checkSize() {
+                if(this.buffer.size() > max) {
+                    LOG.finer(() -> "Too large to cache: " + key);
+                    this.buffer = null;
+                }else if(this.buffer.size() == length) {
+                    this.complete();
+                }
+            }
+            private void complete() {
+                if(this.buffer != null) {
+                    final byte [] body = this.buffer.toByteArray();
+                    this.buffer = null;
+                    store.put(key, head.withBody(CacheEntry.Body.of(body)));
+                }
+            }
+        };
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        this.connect();
+        if(this.delegate == null) {
+            throw new ProtocolException("Response served from cache, can not write to: " + this.url);
+        }
+        return this.delegate.getOutputStream();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        this.connect();
+        if(this.cached != null) {
+            final int code = this.cached.getCode();
+            if(code == HTTP_NOT_FOUND || code == HTTP_GONE) {
+                throw new FileNotFoundException(this.url.toString());
+            }else if(code >= HTTP_BAD_REQUEST) {
+                throw new IOException("Server returned HTTP response code: " + code + " for URL: " + this.url);
+            }
+            return this.cached.getBody().openStream();
+        }
+        return this.capture(this.delegate.getInputStream());
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        if(!this.connected) {
+            return null;
+        }
+        if(this.cached != null) {
+            if(this.cached.getCode() < HTTP_BAD_REQUEST) {
+                return null;
+            }
+            try{
+                return this.cached.getBody().openStream();
+            }catch(IOException e) {
+                LOG.log(Level.WARNING, "Failed to open cached body of: " + this.key, e);
+                return null;
+            }
+        }
+        return this.capture(this.delegate.getErrorStream());
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        this.connect();
+        return this.cached != null ? this.cached.getCode() : this.delegate.getResponseCode();
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        this.connect();
+        return this.cached != null ? this.cached.getMessage() : this.delegate.getResponseMessage();
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        if(!this.isConnectedQuietly() || name == null) {
+            return null;
+        }
+        return this.cached != null ? this.cached.getHeader(name) : this.delegate.getHeaderField(name);
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        if(!this.isConnectedQuietly()) {
+            return Collections.emptyMap();
+        }
+        if(this.cached == null) {
+            return this.delegate.getHeaderFields();
+        }
+        final Map<String, List<String>> fields = new LinkedHashMap<>();
+        fields.put(null, Collections.singletonList(this.getStatusLine()));
+        fields.putAll(this.cached.getHeaders());
+        return Collections.unmodifiableMap(fields);
+    }
+
+    @Override
+    public String getHeaderFieldKey(int n) {
+        if(!this.isConnectedQuietly()) {
+            return null;
+        }
+        if(this.cached == null) {
+            return this.delegate.getHeaderFieldKey(n);
+        }
+        final Map.Entry<String, String> entry = this.getHeaderEntry(n);
+        return entry == null ? null : entry.getKey();
+    }
+
+    @Override
+    public String getHeaderField(int n) {
+        if(!this.isConnectedQuietly()) {
+            return null;
+        }
+        if(this.cached == null) {
+            return this.delegate.getHeaderField(n);
+        }
+        final Map.Entry<String, String> entry = this.getHeaderEntry(n);
+        return entry == null ? null : entry.getValue();
+    }
+
+    private Map.Entry<String, String> getHeaderEntry(int n) {
+        if(this.headerList == null) {
+            final List<Map.Entry<String, String>> list = new ArrayList<>();
+            list.add(new AbstractMap.SimpleImmutableEntry<>(null, this.getStatusLine()));
+            this.cached.getHeaders().forEach((k, values) -> {
+                for(String v : values) {
+                    list.add(new AbstractMap.SimpleImmutableEntry<>(k, v));
+                }
+            });
+            this.headerList = list;
+        }
+        return n < 0 || n >= this.headerList.size() ? null : this.headerList.get(n);
+    }
+
+    private String getStatusLine() {
+        return "HTTP/1.1 " + this.cached.getCode() + 
+                (this.cached.getMessage() == null ? "" : ' ' + this.cached.getMessage());
+    }
+
+    private boolean isConnectedQuietly() {
+        try{
+            this.connect();
+            return true;
+        }catch(IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public URL getURL() {
+        return this.delegate == null ? this.url : this.delegate.getURL();
+    }
+
+    @Override
+    public void disconnect() {
+        if(this.delegate != null) {
+            this.delegate.disconnect();
+        }
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return this.delegate != null && this.delegate.usingProxy();
+    }
+
+    /**
+     * @return true if the response was served from the store, including 
+     * after a successful revalidation
+     */
+    public boolean isFromCache() {
+        return this.cached != null;
+    }
+
+    public String getKey() {
+        return key;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.cache;
+
+import com.bc.net.Transport;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * A {@link Transport} which serves responses from a {@link CacheStore}
+ * where allowed by RFC 7234, and otherwise uses the delegate transport.
+ * Usage:
+ * <pre><code>
+ * final CacheStore store = new TieredCacheStore(
+ *         new MemoryCacheStore(64 * 1024 * 1024), 
+ *         new DiskCacheStore(Paths.get("cache"), 1024 * 1024 * 1024));
+ * final RequestTemplate template = RequestTemplate.DEFAULT
+ *         .withTransport(new CachingTransport(store));
+ * </code></pre>
+ * <p>
+ * Only <tt>GET</tt> requests without a body are served from the store. 
+ * Stale entries with an <tt>ETag</tt> or <tt>Last-Modified</tt> header
+ * are revalidated, and on <tt>304 Not Modified</tt> the stored body is 
+ * served. Other methods remove any entry for their URL. A response is 
+ * stored once its body has been read to the end.
+ * </p>
+ * When redirects are followed, the final response is stored under the
+ * requested URL.
+ * @see CachingConnection
+ */
+public class CachingTransport implements Transport {
+
+    public static final long DEFAULT_MAX_ENTRY_SIZE = 8 * 1024 * 1024;
+
+    private final Transport delegate;
+
+    private final CacheStore store;
+
+    private final long maxEntrySize;
+
+    public CachingTransport(CacheStore store) {
+        this(Transport.DEFAULT, store);
+    }
+
+    public CachingTransport(Transport delegate, CacheStore store) {
+        this(delegate, store, DEFAULT_MAX_ENTRY_SIZE);
+    }
+
+    /**
+     * @param delegate The transport used for requests not served from the store
+     * @param store Where responses are stored
+     * @param maxEntrySize Responses with larger bodies are not stored
+     */
+    public CachingTransport(Transport delegate, CacheStore store, long maxEntrySize) {
+        this.delegate = Objects.requireNonNull(delegate);
+        this.store = Objects.requireNonNull(store);
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    @Override
+    public URLConnection openConnection(URL url) throws IOException {
+        final String protocol = url.getProtocol();
+        if("http".equalsIgnoreCase(protocol) || "https".equalsIgnoreCase(protocol)) {
+            return new CachingConnection(url, this);
+        }else{
+            return this.delegate.openConnection(url);
+        }
+    }
+
+    /**
+     * @param url The URL to return a key for
+     * @return The URL with scheme and host in lower case, without any 
+     * default port, user info or fragment, and with an empty path as <tt>/</tt>
+     */
+    public static String keyOf(URL url) {
+        final StringBuilder key = new StringBuilder(url.toString().length());
+        key.append(url.getProtocol().toLowerCase(Locale.ROOT)).append("://");
+        key.append(url.getHost().toLowerCase(Locale.ROOT));
+        if(url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+            key.append(':').append(url.getPort());
+        }
+        key.append(url.getPath().isEmpty() ? "/" : url.getPath());
+        if(url.getQuery() != null) {
+            key.append('?').append(url.getQuery());
+        }
+        return key.toString();
+    }
+
+    public Transport getDelegate() {
+        return delegate;
+    }
+
+    public CacheStore getStore() {
+        return store;
+    }
+
+    public long getMaxEntrySize() {
+        return maxEntrySize;
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.cache;
+
+import com.bc.net.util.ByteArrayPool;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stores each entry in its own file, named by a hash of its key. Files are
+ * written to a temporary file and then moved into place, so readers never
+ * see a partly written entry. Bodies are streamed from the file.
+ * <p>
+ * Once the total size exceeds the maximum, the least recently used files 
+ * are deleted until the total is below 90% of the maximum.
+ * </p>
+ */
+public class DiskCacheStore implements CacheStore {
+
+    private transient static final Logger LOG = Logger.getLogger(DiskCacheStore.class.getName());
+
+    private static final String SUFFIX = ".cache";
+
+    private final Path directory;
+
+    private final long maxSize;
+
+    private final AtomicLong size;
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    /**
+     * @param directory The directory to store entries in, created if need be.
+     * Entries already in the directory are kept.
+     * @param maxSize The maximum total size of the stored entries, in bytes
+     * @throws IOException If the directory could not be created or read
+     */
+    public DiskCacheStore(Path directory, long maxSize) throws IOException {
+        if(maxSize < 1) {
+            throw new IllegalArgumentException("Max size must be positive, found: " + maxSize);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.maxSize = maxSize;
+        long total = 0;
+        for(Path file : this.listFiles()) {
+            total += sizeOf(file);
+        }
+        this.size = new AtomicLong(total);
+    }
+
+    @Override
+    public CacheEntry get(String key) {
+        final Path file = this.fileFor(key);
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            final long fileSize = Files.size(file);
+            final CacheEntry entry = CacheEntryCodec.readHead(in, 
+                    (length) -> new FileBody(file, fileSize - length, length));
+            if(!key.equals(entry.getKey())) {
+                return null;
+            }
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return entry;
+        }catch(NoSuchFileException e) {
+            return null;
+        }catch(IOException e) {
+            LOG.log(Level.WARNING, "Failed to read cache entry: " + file, e);
+            this.remove(key);
+            return null;
+        }
+    }
+
+    @Override
+    public void put(String key, CacheEntry entry) {
+        final Path file = this.fileFor(key);
+        Path temp = null;
+        try{
+            temp = Files.createTempFile(this.directory, "put", ".tmp");
+            try(OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp));
+                    InputStream body = entry.getBody().openStream()) {
+                final DataOutputStream data = new DataOutputStream(out);
+                CacheEntryCodec.writeHead(data, entry);
+                data.flush();
+                ByteArrayPool.getDefault().copy(body, out);
+            }
+            final long added = Files.size(temp);
+            final long replaced = sizeOf(file);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            temp = null;
+            if(this.size.addAndGet(added - replaced) > this.maxSize) {
+                this.evict();
+            }
+        }catch(IOException e) {
+            LOG.log(Level.WARNING, "Failed to write cache entry: " + key, e);
+        }finally{
+            if(temp != null) {
+                try{
+                    Files.deleteIfExists(temp);
+                }catch(IOException ignored) { }
+            }
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        this.delete(this.fileFor(key));
+    }
+
+    @Override
+    public void clear() {
+        try{
+            for(Path file : this.listFiles()) {
+                this.delete(file);
+            }
+        }catch(IOException e) {
+            LOG.log(Level.WARNING, "Failed to clear: " + this.directory, e);
+        }
+    }
+
+    @Override
+    public long getSize() {
+        return this.size.get();
+    }
+
+    private void evict() throws IOException {
+        if(!this.evictionLock.tryLock()) {
+            // Already being done
+            return;
+        }
+        try{
+            final long target = this.maxSize / 10 * 9;
+            if(this.size.get() <= target) {
+                return;
+            }
+            final List<Path> files = this.listFiles();
+            final List<FileTime> times = new ArrayList<>(files.size());
+            final List<Integer> order = new ArrayList<>(files.size());
+            for(int i = 0; i < files.size(); i++) {
+                times.add(lastModifiedOf(files.get(i)));
+                order.add(i);
+            }
+            order.sort(Comparator.comparing(times::get));
+            for(int i : order) {
+                if(this.size.get() <= target) {
+                    break;
+                }
+                this.delete(files.get(i));
+            }
+        }finally{
+            this.evictionLock.unlock();
+        }
+    }
+
+    private void delete(Path file) {
+        final long length = sizeOf(file);
+        try{
+            if(Files.deleteIfExists(file)) {
+                this.size.addAndGet(-length);
+            }
+        }catch(IOException e) {
+            LOG.log(Level.WARNING, "Failed to delete: " + file, e);
+        }
+    }
+
+    private List<Path> listFiles() throws IOException {
+        final List<Path> files = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, "*" + SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        return files;
+    }
+
+    private Path fileFor(String key) {
+        try{
+            final byte [] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder name = new StringBuilder(40 + SUFFIX.length());
+            for(int i = 0; i < 20; i++) {
+                name.append(Character.forDigit((hash[i] >> 4) & 0xF, 16)).append(Character.forDigit(hash[i] & 0xF, 16));
+            }
+            return this.directory.resolve(name.append(SUFFIX).toString());
+        }catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long sizeOf(Path file) {
+        try{
+            return Files.size(file);
+        }catch(IOException e) {
+            return 0;
+        }
+    }
+
+    private static FileTime lastModifiedOf(Path file) {
+        try{
+            return Files.getLastModifiedTime(file);
+        }catch(IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    /**
+     * The tail of an entry file
+     */
+    private static final class FileBody implements CacheEntry.Body {
+        private final Path file;
+        private final long offset;
+        private final long length;
+        private FileBody(Path file, long offset, long length) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+        @Override
+        public long getLength() { return length; }
+        @Override
+        public InputStream openStream() throws IOException {
+            final InputStream in = Files.newInputStream(file);
+            // The file was replaced since it was read
+            if(Files.size(file) != offset + length) {
+                in.close();
+                throw new IOException("Cache entry changed: " + file);
+            }
+            long skipped = 0;
+            while(skipped < offset) {
+                final long n = in.skip(offset - skipped);
+                if(n <= 0) {
+                    in.close();
+                    throw new IOException("Cache entry truncated: " + file);
+                }
+                skipped += n;
+            }
+            return new FilterInputStream(in) {
+                private long remaining = length;
+                @Override
+                public int read() throws IOException {
+                    if(remaining <= 0) {
+                        return -1;
+                    }
+                    final int b = super.read();
+                    if(b != -1) {
+                        --remaining;
+                    }
+                    return b;
+                }
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if(remaining <= 0) {
+                        return -1;
+                    }
+                    final int n = super.read(b, off, (int)Math.min(len, remaining));
+                    if(n > 0) {
+                        remaining -= n;
+                    }
+                    return n;
+                }
+                @Override
+                public long skip(long n) throws IOException {
+                    final long skipped = super.skip(Math.min(n, remaining));
+                    remaining -= skipped;
+                    return skipped;
+                }
+                @Override
+                public int available() throws IOException {
+                    return (int)Math.min(super.available(), remaining);
+                }
+            };
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An in-memory store, which evicts the least recently used entries once 
+ * the total size of the stored entries exceeds the maximum.
+ */
+public class MemoryCacheStore implements CacheStore {
+
+    private transient static final Logger LOG = Logger.getLogger(MemoryCacheStore.class.getName());
+
+    private final long maxSize;
+
+    private final long maxEntrySize;
+
+    /**
+     * A lock rather than a monitor, so that virtual threads are not pinned
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * In access order. Guarded by {@link #lock}
+     */
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Guarded by {@link #lock}
+     */
+    private long size;
+
+    /**
+     * @param maxSize The maximum total size of the stored entries, in bytes
+     */
+    public MemoryCacheStore(long maxSize) {
+        this(maxSize, Math.max(1, maxSize / 8));
+    }
+
+    /**
+     * @param maxSize The maximum total size of the stored entries, in bytes
+     * @param maxEntrySize Larger entries are not stored
+     */
+    public MemoryCacheStore(long maxSize, long maxEntrySize) {
+        if(maxSize < 1 || maxEntrySize < 1) {
+            throw new IllegalArgumentException("Sizes must be positive, found max size: " + 
+                    maxSize + ", max entry size: " + maxEntrySize);
+        }
+        this.maxSize = maxSize;
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    @Override
+    public CacheEntry get(String key) {
+        this.lock.lock();
+        try{
+            return this.entries.get(key);
+        }finally{
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Entries whose body is not already in memory, e.g from a disk store, 
+     * are read into memory first.
+     */
+    @Override
+    public void put(String key, CacheEntry entry) {
+        final long entrySize = sizeOf(entry);
+        if(entrySize > this.maxEntrySize) {
+            this.remove(key);
+            return;
+        }
+        final CacheEntry inMemory;
+        try{
+            inMemory = toMemory(entry);
+        }catch(IOException e) {
+            LOG.log(Level.WARNING, "Failed to read body of: " + key, e);
+            this.remove(key);
+            return;
+        }
+        this.lock.lock();
+        try{
+            final CacheEntry previous = this.entries.put(key, inMemory);
+            if(previous != null) {
+                this.size -= sizeOf(previous);
+            }
+            this.size += entrySize;
+            final Iterator<CacheEntry> eldest = this.entries.values().iterator();
+            while(this.size > this.maxSize && eldest.hasNext()) {
+                this.size -= sizeOf(eldest.next());
+                eldest.remove();
+            }
+        }finally{
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        this.lock.lock();
+        try{
+            final CacheEntry removed = this.entries.remove(key);
+            if(removed != null) {
+                this.size -= sizeOf(removed);
+            }
+        }finally{
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        this.lock.lock();
+        try{
+            this.entries.clear();
+            this.size = 0;
+        }finally{
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public long getSize() {
+        this.lock.lock();
+        try{
+            return this.size;
+        }finally{
+            this.lock.unlock();
+        }
+    }
+
+    public int getCount() {
+        this.lock.lock();
+        try{
+            return this.entries.size();
+        }finally{
+            this.lock.unlock();
+        }
+    }
+
+    private static CacheEntry toMemory(CacheEntry entry) throws IOException {
+        if(entry.getBody() instanceof CacheEntry.ByteArrayBody) {
+            return entry;
+        }
+        try(InputStream in = entry.getBody().openStream()) {
+            return entry.withBody(CacheEntry.Body.of(in.readAllBytes()));
+        }
+    }
+
+    /**
+     * The body, plus an estimate of the headers
+     */
+    static long sizeOf(CacheEntry entry) {
+        long size = entry.getBody().getLength() + entry.getKey().length();
+        for(Map.Entry<String, List<String>> header : entry.getHeaders().entrySet()) {
+            size += header.getKey().length();
+            for(String value : header.getValue()) {
+                size += value == null ? 0 : value.length();
+            }
+        }
+        return size;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public long getMaxEntrySize() {
+        return maxEntrySize;
+    }
+}
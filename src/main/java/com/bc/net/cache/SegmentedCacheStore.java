@@ -0,0 +1,788 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.cache;
+
+import com.bc.net.util.AsyncExecutors;
+import com.bc.net.util.ByteArrayPool;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Appends entries to memory-mapped segment files, and finds them through
+ * a hash index held off-heap. The bodies of hits are read directly from 
+ * the mapped segments, without first being copied to the heap.
+ * <p>
+ * Segments are never modified once written. An entry which is replaced or
+ * removed stays in its segment until the segment is compacted. This is done 
+ * in the background: once at least half of a segment is garbage, the
+ * entries still live in it are appended to the current segment, and the 
+ * old segment is deleted. Once the total size exceeds the maximum, the 
+ * oldest segments are deleted whole.
+ * </p>
+ * <p>
+ * The index is rebuilt by scanning the segments when the store is opened.
+ * Each record has a checksum, so a record partly written before a crash
+ * ends the scan of its segment. The index holds one entry per key. Entries
+ * are matched to the {@code Vary} headers of a request by the caller, via 
+ * {@link CacheEntry#matchesVary(java.util.Map)}.
+ * </p>
+ * Instances should be {@link #close() closed} when no longer required.
+ */
+public class SegmentedCacheStore implements CacheStore, AutoCloseable {
+
+    private transient static final Logger LOG = Logger.getLogger(SegmentedCacheStore.class.getName());
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final int MIN_SEGMENT_SIZE = 64 * 1024;
+
+    private static final long COMPACT_INTERVAL_SECONDS = 30;
+
+    private static final String PREFIX = "segment-";
+
+    private static final String SUFFIX = ".seg";
+
+    private static final int RECORD_MAGIC = 0x62635347;
+
+    private static final byte ENTRY = 1;
+
+    private static final byte TOMBSTONE = 2;
+
+    /**
+     * Magic, type, head length and body length
+     */
+    private static final int RECORD_HEADER = 4 + 1 + 4 + 8;
+
+    /**
+     * The header, and the checksum which ends each record
+     */
+    private static final int RECORD_OVERHEAD = RECORD_HEADER + 4;
+
+    private final Path directory;
+
+    private final long maxSize;
+
+    private final int segmentSize;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Guarded by {@link #lock}, ordered oldest first
+     */
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+
+    /**
+     * Guarded by {@link #lock}
+     */
+    private final OffHeapIndex index = new OffHeapIndex();
+
+    /**
+     * Guarded by {@link #lock}, always the newest segment
+     */
+    private Segment active;
+
+    /**
+     * Written under {@link #lock}
+     */
+    private volatile long size;
+
+    private boolean closed;
+
+    private final ScheduledExecutorService compactor;
+
+    /**
+     * @param directory The directory to store segments in, created if need be.
+     * Segments already in the directory are kept.
+     * @param maxSize The maximum total size of the segments, in bytes
+     * @throws IOException If the directory or its segments could not be read
+     */
+    public SegmentedCacheStore(Path directory, long maxSize) throws IOException {
+        this(directory, maxSize, (int)Math.max(MIN_SEGMENT_SIZE, Math.min(DEFAULT_SEGMENT_SIZE, maxSize / 4)));
+    }
+
+    /**
+     * @param directory The directory to store segments in, created if need be.
+     * Segments already in the directory are kept.
+     * @param maxSize The maximum total size of the segments, in bytes
+     * @param segmentSize The size of each segment, in bytes. Entries larger
+     * than this are not stored.
+     * @throws IOException If the directory or its segments could not be read
+     */
+    public SegmentedCacheStore(Path directory, long maxSize, int segmentSize) throws IOException {
+        if(maxSize < 1) {
+            throw new IllegalArgumentException("Max size must be positive, found: " + maxSize);
+        }
+        if(segmentSize < MIN_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size must be at least " + 
+                    MIN_SEGMENT_SIZE + ", found: " + segmentSize);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.maxSize = maxSize;
+        this.segmentSize = segmentSize;
+        this.lock.writeLock().lock();
+        try{
+            this.load();
+            this.evictIfNeeded();
+        }finally{
+            this.lock.writeLock().unlock();
+        }
+        this.compactor = Executors.newSingleThreadScheduledExecutor(
+                new AsyncExecutors.DaemonThreadFactory("bcnet-cache-compactor-"));
+        this.compactor.scheduleWithFixedDelay(() -> {
+            while(this.compact()) { }
+        }, COMPACT_INTERVAL_SECONDS, COMPACT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public CacheEntry get(String key) {
+        final long hash = hashOf(key);
+        final ByteBuffer record;
+        this.lock.readLock().lock();
+        try{
+            if(this.closed) {
+                return null;
+            }
+            final int slot = this.index.find(hash);
+            if(slot < 0) {
+                return null;
+            }
+            final Segment segment = this.segments.get(this.index.segmentAt(slot));
+            if(segment == null) {
+                return null;
+            }
+            // Records are never modified, so may be read once the lock is released
+            record = slice(segment.buffer, this.index.offsetAt(slot), this.index.lengthAt(slot));
+        }finally{
+            this.lock.readLock().unlock();
+        }
+        try{
+            final int headLength = record.getInt(5);
+            final ByteBuffer body = slice(record, RECORD_HEADER + headLength, (int)record.getLong(9));
+            final CacheEntry entry = CacheEntryCodec.readHead(
+                    new DataInputStream(new ByteBufferInputStream(slice(record, RECORD_HEADER, headLength))), 
+                    (length) -> new MappedBody(body));
+            return key.equals(entry.getKey()) ? entry : null;
+        }catch(IOException | RuntimeException e) {
+            LOG.log(Level.WARNING, "Failed to read cache entry: " + key, e);
+            this.remove(key);
+            return null;
+        }
+    }
+
+    @Override
+    public void put(String key, CacheEntry entry) {
+        final byte [] head;
+        try{
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+            CacheEntryCodec.writeHead(new DataOutputStream(bytes), entry);
+            head = bytes.toByteArray();
+        }catch(IOException e) {
+            LOG.log(Level.WARNING, "Failed to write cache entry: " + key, e);
+            return;
+        }
+        final long length = RECORD_OVERHEAD + head.length + entry.getBody().getLength();
+        if(length > this.segmentSize) {
+            if(LOG.isLoggable(Level.FINE)) {
+                LOG.log(Level.FINE, "Not storing: {0}, {1} bytes exceeds segment size: {2}", 
+                        new Object[]{key, length, this.segmentSize});
+            }
+            this.remove(key);
+            return;
+        }
+        this.lock.writeLock().lock();
+        try{
+            if(this.closed) {
+                return;
+            }
+            this.append(ENTRY, key, head, entry.getBody(), (int)length);
+            this.evictIfNeeded();
+        }catch(IOException e) {
+            LOG.log(Level.WARNING, "Failed to write cache entry: " + key, e);
+        }finally{
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        this.lock.writeLock().lock();
+        try{
+            if(this.closed || this.index.find(hashOf(key)) < 0) {
+                return;
+            }
+            // Without a tombstone the entry would be restored by the next load
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(key.length() + 16);
+            CacheEntryCodec.writeKey(new DataOutputStream(bytes), key);
+            final byte [] head = bytes.toByteArray();
+            this.append(TOMBSTONE, key, head, null, RECORD_OVERHEAD + head.length);
+            this.evictIfNeeded();
+        }catch(IOException e) {
+            LOG.log(Level.WARNING, "Failed to remove cache entry: " + key, e);
+        }finally{
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        this.lock.writeLock().lock();
+        try{
+            if(this.closed) {
+                return;
+            }
+            final int nextId = this.active.id + 1;
+            for(Segment segment : new ArrayList<>(this.segments.values())) {
+                this.drop(segment);
+            }
+            this.index.clear();
+            this.active = this.open(nextId, true);
+        }catch(IOException e) {
+            LOG.log(Level.WARNING, "Failed to clear: " + this.directory, e);
+        }finally{
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public long getSize() {
+        return this.size;
+    }
+
+    /**
+     * @return The number of entries stored
+     */
+    public int getCount() {
+        this.lock.readLock().lock();
+        try{
+            return this.index.count;
+        }finally{
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Compacts the sealed segment with the most garbage, if at least half of 
+     * it is garbage. Called periodically in the background, may also be 
+     * called directly.
+     * @return true if a segment was compacted
+     */
+    public boolean compact() {
+        Segment candidate = null;
+        this.lock.readLock().lock();
+        try{
+            if(this.closed) {
+                return false;
+            }
+            for(Segment segment : this.segments.values()) {
+                if(segment != this.active && segment.live * 2 <= segment.end &&
+                        (candidate == null || segment.live * candidate.end < candidate.live * segment.end)) {
+                    candidate = segment;
+                }
+            }
+        }finally{
+            this.lock.readLock().unlock();
+        }
+        if(candidate == null) {
+            return false;
+        }
+        try{
+            // The candidate is sealed, so may be scanned without the lock
+            int offset = 0;
+            while(offset < candidate.end) {
+                final int length = recordLength(candidate.buffer, offset);
+                final byte type = candidate.buffer.get(offset + 4);
+                final String key = readKey(candidate.buffer, offset);
+                this.lock.writeLock().lock();
+                try{
+                    if(this.closed || this.segments.get(candidate.id) != candidate) {
+                        // Closed or evicted meanwhile
+                        return false;
+                    }
+                    this.moveIfLive(candidate, type, hashOf(key), offset, length);
+                    this.evictIfNeeded();
+                }finally{
+                    this.lock.writeLock().unlock();
+                }
+                offset += length;
+            }
+            this.lock.writeLock().lock();
+            try{
+                if(this.segments.get(candidate.id) == candidate) {
+                    this.drop(candidate);
+                }
+            }finally{
+                this.lock.writeLock().unlock();
+            }
+            return true;
+        }catch(IOException | RuntimeException e) {
+            LOG.log(Level.WARNING, "Failed to compact: " + candidate.file, e);
+            return false;
+        }
+    }
+
+    /**
+     * Stops compaction and flushes the current segment. Once closed, the 
+     * store is empty to its callers.
+     */
+    @Override
+    public void close() {
+        this.compactor.shutdownNow();
+        this.lock.writeLock().lock();
+        try{
+            if(!this.closed) {
+                this.closed = true;
+                this.active.buffer.force();
+            }
+        }finally{
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private void moveIfLive(Segment from, byte type, long hash, int offset, int length) throws IOException {
+        final int slot = this.index.find(hash);
+        if(type == ENTRY) {
+            if(slot < 0 || this.index.segmentAt(slot) != from.id || this.index.offsetAt(slot) != offset) {
+                // Replaced or removed since
+                return;
+            }
+            final Segment to = this.reserve(length);
+            final int position = to.end;
+            final ByteBuffer out = to.buffer.duplicate();
+            out.position(position);
+            out.put(slice(from.buffer, offset, length));
+            this.appended(to, length);
+            this.index.set(slot, to.id, position, length);
+            from.live -= length;
+            to.live += length;
+        }else{
+            // Needed only while an older segment may hold the removed entry
+            if(slot >= 0 || this.segments.firstKey() >= from.id) {
+                return;
+            }
+            final Segment to = this.reserve(length);
+            final ByteBuffer out = to.buffer.duplicate();
+            out.position(to.end);
+            out.put(slice(from.buffer, offset, length));
+            this.appended(to, length);
+            from.live -= length;
+            to.live += length;
+        }
+    }
+
+    private void append(byte type, String key, byte [] head, CacheEntry.Body body, int length) throws IOException {
+        final Segment segment = this.reserve(length);
+        final int position = segment.end;
+        final long bodyLength = length - RECORD_OVERHEAD - head.length;
+        final ByteBuffer out = segment.buffer.duplicate();
+        out.position(position);
+        out.putInt(RECORD_MAGIC).put(type).putInt(head.length).putLong(bodyLength).put(head);
+        if(body instanceof CacheEntry.ByteArrayBody) {
+            out.put(((CacheEntry.ByteArrayBody)body).getBytes());
+        }else if(body != null) {
+            final ByteArrayPool pool = ByteArrayPool.getDefault();
+            final byte [] buffer = pool.acquire();
+            try(InputStream in = body.openStream()) {
+                long remaining = bodyLength;
+                while(remaining > 0) {
+                    final int n = in.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+                    if(n == -1) {
+                        throw new IOException("Body shorter than its length: " + key);
+                    }
+                    out.put(buffer, 0, n);
+                    remaining -= n;
+                }
+            }finally{
+                pool.release(buffer);
+            }
+        }
+        out.putInt(checksumOf(segment.buffer, position, length));
+        // Only now is the record visible, a failed write is overwritten by the next
+        this.appended(segment, length);
+        this.index(type, hashOf(key), segment, position, length);
+    }
+
+    /**
+     * Updates the index for a record which was appended, or found on load
+     */
+    private void index(byte type, long hash, Segment segment, int offset, int length) {
+        final int slot = this.index.find(hash);
+        if(slot >= 0) {
+            final Segment previous = this.segments.get(this.index.segmentAt(slot));
+            if(previous != null) {
+                previous.live -= this.index.lengthAt(slot);
+            }
+        }
+        if(type == ENTRY) {
+            if(slot >= 0) {
+                this.index.set(slot, segment.id, offset, length);
+            }else{
+                this.index.insert(hash, segment.id, offset, length);
+            }
+        }else if(slot >= 0) {
+            this.index.remove(slot);
+        }
+        segment.live += length;
+    }
+
+    /**
+     * @return The active segment, with room for the input number of bytes.
+     * A new segment is started if need be.
+     */
+    private Segment reserve(int length) throws IOException {
+        if(this.segmentSize - this.active.end < length) {
+            final Segment sealed = this.active;
+            sealed.buffer.force();
+            this.active = this.open(sealed.id + 1, true);
+            // Give back the unused tail. Never read, so the mapping may remain
+            try(FileChannel channel = FileChannel.open(sealed.file, StandardOpenOption.WRITE)) {
+                channel.truncate(sealed.end);
+            }catch(IOException e) {
+                LOG.log(Level.FINE, "Failed to truncate: " + sealed.file, e);
+            }
+        }
+        return this.active;
+    }
+
+    private void appended(Segment segment, int length) {
+        segment.end += length;
+        this.size += length;
+    }
+
+    private void evictIfNeeded() {
+        while(this.size > this.maxSize && this.segments.size() > 1) {
+            final Segment oldest = this.segments.firstEntry().getValue();
+            this.index.removeSegment(oldest.id);
+            this.drop(oldest);
+        }
+    }
+
+    private void drop(Segment segment) {
+        this.segments.remove(segment.id);
+        this.size -= segment.end;
+        try{
+            // The mapping stays valid for readers still holding it
+            Files.deleteIfExists(segment.file);
+        }catch(IOException e) {
+            LOG.log(Level.WARNING, "Failed to delete: " + segment.file, e);
+        }
+    }
+
+    private void load() throws IOException {
+        final List<Integer> ids = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, PREFIX + "*" + SUFFIX)) {
+            for(Path file : stream) {
+                final String name = file.getFileName().toString();
+                try{
+                    ids.add(Integer.valueOf(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+                }catch(NumberFormatException e) {
+                    LOG.log(Level.FINE, "Not a segment: {0}", file);
+                }
+            }
+        }
+        Collections.sort(ids);
+        for(int i = 0; i < ids.size(); i++) {
+            final int id = ids.get(i);
+            final boolean last = i == ids.size() - 1;
+            final Segment segment = this.open(id, last && Files.size(this.fileFor(id)) <= this.segmentSize);
+            this.scan(segment);
+            if(last) {
+                // Appends continue after the last valid record, or in a new
+                // segment if this one is sealed
+                this.active = segment.buffer.isReadOnly() ? this.open(id + 1, true) : segment;
+            }
+        }
+        if(this.active == null) {
+            this.active = this.open(0, true);
+        }
+    }
+
+    /**
+     * Indexes the valid records of a segment, stopping at the first 
+     * which is not
+     */
+    private void scan(Segment segment) {
+        final ByteBuffer buffer = segment.buffer;
+        int offset = 0;
+        while(buffer.limit() - offset >= RECORD_OVERHEAD && buffer.getInt(offset) == RECORD_MAGIC) {
+            final int headLength = buffer.getInt(offset + 5);
+            final long length = RECORD_OVERHEAD + (long)headLength + buffer.getLong(offset + 9);
+            if(headLength < 0 || length < RECORD_OVERHEAD + headLength || length > buffer.limit() - offset ||
+                    checksumOf(buffer, offset, (int)length) != buffer.getInt(offset + (int)length - 4)) {
+                break;
+            }
+            final String key;
+            try{
+                key = readKey(buffer, offset);
+            }catch(IOException e) {
+                break;
+            }
+            this.index(buffer.get(offset + 4), hashOf(key), segment, offset, (int)length);
+            offset += length;
+        }
+        segment.end = offset;
+        this.size += offset;
+        if(LOG.isLoggable(Level.FINE)) {
+            LOG.log(Level.FINE, "Loaded {0}, {1} bytes", new Object[]{segment.file, offset});
+        }
+    }
+
+    private Segment open(int id, boolean writable) throws IOException {
+        final Path file = this.fileFor(id);
+        final MappedByteBuffer buffer;
+        if(writable) {
+            try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, 
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, this.segmentSize);
+            }
+        }else{
+            try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+        final Segment segment = new Segment(id, file, buffer);
+        this.segments.put(id, segment);
+        return segment;
+    }
+
+    private Path fileFor(int id) {
+        return this.directory.resolve(PREFIX + String.format("%010d", id) + SUFFIX);
+    }
+
+    private static int recordLength(ByteBuffer buffer, int offset) {
+        return (int)(RECORD_OVERHEAD + buffer.getInt(offset + 5) + buffer.getLong(offset + 9));
+    }
+
+    private static String readKey(ByteBuffer buffer, int offset) throws IOException {
+        return CacheEntryCodec.readKey(new DataInputStream(new ByteBufferInputStream(
+                slice(buffer, offset + RECORD_HEADER, buffer.getInt(offset + 5)))));
+    }
+
+    /**
+     * @return The checksum of a record, excluding the checksum itself
+     */
+    private static int checksumOf(ByteBuffer buffer, int offset, int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(slice(buffer, offset, length - 4));
+        return (int)crc.getValue();
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        final ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset).limit(offset + length);
+        return duplicate.slice();
+    }
+
+    /**
+     * 64-bit FNV-1a, with a final mix so that the low bits are usable 
+     * as a table index. Never 0, which marks an empty slot.
+     */
+    static long hashOf(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for(int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * Guarded by the lock of the store, other than the buffer which is
+     * read-only once the record being written is visible
+     */
+    private static final class Segment {
+        private final int id;
+        private final Path file;
+        private final MappedByteBuffer buffer;
+        private int end;
+        private long live;
+        private Segment(int id, Path file, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    private static final class MappedBody implements CacheEntry.Body {
+        private final ByteBuffer buffer;
+        private MappedBody(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+        @Override
+        public long getLength() { return buffer.remaining(); }
+        @Override
+        public InputStream openStream() { return new ByteBufferInputStream(buffer.duplicate()); }
+    }
+
+    /**
+     * An open addressing hash table of key hash to record location, in a
+     * direct buffer so that large indexes add nothing to garbage collection.
+     * Each slot holds the hash, then the segment, offset and length of the 
+     * record. A hash of 0 marks an empty slot, a segment of -1 a removed one.
+     */
+    private static final class OffHeapIndex {
+
+        private static final int SLOT = 24;
+
+        private static final int REMOVED = -1;
+
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private ByteBuffer slots;
+
+        private int mask;
+
+        /**
+         * Live slots
+         */
+        private int count;
+
+        /**
+         * Live and removed slots
+         */
+        private int used;
+
+        private OffHeapIndex() {
+            this.allocate(INITIAL_CAPACITY);
+        }
+
+        private int find(long hash) {
+            for(int slot = (int)(hash ^ (hash >>> 32)) & mask; ; slot = (slot + 1) & mask) {
+                final long found = slots.getLong(slot * SLOT);
+                if(found == 0) {
+                    return -1;
+                }
+                if(found == hash && this.segmentAt(slot) != REMOVED) {
+                    return slot;
+                }
+            }
+        }
+
+        /**
+         * The hash must not already be present
+         */
+        private void insert(long hash, int segment, int offset, int length) {
+            if((used + 1) * 2 > mask + 1) {
+                int capacity = INITIAL_CAPACITY;
+                while(capacity < (count + 1) * 4) {
+                    capacity <<= 1;
+                }
+                this.rehash(capacity);
+            }
+            int slot = (int)(hash ^ (hash >>> 32)) & mask;
+            while(slots.getLong(slot * SLOT) != 0 && this.segmentAt(slot) != REMOVED) {
+                slot = (slot + 1) & mask;
+            }
+            if(slots.getLong(slot * SLOT) == 0) {
+                ++used;
+            }
+            slots.putLong(slot * SLOT, hash);
+            this.set(slot, segment, offset, length);
+            ++count;
+        }
+
+        private void set(int slot, int segment, int offset, int length) {
+            slots.putInt(slot * SLOT + 8, segment);
+            slots.putInt(slot * SLOT + 12, offset);
+            slots.putInt(slot * SLOT + 16, length);
+        }
+
+        private void remove(int slot) {
+            slots.putInt(slot * SLOT + 8, REMOVED);
+            --count;
+        }
+
+        private void removeSegment(int segment) {
+            for(int slot = 0; slot <= mask; slot++) {
+                if(slots.getLong(slot * SLOT) != 0 && this.segmentAt(slot) == segment) {
+                    this.remove(slot);
+                }
+            }
+        }
+
+        private void clear() {
+            this.allocate(INITIAL_CAPACITY);
+        }
+
+        private int segmentAt(int slot) {
+            return slots.getInt(slot * SLOT + 8);
+        }
+
+        private int offsetAt(int slot) {
+            return slots.getInt(slot * SLOT + 12);
+        }
+
+        private int lengthAt(int slot) {
+            return slots.getInt(slot * SLOT + 16);
+        }
+
+        private void rehash(int capacity) {
+            final ByteBuffer previous = this.slots;
+            final int previousCapacity = this.mask + 1;
+            this.allocate(capacity);
+            for(int slot = 0; slot < previousCapacity; slot++) {
+                final long hash = previous.getLong(slot * SLOT);
+                final int segment = previous.getInt(slot * SLOT + 8);
+                if(hash != 0 && segment != REMOVED) {
+                    this.insert(hash, segment, previous.getInt(slot * SLOT + 12), previous.getInt(slot * SLOT + 16));
+                }
+            }
+        }
+
+        private void allocate(int capacity) {
+            this.slots = ByteBuffer.allocateDirect(capacity * SLOT);
+            this.mask = capacity - 1;
+            this.count = 0;
+            this.used = 0;
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+}
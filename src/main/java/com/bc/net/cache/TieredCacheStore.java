@@ -0,0 +1,79 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.cache;
+
+import java.util.Objects;
+
+/**
+ * A fast store in front of a larger one, typically a {@link MemoryCacheStore}
+ * in front of a {@link DiskCacheStore}. Entries are written to both, and 
+ * entries found only in the second store are copied to the first.
+ */
+public class TieredCacheStore implements CacheStore {
+
+    private final CacheStore first;
+
+    private final CacheStore second;
+
+    public TieredCacheStore(CacheStore first, CacheStore second) {
+        this.first = Objects.requireNonNull(first);
+        this.second = Objects.requireNonNull(second);
+    }
+
+    @Override
+    public CacheEntry get(String key) {
+        CacheEntry entry = this.first.get(key);
+        if(entry == null) {
+            entry = this.second.get(key);
+            if(entry != null) {
+                this.first.put(key, entry);
+            }
+        }
+        return entry;
+    }
+
+    @Override
+    public void put(String key, CacheEntry entry) {
+        this.first.put(key, entry);
+        this.second.put(key, entry);
+    }
+
+    @Override
+    public void remove(String key) {
+        this.first.remove(key);
+        this.second.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        this.first.clear();
+        this.second.clear();
+    }
+
+    @Override
+    public long getSize() {
+        return this.first.getSize() + this.second.getSize();
+    }
+
+    public CacheStore getFirst() {
+        return first;
+    }
+
+    public CacheStore getSecond() {
+        return second;
+    }
+}
@@ -17,7 +17,6 @@
 package com.bc.net.cloudflare;
 
 import com.bc.net.impl.ResponseImpl;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
@@ -29,7 +28,10 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.script.ScriptException;
 import com.bc.net.RequestBuilder;
+import com.bc.net.RequestListener;
 import com.bc.net.impl.RequestBuilderImpl;
+import com.bc.net.jfr.CloudFlareChallengeEvent;
+import com.bc.net.util.ResponseBodies;
 import java.nio.charset.StandardCharsets;
 
 /**
@@ -60,7 +62,8 @@ public class CloudFlareResponse extends ResponseImpl {
     public CloudFlareResponse(RequestBuilder requestBuilder, 
             URLConnection urlConn, int delay, Charset charset) 
         throws IOException {
-        super(urlConn, requestBuilder.getCookieProcessor());
+        super(urlConn, requestBuilder.getCookieProcessor(), 
+                RequestListener.NO_OP, requestBuilder.getBodyLimits());
         this.delay = delay;
         this.requestBuilder = Objects.requireNonNull(requestBuilder);
         this.requestBuilder.charset(charset.name());
@@ -70,6 +73,9 @@ public class CloudFlareResponse extends ResponseImpl {
     @Override
     public InputStream getInputStream(URLConnection originalConnection) throws IOException {
         
+        final CloudFlareChallengeEvent event = new CloudFlareChallengeEvent();
+        event.begin();
+        
         final InputStream originalStream = super.getInputStream(originalConnection);
         
         final HttpURLConnection httpConn;
@@ -84,7 +90,7 @@ public class CloudFlareResponse extends ResponseImpl {
             return originalStream;
         }
         
-        final String contents = this.readAll(originalStream);
+        final String contents = this.readAll(originalStream, originalConnection);
         
         final URL url = originalConnection.getURL();
 
@@ -98,6 +104,8 @@ public class CloudFlareResponse extends ResponseImpl {
             
             LOG.log(Level.WARNING, "Exception generating cloudflare response", e);
             
+            this.commit(event, originalConnection, contents, false);
+            
             return originalStream;
         }
         
@@ -121,7 +129,11 @@ public class CloudFlareResponse extends ResponseImpl {
                     .back()
                     .build();
             
-            return super.getInputStream(updatedConnection);
+            final InputStream updatedStream = super.getInputStream(updatedConnection);
+            
+            this.commit(event, originalConnection, contents, true);
+            
+            return updatedStream;
             
         }else{
             
@@ -129,25 +141,61 @@ public class CloudFlareResponse extends ResponseImpl {
             
             LOG.log(Level.FINE, msg+"\n{0}", contents);
             
+            this.commit(event, originalConnection, contents, false);
+            
             return originalStream;
         }
     }
 
+    private void commit(CloudFlareChallengeEvent event, URLConnection originalConnection, 
+            String contents, boolean answered) {
+        event.end();
+        if(event.shouldCommit()) {
+            event.host = originalConnection.getURL().getHost();
+            if(originalConnection instanceof HttpURLConnection) {
+                final HttpURLConnection httpConn = (HttpURLConnection)originalConnection;
+                event.method = httpConn.getRequestMethod();
+                try{
+                    event.status = httpConn.getResponseCode();
+                }catch(IOException e) {
+                    event.status = -1;
+                }
+            }else{
+                event.status = -1;
+            }
+            event.bytes = contents.getBytes(this.getDefaultCharset()).length;
+            event.answered = answered;
+            event.delay = answered ? delay : 0;
+            event.commit();
+        }
+    }
+
     protected String readAll(InputStream in) throws IOException {
-        
-        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        
-        final byte[] buffer = new byte[4096];
-        
-        int read = 0;
-        
-        while ((read = in.read(buffer, 0, buffer.length)) != -1) {
-        
-            baos.write(buffer, 0, read);
+        return this.readAll(in, null);
+    }
+
+    /**
+     * @param in The stream to read
+     * @param connection The connection the stream is of, used for its 
+     * charset and length. May be null.
+     * @return The remaining contents of the stream as text
+     * @throws IOException 
+     */
+    protected String readAll(InputStream in, URLConnection connection) throws IOException {
+        Charset declared = null;
+        long length = -1;
+        if(connection != null) {
+            declared = ResponseBodies.charsetOf(connection.getContentType());
+            length = connection.getContentLengthLong();
         }
-        
-        baos.flush();		
-        
-        return  new String(baos.toByteArray(), charset);
+        return ResponseBodies.readString(in, declared == null ? this.getDefaultCharset() : declared, length);
+    }
+
+    /**
+     * Challenges are read from within the super constructor, before
+     * the charset field is set
+     */
+    private Charset getDefaultCharset() {
+        return charset == null ? StandardCharsets.UTF_8 : Charset.forName(charset);
     }
 }
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.cookies;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread-safe {@link CookieStore}, for a session shared by many threads.
+ * <p>
+ * As in {@link DomainCookieStore}, the cookies of each registrable domain
+ * are held in an immutable snapshot. Here, reads take the current snapshot
+ * without locking, and changes replace the snapshot of their domain only,
+ * so threads contend only when they change cookies of the same domain.
+ * </p>
+ * Usage:
+ * <pre><code>
+ * final RequestTemplate session = RequestTemplate.DEFAULT
+ *         .withCookieProcessor(new CookieStoreProcessor(new ConcurrentCookieStore()));
+ * session.newRequest(loginUrl).body().params(credentials, false).back().response().close();
+ * // Each worker thread then uses the logged in session
+ * final Response res = session.newRequest(url).response();
+ * </code></pre>
+ */
+public class ConcurrentCookieStore implements CookieStore {
+
+    private final int maxPerDomain;
+
+    private final ConcurrentHashMap<String, CookieDomain> domains;
+
+    public ConcurrentCookieStore() {
+        this(DomainCookieStore.DEFAULT_MAX_PER_DOMAIN);
+    }
+
+    public ConcurrentCookieStore(int maxPerDomain) {
+        if(maxPerDomain < 1) {
+            throw new IllegalArgumentException("Max cookies per domain must be positive, found: " + maxPerDomain);
+        }
+        this.maxPerDomain = maxPerDomain;
+        this.domains = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public void add(Cookie cookie) {
+        final long now = System.currentTimeMillis();
+        this.domains.compute(Cookie.registrableDomainOf(cookie.getDomain()), (key, domain) -> {
+            final CookieDomain update = (domain == null ? CookieDomain.EMPTY : domain).with(cookie, maxPerDomain, now);
+            this.added(cookie);
+            return update.isEmpty() ? null : update;
+        });
+    }
+    
+    /**
+     * Called for each cookie added, while its domain is locked, so that 
+     * calls for cookies of the same domain are in the order the cookies
+     * were added. Must not block, nor change this store.
+     * @param cookie The cookie added
+     */
+    protected void added(Cookie cookie) { }
+
+    @Override
+    public List<Cookie> get(URL url) {
+        final long now = System.currentTimeMillis();
+        final CookieDomain domain = this.domainOf(url, now);
+        return domain == null ? Collections.emptyList() : domain.select(url, now);
+    }
+
+    @Override
+    public String getHeader(URL url) {
+        final long now = System.currentTimeMillis();
+        final CookieDomain domain = this.domainOf(url, now);
+        return domain == null ? null : domain.header(url, now);
+    }
+
+    private CookieDomain domainOf(URL url, long now) {
+        final String key = Cookie.registrableDomainOf(Cookie.hostOf(url));
+        final CookieDomain domain = this.domains.get(key);
+        if(domain == null || !domain.hasExpired(now)) {
+            return domain;
+        }
+        // Rare, only once a cookie of the domain has expired
+        return this.domains.computeIfPresent(key, (k, current) -> {
+            final CookieDomain update = current.withoutExpired(now);
+            return update.isEmpty() ? null : update;
+        });
+    }
+
+    @Override
+    public List<Cookie> getAll() {
+        final List<Cookie> all = new ArrayList<>();
+        for(CookieDomain domain : this.domains.values()) {
+            all.addAll(Arrays.asList(domain.getCookies()));
+        }
+        return all;
+    }
+
+    @Override
+    public int removeExpired(long now) {
+        final AtomicInteger removed = new AtomicInteger();
+        for(String key : this.domains.keySet()) {
+            this.domains.computeIfPresent(key, (k, domain) -> {
+                if(!domain.hasExpired(now)) {
+                    return domain;
+                }
+                final CookieDomain update = domain.withoutExpired(now);
+                removed.addAndGet(domain.getCookies().length - update.getCookies().length);
+                return update.isEmpty() ? null : update;
+            });
+        }
+        return removed.get();
+    }
+
+    @Override
+    public void clear() {
+        this.domains.clear();
+    }
+
+    public int getMaxPerDomain() {
+        return maxPerDomain;
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.cookies;
+
+import java.net.URL;
+import java.net.URLConnection;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * An immutable cookie, parsed from a <tt>Set-Cookie</tt> header as
+ * described by <a href="https://tools.ietf.org/html/rfc6265">RFC 6265</a>.
+ * A cookie is identified by its name, domain and path; a cookie with the
+ * same identity replaces an earlier one.
+ */
+public final class Cookie {
+
+    public static final String SET_COOKIE = "Set-Cookie";
+
+    /**
+     * The expiry of a cookie which lasts as long as the session
+     */
+    public static final long SESSION = Long.MAX_VALUE;
+
+    private static final DateTimeFormatter [] EXPIRES_FORMATS = {
+        DateTimeFormatter.RFC_1123_DATE_TIME,
+        DateTimeFormatter.ofPattern("EEE, dd-MMM-yyyy HH:mm:ss zzz", Locale.ENGLISH),
+        DateTimeFormatter.ofPattern("EEEE, dd-MMM-yy HH:mm:ss zzz", Locale.ENGLISH),
+        DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.ENGLISH)
+    };
+
+    private final String name;
+    private final String value;
+    private final String domain;
+    private final boolean hostOnly;
+    private final String path;
+    private final long expiresAt;
+    private final boolean secure;
+    private final boolean httpOnly;
+    private final long createdAt;
+
+    public Cookie(String name, String value, String domain, boolean hostOnly, String path,
+            long expiresAt, boolean secure, boolean httpOnly, long createdAt) {
+        this.name = Objects.requireNonNull(name);
+        this.value = Objects.requireNonNull(value);
+        this.domain = domain.toLowerCase(Locale.ROOT);
+        this.hostOnly = hostOnly;
+        this.path = Objects.requireNonNull(path);
+        this.expiresAt = expiresAt;
+        this.secure = secure;
+        this.httpOnly = httpOnly;
+        this.createdAt = createdAt;
+    }
+
+    /**
+     * Set-Cookie header names are matched regardless of case, as some 
+     * servers and proxies send them in lower case.
+     * @param connection The connection whose response headers are read
+     * @return The values of the <tt>Set-Cookie</tt> headers of the response
+     */
+    public static List<String> getSetCookieHeaders(URLConnection connection) {
+        final Map<String, List<String>> headerFields = connection.getHeaderFields();
+        if(headerFields == null || headerFields.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> result = null;
+        for(Map.Entry<String, List<String>> entry : headerFields.entrySet()) {
+            if(!SET_COOKIE.equalsIgnoreCase(entry.getKey()) || entry.getValue() == null) {
+                continue;
+            }
+            if(result == null) {
+                result = entry.getValue();
+            }else{
+                result = new ArrayList<>(result);
+                result.addAll(entry.getValue());
+            }
+        }
+        return result == null || result.isEmpty() ? Collections.emptyList() : 
+                result.size() == 1 ? Collections.singletonList(result.get(0)) : 
+                Collections.unmodifiableList(result);
+    }
+
+    /**
+     * @param setCookie The value of a <tt>Set-Cookie</tt> header
+     * @param url The URL of the response which set the cookie
+     * @param now The current time in milliseconds
+     * @return The cookie, or <tt>null</tt> if the header is not valid, or
+     * sets a cookie for a domain the URL does not belong to
+     */
+    public static Cookie parse(String setCookie, URL url, long now) {
+
+        final String host = hostOf(url);
+
+        final int end = indexOf(setCookie, ';', 0);
+        final int eq = indexOf(setCookie, '=', 0);
+        if(eq >= end) {
+            return null;
+        }
+        final String name = setCookie.substring(0, eq).trim();
+        if(name.isEmpty()) {
+            return null;
+        }
+        final String value = unquote(setCookie.substring(eq + 1, end).trim());
+
+        String domain = null;
+        String path = null;
+        long maxAge = Long.MIN_VALUE;
+        long expires = SESSION;
+        boolean secure = false;
+        boolean httpOnly = false;
+
+        int start = end + 1;
+        while(start < setCookie.length()) {
+            final int next = indexOf(setCookie, ';', start);
+            final int sep = indexOf(setCookie, '=', start);
+            final String attrName;
+            final String attrValue;
+            if(sep < next) {
+                attrName = setCookie.substring(start, sep).trim();
+                attrValue = setCookie.substring(sep + 1, next).trim();
+            }else{
+                attrName = setCookie.substring(start, next).trim();
+                attrValue = "";
+            }
+            if("Domain".equalsIgnoreCase(attrName)) {
+                if(!attrValue.isEmpty()) {
+                    domain = (attrValue.charAt(0) == '.' ? attrValue.substring(1) : attrValue).toLowerCase(Locale.ROOT);
+                }
+            }else if("Path".equalsIgnoreCase(attrName)) {
+                path = attrValue;
+            }else if("Max-Age".equalsIgnoreCase(attrName)) {
+                try{
+                    maxAge = Long.parseLong(attrValue);
+                }catch(NumberFormatException ignored) { }
+            }else if("Expires".equalsIgnoreCase(attrName)) {
+                expires = parseExpires(attrValue, expires);
+            }else if("Secure".equalsIgnoreCase(attrName)) {
+                secure = true;
+            }else if("HttpOnly".equalsIgnoreCase(attrName)) {
+                httpOnly = true;
+            }
+            start = next + 1;
+        }
+
+        final boolean hostOnly;
+        if(domain == null || domain.isEmpty()) {
+            domain = host;
+            hostOnly = true;
+        }else{
+            if(!domainMatches(host, domain)) {
+                return null;
+            }
+            // A public suffix, e.g co.uk, is accepted only for the host itself
+            hostOnly = PublicSuffixes.isPublicSuffix(domain);
+            if(hostOnly && !domain.equals(host)) {
+                return null;
+            }
+        }
+
+        if(path == null || path.isEmpty() || path.charAt(0) != '/') {
+            path = defaultPath(url);
+        }
+
+        final long expiresAt;
+        if(maxAge != Long.MIN_VALUE) {
+            expiresAt = maxAge <= 0 ? Long.MIN_VALUE : 
+                    maxAge > (SESSION - now) / 1000 ? SESSION - 1 : now + maxAge * 1000;
+        }else{
+            expiresAt = expires;
+        }
+
+        return new Cookie(name, value, domain, hostOnly, path, expiresAt, secure, httpOnly, now);
+    }
+
+    private static long parseExpires(String value, long outputIfNone) {
+        for(DateTimeFormatter format : EXPIRES_FORMATS) {
+            try{
+                return ZonedDateTime.parse(value, format).toInstant().toEpochMilli();
+            }catch(DateTimeParseException ignored) { }
+        }
+        return outputIfNone;
+    }
+
+    private static int indexOf(String s, char ch, int from) {
+        final int n = s.indexOf(ch, from);
+        return n == -1 ? s.length() : n;
+    }
+
+    private static String unquote(String value) {
+        return value.length() > 1 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"' ?
+                value.substring(1, value.length() - 1) : value;
+    }
+
+    static String hostOf(URL url) {
+        final String host = url.getHost();
+        return host == null ? "" : host.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @param url The URL of a response
+     * @return The directory of the URL's path, the default path of cookies 
+     * it sets without a path
+     */
+    static String defaultPath(URL url) {
+        final String path = url.getPath();
+        if(path == null || path.isEmpty() || path.charAt(0) != '/') {
+            return "/";
+        }
+        final int n = path.lastIndexOf('/');
+        return n == 0 ? "/" : path.substring(0, n);
+    }
+
+    static boolean domainMatches(String host, String domain) {
+        if(host.equals(domain)) {
+            return true;
+        }
+        return host.length() > domain.length() && host.endsWith(domain) &&
+                host.charAt(host.length() - domain.length() - 1) == '.' && 
+                !isIpAddress(host);
+    }
+
+    static boolean pathMatches(String requestPath, String path) {
+        if(requestPath.equals(path)) {
+            return true;
+        }
+        return requestPath.startsWith(path) && 
+                (path.charAt(path.length() - 1) == '/' || requestPath.charAt(path.length()) == '/');
+    }
+
+    static boolean isIpAddress(String host) {
+        if(host.indexOf(':') != -1) {
+            return true;
+        }
+        for(int i = 0; i < host.length(); i++) {
+            final char ch = host.charAt(i);
+            if(ch != '.' && (ch < '0' || ch > '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The registrable domain is taken to be the last two labels of the host, 
+     * e.g <tt>example.com</tt> for <tt>www.example.com</tt>, or the last three 
+     * if the last two are a {@link PublicSuffixes public suffix}, e.g 
+     * <tt>example.co.uk</tt> for <tt>www.example.co.uk</tt>. IP addresses are 
+     * used whole. This is only used to group cookies, matching is by the 
+     * rules of RFC 6265.
+     * @param host The host name
+     * @return The key under which cookies of the host are grouped
+     */
+    static String registrableDomainOf(String host) {
+        if(isIpAddress(host)) {
+            return host;
+        }
+        final int last = host.lastIndexOf('.');
+        if(last <= 0) {
+            return host;
+        }
+        int n = host.lastIndexOf('.', last - 1);
+        if(n != -1 && PublicSuffixes.isPublicSuffix(host.substring(n + 1))) {
+            n = host.lastIndexOf('.', n - 1);
+        }
+        return n == -1 ? host : host.substring(n + 1);
+    }
+
+    /**
+     * @param url The URL of a request
+     * @param now The current time in milliseconds
+     * @return true if this cookie should be sent with a request to the URL
+     */
+    public boolean matches(URL url, long now) {
+        if(this.isExpired(now)) {
+            return false;
+        }
+        if(secure && !"https".equalsIgnoreCase(url.getProtocol())) {
+            return false;
+        }
+        final String host = hostOf(url);
+        if(hostOnly ? !host.equals(domain) : !domainMatches(host, domain)) {
+            return false;
+        }
+        final String requestPath = url.getPath();
+        return pathMatches(requestPath == null || requestPath.isEmpty() ? "/" : requestPath, path);
+    }
+
+    /**
+     * @param other The cookie to compare with
+     * @return true if the input cookie has the same name, domain and path
+     */
+    public boolean isSameAs(Cookie other) {
+        return name.equals(other.name) && domain.equals(other.domain) && path.equals(other.path);
+    }
+
+    public boolean isExpired(long now) {
+        return expiresAt <= now;
+    }
+
+    public boolean isPersistent() {
+        return expiresAt != SESSION;
+    }
+
+    /**
+     * @return The <tt>name=value</tt> pair sent in a <tt>Cookie</tt> header
+     */
+    public String toHeaderValue() {
+        return name + '=' + value;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    /**
+     * @return true if the cookie is sent only to the host which set it, 
+     * not its subdomains
+     */
+    public boolean isHostOnly() {
+        return hostOnly;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return The time in milliseconds at which the cookie expires, or
+     * {@link #SESSION}
+     */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public boolean isSecure() {
+        return secure;
+    }
+
+    public boolean isHttpOnly() {
+        return httpOnly;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    @Override
+    public String toString() {
+        return name + '=' + value + "; Domain=" + domain + "; Path=" + path + 
+                (expiresAt == SESSION ? "" : "; ExpiresAt=" + expiresAt) + 
+                (secure ? "; Secure" : "") + (httpOnly ? "; HttpOnly" : "") + (hostOnly ? "; HostOnly" : "");
+    }
+}
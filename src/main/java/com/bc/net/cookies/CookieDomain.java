@@ -0,0 +1,217 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.cookies;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable snapshot of the cookies of one registrable domain, ordered
+ * as they are sent: longer paths first, then earlier created. Changes
+ * return a new snapshot, so a snapshot may be read by any number of 
+ * threads without locking.
+ * <p>
+ * The cookies which domain-match each host are computed once per host and
+ * snapshot, then reused by every request to that host.
+ * </p>
+ */
+final class CookieDomain {
+
+    static final CookieDomain EMPTY = new CookieDomain(new Cookie[0]);
+
+    private static final Comparator<Cookie> SEND_ORDER = Comparator
+            .comparingInt((Cookie c) -> c.getPath().length()).reversed()
+            .thenComparingLong(Cookie::getCreatedAt);
+
+    private final Cookie [] cookies;
+
+    private final ConcurrentHashMap<String, Cookie[]> views;
+
+    /**
+     * The earliest expiry of any cookie, so that expired cookies are looked
+     * for only once there may be some
+     */
+    private final long nextExpiry;
+
+    private CookieDomain(Cookie [] cookies) {
+        this.cookies = cookies;
+        this.views = new ConcurrentHashMap<>(4);
+        long min = Cookie.SESSION;
+        for(Cookie cookie : cookies) {
+            min = Math.min(min, cookie.getExpiresAt());
+        }
+        this.nextExpiry = min;
+    }
+
+    /**
+     * @param cookie The cookie to add, or if expired, to remove
+     * @param maxCookies The maximum number of cookies kept
+     * @param now The current time in milliseconds
+     * @return A snapshot with the cookie added or removed
+     */
+    CookieDomain with(Cookie cookie, int maxCookies, long now) {
+        final List<Cookie> update = new ArrayList<>(cookies.length + 1);
+        Cookie replaced = null;
+        for(Cookie existing : cookies) {
+            if(existing.isSameAs(cookie)) {
+                replaced = existing;
+            }else if(!existing.isExpired(now)) {
+                update.add(existing);
+            }
+        }
+        if(!cookie.isExpired(now)) {
+            // A replacement keeps the creation time of the cookie it replaces
+            update.add(replaced == null ? cookie : new Cookie(cookie.getName(), cookie.getValue(), 
+                    cookie.getDomain(), cookie.isHostOnly(), cookie.getPath(), cookie.getExpiresAt(), 
+                    cookie.isSecure(), cookie.isHttpOnly(), replaced.getCreatedAt()));
+        }
+        if(update.size() > maxCookies) {
+            update.sort(Comparator.comparingLong(Cookie::getCreatedAt));
+            update.subList(0, update.size() - maxCookies).clear();
+        }
+        return of(update);
+    }
+
+    /**
+     * @param now The current time in milliseconds
+     * @return A snapshot without the expired cookies, or this snapshot if 
+     * none has expired
+     */
+    CookieDomain withoutExpired(long now) {
+        List<Cookie> update = null;
+        for(int i = 0; i < cookies.length; i++) {
+            if(cookies[i].isExpired(now)) {
+                if(update == null) {
+                    update = new ArrayList<>(Arrays.asList(cookies).subList(0, i));
+                }
+            }else if(update != null) {
+                update.add(cookies[i]);
+            }
+        }
+        return update == null ? this : of(update);
+    }
+
+    private static CookieDomain of(List<Cookie> cookies) {
+        if(cookies.isEmpty()) {
+            return EMPTY;
+        }
+        final Cookie [] array = cookies.toArray(new Cookie[0]);
+        Arrays.sort(array, SEND_ORDER);
+        return new CookieDomain(array);
+    }
+
+    /**
+     * @param host The host of a request
+     * @return The cookies whose domain matches the host, in send order
+     */
+    Cookie [] viewOf(String host) {
+        final Cookie [] view = this.views.get(host);
+        return view != null ? view : this.views.computeIfAbsent(host, this::computeView);
+    }
+
+    private Cookie [] computeView(String host) {
+        final List<Cookie> view = new ArrayList<>(cookies.length);
+        for(Cookie cookie : cookies) {
+            if(cookie.isHostOnly() ? host.equals(cookie.getDomain()) : Cookie.domainMatches(host, cookie.getDomain())) {
+                view.add(cookie);
+            }
+        }
+        return view.toArray(new Cookie[0]);
+    }
+
+    /**
+     * @param url The URL of a request
+     * @param now The current time in milliseconds
+     * @return The unexpired cookies to send to the URL
+     */
+    List<Cookie> select(URL url, long now) {
+        final Cookie [] view = this.viewOf(Cookie.hostOf(url));
+        if(view.length == 0) {
+            return Collections.emptyList();
+        }
+        final boolean https = "https".equalsIgnoreCase(url.getProtocol());
+        final String path = pathOf(url);
+        List<Cookie> result = null;
+        for(Cookie cookie : view) {
+            if(isSendable(cookie, https, path, now)) {
+                if(result == null) {
+                    result = new ArrayList<>(view.length);
+                }
+                result.add(cookie);
+            }
+        }
+        return result == null ? Collections.emptyList() : result;
+    }
+
+    /**
+     * @param url The URL of a request
+     * @param now The current time in milliseconds
+     * @return The value of the <tt>Cookie</tt> header to send to the URL, 
+     * or <tt>null</tt> if none
+     */
+    String header(URL url, long now) {
+        final Cookie [] view = this.viewOf(Cookie.hostOf(url));
+        if(view.length == 0) {
+            return null;
+        }
+        final boolean https = "https".equalsIgnoreCase(url.getProtocol());
+        final String path = pathOf(url);
+        StringBuilder builder = null;
+        for(Cookie cookie : view) {
+            if(isSendable(cookie, https, path, now)) {
+                if(builder == null) {
+                    builder = new StringBuilder(view.length * 32);
+                }else{
+                    builder.append("; ");
+                }
+                builder.append(cookie.getName()).append('=').append(cookie.getValue());
+            }
+        }
+        return builder == null ? null : builder.toString();
+    }
+
+    private static boolean isSendable(Cookie cookie, boolean https, String path, long now) {
+        return !cookie.isExpired(now) && (https || !cookie.isSecure()) && 
+                Cookie.pathMatches(path, cookie.getPath());
+    }
+
+    private static String pathOf(URL url) {
+        final String path = url.getPath();
+        return path == null || path.isEmpty() ? "/" : path;
+    }
+
+    /**
+     * @param now The current time in milliseconds
+     * @return true if any cookie has expired
+     */
+    boolean hasExpired(long now) {
+        return nextExpiry <= now;
+    }
+
+    Cookie [] getCookies() {
+        return cookies;
+    }
+
+    boolean isEmpty() {
+        return cookies.length == 0;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.cookies;
+
+import java.net.URL;
+import java.util.List;
+
+/**
+ * Stores parsed {@link Cookie cookies}, and finds those to send with each
+ * request. Expired cookies are never returned, and may be removed lazily.
+ * @see DomainCookieStore
+ * @see ConcurrentCookieStore
+ */
+public interface CookieStore {
+
+    /**
+     * Adds the input cookie, replacing any with the same name, domain and
+     * path. An expired cookie removes any such cookie instead.
+     * @param cookie The cookie to add
+     */
+    void add(Cookie cookie);
+
+    /**
+     * @param url The URL of a request
+     * @return The unexpired cookies to send with a request to the URL, those
+     * with longer paths first
+     */
+    List<Cookie> get(URL url);
+
+    /**
+     * @param url The URL of a request
+     * @return The value of the <tt>Cookie</tt> header to send with a request
+     * to the URL, or <tt>null</tt> if no cookie applies
+     */
+    default String getHeader(URL url) {
+        final List<Cookie> cookies = this.get(url);
+        if(cookies.isEmpty()) {
+            return null;
+        }
+        final StringBuilder builder = new StringBuilder();
+        for(Cookie cookie : cookies) {
+            if(builder.length() > 0) {
+                builder.append("; ");
+            }
+            builder.append(cookie.getName()).append('=').append(cookie.getValue());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return All the cookies stored, including any expired but not yet removed
+     */
+    List<Cookie> getAll();
+
+    /**
+     * @param now The current time in milliseconds
+     * @return The number of expired cookies removed
+     */
+    int removeExpired(long now);
+
+    void clear();
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.cookies;
+
+import com.bc.net.CookieProcessor;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.logging.Logger;
+
+/**
+ * A {@link CookieProcessor} which keeps the cookies of responses in a 
+ * {@link CookieStore}, and sends each request only the cookies which apply 
+ * to its URL, in a single <tt>Cookie</tt> header. Usage:
+ * <pre><code>
+ * final RequestTemplate template = RequestTemplate.DEFAULT
+ *         .withCookieProcessor(new CookieStoreProcessor());
+ * </code></pre>
+ * Cookies added with {@link com.bc.net.RequestBuilder#addCookies(java.util.Collection)}
+ * are sent as well, to every URL.
+ * <p>
+ * Cookies whose <tt>Domain</tt> is a public suffix, e.g <tt>co.uk</tt>, are 
+ * rejected unless set by a host of exactly that name. Public suffixes are 
+ * recognised from a small built in set of rules, not the full public suffix 
+ * list, so a cookie set for a less common suffix, e.g <tt>city.kawasaki.jp</tt>,
+ * is accepted and sent to every host under that suffix.
+ * </p>
+ */
+public class CookieStoreProcessor implements CookieProcessor {
+
+    private transient static final Logger LOG = Logger.getLogger(CookieStoreProcessor.class.getName());
+
+    private final CookieStore store;
+
+    /**
+     * Uses a {@link ConcurrentCookieStore}, as a processor is shared by all 
+     * the requests of a template
+     */
+    public CookieStoreProcessor() {
+        this(new ConcurrentCookieStore());
+    }
+
+    public CookieStoreProcessor(CookieStore store) {
+        this.store = Objects.requireNonNull(store);
+    }
+
+    @Override
+    public boolean isStateful() {
+        return true;
+    }
+
+    @Override
+    public List<String> loadCookiesFromResponse(URLConnection connection) {
+        final List<String> headers = Cookie.getSetCookieHeaders(connection);
+        if(headers.isEmpty()) {
+            return headers;
+        }
+        final URL url = connection.getURL();
+        final long now = System.currentTimeMillis();
+        for(String header : headers) {
+            final Cookie cookie = Cookie.parse(header, url, now);
+            if(cookie == null) {
+                LOG.fine(() -> "Rejected cookie: " + header + ", from: " + url);
+            }else{
+                this.store.add(cookie);
+            }
+        }
+        return headers;
+    }
+
+    @Override
+    public void addCookiesToRequest(URLConnection connection, Collection<String> cookies) {
+        final String stored = this.store.getHeader(connection.getURL());
+        if(cookies.isEmpty()) {
+            if(stored != null) {
+                connection.addRequestProperty("Cookie", stored);
+            }
+            return;
+        }
+        final StringBuilder builder = stored == null ? new StringBuilder() : new StringBuilder(stored);
+        for(String cookie : cookies) {
+            if(builder.length() > 0) {
+                builder.append("; ");
+            }
+            final int end = cookie.indexOf(';');
+            builder.append(end == -1 ? cookie : cookie.substring(0, end));
+        }
+        LOG.finer(() -> "Adding cookies: " + builder);
+        connection.addRequestProperty("Cookie", builder.toString());
+    }
+
+    public CookieStore getStore() {
+        return store;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.cookies;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Stores cookies by registrable domain, so that a request only looks at
+ * the cookies of its own domain. The cookies of each host are computed
+ * once, and reused until the cookies of the domain change. Expired
+ * cookies are removed when next looked at.
+ * <p>
+ * Up to {@link #DEFAULT_MAX_PER_DOMAIN} cookies are kept per domain, 
+ * the oldest dropped first. All methods are guarded by a single lock.
+ * </p>
+ * @see ConcurrentCookieStore
+ */
+public class DomainCookieStore implements CookieStore {
+
+    public static final int DEFAULT_MAX_PER_DOMAIN = 180;
+
+    private final int maxPerDomain;
+
+    private final Map<String, CookieDomain> domains;
+
+    private final ReentrantLock lock;
+
+    public DomainCookieStore() {
+        this(DEFAULT_MAX_PER_DOMAIN);
+    }
+
+    public DomainCookieStore(int maxPerDomain) {
+        if(maxPerDomain < 1) {
+            throw new IllegalArgumentException("Max cookies per domain must be positive, found: " + maxPerDomain);
+        }
+        this.maxPerDomain = maxPerDomain;
+        this.domains = new HashMap<>();
+        this.lock = new ReentrantLock();
+    }
+
+    @Override
+    public void add(Cookie cookie) {
+        final String key = Cookie.registrableDomainOf(cookie.getDomain());
+        final long now = System.currentTimeMillis();
+        this.lock.lock();
+        try{
+            final CookieDomain update = this.domains.getOrDefault(key, CookieDomain.EMPTY)
+                    .with(cookie, maxPerDomain, now);
+            if(update.isEmpty()) {
+                this.domains.remove(key);
+            }else{
+                this.domains.put(key, update);
+            }
+        }finally{
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Cookie> get(URL url) {
+        final long now = System.currentTimeMillis();
+        final CookieDomain domain = this.domainOf(url, now);
+        return domain == null ? Collections.emptyList() : domain.select(url, now);
+    }
+
+    @Override
+    public String getHeader(URL url) {
+        final long now = System.currentTimeMillis();
+        final CookieDomain domain = this.domainOf(url, now);
+        return domain == null ? null : domain.header(url, now);
+    }
+
+    private CookieDomain domainOf(URL url, long now) {
+        final String key = Cookie.registrableDomainOf(Cookie.hostOf(url));
+        this.lock.lock();
+        try{
+            final CookieDomain domain = this.domains.get(key);
+            if(domain == null || !domain.hasExpired(now)) {
+                return domain;
+            }
+            final CookieDomain update = domain.withoutExpired(now);
+            if(update.isEmpty()) {
+                this.domains.remove(key);
+                return null;
+            }
+            this.domains.put(key, update);
+            return update;
+        }finally{
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Cookie> getAll() {
+        this.lock.lock();
+        try{
+            final List<Cookie> all = new ArrayList<>();
+            for(CookieDomain domain : this.domains.values()) {
+                all.addAll(Arrays.asList(domain.getCookies()));
+            }
+            return all;
+        }finally{
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int removeExpired(long now) {
+        int removed = 0;
+        this.lock.lock();
+        try{
+            final Iterator<Map.Entry<String, CookieDomain>> iter = this.domains.entrySet().iterator();
+            while(iter.hasNext()) {
+                final Map.Entry<String, CookieDomain> entry = iter.next();
+                final CookieDomain domain = entry.getValue();
+                if(!domain.hasExpired(now)) {
+                    continue;
+                }
+                final CookieDomain update = domain.withoutExpired(now);
+                removed += domain.getCookies().length - update.getCookies().length;
+                if(update.isEmpty()) {
+                    iter.remove();
+                }else{
+                    entry.setValue(update);
+                }
+            }
+        }finally{
+            this.lock.unlock();
+        }
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        this.lock.lock();
+        try{
+            this.domains.clear();
+        }finally{
+            this.lock.unlock();
+        }
+    }
+
+    public int getMaxPerDomain() {
+        return maxPerDomain;
+    }
+}
@@ -0,0 +1,450 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.cookies;
+
+import com.bc.net.util.AsyncExecutors;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link ConcurrentCookieStore} whose changes are appended to a log file,
+ * from which the cookies are reloaded when next opened. Usage:
+ * <pre><code>
+ * final PersistentCookieStore store = new PersistentCookieStore(Paths.get("cookies.log"));
+ * final RequestTemplate template = RequestTemplate.DEFAULT
+ *         .withCookieProcessor(new CookieStoreProcessor(store));
+ * ...
+ * store.close();
+ * </code></pre>
+ * <p>
+ * Changes are queued and written by a background thread, so adding a 
+ * cookie never waits for the disk. If the queue is ever full, the next 
+ * write rewrites the whole log instead. Once the log holds more than twice 
+ * as many records as live cookies, it is rewritten with only the live 
+ * cookies, to a temporary file which then replaces the log.
+ * </p>
+ * <p>
+ * Changes to the cookies of a domain are queued in the order they are 
+ * made, so that the log replays to the same cookies as held in memory.
+ * </p>
+ * <p>
+ * Each record is written with its length and a CRC. A record only partly 
+ * written, e.g on a crash, or otherwise damaged, is dropped with the rest 
+ * of the log when loaded. Session cookies are kept too by default, so 
+ * that a session survives a restart. Call {@link #close()} to write any 
+ * pending changes.
+ * </p>
+ */
+public class PersistentCookieStore extends ConcurrentCookieStore implements AutoCloseable {
+
+    private transient static final Logger LOG = Logger.getLogger(PersistentCookieStore.class.getName());
+
+    private static final int MAGIC = 0x62634b32;
+
+    /**
+     * Longer records are taken to be damaged
+     */
+    private static final int MAX_RECORD_LENGTH = 1 << 20;
+
+    private static final byte ADD = 1;
+
+    private static final byte CLEAR = 2;
+
+    private static final int QUEUE_CAPACITY = 10_000;
+
+    /**
+     * Logs of fewer records are not compacted
+     */
+    private static final int MIN_COMPACT_RECORDS = 1000;
+
+    /**
+     * Queued for {@link #clear()}
+     */
+    private static final Cookie CLEAR_MARKER = new Cookie("", "", "", true, "/", Cookie.SESSION, false, false, 0);
+
+    private final Path file;
+
+    private final boolean persistSessionCookies;
+
+    private final BlockingQueue<Cookie> pending;
+
+    private final AtomicBoolean scheduled;
+
+    /**
+     * Shared by changes to cookies, exclusive for clearing the store and 
+     * for taking the snapshot of a rewrite, so that neither misses a change
+     * made meanwhile
+     */
+    private final ReentrantReadWriteLock changeLock;
+
+    /**
+     * False while the log is being loaded, when changes are not queued
+     */
+    private boolean loaded;
+
+    /**
+     * Set when a change could not be queued, so the log must be rewritten
+     */
+    private volatile boolean lost;
+
+    private final ExecutorService writer;
+
+    /**
+     * Accessed only by the writer thread
+     */
+    private DataOutputStream out;
+
+    /**
+     * Holds each record while it is written, accessed only by the writer thread
+     */
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * The number of records in the log, accessed only by the writer thread
+     * once constructed
+     */
+    private long records;
+
+    private volatile boolean closed;
+
+    public PersistentCookieStore(Path file) throws IOException {
+        this(file, true);
+    }
+
+    /**
+     * @param file The log file, created if need be. Cookies already in the
+     * file are loaded.
+     * @param persistSessionCookies true to keep cookies without an expiry
+     * across restarts
+     * @throws IOException If the file could not be read or created
+     */
+    public PersistentCookieStore(Path file, boolean persistSessionCookies) throws IOException {
+        this.file = Objects.requireNonNull(file);
+        this.persistSessionCookies = persistSessionCookies;
+        this.pending = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        this.scheduled = new AtomicBoolean();
+        this.changeLock = new ReentrantReadWriteLock();
+        final Path parent = file.toAbsolutePath().getParent();
+        if(parent != null) {
+            Files.createDirectories(parent);
+        }
+        final boolean intact = this.load();
+        if(!intact || this.isCompactionDue()) {
+            this.rewrite();
+        }else{
+            this.out = this.openForAppend();
+        }
+        this.writer = Executors.newSingleThreadExecutor(
+                new AsyncExecutors.DaemonThreadFactory("bcnet-cookie-writer-"));
+        this.loaded = true;
+    }
+
+    /**
+     * @return true if the whole log was read, false if a damaged tail was dropped
+     */
+    private boolean load() throws IOException {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if(in.readInt() != MAGIC) {
+                LOG.warning(() -> "Not a cookie log, will be replaced: " + file);
+                return false;
+            }
+            final byte [] buffer = new byte[1024];
+            final CRC32 check = new CRC32();
+            while(true) {
+                final int b0 = in.read();
+                if(b0 == -1) {
+                    return true;
+                }
+                try{
+                    final int length = (b0 << 24) | (in.readUnsignedByte() << 16) | 
+                            (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+                    if(length < 1 || length > MAX_RECORD_LENGTH) {
+                        throw new IOException("Invalid record length: " + length);
+                    }
+                    final byte [] bytes = length <= buffer.length ? buffer : new byte[length];
+                    in.readFully(bytes, 0, length);
+                    check.reset();
+                    check.update(bytes, 0, length);
+                    if((int)check.getValue() != in.readInt()) {
+                        throw new IOException("CRC mismatch");
+                    }
+                    this.replay(new DataInputStream(new ByteArrayInputStream(bytes, 0, length)));
+                }catch(EOFException e) {
+                    LOG.warning(() -> "Dropping partly written record at end of: " + file);
+                    return false;
+                }catch(IOException e) {
+                    LOG.log(Level.WARNING, "Dropping damaged record and the rest of: " + file, e);
+                    return false;
+                }
+                ++this.records;
+            }
+        }catch(NoSuchFileException e) {
+            return false;
+        }catch(EOFException e) {
+            LOG.warning(() -> "Not a cookie log, will be replaced: " + file);
+            return false;
+        }
+    }
+
+    private void replay(DataInputStream in) throws IOException {
+        final int type = in.readByte();
+        if(type == CLEAR) {
+            super.clear();
+        }else if(type == ADD) {
+            final Cookie cookie = new Cookie(in.readUTF(), in.readUTF(), in.readUTF(), in.readBoolean(), 
+                    in.readUTF(), in.readLong(), in.readBoolean(), in.readBoolean(), in.readLong());
+            // An expired cookie removes any earlier one
+            super.add(cookie);
+        }else{
+            throw new IOException("Unknown record type: " + type);
+        }
+    }
+
+    @Override
+    public void add(Cookie cookie) {
+        this.changeLock.readLock().lock();
+        try{
+            super.add(cookie);
+        }finally{
+            this.changeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Queues the change while the domain of the cookie is locked, so that
+     * changes to a domain are logged in the order made
+     */
+    @Override
+    protected void added(Cookie cookie) {
+        if(!this.loaded) {
+            return;
+        }
+        if(cookie.isPersistent() || this.persistSessionCookies) {
+            this.enqueue(cookie);
+        }else{
+            // Removes any persistent cookie this one replaced
+            this.enqueue(new Cookie(cookie.getName(), "", cookie.getDomain(), cookie.isHostOnly(), 
+                    cookie.getPath(), Long.MIN_VALUE, false, false, cookie.getCreatedAt()));
+        }
+    }
+
+    @Override
+    public void clear() {
+        this.changeLock.writeLock().lock();
+        try{
+            super.clear();
+            this.enqueue(CLEAR_MARKER);
+        }finally{
+            this.changeLock.writeLock().unlock();
+        }
+    }
+
+    private void enqueue(Cookie change) {
+        if(this.closed) {
+            return;
+        }
+        if(!this.pending.offer(change)) {
+            this.lost = true;
+        }
+        if(this.scheduled.compareAndSet(false, true)) {
+            try{
+                this.writer.execute(this::write);
+            }catch(RejectedExecutionException e) {
+                // Closed meanwhile, close() writes what is pending
+                this.scheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Runs on the writer thread
+     */
+    private void write() {
+        this.scheduled.set(false);
+        try{
+            if(this.lost) {
+                this.rewrite();
+                return;
+            }
+            final List<Cookie> batch = new ArrayList<>(Math.min(this.pending.size(), 256));
+            this.pending.drainTo(batch);
+            if(batch.isEmpty()) {
+                return;
+            }
+            for(Cookie change : batch) {
+                this.writeRecord(this.out, change);
+                ++this.records;
+            }
+            this.out.flush();
+            if(this.isCompactionDue()) {
+                this.rewrite();
+            }
+        }catch(IOException | RuntimeException e) {
+            LOG.log(Level.WARNING, "Failed to write cookies to: " + file, e);
+            // Rewrite from memory next time
+            this.lost = true;
+        }
+    }
+
+    private boolean isCompactionDue() {
+        return this.records > MIN_COMPACT_RECORDS && this.records > 2L * super.getAll().size();
+    }
+
+    /**
+     * Writes the live cookies to a new log, which then replaces the current 
+     * one. Pending changes are dropped, as the cookies are taken after them.
+     */
+    private void rewrite() throws IOException {
+        final long now = System.currentTimeMillis();
+        final List<Cookie> live;
+        this.changeLock.writeLock().lock();
+        try{
+            this.lost = false;
+            this.pending.clear();
+            super.removeExpired(now);
+            live = super.getAll();
+        }finally{
+            this.changeLock.writeLock().unlock();
+        }
+        if(this.out != null) {
+            this.out.close();
+            this.out = null;
+        }
+        final Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), "cookies", ".tmp");
+        try{
+            try(DataOutputStream data = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                data.writeInt(MAGIC);
+                for(Cookie cookie : live) {
+                    if(cookie.isPersistent() || this.persistSessionCookies) {
+                        this.writeRecord(data, cookie);
+                    }
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }catch(IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }finally{
+            this.out = this.openForAppend();
+        }
+        this.records = live.size();
+        LOG.fine(() -> "Rewrote " + file + " with " + live.size() + " cookies");
+    }
+
+    private DataOutputStream openForAppend() throws IOException {
+        if(!Files.exists(file)) {
+            try(DataOutputStream data = new DataOutputStream(Files.newOutputStream(file))) {
+                data.writeInt(MAGIC);
+            }
+        }
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file, 
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)));
+    }
+
+    /**
+     * Writes the length of the record, the record, then its CRC
+     */
+    private void writeRecord(DataOutputStream output, Cookie change) throws IOException {
+        this.record.reset();
+        final DataOutputStream data = new DataOutputStream(this.record);
+        if(change == CLEAR_MARKER) {
+            data.writeByte(CLEAR);
+        }else{
+            data.writeByte(ADD);
+            data.writeUTF(change.getName());
+            data.writeUTF(change.getValue());
+            data.writeUTF(change.getDomain());
+            data.writeBoolean(change.isHostOnly());
+            data.writeUTF(change.getPath());
+            data.writeLong(change.getExpiresAt());
+            data.writeBoolean(change.isSecure());
+            data.writeBoolean(change.isHttpOnly());
+            data.writeLong(change.getCreatedAt());
+        }
+        data.flush();
+        this.crc.reset();
+        this.crc.update(this.record.toByteArray());
+        output.writeInt(this.record.size());
+        this.record.writeTo(output);
+        output.writeInt((int)this.crc.getValue());
+    }
+
+    /**
+     * Writes any pending changes, then closes the log. Later changes are 
+     * kept in memory only.
+     */
+    @Override
+    public void close() {
+        if(this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.writer.shutdown();
+        try{
+            if(!this.writer.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOG.warning(() -> "Timed out waiting for cookie writer, for: " + file);
+                this.writer.shutdownNow();
+                return;
+            }
+        }catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        // Nothing else writes once the writer has terminated
+        this.write();
+        try{
+            this.out.close();
+        }catch(IOException e) {
+            LOG.log(Level.WARNING, "Failed to close: " + file, e);
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public boolean isPersistSessionCookies() {
+        return persistSessionCookies;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.net.cookies;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A small, built in approximation of the 
+ * <a href="https://publicsuffix.org">public suffix list</a>. A domain is 
+ * taken to be a public suffix if it:
+ * <ul>
+ *   <li>Has a single label, e.g <tt>com</tt></li>
+ *   <li>Is a country code top level domain preceded by one of the generic 
+ *   second level labels, e.g <tt>co.uk</tt>, <tt>com.au</tt>, <tt>ac.jp</tt></li>
+ *   <li>Is one of a few widely used shared hosting suffixes, e.g <tt>github.io</tt></li>
+ * </ul>
+ * Suffixes outside these rules, e.g <tt>city.kawasaki.jp</tt>, are not 
+ * recognised.
+ */
+final class PublicSuffixes {
+
+    private static final Set<String> SECOND_LEVEL_LABELS = new HashSet<>(Arrays.asList(
+            "ac", "co", "com", "edu", "gen", "go", "gob", "gov", "gv", "ltd", "me", 
+            "mil", "ne", "net", "nic", "nom", "or", "org", "plc", "sch"
+    ));
+
+    private static final Set<String> SHARED_SUFFIXES = new HashSet<>(Arrays.asList(
+            "appspot.com", "azurewebsites.net", "blogspot.com", "cloudfront.net",
+            "github.io", "gitlab.io", "herokuapp.com", "netlify.app", "pages.dev", 
+            "vercel.app", "web.app", "firebaseapp.com"
+    ));
+
+    private PublicSuffixes() { }
+
+    /**
+     * @param domain A lower case domain name, without a leading dot
+     * @return true if cookies may not be set for the domain, other than by 
+     * a host of exactly that name
+     */
+    static boolean isPublicSuffix(String domain) {
+        final int last = domain.lastIndexOf('.');
+        if(last == -1) {
+            return true;
+        }
+        if(SHARED_SUFFIXES.contains(domain)) {
+            return true;
+        }
+        final int prev = domain.lastIndexOf('.', last - 1);
+        if(prev != -1) {
+            return false;
+        }
+        // Two labels: <generic label>.<country code>
+        return domain.length() - last - 1 == 2 && 
+                SECOND_LEVEL_LABELS.contains(domain.substring(0, last));
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.impl;
+
+import com.bc.net.BatchFetcher;
+import com.bc.net.RequestTemplate;
+import com.bc.net.Response;
+import com.bc.net.util.AsyncExecutors;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Requests are created from a {@link com.bc.net.RequestTemplate} and sent
+ * with {@link com.bc.net.RequestBuilder#responseAsync(java.util.concurrent.Executor)}.
+ * <p>
+ * Each URL taken from the input holds a global slot until it completes,
+ * so that no more than <tt>maxConcurrency</tt> URLs are held at once, 
+ * however long the input. A URL whose host is already at the per-host 
+ * limit is queued behind that host, still holding its slot. When a request 
+ * completes, the next URL queued for the same host, if any, is started. 
+ * An input dominated by one host is therefore fetched at the per-host 
+ * limit, with the other slots waiting behind it.
+ * </p>
+ * <p>
+ * If the caller of {@link #fetch(java.lang.Iterable, com.bc.net.BatchFetcher.Listener)} 
+ * is interrupted, URLs still queued are dropped, and are reported neither
+ * as succeeded nor as failed.
+ * </p>
+ * Instances are thread-safe and may run many batches at once, each batch
+ * having its own limits.
+ */
+public class BatchFetcherImpl implements BatchFetcher {
+
+    private transient static final Logger LOG = Logger.getLogger(BatchFetcherImpl.class.getName());
+
+    private final RequestTemplate template;
+
+    private final Executor executor;
+
+    private final int maxConcurrency;
+
+    private final int maxPerHost;
+
+    public BatchFetcherImpl(int maxConcurrency, int maxPerHost) {
+        this(RequestTemplate.DEFAULT, AsyncExecutors.getDefault(), maxConcurrency, maxPerHost);
+    }
+
+    public BatchFetcherImpl(RequestTemplate template, Executor executor,
+            int maxConcurrency, int maxPerHost) {
+        if(maxConcurrency < 1 || maxPerHost < 1) {
+            throw new IllegalArgumentException("Limits must be positive, found: " +
+                    maxConcurrency + ", per host: " + maxPerHost);
+        }
+        this.template = Objects.requireNonNull(template);
+        this.executor = Objects.requireNonNull(executor);
+        this.maxConcurrency = maxConcurrency;
+        this.maxPerHost = maxPerHost;
+    }
+
+    @Override
+    public Result fetch(Iterable<URL> urls, Listener listener) throws InterruptedException {
+        final Batch batch = new Batch(Objects.requireNonNull(listener));
+        try{
+            for(URL url : urls) {
+                batch.submit(url);
+            }
+        }catch(InterruptedException e) {
+            batch.cancel();
+            throw e;
+        }finally{
+            batch.submissionComplete();
+        }
+        try{
+            batch.completion.get();
+        }catch(InterruptedException e) {
+            batch.cancel();
+            throw e;
+        }catch(ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        return new Result(batch.succeeded.get(), batch.failed.get());
+    }
+
+    /**
+     * Guarded by the lock of {@link Batch#hosts} for its key
+     */
+    private static final class HostQueue {
+        private int active;
+        private final ArrayDeque<URL> pending = new ArrayDeque<>();
+    }
+
+    private final class Batch {
+
+        private final Listener listener;
+        private final Semaphore slots = new Semaphore(maxConcurrency);
+        private final ConcurrentHashMap<String, HostQueue> hosts = new ConcurrentHashMap<>();
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger succeeded = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final CompletableFuture<Void> completion = new CompletableFuture<>();
+        private volatile boolean submitted;
+        /**
+         * Set when the caller is interrupted, after which queued URLs are dropped
+         */
+        private volatile boolean cancelled;
+
+        private Batch(Listener listener) {
+            this.listener = listener;
+        }
+
+        private void submit(URL url) throws InterruptedException {
+
+            this.slots.acquire();
+            this.outstanding.incrementAndGet();
+
+            final boolean [] start = new boolean[1];
+            this.hosts.compute(hostOf(url), (host, queue) -> {
+                if(queue == null) {
+                    queue = new HostQueue();
+                }
+                if(queue.active < maxPerHost) {
+                    ++queue.active;
+                    start[0] = true;
+                }else{
+                    queue.pending.add(url);
+                }
+                return queue;
+            });
+
+            // A queued URL keeps its slot, so that the input is only read 
+            // as fast as URLs complete
+            if(start[0]) {
+                this.dispatch(url);
+            }
+        }
+
+        private void dispatch(URL url) {
+            CompletableFuture<Response> future;
+            try{
+                future = template.newRequest(url).responseAsync(executor);
+            }catch(RuntimeException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            future.whenCompleteAsync((response, t) -> {
+                try{
+                    if(t == null) {
+                        this.succeeded.incrementAndGet();
+                        this.listener.onResponse(url, response);
+                    }else{
+                        this.failed.incrementAndGet();
+                        this.listener.onFailure(url, unwrap(t));
+                    }
+                }catch(RuntimeException e) {
+                    LOG.log(Level.WARNING, "Listener threw exception for: " + url, e);
+                    if(response != null) {
+                        // Else the connection is neither drained nor released
+                        closeQuietly(response);
+                    }
+                }finally{
+                    this.complete(url);
+                }
+            }, executor);
+        }
+
+        private void complete(URL url) {
+
+            final URL [] next = new URL[1];
+            final int [] dropped = new int[1];
+            this.hosts.compute(hostOf(url), (host, queue) -> {
+                if(this.cancelled) {
+                    dropped[0] = queue.pending.size();
+                    queue.pending.clear();
+                }
+                next[0] = queue.pending.poll();
+                if(next[0] == null) {
+                    --queue.active;
+                }
+                return queue.active == 0 ? null : queue;
+            });
+
+            // The next URL already holds a slot of its own
+            this.slots.release(1 + dropped[0]);
+            
+            if(next[0] != null) {
+                this.dispatch(next[0]);
+            }
+
+            if(this.outstanding.addAndGet(-1 - dropped[0]) == 0 && this.submitted) {
+                this.completion.complete(null);
+            }
+        }
+
+        private void cancel() {
+            this.cancelled = true;
+        }
+
+        private void submissionComplete() {
+            this.submitted = true;
+            if(this.outstanding.get() == 0) {
+                this.completion.complete(null);
+            }
+        }
+    }
+
+    private static void closeQuietly(Response response) {
+        try{
+            response.close();
+        }catch(IOException | RuntimeException e) {
+            LOG.log(Level.FINE, "Failed to close response", e);
+        }
+    }
+
+    private static Throwable unwrap(Throwable t) {
+        while((t instanceof CompletionException || t instanceof UncheckedIOException) && t.getCause() != null) {
+            t = t.getCause();
+        }
+        return t;
+    }
+
+    private static String hostOf(URL url) {
+        final String host = url.getHost();
+        return host == null ? "" : host.toLowerCase();
+    }
+
+    public RequestTemplate getTemplate() {
+        return template;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public int getMaxPerHost() {
+        return maxPerHost;
+    }
+}
@@ -17,12 +17,11 @@
 package com.bc.net.impl;
 
 import com.bc.net.CookieProcessor;
+import com.bc.net.cookies.Cookie;
 import java.io.Serializable;
 import java.net.URLConnection;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.logging.Logger;
 
 /**
@@ -34,14 +33,7 @@ public class CookieProcessorImpl implements Serializable, CookieProcessor {
 
     @Override
     public List<String> loadCookiesFromResponse(URLConnection connection) {
-
-        final Map<String, List<String>> headerFields = connection.getHeaderFields(); 
-
-        final List<String> cookieList = headerFields == null ? null : headerFields.get("Set-Cookie");
-        
-        return cookieList == null || cookieList.isEmpty() ? Collections.EMPTY_LIST : 
-                cookieList.size() == 1 ? Collections.singletonList(cookieList.get(0)) :
-                Collections.unmodifiableList(cookieList);
+        return Cookie.getSetCookieHeaders(connection);
     }
 
     @Override
@@ -49,9 +41,10 @@ public class CookieProcessorImpl implements Serializable, CookieProcessor {
         
         for (String cookie : cookies) {
             
-            // The split(";", 2)[0] is there to get rid of cookie attributes which are
-            // irrelevant for the server side like expires, path, etc.
-            final String value = cookie.substring(0, cookie.indexOf(';'));
+            // Get rid of cookie attributes which are irrelevant for the 
+            // server side like expires, path, etc.
+            final int end = cookie.indexOf(';');
+            final String value = end == -1 ? cookie : cookie.substring(0, end);
             
             LOG.finer(() -> "Adding cookie: " + value + ", from raw: " + cookie);
 
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.impl;
+
+import com.bc.net.RateLimiter;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * A token bucket for each host, allowing bursts of up to <tt>burst</tt> 
+ * requests, then <tt>permitsPerSecond</tt>. Each bucket is a single 
+ * {@link AtomicLong} holding the time at which it will next be empty, 
+ * updated by compare-and-set, so hosts never contend with each other and 
+ * requests to the same host never lock.
+ * <p>
+ * On a 429 response, the rate of the host is halved, down to 1/64th of 
+ * the configured rate, and recovers gradually with each successful 
+ * response. A <tt>Retry-After</tt> on a 429 or 503 response holds back
+ * all requests to the host until then.
+ * </p>
+ * Usage:
+ * <pre><code>
+ * final HostRateLimiter limiter = new HostRateLimiter(2, 5);
+ * final RequestTemplate template = RequestTemplate.DEFAULT.withRateLimiter(limiter);
+ * ...
+ * System.out.println(limiter.get("example.com").getThrottledMillis());
+ * </code></pre>
+ * The bucket of a host is evicted, with its statistics, once it has been 
+ * full and at the configured rate for the idle timeout. A new bucket is 
+ * then created on the next request to the host, which behaves the same.
+ */
+public class HostRateLimiter implements RateLimiter {
+
+    private transient static final Logger LOG = Logger.getLogger(HostRateLimiter.class.getName());
+
+    /**
+     * The rate falls no lower than the configured rate divided by this
+     */
+    private static final int MAX_SLOWDOWN = 64;
+
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60_000;
+
+    /**
+     * The value of {@link Host#emptyAt} once evicted
+     */
+    private static final long EVICTED = Long.MIN_VALUE;
+
+    private final long intervalNanos;
+
+    private final int burst;
+
+    private final long idleNanos;
+
+    private final ConcurrentHashMap<String, Host> hosts = new ConcurrentHashMap<>();
+
+    /**
+     * The time, by {@link System#nanoTime()}, of the next check for idle hosts
+     */
+    private final AtomicLong nextEvictionAt;
+
+    /**
+     * @param permitsPerSecond The sustained number of requests per second to each host
+     * @param burst The number of requests which may be sent at once to an idle host
+     */
+    public HostRateLimiter(double permitsPerSecond, int burst) {
+        this(permitsPerSecond, burst, DEFAULT_IDLE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param permitsPerSecond The sustained number of requests per second to each host
+     * @param burst The number of requests which may be sent at once to an idle host
+     * @param idleTimeout How long a host is kept once idle
+     * @param unit The unit of the idle timeout
+     */
+    public HostRateLimiter(double permitsPerSecond, int burst, long idleTimeout, TimeUnit unit) {
+        if(!(permitsPerSecond > 0) || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst must be positive, found rate: " + 
+                    permitsPerSecond + ", burst: " + burst);
+        }
+        if(idleTimeout < 0) {
+            throw new IllegalArgumentException("Idle timeout must not be negative, found: " + idleTimeout);
+        }
+        this.intervalNanos = Math.max(1, (long)(TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.burst = burst;
+        this.idleNanos = unit.toNanos(idleTimeout);
+        this.nextEvictionAt = new AtomicLong(System.nanoTime() + this.idleNanos);
+    }
+
+    @Override
+    public long reserve(URL url) {
+        final long now = System.nanoTime();
+        this.evictIdle(now);
+        final String name = hostOf(url);
+        while(true) {
+            final Host host = this.hosts.computeIfAbsent(name, (k) -> new Host(k, intervalNanos, now));
+            final long wait = host.reserve(now, burst);
+            if(wait >= 0) {
+                return wait;
+            }
+            // Evicted meanwhile, so we reserve from its replacement
+            this.hosts.remove(name, host);
+        }
+    }
+
+    /**
+     * At most once per idle timeout, removes hosts whose bucket has been full, 
+     * at the configured rate, for the idle timeout. An evicted host is marked, 
+     * so that a request which found it before removal moves to a new bucket.
+     */
+    private void evictIdle(long now) {
+        final long due = this.nextEvictionAt.get();
+        if(now - due < 0 || !this.nextEvictionAt.compareAndSet(due, now + this.idleNanos)) {
+            return;
+        }
+        final int before = this.hosts.size();
+        this.hosts.values().removeIf((host) -> host.evictIfIdle(now, intervalNanos, idleNanos));
+        LOG.finer(() -> "Evicted " + (before - this.hosts.size()) + " idle hosts, remaining: " + this.hosts.size());
+    }
+
+    @Override
+    public void onResponse(URL url, int code, long retryAfterMillis) {
+        final Host host = this.hosts.get(hostOf(url));
+        if(host == null) {
+            return;
+        }
+        if(code == 429) {
+            host.rateLimited.increment();
+            host.slowDown(intervalNanos * MAX_SLOWDOWN);
+            LOG.fine(() -> "Rate limited by " + host.name + ", interval now " + 
+                    TimeUnit.NANOSECONDS.toMillis(host.interval.get()) + "ms");
+        }else if(code >= 200 && code < 400) {
+            host.speedUp(intervalNanos);
+        }
+        if(retryAfterMillis > 0 && (code == 429 || code == 503)) {
+            host.pause(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryAfterMillis), burst);
+            LOG.fine(() -> "Pausing requests to " + host.name + " for " + retryAfterMillis + "ms");
+        }
+    }
+
+    private static String hostOf(URL url) {
+        final String host = url.getHost();
+        return host == null ? "" : host.toLowerCase();
+    }
+
+    /**
+     * @param host The host name
+     * @return The statistics of the host, or null if none
+     */
+    public Host get(String host) {
+        return this.hosts.get(host.toLowerCase());
+    }
+
+    /**
+     * @return The statistics of each host not yet evicted, ordered by host name
+     */
+    public Map<String, Host> getHosts() {
+        return Collections.unmodifiableMap(new TreeMap<>(this.hosts));
+    }
+
+    public void reset() {
+        this.hosts.clear();
+    }
+
+    public double getPermitsPerSecond() {
+        return (double)TimeUnit.SECONDS.toNanos(1) / intervalNanos;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    public static final class Host {
+
+        private final String name;
+
+        /**
+         * The time, by {@link System#nanoTime()}, at which the bucket will
+         * be empty, given the requests reserved so far
+         */
+        private final AtomicLong emptyAt;
+
+        private final AtomicLong interval;
+
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder throttled = new LongAdder();
+        private final LongAdder throttledNanos = new LongAdder();
+        private final LongAdder rateLimited = new LongAdder();
+
+        private Host(String name, long interval, long now) {
+            this.name = name;
+            this.emptyAt = new AtomicLong(now);
+            this.interval = new AtomicLong(interval);
+        }
+
+        /**
+         * @return The nanoseconds to wait, or -1 if this host has been evicted
+         */
+        private long reserve(long now, int burst) {
+            final long step = this.interval.get();
+            long current, next;
+            do{
+                current = this.emptyAt.get();
+                if(current == EVICTED) {
+                    return -1;
+                }
+                next = (current - now > 0 ? current : now) + step;
+            }while(!this.emptyAt.compareAndSet(current, next));
+            // The bucket holds up to burst permits, so we wait only for what exceeds that
+            final long wait = next - now - burst * step;
+            this.requests.increment();
+            if(wait > 0) {
+                this.throttled.increment();
+                this.throttledNanos.add(wait);
+                return wait;
+            }
+            return 0;
+        }
+
+        /**
+         * No request is due before the input time, after which requests 
+         * resume at the current rate, without a burst
+         */
+        private void pause(long until, int burst) {
+            final long target = until + (burst - 1) * this.interval.get();
+            long current;
+            do{
+                current = this.emptyAt.get();
+                if(current == EVICTED || current - target >= 0) {
+                    return;
+                }
+            }while(!this.emptyAt.compareAndSet(current, target));
+        }
+
+        /**
+         * A bucket which is full, at the configured rate, is no different 
+         * from a new one, so may be evicted
+         * @return true if evicted
+         */
+        private boolean evictIfIdle(long now, long base, long idle) {
+            final long current = this.emptyAt.get();
+            if(current == EVICTED) {
+                return true;
+            }
+            if(this.interval.get() != base || now - current < idle) {
+                return false;
+            }
+            return this.emptyAt.compareAndSet(current, EVICTED);
+        }
+
+        private void slowDown(long max) {
+            this.interval.accumulateAndGet(max, (current, limit) -> Math.min(limit, current * 2));
+        }
+
+        private void speedUp(long min) {
+            this.interval.accumulateAndGet(min, (current, limit) -> {
+                final long diff = current - limit;
+                return diff < 8 ? limit : current - diff / 8;
+            });
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The current number of requests per second allowed, lower
+         * than that configured after 429 responses
+         */
+        public double getPermitsPerSecond() {
+            return (double)TimeUnit.SECONDS.toNanos(1) / this.interval.get();
+        }
+
+        public long getRequests() {
+            return requests.sum();
+        }
+
+        /**
+         * @return The number of requests which had to wait
+         */
+        public long getThrottled() {
+            return throttled.sum();
+        }
+
+        /**
+         * @return The total time requests were held back
+         */
+        public long getThrottledNanos() {
+            return throttledNanos.sum();
+        }
+
+        public long getThrottledMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(this.getThrottledNanos());
+        }
+
+        /**
+         * @return The number of 429 responses received
+         */
+        public long getRateLimited() {
+            return rateLimited.sum();
+        }
+
+        @Override
+        public String toString() {
+            return name + "{permitsPerSecond=" + getPermitsPerSecond() + ", requests=" + getRequests() + 
+                    ", throttled=" + getThrottled() + ", throttledMillis=" + getThrottledMillis() + 
+                    ", rateLimited=" + getRateLimited() + '}';
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "{permitsPerSecond=" + getPermitsPerSecond() + 
+                ", burst=" + burst + ", hosts=" + this.getHosts().values() + '}';
+    }
+}
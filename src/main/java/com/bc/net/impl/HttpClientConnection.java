@@ -0,0 +1,443 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
+
+/**
+ * A {@link java.net.HttpURLConnection} whose exchange is performed by a
+ * {@link java.net.http.HttpClient}.
+ * <p>
+ * Request properties, method, timeouts and body are collected as with any
+ * other <tt>HttpURLConnection</tt>. Nothing goes over the wire until the
+ * connection is connected, explicitly or by asking for the response.
+ * The request body is buffered in memory until then.
+ * </p>
+ * <p>
+ * In {@link #setFixedLengthStreamingMode(long) fixed-length streaming mode}, 
+ * the request is instead sent as soon as the output stream is asked for, 
+ * and the body streamed to the client as it is written, a few chunks at 
+ * a time. As with <tt>HttpURLConnection</tt>, a streamed body is not sent 
+ * again, so redirects which require the body (e.g 307 and 308) are not 
+ * followed. Chunked streaming mode is not supported, such bodies are buffered.
+ * </p>
+ * Redirects are followed here rather than by the client, so that one client
+ * (and its connection pool) can serve both values of
+ * {@link #getInstanceFollowRedirects()}.
+ */
+public class HttpClientConnection extends HttpURLConnection {
+
+    private transient static final Logger LOG = Logger.getLogger(HttpClientConnection.class.getName());
+
+    /**
+     * Headers the HttpClient will not let us set, it manages them itself. 
+     * As of Java 11, setting any of these throws IllegalArgumentException
+     */
+    private static final Set<String> RESTRICTED_HEADERS;
+    static{
+        final Set<String> set = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        Collections.addAll(set, "Connection", "Content-Length", "Date", "Expect", 
+                "From", "Host", "Upgrade", "Via", "Warning");
+        RESTRICTED_HEADERS = Collections.unmodifiableSet(set);
+    }
+
+    private static final int MAX_REDIRECTS = 20;
+
+    private final HttpClient client;
+
+    private ByteArrayOutputStream requestBody;
+
+    /**
+     * Completes with the response, when the body is streamed
+     */
+    private CompletableFuture<HttpResponse<InputStream>> streamed;
+
+    private PipedBody pipedBody;
+
+    private HttpResponse<InputStream> response;
+
+    private List<Map.Entry<String, String>> headerList;
+
+    public HttpClientConnection(URL url, HttpClient client) {
+        super(url);
+        this.client = client;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if(this.connected) {
+            return;
+        }
+        try{
+            this.connectAsync().get();
+        }catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            while(cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if(cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Sends the request without blocking.
+     * @return A future which completes with this connection, when the 
+     * response headers have been received.
+     */
+    public CompletableFuture<URLConnection> connectAsync() {
+        if(this.connected) {
+            return CompletableFuture.completedFuture(this);
+        }
+        final CompletableFuture<HttpResponse<InputStream>> sent;
+        if(this.streamed != null) {
+            sent = this.streamed;
+        }else{
+            final URI uri;
+            try{
+                uri = this.url.toURI();
+            }catch(URISyntaxException e) {
+                return CompletableFuture.failedFuture(new IOException(e));
+            }
+            final HttpRequest.BodyPublisher body = this.requestBody == null ?
+                    HttpRequest.BodyPublishers.noBody() : 
+                    HttpRequest.BodyPublishers.ofByteArray(this.requestBody.toByteArray());
+            sent = this.sendAsync(uri, this.method, this.getRequestProperties(), body, true, 0);
+        }
+        return sent.thenApply((res) -> {
+            this.response = res;
+            this.connected = true;
+            return this;
+        });
+    }
+
+    /**
+     * @param replayable If false, the body can not be sent again on redirect
+     */
+    private CompletableFuture<HttpResponse<InputStream>> sendAsync(URI uri, String requestMethod, 
+            Map<String, List<String>> headers, HttpRequest.BodyPublisher body, boolean replayable, int redirects) {
+
+        final HttpRequest request = this.buildRequest(uri, requestMethod, headers, body);
+
+        return this.client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream()).thenCompose((res) -> {
+
+            final URI location = this.getRedirectLocation(res, redirects);
+            if(location == null) {
+                return CompletableFuture.completedFuture(res);
+            }
+
+            final int code = res.statusCode();
+            final boolean toGet = code == HTTP_SEE_OTHER || 
+                    ((code == HTTP_MOVED_PERM || code == HTTP_MOVED_TEMP) && "POST".equals(requestMethod));
+            if(!toGet && !replayable) {
+                LOG.fine(() -> "Not redirecting a streamed body from: " + request.uri() + ", to: " + location);
+                return CompletableFuture.completedFuture(res);
+            }
+
+            try{
+                res.body().close();
+                this.url = location.toURL();
+            }catch(IOException e) {
+                throw new CompletionException(e);
+            }
+
+            LOG.fine(() -> "Redirecting from: " + request.uri() + ", to: " + location);
+
+            if(toGet) {
+                return this.sendAsync(location, "GET", headers, HttpRequest.BodyPublishers.noBody(), true, redirects + 1);
+            }else{
+                return this.sendAsync(location, requestMethod, headers, body, replayable, redirects + 1);
+            }
+        });
+    }
+
+    private URI getRedirectLocation(HttpResponse<?> res, int redirects) {
+        if(!this.getInstanceFollowRedirects() || redirects >= MAX_REDIRECTS) {
+            return null;
+        }
+        final int code = res.statusCode();
+        if(code != HTTP_MOVED_PERM && code != HTTP_MOVED_TEMP && code != HTTP_SEE_OTHER &&
+                code != 307 && code != 308) {
+            return null;
+        }
+        final String location = res.headers().firstValue("Location").orElse(null);
+        if(location == null) {
+            return null;
+        }
+        final URI target = res.uri().resolve(location);
+        // Like HttpURLConnection, never downgrade from https to http
+        if("https".equalsIgnoreCase(res.uri().getScheme()) && !"https".equalsIgnoreCase(target.getScheme())) {
+            return null;
+        }
+        return target;
+    }
+
+    private HttpRequest buildRequest(URI uri, String requestMethod,
+            Map<String, List<String>> headers, HttpRequest.BodyPublisher body) {
+
+        final HttpRequest.Builder builder = HttpRequest.newBuilder(uri).method(requestMethod, body);
+
+        for(Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            final String name = entry.getKey();
+            if(name == null) {
+                continue;
+            }
+            if(RESTRICTED_HEADERS.contains(name)) {
+                LOG.finer(() -> "Not sent, restricted header: " + name);
+                continue;
+            }
+            for(String value : entry.getValue()) {
+                if(value != null) {
+                    try{
+                        builder.header(name, value);
+                    }catch(IllegalArgumentException e) {
+                        // Restricted by a later Java version, or an invalid name or value
+                        LOG.fine(() -> "Not sent, header: " + name + ", " + e.getMessage());
+                    }
+                }
+            }
+        }
+
+        // HttpClient has no per request connect timeout. The request timeout
+        // bounds the whole wait for the response headers so we use the sum.
+        final long timeout = Math.max(0, this.getConnectTimeout()) + Math.max(0, this.getReadTimeout());
+        if(timeout > 0) {
+            builder.timeout(Duration.ofMillis(timeout));
+        }
+
+        return builder.build();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if(this.connected) {
+            throw new ProtocolException("Cannot write output after reading input.");
+        }
+        if(!this.getDoOutput()) {
+            throw new ProtocolException("cannot write to a URLConnection if doOutput=false - call setDoOutput(true)");
+        }
+        // Same as HttpURLConnection
+        if("GET".equals(this.method)) {
+            this.method = "POST";
+        }
+        final long length = this.fixedContentLengthLong != -1 ? this.fixedContentLengthLong : this.fixedContentLength;
+        if(length > 0 && this.requestBody == null) {
+            if(this.pipedBody == null) {
+                this.pipedBody = this.stream(length);
+            }
+            return this.pipedBody.getOutputStream();
+        }
+        if(this.requestBody == null) {
+            this.requestBody = new ByteArrayOutputStream();
+        }
+        return this.requestBody;
+    }
+
+    /**
+     * Sends the request, its body to be read from the returned pipe as it is written
+     */
+    private PipedBody stream(long length) throws IOException {
+        final URI uri;
+        try{
+            uri = this.url.toURI();
+        }catch(URISyntaxException e) {
+            throw new IOException(e);
+        }
+        final PipedBody piped = new PipedBody();
+        final HttpRequest.BodyPublisher body = HttpRequest.BodyPublishers.fromPublisher(
+                HttpRequest.BodyPublishers.ofInputStream(piped::getInputStream), length);
+        // Once the exchange is over, writes fail rather than wait for a reader
+        this.streamed = this.sendAsync(uri, this.method, this.getRequestProperties(), body, false, 0)
+                .whenComplete((res, e) -> piped.abort());
+        return piped;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        this.connect();
+        final int code = this.response.statusCode();
+        if(code >= 400) {
+            final String msg = "Server returned HTTP response code: " + code + " for URL: " + this.url;
+            if(code == HTTP_NOT_FOUND || code == HTTP_GONE) {
+                throw new FileNotFoundException(msg);
+            }
+            throw new IOException(msg);
+        }
+        return this.response.body();
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        if(this.response == null || this.response.statusCode() < 400) {
+            return null;
+        }
+        return this.response.body();
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        this.connect();
+        return this.response.statusCode();
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        this.connect();
+        return reasonPhrase(this.response.statusCode());
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        if(!this.isConnectedQuietly() || name == null) {
+            return null;
+        }
+        final List<String> values = this.response.headers().allValues(name);
+        return values.isEmpty() ? null : values.get(values.size() - 1);
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        if(!this.isConnectedQuietly()) {
+            return Collections.emptyMap();
+        }
+        return this.response.headers().map();
+    }
+
+    @Override
+    public String getHeaderFieldKey(int n) {
+        final Map.Entry<String, String> entry = this.getHeaderEntry(n);
+        return entry == null ? null : entry.getKey();
+    }
+
+    @Override
+    public String getHeaderField(int n) {
+        final Map.Entry<String, String> entry = this.getHeaderEntry(n);
+        return entry == null ? null : entry.getValue();
+    }
+
+    private Map.Entry<String, String> getHeaderEntry(int n) {
+        if(!this.isConnectedQuietly()) {
+            return null;
+        }
+        if(this.headerList == null) {
+            final List<Map.Entry<String, String>> list = new ArrayList<>();
+            final int code = this.response.statusCode();
+            final String version = this.response.version() == HttpClient.Version.HTTP_2 ? "HTTP/2" : "HTTP/1.1";
+            list.add(new AbstractMap.SimpleImmutableEntry<>(null,
+                    version + ' ' + code + ' ' + reasonPhrase(code)));
+            this.response.headers().map().forEach((k, values) -> {
+                for(String v : values) {
+                    list.add(new AbstractMap.SimpleImmutableEntry<>(k, v));
+                }
+            });
+            this.headerList = list;
+        }
+        return n < 0 || n >= this.headerList.size() ? null : this.headerList.get(n);
+    }
+
+    private boolean isConnectedQuietly() {
+        try{
+            this.connect();
+            return true;
+        }catch(IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void disconnect() {
+        if(this.response != null) {
+            try{
+                this.response.body().close();
+            }catch(IOException ignored) { }
+        }
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return this.client.proxy().isPresent();
+    }
+
+    public HttpResponse<InputStream> getResponse() {
+        return this.response;
+    }
+
+    /**
+     * HttpClient does not expose the reason phrase sent by the server.
+     * @param code The response code
+     * @return The standard reason phrase for the code
+     */
+    public static String reasonPhrase(int code) {
+        switch(code) {
+            case 200: return "OK";
+            case 201: return "Created";
+            case 202: return "Accepted";
+            case 204: return "No Content";
+            case 206: return "Partial Content";
+            case 301: return "Moved Permanently";
+            case 302: return "Found";
+            case 303: return "See Other";
+            case 304: return "Not Modified";
+            case 307: return "Temporary Redirect";
+            case 308: return "Permanent Redirect";
+            case 400: return "Bad Request";
+            case 401: return "Unauthorized";
+            case 403: return "Forbidden";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 408: return "Request Timeout";
+            case 410: return "Gone";
+            case 429: return "Too Many Requests";
+            case 500: return "Internal Server Error";
+            case 502: return "Bad Gateway";
+            case 503: return "Service Unavailable";
+            case 504: return "Gateway Timeout";
+            default: return "";
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.impl;
+
+import com.bc.net.Transport;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.http.HttpClient;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * A {@link com.bc.net.Transport} backed by a {@link java.net.http.HttpClient},
+ * giving HTTP/2 multiplexing and a connection pool shared by all requests
+ * opened through the same instance. Create one and share it.
+ * <p>
+ * URLs with a protocol other than <tt>http</tt> or <tt>https</tt> are
+ * delegated to {@link com.bc.net.Transport#DEFAULT}.
+ * </p>
+ * <p>
+ * Request bodies are buffered in memory, unless sent in fixed-length 
+ * streaming mode, as the builder does for bodies of a known length of at 
+ * least {@link RequestBuilderImpl#AUTO_STREAMING_MIN_LENGTH}.
+ * See {@link HttpClientConnection}.
+ * </p>
+ */
+public class HttpClientTransport implements Transport {
+
+    private final HttpClient client;
+
+    public HttpClientTransport() {
+        this(HttpClient.newBuilder());
+    }
+
+    public HttpClientTransport(HttpClient.Builder builder) {
+        // Redirects are followed by HttpClientConnection, per connection
+        this(builder.followRedirects(HttpClient.Redirect.NEVER).build());
+    }
+
+    public HttpClientTransport(HttpClient client) {
+        this.client = Objects.requireNonNull(client);
+    }
+
+    @Override
+    public URLConnection openConnection(URL url) throws IOException {
+        final String protocol = url.getProtocol();
+        if("http".equalsIgnoreCase(protocol) || "https".equalsIgnoreCase(protocol)) {
+            return new HttpClientConnection(url, this.client);
+        }else{
+            return Transport.DEFAULT.openConnection(url);
+        }
+    }
+
+    /**
+     * Connections opened by this transport are connected without blocking
+     * any thread, the input executor is not used for them.
+     */
+    @Override
+    public CompletableFuture<URLConnection> connectAsync(URLConnection connection, Executor executor) {
+        if(connection instanceof HttpClientConnection) {
+            return ((HttpClientConnection)connection).connectAsync();
+        }else{
+            return Transport.super.connectAsync(connection, executor);
+        }
+    }
+
+    public HttpClient getClient() {
+        return client;
+    }
+}
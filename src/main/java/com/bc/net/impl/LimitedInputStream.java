@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.impl;
+
+import com.bc.net.BodyLimits;
+import com.bc.net.ResponseTooLargeException;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Fails with a {@link ResponseTooLargeException} once more bytes are read 
+ * than allowed, having first closed the stream, or the stream set by 
+ * {@link #closeOnFail(java.io.Closeable)}. Closing lets the connection 
+ * be kept alive, when what remains of the body is small enough to skip. 
+ * Reads at most one byte beyond the limit. Not thread-safe.
+ */
+final class LimitedInputStream extends FilterInputStream {
+
+    private final long max;
+
+    /**
+     * The stream of encoded bytes, for the ratio check. Null if this is it.
+     */
+    private final LimitedInputStream encoded;
+
+    private final int maxRatio;
+
+    /**
+     * The length from the Content-Length header, or -1
+     */
+    private final long declaredLength;
+
+    private long count;
+
+    private boolean started;
+
+    /**
+     * Closed on failure. This stream, or a stream which reads from it, e.g 
+     * a decoder, whose resources are then released at once.
+     */
+    private Closeable closeOnFail = this;
+
+    /**
+     * @param in The encoded body
+     * @param max The maximum number of bytes, or -1 for no limit
+     * @param declaredLength The length from the Content-Length header, or -1
+     */
+    LimitedInputStream(InputStream in, long max, long declaredLength) {
+        this(in, max, null, -1, declaredLength);
+    }
+
+    /**
+     * @param in The decoded body
+     * @param max The maximum number of bytes, or -1 for no limit
+     * @param encoded The encoded body, which {@code in} decodes
+     * @param maxRatio The maximum ratio of decoded to encoded bytes, or -1
+     * @param declaredLength The length from the Content-Length header, if 
+     * the body is not encoded, else -1
+     */
+    LimitedInputStream(InputStream in, long max, LimitedInputStream encoded, 
+            int maxRatio, long declaredLength) {
+        super(in);
+        this.max = max;
+        this.encoded = encoded;
+        this.maxRatio = maxRatio;
+        this.declaredLength = declaredLength;
+    }
+
+    @Override
+    public int read() throws IOException {
+        this.start();
+        final int b = super.read();
+        if(b != -1) {
+            this.counted(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        this.start();
+        final int n = super.read(b, off, this.max == -1 ? len : (int)Math.min(len, this.max - this.count + 1));
+        if(n > 0) {
+            this.counted(n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        this.start();
+        final long skipped = super.skip(this.max == -1 ? n : Math.min(n, this.max - this.count + 1));
+        if(skipped > 0) {
+            this.counted(skipped);
+        }
+        return skipped;
+    }
+
+    /**
+     * @param outer The outermost stream reading from this one, closed on 
+     * failure instead of this stream alone
+     */
+    void closeOnFail(Closeable outer) {
+        this.closeOnFail = outer;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    private void start() throws IOException {
+        if(!this.started) {
+            this.started = true;
+            if(this.max != -1 && this.declaredLength > this.max) {
+                this.fail("Content-Length " + this.declaredLength + " exceeds limit of " + 
+                        this.max + " bytes", this.max);
+            }
+        }
+    }
+
+    private void counted(long n) throws IOException {
+        this.count += n;
+        if(this.max != -1 && this.count > this.max) {
+            this.fail((this.encoded == null ? "Encoded" : "Decoded") + 
+                    " body exceeds limit of " + this.max + " bytes", this.max);
+        }
+        if(this.maxRatio != -1 && this.count > BodyLimits.RATIO_CHECK_MIN_BYTES &&
+                this.count > this.maxRatio * Math.max(1, this.encoded.getCount())) {
+            this.fail("Decoded body exceeds " + this.maxRatio + " times the " + 
+                    this.encoded.getCount() + " encoded bytes", this.maxRatio);
+        }
+    }
+
+    private void fail(String message, long limit) throws IOException {
+        try{
+            this.closeOnFail.close();
+        }catch(IOException ignored) { }
+        throw new ResponseTooLargeException(message, limit);
+    }
+}
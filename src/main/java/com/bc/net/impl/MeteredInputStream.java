@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.impl;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Consumer;
+
+/**
+ * Counts the bytes read, and the time spent reading them. The callback,
+ * if any, is called once, at end of stream or on close, whichever is first.
+ * Not thread-safe, like most streams.
+ */
+final class MeteredInputStream extends FilterInputStream {
+
+    private final Consumer<MeteredInputStream> onComplete;
+
+    private long count;
+
+    private long nanos;
+
+    private boolean completed;
+
+    MeteredInputStream(InputStream in) {
+        this(in, null);
+    }
+
+    MeteredInputStream(InputStream in, Consumer<MeteredInputStream> onComplete) {
+        super(in);
+        this.onComplete = onComplete;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final long tb4 = System.nanoTime();
+        final int b = super.read();
+        this.nanos += System.nanoTime() - tb4;
+        if(b == -1) {
+            this.complete();
+        }else{
+            ++this.count;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        final long tb4 = System.nanoTime();
+        final int n = super.read(b, off, len);
+        this.nanos += System.nanoTime() - tb4;
+        if(n == -1) {
+            this.complete();
+        }else{
+            this.count += n;
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        final long tb4 = System.nanoTime();
+        final long skipped = super.skip(n);
+        this.nanos += System.nanoTime() - tb4;
+        this.count += skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try{
+            super.close();
+        }finally{
+            this.complete();
+        }
+    }
+
+    private void complete() {
+        if(!this.completed) {
+            this.completed = true;
+            if(this.onComplete != null) {
+                this.onComplete.accept(this);
+            }
+        }
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    long getNanos() {
+        return nanos;
+    }
+}
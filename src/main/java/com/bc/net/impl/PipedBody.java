@@ -0,0 +1,184 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.net.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands a request body, written on one thread, to the HttpClient which reads
+ * it on another. At most a few chunks are held at a time, the writer blocks 
+ * until the client has read the earlier ones.
+ * <p>
+ * Unlike {@link java.io.PipedInputStream}, neither side fails because the 
+ * thread which last used the other side has ended, as pooled client threads 
+ * may.
+ * </p>
+ */
+final class PipedBody {
+
+    private static final byte [] EOF = new byte[0];
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private static final int MAX_CHUNKS = 8;
+
+    private static final long POLL_MILLIS = 100;
+
+    private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(MAX_CHUNKS);
+
+    private final OutputStream output = new Output();
+
+    private final InputStream input = new Input();
+
+    private volatile boolean aborted;
+
+    OutputStream getOutputStream() {
+        return output;
+    }
+
+    InputStream getInputStream() {
+        return input;
+    }
+
+    /**
+     * The exchange is over, so any chunks not yet read are dropped and 
+     * further writes fail
+     */
+    void abort() {
+        this.aborted = true;
+        this.chunks.clear();
+    }
+
+    private IOException newAbortedException() {
+        return new IOException("The exchange ended before the request body was sent");
+    }
+
+    private final class Output extends OutputStream {
+        private byte [] buffer = new byte[CHUNK_SIZE];
+        private int count;
+        private boolean closed;
+        @Override
+        public void write(int b) throws IOException {
+            if(this.count == this.buffer.length) {
+                this.flush();
+            }
+            this.buffer[this.count++] = (byte)b;
+        }
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while(len > 0) {
+                final int n = Math.min(len, this.buffer.length - this.count);
+                System.arraycopy(b, off, this.buffer, this.count, n);
+                this.count += n;
+                off += n;
+                len -= n;
+                if(this.count == this.buffer.length) {
+                    this.flush();
+                }
+            }
+        }
+        @Override
+        public void flush() throws IOException {
+            if(this.closed) {
+                throw new IOException("Stream closed");
+            }
+            if(this.count == 0) {
+                return;
+            }
+            // The queued chunk is read on another thread, so it is not reused
+            this.put(this.count == this.buffer.length ? this.buffer : Arrays.copyOf(this.buffer, this.count));
+            this.buffer = new byte[CHUNK_SIZE];
+            this.count = 0;
+        }
+        @Override
+        public void close() throws IOException {
+            if(this.closed) {
+                return;
+            }
+            try{
+                this.flush();
+                this.put(EOF);
+            }finally{
+                this.closed = true;
+            }
+        }
+        private void put(byte [] chunk) throws IOException {
+            try{
+                while(!chunks.offer(chunk, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if(aborted) {
+                        throw newAbortedException();
+                    }
+                }
+            }catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(e.getMessage());
+            }
+            if(aborted && chunk != EOF) {
+                throw newAbortedException();
+            }
+        }
+    }
+
+    private final class Input extends InputStream {
+        private byte [] current;
+        private int pos;
+        @Override
+        public int read() throws IOException {
+            final byte [] one = new byte[1];
+            return this.read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0) {
+                return 0;
+            }
+            if(this.current == null || (this.current != EOF && this.pos == this.current.length)) {
+                this.current = this.take();
+                this.pos = 0;
+            }
+            if(this.current == EOF) {
+                return -1;
+            }
+            final int n = Math.min(len, this.current.length - this.pos);
+            System.arraycopy(this.current, this.pos, b, off, n);
+            this.pos += n;
+            return n;
+        }
+        private byte [] take() throws IOException {
+            try{
+                byte [] chunk;
+                while((chunk = chunks.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+                    if(aborted) {
+                        throw newAbortedException();
+                    }
+                }
+                return chunk;
+            }catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(e.getMessage());
+            }
+        }
+    }
+}
@@ -18,17 +18,21 @@ package com.bc.net.impl;
 
 import com.bc.net.util.QueryParametersConverter;
 import com.bc.net.RequestBodyWriter;
+import com.bc.net.RequestBuilder;
+import com.bc.net.jfr.RequestBodyWriteEvent;
+import com.bc.net.util.ByteArrayPool;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
@@ -49,13 +53,35 @@ public class RequestBodyWriterImpl<T> implements RequestBodyWriter<T> {
         InputStream getInputStream() throws IOException;
         default String getContentType(String outputIfUnknown) {
             String output;
-            try{
-                output = URLConnection.guessContentTypeFromStream(this.getInputStream());
+            // Guessing from a stream requires mark/reset
+            try(InputStream in = new BufferedInputStream(this.getInputStream())) {
+                output = URLConnection.guessContentTypeFromStream(in);
             }catch(IOException e) {
+                output = null;
+            }
+            if(output == null) {
                 output = URLConnection.guessContentTypeFromName(this.getResourceName());
             }
             return output == null ? outputIfUnknown : output;
         }
+        /**
+         * @return The number of bytes {@link #writeTo(java.io.OutputStream)}
+         * will write, or -1 if not known in advance
+         */
+        default long getContentLength() {
+            return -1;
+        }
+        /**
+         * Writes the content of this resource. Does not close the output.
+         * @param out The output to write to
+         * @return The number of bytes written
+         * @throws IOException 
+         */
+        default long writeTo(OutputStream out) throws IOException {
+            try(InputStream in = this.getInputStream()) {
+                return ByteArrayPool.getDefault().copy(in, out);
+            }
+        }
     }
     
     private static class FileResource implements Resource {
@@ -71,11 +97,17 @@ public class RequestBodyWriterImpl<T> implements RequestBodyWriter<T> {
         public String getResourceName() { return file.getName(); }
         @Override
         public InputStream getInputStream() throws FileNotFoundException { return new FileInputStream(file); }
+        @Override
+        public long getContentLength() { return file.isFile() ? file.length() : -1; }
     }
     
     private static class UrlResource implements Resource {
         private final String paramName;
         private final URL url;
+        /**
+         * Opened to find the length and type, then used for the next read
+         */
+        private URLConnection connection;
         private UrlResource(String paramName, URL url) {
             this.paramName = Objects.requireNonNull(paramName);
             this.url = Objects.requireNonNull(url);
@@ -85,11 +117,48 @@ public class RequestBodyWriterImpl<T> implements RequestBodyWriter<T> {
         @Override
         public String getResourceName() { return url.getPath(); }
         @Override
-        public InputStream getInputStream() throws IOException { return url.openStream(); }
+        public InputStream getInputStream() throws IOException { 
+            final URLConnection opened = this.connection;
+            if(opened != null) {
+                this.connection = null;
+                return opened.getInputStream();
+            }
+            return url.openStream(); 
+        }
+        @Override
+        public String getContentType(String outputIfUnknown) {
+            final URLConnection opened = this.open();
+            String output = opened == null ? null : opened.getContentType();
+            if(output == null) {
+                output = URLConnection.guessContentTypeFromName(this.getResourceName());
+            }
+            return output == null ? outputIfUnknown : output;
+        }
+        @Override
+        public long getContentLength() {
+            final URLConnection opened = this.open();
+            return opened == null ? -1 : opened.getContentLengthLong();
+        }
+        private URLConnection open() {
+            if(this.connection == null) {
+                try{
+                    this.connection = url.openConnection();
+                }catch(IOException e) {
+                    LOG.log(Level.FINE, "Failed to open: " + url, e);
+                }
+            }
+            return this.connection;
+        }
     }
 
     private final StringBuilder paramBuffer = new StringBuilder();
     
+    /**
+     * The encoded {@link #paramBuffer}, so that finding the length and then
+     * writing a large form does not encode it twice. Null when out of date.
+     */
+    private byte [] paramBytes;
+    
     private final StringBuilder multiPartParamBuffer = new StringBuilder();
     
     private final List<Resource> resources = new ArrayList<>();
@@ -100,6 +169,11 @@ public class RequestBodyWriterImpl<T> implements RequestBodyWriter<T> {
     
     private String charset;
     
+    /**
+     * The charset named by {@link #charset}, looked up when first needed.
+     */
+    private Charset encoding;
+    
     /**
      * Line separator required by multipart/form-data.
      */
@@ -118,6 +192,24 @@ public class RequestBodyWriterImpl<T> implements RequestBodyWriter<T> {
         this.queryBuilder = new QueryParametersConverter("&");
         this.reset();
     }
+    
+    /**
+     * @param back The owner of the copy
+     * @param source The body to copy. Resources are shared, not copied.
+     */
+    RequestBodyWriterImpl(T back, RequestBodyWriterImpl<?> source) {
+        this.back = back;
+        this.queryBuilder = new QueryParametersConverter("&");
+        this.paramBuffer.append(source.paramBuffer);
+        this.paramBytes = source.paramBytes;
+        this.multiPartParamBuffer.append(source.multiPartParamBuffer);
+        this.resources.addAll(source.resources);
+        this.charset = source.charset;
+        this.encoding = source.encoding;
+        this.formDataSeparator = source.formDataSeparator;
+        this.boundary = source.boundary;
+        this.readyToPopulate = source.readyToPopulate;
+    }
 
     @Override
     public T back() {
@@ -135,6 +227,7 @@ public class RequestBodyWriterImpl<T> implements RequestBodyWriter<T> {
 
     public RequestBodyWriter<T> clearCache() {
         this.paramBuffer.setLength(0);
+        this.paramBytes = null;
         this.multiPartParamBuffer.setLength(0);
         this.resources.clear();
         this.readyToPopulate = true;
@@ -174,30 +267,106 @@ public class RequestBodyWriterImpl<T> implements RequestBodyWriter<T> {
         
         this.readyToPopulate = false;
         
+        final RequestBodyWriteEvent event = new RequestBodyWriteEvent();
+        event.begin();
+        
+        final CountingOutputStream counter;
+        if(event.isEnabled()) {
+            out = counter = new CountingOutputStream(out);
+        }else{
+            counter = null;
+        }
+        
         if(this.hasMultiPartParameters() || this.hasMultiPartResources()) {
             
-            try (final PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, this.charset), true)) {
+            try (final OutputStream output = out) {
 
-                this.writeBuffer(writer, this.multiPartParamBuffer);
+                output.write(this.toBytes(this.multiPartParamBuffer));
 
                 for(Resource resource : this.resources) {
 
-                    this.writeFormData(writer, out, resource, this.formDataSeparator);
+                    this.writeFormData(output, resource, this.formDataSeparator);
                 }
 
                 // End of multipart/form-data.
-                writer.append("--" + this.boundary + "--").append(this.formDataSeparator).flush();
+                output.write(this.toBytes(this.getMultiPartEnd()));
+                output.flush();
             }
         }else if(this.hasRequestParameters()){
             
-            try (final PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, this.charset), true)) {
+            try (final OutputStream output = out) {
 
-                this.writeBuffer(writer, this.paramBuffer);
+                output.write(this.getParamBytes());
+                output.flush();
             }
         }else{
             
             LOG.fine(() -> "Nothing to write");
         }
+        
+        event.end();
+        if(event.shouldCommit()) {
+            if(this.back instanceof RequestBuilder) {
+                final RequestBuilder builder = (RequestBuilder)this.back;
+                event.host = builder.getUrl() == null ? null : builder.getUrl().getHost();
+                // A body is sent with POST unless otherwise specified
+                event.method = builder.getMethod() == null ? "POST" : builder.getMethod();
+            }
+            event.multipart = this.hasMultiPartParameters() || this.hasMultiPartResources();
+            event.resources = this.resources.size();
+            event.bytes = counter.getCount();
+            event.commit();
+        }
+    }
+    
+    /**
+     * @return The exact number of bytes of the body, or -1 if there is no 
+     * body, the length of any multipart resource is not known in advance, 
+     * or the charset is not supported, in which case writing will fail.
+     */
+    @Override
+    public long contentLength() {
+        try{
+            return this.computeContentLength();
+        }catch(UnsupportedEncodingException e) {
+            LOG.log(Level.FINE, "Length not known", e);
+            return -1;
+        }
+    }
+    
+    private long computeContentLength() throws UnsupportedEncodingException {
+        if(this.hasMultiPartParameters() || this.hasMultiPartResources()) {
+            long total = this.toBytes(this.multiPartParamBuffer).length;
+            final int separatorLength = this.toBytes(this.formDataSeparator).length;
+            for(Resource resource : this.resources) {
+                final long length = resource.getContentLength();
+                if(length < 0) {
+                    return -1;
+                }
+                total += this.getFormDataHeader(resource, this.formDataSeparator).length + 
+                        length + separatorLength;
+            }
+            return total + this.toBytes(this.getMultiPartEnd()).length;
+        }else if(this.hasRequestParameters()) {
+            return this.getParamBytes().length;
+        }else{
+            return -1;
+        }
+    }
+    
+    private byte [] getParamBytes() throws UnsupportedEncodingException {
+        if(this.paramBytes == null) {
+            this.paramBytes = this.toBytes(this.paramBuffer);
+        }
+        return this.paramBytes;
+    }
+    
+    private String getMultiPartEnd() {
+        return "--" + this.boundary + "--" + this.formDataSeparator;
+    }
+    
+    private byte [] toBytes(CharSequence chars) throws UnsupportedEncodingException {
+        return chars.toString().getBytes(this.getEncoding());
     }
     
     public boolean writeBuffer(PrintWriter writer, StringBuilder buff) {
@@ -214,6 +383,8 @@ public class RequestBodyWriterImpl<T> implements RequestBodyWriter<T> {
     public RequestBodyWriter<T> charset(String charset) {
         this.makeReadyToPopulate();
         this.charset = charset;
+        this.encoding = null;
+        this.paramBytes = null;
         return this;
     }
 
@@ -269,12 +440,22 @@ public class RequestBodyWriterImpl<T> implements RequestBodyWriter<T> {
         Objects.requireNonNull(value);
         Objects.requireNonNull(charset);
 
+        this.paramBytes = null;
+
         if(paramBuffer.length() > 0) {
             paramBuffer.append(this.queryBuilder.getSeparator());
         }
         
+        final Charset encoding;
+        try{
+            encoding = encode ? this.getEncoding() : null;
+        }catch(UnsupportedEncodingException e) {
+            // As thrown by QueryParametersConverter#urlEncode(Object, String)
+            throw new RuntimeException(e);
+        }
+        
         final boolean appended = this.queryBuilder.appendQueryPair(
-                name, value, paramBuffer, encode, this.charset);
+                name, value, paramBuffer, encoding);
         
         if(LOG.isLoggable(Level.FINER)) {
             LOG.log(Level.FINER, "Appended: {0}, {1} = {2}", new Object[]{appended, name, value});
@@ -283,6 +464,24 @@ public class RequestBodyWriterImpl<T> implements RequestBodyWriter<T> {
         return appended;
     }
 
+    /**
+     * @throws UnsupportedEncodingException if the charset name is illegal
+     * or not supported, as thrown by {@link java.io.OutputStreamWriter}
+     */
+    private Charset getEncoding() throws UnsupportedEncodingException {
+        if(this.encoding == null) {
+            try{
+                this.encoding = Charset.forName(this.charset);
+            }catch(IllegalArgumentException e) {
+                // Illegal or unsupported name
+                final UnsupportedEncodingException uee = new UnsupportedEncodingException(this.charset);
+                uee.initCause(e);
+                throw uee;
+            }
+        }
+        return this.encoding;
+    }
+
     public void appendFormData(String name, Object value) {
         
         this.appendFormData(name, value, this.formDataSeparator);
@@ -309,62 +508,37 @@ public class RequestBodyWriterImpl<T> implements RequestBodyWriter<T> {
     public void writeFormData(PrintWriter writer, OutputStream output, Resource resource, String separator) 
             throws IOException {
         
-        final String paramName = resource.getParamName();
-        final String resourceName = resource.getResourceName();
-        
-        LOG.finer(() -> "Writing resource: " + paramName + '=' + resourceName);
+        writer.flush();
         
-        // Send binary file.
-        writer.append("--" + boundary).append(separator);
-        writer.append("Content-Disposition: form-data; name=\"" + paramName + "\"; filename=\"" + resourceName + "\"").append(separator);
-        writer.append("Content-Type: " + resource.getContentType("")).append(separator);
-        writer.append("Content-Transfer-Encoding: binary").append(separator);
-        writer.append(separator).flush();
-        this.copyStream(resource.getInputStream(), output);
-        // Important! Output cannot be closed. Close of writer will close output as well.
-        this.flush(output);
-        writer.append(separator).flush(); // CRLF is important! It indicates end of binary boundary.
+        this.writeFormData(output, resource, separator);
     }
 
-    private void flush(OutputStream c) {
-        if (c != null) {
-            try {
-                c.flush();
-            } catch (IOException e) {
-                LOG.log(Level.WARNING, "Exception flushing.", e);
-            }
-        }
-    }
-
-    private long copyStream(InputStream from, OutputStream to) throws IOException {
-        return this.copyStream(from, to, 0x800); // 2K chars (4K bytes) ;
-    }
-    
     /**
-     * Copies all bytes from the input stream to the output stream.
-     * Does not close or flush either stream.
-     *
-     * @param from the input stream to read from
-     * @param to the output stream to write to
-     * @param bufferSize The size of the buffer to put tye bytes in between read-write operation
-     * @return the number of bytes copied
-     * @throws IOException if an I/O error occurs
+     * Writes the part for the input resource. Does not close the output.
+     * @param output The output to write to
+     * @param resource The resource to write
+     * @param separator The line separator
+     * @throws IOException 
      */
-    private long copyStream(InputStream from, OutputStream to, int bufferSize) throws IOException {
-        if (from == null || to == null) {
-            throw new NullPointerException();
-        }
-        final byte[] buf = new byte[bufferSize];
-        long total = 0;
-        while (true) {
-            int r = from.read(buf);
-            if (r == -1) {
-                break;
-            }
-            to.write(buf, 0, r);
-            total += r;
-        }
-        return total;
+    public void writeFormData(OutputStream output, Resource resource, String separator) 
+            throws IOException {
+        
+        LOG.finer(() -> "Writing resource: " + resource.getParamName() + '=' + resource.getResourceName());
+        
+        output.write(this.getFormDataHeader(resource, separator));
+        // Send binary file.
+        resource.writeTo(output);
+        output.write(this.toBytes(separator)); // CRLF is important! It indicates end of binary boundary.
+    }
+    
+    private byte [] getFormDataHeader(Resource resource, String separator) throws UnsupportedEncodingException {
+        return this.toBytes(new StringBuilder()
+                .append("--").append(boundary).append(separator)
+                .append("Content-Disposition: form-data; name=\"").append(resource.getParamName())
+                .append("\"; filename=\"").append(resource.getResourceName()).append('"').append(separator)
+                .append("Content-Type: ").append(resource.getContentType("")).append(separator)
+                .append("Content-Transfer-Encoding: binary").append(separator)
+                .append(separator));
     }
 
     @Override
@@ -16,11 +16,23 @@
 
 package com.bc.net.impl;
 
+import com.bc.net.BodyLimits;
 import com.bc.net.CookieProcessor;
+import com.bc.net.Interceptor;
+import com.bc.net.RateLimiter;
 import com.bc.net.RequestBodyWriter;
+import com.bc.net.RequestListener;
+import com.bc.net.RequestTemplate;
 import com.bc.net.Response;
+import com.bc.net.Transport;
+import com.bc.net.jfr.RequestBuildEvent;
+import com.bc.net.util.AsyncExecutors;
+import com.bc.net.util.ContentDecoders;
+import com.bc.net.util.RetryAfter;
 import com.bc.net.util.UserAgents;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.net.HttpURLConnection;
 import java.net.URL;
@@ -36,6 +48,11 @@ import java.util.Set;
 import java.util.logging.Logger;
 import com.bc.net.RequestBuilder;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 
 /**
@@ -44,6 +61,14 @@ import java.util.logging.Level;
 public class RequestBuilderImpl implements Serializable, RequestBuilder {
 
     private transient static final Logger LOG = Logger.getLogger(RequestBuilderImpl.class.getName());
+    
+    /**
+     * Request bodies of known length, at least this size, are streamed 
+     * rather than buffered in memory. A redirect in response to a streamed
+     * request can not be followed, and causes a {@link java.net.HttpRetryException},
+     * so smaller bodies, e.g typical form posts, are still buffered.
+     */
+    public static final long AUTO_STREAMING_MIN_LENGTH = 64 * 1024;
 
     private boolean generateRandomUserAgent;
     private boolean mobileUserAgent;
@@ -62,30 +87,104 @@ public class RequestBuilderImpl implements Serializable, RequestBuilder {
     private boolean followRedirects;
 
     private CookieProcessor cookieProcessor;
+    
+    private transient Transport transport;
+    
+    private transient Executor executor;
+    
+    private transient RequestListener listener;
+    
+    private transient BodyLimits bodyLimits;
+    
+    /**
+     * Unmodifiable, replaced when an interceptor is added
+     */
+    private transient List<Interceptor> interceptors;
+    
+    /**
+     * Null for no limit
+     */
+    private transient RateLimiter rateLimiter;
+    
+    /**
+     * The URL for which a permit of the rate limiter was reserved before 
+     * this copy was scheduled, null if none
+     */
+    private transient URL reservedFor;
 
     private final Set<String> cookies;
+    /**
+     * A lock rather than a monitor, so that virtual threads are not pinned
+     */
+    private final ReentrantLock cookiesLock;
     private final Map<String, Object> requestProperties; 
     private final RequestBodyWriter<RequestBuilder> bodyBuilder;
 
     public RequestBuilderImpl() {
         this.requestProperties = new HashMap<>();
         this.cookies = new LinkedHashSet<>();
+        this.cookiesLock = new ReentrantLock();
         this.bodyBuilder = new RequestBodyWriterImpl<>(this);
         this.reset();
     }
     
+    /**
+     * @param template The settings to initialize this builder with
+     * @see com.bc.net.RequestTemplate#newRequest() 
+     */
+    public RequestBuilderImpl(RequestTemplate template) {
+        this();
+        template.applyTo(this);
+    }
+    
+    /**
+     * A copy of the source, for sending on another thread, so that the 
+     * source may be changed meanwhile. The cookies are shared with the 
+     * source, so that cookies received are kept by the source.
+     * @param source The builder to copy
+     */
+    private RequestBuilderImpl(RequestBuilderImpl source) {
+        this.requestProperties = new HashMap<>(source.requestProperties);
+        this.cookies = source.cookies;
+        this.cookiesLock = source.cookiesLock;
+        this.bodyBuilder = new RequestBodyWriterImpl<>(this, (RequestBodyWriterImpl<?>)source.bodyBuilder);
+        this.generateRandomUserAgent = source.generateRandomUserAgent;
+        this.mobileUserAgent = source.mobileUserAgent;
+        this.connectTimeout = source.connectTimeout;
+        this.readTimeout = source.readTimeout;
+        this.chunkedStreamingBuffer = source.chunkedStreamingBuffer;
+        this.fixedLengthStreamingBuffer = source.fixedLengthStreamingBuffer;
+        this.url = source.url;
+        this.method = source.method;
+        this.readyToPopulate = source.readyToPopulate;
+        this.followRedirects = source.followRedirects;
+        this.cookieProcessor = source.cookieProcessor;
+        this.transport = source.transport;
+        this.executor = source.executor;
+        this.listener = source.listener;
+        this.bodyLimits = source.bodyLimits;
+        this.interceptors = source.interceptors;
+        this.rateLimiter = source.rateLimiter;
+    }
+    
     @Override
     public RequestBuilder reset() {
         this.cookieProcessor = new CookieProcessorImpl();
+        this.transport = Transport.DEFAULT;
+        this.executor = null;
+        this.listener = RequestListener.NO_OP;
+        this.bodyLimits = BodyLimits.NONE;
+        this.interceptors = Collections.emptyList();
+        this.rateLimiter = null;
+        this.reservedFor = null;
         this.followRedirects = true;
         this.generateRandomUserAgent = true;
         this.mobileUserAgent = false;
         this.connectTimeout = -1;
         this.readTimeout = -1;
-        final boolean settingChunkedStreamingTo8192OftenCausesErrorCode400 = true;
-        if(!settingChunkedStreamingTo8192OftenCausesErrorCode400) {
-            this.chunkedStreamingBuffer = 8192;
-        }
+        // Many servers respond with 400 to chunked request bodies, so bodies 
+        // whose length is not known are buffered unless this is set
+        this.chunkedStreamingBuffer = 0;
         this.fixedLengthStreamingBuffer = 0;
         this.bodyBuilder.reset();
         this.clear();
@@ -101,7 +200,12 @@ public class RequestBuilderImpl implements Serializable, RequestBuilder {
     
     @Override
     public RequestBuilder clearCookies() {
-        this.cookies.clear();
+        this.cookiesLock.lock();
+        try{
+            this.cookies.clear();
+        }finally{
+            this.cookiesLock.unlock();
+        }
         return this;
     }
     
@@ -118,26 +222,204 @@ public class RequestBuilderImpl implements Serializable, RequestBuilder {
 
     @Override
     public Response response() throws IOException {
-        final URLConnection connection = this.build();
-        final Response response = new ResponseImpl(connection, this.cookieProcessor);
-        this.cookies.addAll(response.getCookies());
+        final List<Interceptor> list = this.getInterceptors();
+        return list.isEmpty() ? this.execute() : new InterceptorChain(this, list, 0).proceed();
+    }
+    
+    /**
+     * Builds and sends the request, the end of the interceptor chain
+     */
+    private Response execute() throws IOException {
+        final RateLimiter limiter = this.getRateLimiter();
+        if(limiter == null) {
+            return this.send();
+        }
+        final URL target = this.getUrl();
+        if(target != null && target == this.reservedFor) {
+            // Reserved, and waited for, by responseAsync. Retries acquire anew
+            this.reservedFor = null;
+        }else{
+            limiter.acquire(target);
+        }
+        final Response response = this.send();
+        onResponse(limiter, target, response);
+        return response;
+    }
+    
+    private static void onResponse(RateLimiter limiter, URL url, Response response) {
+        final int code = response.getCode();
+        limiter.onResponse(url, code, code == 429 || code == 503 ? 
+                RetryAfter.getMillis(response.getUrlConnection()) : -1);
+    }
+    
+    private Response send() throws IOException {
+        final RequestListener l = this.getListener();
+        if(l == RequestListener.NO_OP) {
+            final URLConnection connection = this.build(l, true);
+            return this.newResponse(connection, this.cookieProcessor, l, this.getBodyLimits());
+        }else{
+            final URLConnection connection = this.build(l, true);
+            // Requests with a body were connected when the body was written
+            if(!this.bodyBuilder.hasOutput()) {
+                this.connect(connection, l);
+            }
+            final long tb4 = System.nanoTime();
+            final Response response = this.newResponse(connection, this.cookieProcessor, l, this.getBodyLimits());
+            l.onResponseHeaders(connection.getURL(), response.getCode(), System.nanoTime() - tb4);
+            return response;
+        }
+    }
+    
+    @Override
+    public CompletableFuture<Response> responseAsync(Executor executor) {
+        final List<Interceptor> list = this.getInterceptors();
+        if(!list.isEmpty()) {
+            // The builder may be changed once we return, so the chain runs on a copy
+            final RequestBuilderImpl request = new RequestBuilderImpl(this);
+            // The permit is reserved here, and the chain scheduled once it is 
+            // due, so that no executor thread is blocked waiting for it
+            final RateLimiter limiter = request.getRateLimiter();
+            final long wait;
+            if(limiter == null || request.getUrl() == null) {
+                wait = 0;
+            }else{
+                wait = limiter.reserve(request.getUrl());
+                request.reservedFor = request.getUrl();
+            }
+            return CompletableFuture.supplyAsync(() -> {
+                try{
+                    return new InterceptorChain(request, list, 0).proceed();
+                }catch(IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, wait <= 0 ? executor : CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS, executor));
+        }
+        final RateLimiter limiter = this.getRateLimiter();
+        final URL target = this.getUrl();
+        long wait = 0;
+        if(limiter != null) {
+            if(this.bodyBuilder.hasOutput()) {
+                // The body is written on this thread, so we wait here
+                try{
+                    limiter.acquire(target);
+                }catch(InterruptedIOException e) {
+                    return CompletableFuture.failedFuture(e);
+                }
+            }else{
+                wait = limiter.reserve(target);
+            }
+        }
+        final URLConnection connection;
+        try{
+            connection = this.build(RequestListener.NO_OP, true);
+        }catch(IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        // The builder may be changed once we return, so we keep what we need
+        final CookieProcessor processor = this.cookieProcessor;
+        final RequestListener l = this.getListener();
+        final BodyLimits limits = this.getBodyLimits();
+        final Transport transport = this.getTransport();
+        final long tb4 = l == RequestListener.NO_OP ? 0 : System.nanoTime() + wait;
+        // No thread is held while waiting for the rate limit. The transport
+        // is only called once the wait is over, as it need not use the executor
+        final CompletableFuture<URLConnection> connected = wait <= 0 ? 
+                transport.connectAsync(connection, executor) :
+                CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS, executor))
+                        .thenCompose((v) -> transport.connectAsync(connection, executor));
+        return connected.thenApply((conn) -> {
+            try{
+                final Response response = this.newResponse(conn, processor, l, limits);
+                if(l != RequestListener.NO_OP) {
+                    l.onResponseHeaders(conn.getURL(), response.getCode(), System.nanoTime() - tb4);
+                }
+                if(limiter != null) {
+                    onResponse(limiter, target, response);
+                }
+                return response;
+            }catch(IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+    
+    private static final class InterceptorChain implements Interceptor.Chain {
+        private final RequestBuilderImpl builder;
+        private final List<Interceptor> interceptors;
+        private final int index;
+        private InterceptorChain(RequestBuilderImpl builder, List<Interceptor> interceptors, int index) {
+            this.builder = builder;
+            this.interceptors = interceptors;
+            this.index = index;
+        }
+        @Override
+        public RequestBuilder request() {
+            return builder;
+        }
+        @Override
+        public Response proceed() throws IOException {
+            if(index == interceptors.size()) {
+                return builder.execute();
+            }
+            final Interceptor interceptor = interceptors.get(index);
+            return Objects.requireNonNull(interceptor.intercept(new InterceptorChain(builder, interceptors, index + 1)), 
+                    () -> "Interceptor returned null: " + interceptor);
+        }
+    }
+    
+    protected Response newResponse(URLConnection connection, CookieProcessor processor, 
+            RequestListener listener, BodyLimits limits) throws IOException {
+        final Response response = new ResponseImpl(connection, processor, listener, limits);
+        if(processor.isStateful()) {
+            return response;
+        }
+        this.cookiesLock.lock();
+        try{
+            this.cookies.addAll(response.getCookies());
+        }finally{
+            this.cookiesLock.unlock();
+        }
         return response;
     }
     
     @Override
     public URLConnection build() throws IOException{
-        
-        this.readyToPopulate = false;
-        
-        final long mb4 = this.availableMemory();
-        final long tb4 = System.currentTimeMillis();
+        return this.build(RequestListener.NO_OP);
+    }
+    
+    /**
+     * @param l Notified of the connect and request write timings. When not 
+     * {@link RequestListener#NO_OP}, a request with a body is connected 
+     * before the body is written.
+     * @return The connection, with any request body written
+     * @throws IOException 
+     * @see #build(com.bc.net.RequestListener, boolean) 
+     */
+    protected URLConnection build(RequestListener l) throws IOException{
+        return this.build(l, false);
+    }
+    
+    /**
+     * @param l Notified of the connect and request write timings. When not 
+     * {@link RequestListener#NO_OP}, a request with a body is connected 
+     * before the body is written.
+     * @param acceptEncoding If true, and the caller has not set the header, 
+     * send an <tt>Accept-Encoding</tt> of the {@link ContentDecoders registered} 
+     * codings. Only for connections whose response will be decoded, i.e
+     * read through a {@link Response}, not straight from the connection.
+     * @return The connection, with any request body written
+     * @throws IOException 
+     */
+    protected URLConnection build(RequestListener l, boolean acceptEncoding) throws IOException{
         
         Objects.requireNonNull(this.cookieProcessor);
         
-        final URLConnection connection = url.openConnection();
+        final RequestBuildEvent event = new RequestBuildEvent();
+        event.begin();
         
-        LOG.finer(() -> "Opened connection. Spent, time: " + (System.currentTimeMillis() - tb4) + 
-                ", memory: " + this.usedMemory(mb4) + ", connection: " + connection);
+        final URLConnection connection = this.getTransport().openConnection(url);
+        
+        LOG.finer(() -> "Opened connection: " + connection);
 
         connection.setDoOutput(this.bodyBuilder.hasOutput());
         connection.setDoInput(true);
@@ -151,6 +433,12 @@ public class RequestBuilderImpl implements Serializable, RequestBuilder {
                 (httpConn).setFixedLengthStreamingMode(this.getFixedLengthStreamingBuffer());
             } else if (this.getChunkedStreamingBuffer() > 0) {
                 (httpConn).setChunkedStreamingMode(this.getChunkedStreamingBuffer());
+            } else if (this.bodyBuilder.hasOutput()) {
+                final long length = this.bodyBuilder.contentLength();
+                if(length >= AUTO_STREAMING_MIN_LENGTH) {
+                    LOG.finer(() -> "Streaming FixedLength, automatic: " + length);
+                    httpConn.setFixedLengthStreamingMode(length);
+                }
             }
             if (readTimeout > -1) {
                 httpConn.setReadTimeout(readTimeout);
@@ -165,11 +453,25 @@ public class RequestBuilderImpl implements Serializable, RequestBuilder {
             this.addRandomUserAgentFor(url);
         }
         
+        // Only after adding the user agent, which would otherwise clear 
+        // the url and request properties
+        this.readyToPopulate = false;
+        
         this.populateConnection(connection);
         
-        final Level level = cookies == null || cookies.isEmpty() ? Level.FINER :Level.FINE;
-        LOG.log(level, () -> "Adding cookies to request: " + cookies);            
-        this.cookieProcessor.addCookiesToRequest(connection, cookies);
+        // Unless the caller chose, e.g identity
+        if(acceptEncoding && connection.getRequestProperty("Accept-Encoding") == null) {
+            connection.setRequestProperty("Accept-Encoding", ContentDecoders.getAcceptEncoding());
+        }
+        
+        this.cookiesLock.lock();
+        try{
+            final Level level = cookies.isEmpty() ? Level.FINER :Level.FINE;
+            LOG.log(level, () -> "Adding cookies to request: " + cookies);            
+            this.cookieProcessor.addCookiesToRequest(connection, cookies);
+        }finally{
+            this.cookiesLock.unlock();
+        }
         
         if(method != null) {
             if(connection instanceof HttpURLConnection) {
@@ -177,18 +479,57 @@ public class RequestBuilderImpl implements Serializable, RequestBuilder {
             }
         }
         
+        long bytes = -1;
         if(this.bodyBuilder.hasOutput()) {
-            this.bodyBuilder.write(connection);
+            if(l == RequestListener.NO_OP && !event.isEnabled()) {
+                this.bodyBuilder.write(connection);
+            }else{
+                if(l != RequestListener.NO_OP) {
+                    this.connect(connection, l);
+                }
+                final long tb4 = System.nanoTime();
+                final CountingOutputStream output;
+                try(OutputStream out = connection.getOutputStream()) {
+                    output = new CountingOutputStream(out);
+                    this.bodyBuilder.write(output);
+                }
+                bytes = output.getCount();
+                l.onRequestWritten(connection.getURL(), bytes, System.nanoTime() - tb4);
+            }
+        }
+        
+        event.end();
+        if(event.shouldCommit()) {
+            event.host = connection.getURL().getHost();
+            event.method = methodOf(connection);
+            event.bytes = bytes;
+            event.commit();
         }
 
         return connection;
     }
+    
+    static String methodOf(URLConnection connection) {
+        return connection instanceof HttpURLConnection ? 
+                ((HttpURLConnection)connection).getRequestMethod() : null;
+    }
+    
+    /**
+     * Connect separately, so that the time taken is not included in the 
+     * time to write the request or receive the response.
+     */
+    private void connect(URLConnection connection, RequestListener l) throws IOException {
+        // Here connecting sends the whole request
+        if(connection instanceof HttpClientConnection) {
+            return;
+        }
+        final long tb4 = System.nanoTime();
+        connection.connect();
+        l.onConnected(connection.getURL(), System.nanoTime() - tb4);
+    }
 
     protected void populateConnection(URLConnection connection) {
         
-        final long mb4 = this.availableMemory();
-        final long tb4 = System.currentTimeMillis();
-        
         if (requestProperties != null) {
             
             for (String key : requestProperties.keySet()) {
@@ -201,9 +542,6 @@ public class RequestBuilderImpl implements Serializable, RequestBuilder {
                 }
             }
         }
-        
-        LOG.finer(() -> "Populated connection with request properties. Spent, time: " + 
-                (System.currentTimeMillis() - tb4) + ", memory: " + this.usedMemory(mb4));
     }
 
     public void addRandomUserAgentFor(URL url) {
@@ -248,6 +586,80 @@ public class RequestBuilderImpl implements Serializable, RequestBuilder {
         return this;
     }
     
+    @Override
+    public Transport getTransport() {
+        return transport == null ? Transport.DEFAULT : transport;
+    }
+
+    @Override
+    public RequestBuilder transport(Transport transport) {
+        this.makeReadyToPopulate();
+        this.transport = Objects.requireNonNull(transport);
+        return this;
+    }
+    
+    @Override
+    public Executor getExecutor() {
+        return executor == null ? AsyncExecutors.getDefault() : executor;
+    }
+
+    @Override
+    public RequestBuilder executor(Executor executor) {
+        this.makeReadyToPopulate();
+        this.executor = executor;
+        return this;
+    }
+    
+    @Override
+    public RequestListener getListener() {
+        return listener == null ? RequestListener.NO_OP : listener;
+    }
+
+    @Override
+    public RequestBuilder listener(RequestListener listener) {
+        this.makeReadyToPopulate();
+        this.listener = Objects.requireNonNull(listener);
+        return this;
+    }
+
+    @Override
+    public List<Interceptor> getInterceptors() {
+        return interceptors == null ? Collections.emptyList() : interceptors;
+    }
+
+    @Override
+    public RequestBuilder interceptor(Interceptor interceptor) {
+        this.makeReadyToPopulate();
+        final List<Interceptor> update = new ArrayList<>(this.getInterceptors());
+        update.add(Objects.requireNonNull(interceptor));
+        this.interceptors = Collections.unmodifiableList(update);
+        return this;
+    }
+
+    @Override
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    @Override
+    public RequestBuilder rateLimiter(RateLimiter rateLimiter) {
+        this.makeReadyToPopulate();
+        this.rateLimiter = rateLimiter;
+        return this;
+    }
+
+    @Override
+    public BodyLimits getBodyLimits() {
+        return bodyLimits == null ? BodyLimits.NONE : bodyLimits;
+    }
+
+    @Override
+    public RequestBuilder bodyLimits(BodyLimits limits) {
+        this.makeReadyToPopulate();
+        this.bodyLimits = Objects.requireNonNull(limits);
+        return this;
+    }
+    
     @Override
     public URL getUrl() {
         return url;
@@ -346,13 +758,23 @@ public class RequestBuilderImpl implements Serializable, RequestBuilder {
 
     @Override
     public List<String> getCookies() {
-        return this.cookies.isEmpty() ? Collections.EMPTY_LIST : Collections.unmodifiableList(new ArrayList(cookies));
+        this.cookiesLock.lock();
+        try{
+            return this.cookies.isEmpty() ? Collections.EMPTY_LIST : Collections.unmodifiableList(new ArrayList(cookies));
+        }finally{
+            this.cookiesLock.unlock();
+        }
     }
 
     @Override
     public RequestBuilderImpl addCookies(Collection<String> cookiesToAdd) {
         this.makeReadyToPopulate();
-        this.cookies.addAll(cookiesToAdd);
+        this.cookiesLock.lock();
+        try{
+            this.cookies.addAll(cookiesToAdd);
+        }finally{
+            this.cookiesLock.unlock();
+        }
         return this;
     }
 
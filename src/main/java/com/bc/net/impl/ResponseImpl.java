@@ -16,8 +16,14 @@
 
 package com.bc.net.impl;
 
+import com.bc.net.BodyLimits;
 import com.bc.net.CookieProcessor;
+import com.bc.net.RequestListener;
 import com.bc.net.Response;
+import com.bc.net.jfr.ResponseStreamEvent;
+import com.bc.net.util.ByteArrayPool;
+import com.bc.net.util.ContentDecoders;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
@@ -26,9 +32,6 @@ import java.util.List;
 import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.Inflater;
-import java.util.zip.InflaterInputStream;
 
 /**
  * @author Chinomso Bassey Ikwuagwu on Jun 9, 2018 9:45:00 AM
@@ -48,13 +51,45 @@ public class ResponseImpl implements Response{
     private String responseMessage;
     
     private CookieProcessor cookieProcessor;
+    
+    private final RequestListener listener;
+    
+    private final BodyLimits limits;
+    
 
     public ResponseImpl(URLConnection urlConn) throws IOException {
         this(urlConn, CookieProcessor.NO_COOKIES);
     }
     
     public ResponseImpl(URLConnection urlConn, CookieProcessor cookieProcessor) throws IOException {
+        this(urlConn, cookieProcessor, RequestListener.NO_OP);
+    }
+    
+    /**
+     * @param urlConn The connection to read the response from
+     * @param cookieProcessor Loads the cookies of the response
+     * @param listener Notified of the bytes read and time spent decoding, 
+     * when the response body has been read
+     * @throws IOException 
+     */
+    public ResponseImpl(URLConnection urlConn, CookieProcessor cookieProcessor, 
+            RequestListener listener) throws IOException {
+        this(urlConn, cookieProcessor, listener, BodyLimits.NONE);
+    }
+    
+    /**
+     * @param urlConn The connection to read the response from
+     * @param cookieProcessor Loads the cookies of the response
+     * @param listener Notified of the bytes read and time spent decoding, 
+     * when the response body has been read
+     * @param limits The limits on the size of the response body
+     * @throws IOException 
+     */
+    public ResponseImpl(URLConnection urlConn, CookieProcessor cookieProcessor, 
+            RequestListener listener, BodyLimits limits) throws IOException {
         this.urlConnection = Objects.requireNonNull(urlConn);
+        this.listener = Objects.requireNonNull(listener);
+        this.limits = Objects.requireNonNull(limits);
         this.inputStream = this.getInputStream(urlConn);
         this.cookieProcessor = Objects.requireNonNull(cookieProcessor);
         if(urlConn instanceof HttpURLConnection) {
@@ -68,8 +103,10 @@ public class ResponseImpl implements Response{
     
     public InputStream getInputStream(URLConnection urlConn) throws IOException {
 
-//final long mb4 = com.bc.util.Util.availableMemory();        
-//final long tb4 = System.currentTimeMillis();  
+        final ResponseStreamEvent event = new ResponseStreamEvent();
+        event.begin();
+        final boolean metered = this.listener != RequestListener.NO_OP || event.isEnabled();
+        final long tb4 = metered ? System.nanoTime() : 0;
         
         int code = -1;
         HttpURLConnection httpConn = null;
@@ -77,6 +114,7 @@ public class ResponseImpl implements Response{
             httpConn = (HttpURLConnection)urlConn;
             code = this.getResponseCode(httpConn, -1);
         }
+        final long headersNanos = metered ? System.nanoTime() - tb4 : 0;
 
 // http://www.oracle.com/technetwork/java/javase/compatibility-417013.html
 // At the page search for: Invalid Http Response .. for possiblity of -1 response code
@@ -106,26 +144,146 @@ public class ResponseImpl implements Response{
         
         if(in != null) {
             
+            in = new RawInputStream(in);
+            
+            final MeteredInputStream raw;
+            if(metered) {
+                in = raw = new MeteredInputStream(in);
+            }else{
+                raw = null;
+            }
+            
             final String s = urlConn.getContentEncoding();
             final String contentEncoding = s == null ? null : s.toLowerCase();
             
-            if (null != contentEncoding && contentEncoding.contains("gzip")) {
-                
-                in = new GZIPInputStream (in);
-                
-            } else if (null != contentEncoding && contentEncoding.contains("deflate")){
-                
-                in = new InflaterInputStream(in, new Inflater(true));
+            LimitedInputStream encoded = null;
+            if(!this.limits.isNone()) {
+                in = encoded = new LimitedInputStream(in, this.limits.getMaxEncodedBytes(), 
+                        urlConn.getContentLengthLong());
+            }
+            
+            // Stacked codings e.g "gzip, br" are decoded in reverse
+            in = ContentDecoders.decode(in, contentEncoding);
+            
+            if(encoded != null && (this.limits.getMaxDecodedBytes() != -1 || 
+                    (this.limits.getMaxRatio() != -1 && contentEncoding != null))) {
+                in = new LimitedInputStream(in, this.limits.getMaxDecodedBytes(), encoded, 
+                        contentEncoding == null ? -1 : this.limits.getMaxRatio(),
+                        contentEncoding == null ? urlConn.getContentLengthLong() : -1);
+            }
+            
+            if(encoded != null && in != encoded) {
+                // So that any decoder, and its pooled inflater, is released at once
+                encoded.closeOnFail(in);
+            }
+            
+            if(raw != null) {
+                final RequestListener l = this.listener;
+                final int status = code;
+                // Exclude any header already read by the decoder
+                final long rawNanosBefore = raw.getNanos();
+                in = new MeteredInputStream(in, (decoded) -> {
+                    final long decodeNanos = Math.max(0, decoded.getNanos() - (raw.getNanos() - rawNanosBefore));
+                    l.onBodyRead(urlConn.getURL(), raw.getCount(), decoded.getCount(), decodeNanos);
+                    event.end();
+                    if(event.shouldCommit()) {
+                        event.host = urlConn.getURL().getHost();
+                        event.method = RequestBuilderImpl.methodOf(urlConn);
+                        event.status = status;
+                        event.contentEncoding = contentEncoding;
+                        event.headersDuration = headersNanos;
+                        event.decodeDuration = decodeNanos;
+                        event.bytes = raw.getCount();
+                        event.decodedBytes = decoded.getCount();
+                        event.commit();
+                    }
+                });
             }
         }
 
-//log(Level.FINER, 
-//"Done getting input stream. Spent, time: {0}, memory: {1}", 
-//System.currentTimeMillis()-tb4, com.bc.util.Util.usedMemory(mb4));
-
         return Objects.requireNonNull(in);
     }
     
+    /**
+     * Closes the body, first skipping what remains of it up to the 
+     * {@link BodyLimits#getMaxDrainBytes() drain limit}. A body read to the 
+     * end lets the connection be kept alive, including that of an error 
+     * response. Closing the {@link #getInputStream() input stream} has the
+     * same effect.
+     * @throws IOException 
+     */
+    @Override
+    public void close() throws IOException {
+        this.inputStream.close();
+    }
+    
+    /**
+     * The body as received. On close, skips any unread bytes and notifies 
+     * the listener.
+     */
+    private final class RawInputStream extends FilterInputStream {
+        private boolean eof;
+        private boolean closed;
+        private RawInputStream(InputStream in) {
+            super(in);
+        }
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if(b == -1) {
+                this.eof = true;
+            }
+            return b;
+        }
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if(n == -1) {
+                this.eof = true;
+            }
+            return n;
+        }
+        @Override
+        public void close() throws IOException {
+            if(this.closed) {
+                return;
+            }
+            this.closed = true;
+            long drained = 0;
+            try{
+                if(!this.eof) {
+                    drained = this.drain(limits.getMaxDrainBytes());
+                }
+            }finally{
+                super.close();
+                listener.onClosed(urlConnection.getURL(), 
+                        this.eof && !"close".equalsIgnoreCase(urlConnection.getHeaderField("Connection")), drained);
+            }
+        }
+        private long drain(long limit) {
+            final ByteArrayPool pool = ByteArrayPool.getDefault();
+            final byte [] buffer = pool.acquire();
+            long total = 0;
+            try{
+                while(total <= limit) {
+                    final int n = this.read(buffer, 0, (int)Math.min(buffer.length, limit - total + 1));
+                    if(n == -1) {
+                        break;
+                    }
+                    total += n;
+                }
+            }catch(IOException e) {
+                LOG.log(Level.FINER, "Failed to drain: " + urlConnection.getURL(), e);
+            }finally{
+                pool.release(buffer);
+            }
+            if(!this.eof) {
+                LOG.finer(() -> "Not drained, body exceeds " + limit + " bytes: " + urlConnection.getURL());
+            }
+            return total;
+        }
+    }
+    
     public int getResponseCode(HttpURLConnection httpConn, int outputIfNone) {
         try{
             return httpConn.getResponseCode();
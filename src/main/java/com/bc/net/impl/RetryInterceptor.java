@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.impl;
+
+import com.bc.net.Interceptor;
+import com.bc.net.RequestBuilder;
+import com.bc.net.Response;
+import com.bc.net.RetryBudget;
+import com.bc.net.RetryPolicy;
+import com.bc.net.util.RetryAfter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Retries requests according to a {@link RetryPolicy}. Each attempt calls
+ * {@link Interceptor.Chain#proceed()}, so the request is built again on a 
+ * fresh connection. A response which is retried is closed first, so that 
+ * its connection may be reused.
+ * <p>
+ * When attempts run out, the last response is returned, or the last 
+ * exception thrown with the earlier ones {@link Throwable#getSuppressed() suppressed}.
+ * The delay between attempts is spent sleeping on the calling thread.
+ * </p>
+ */
+public class RetryInterceptor implements Interceptor {
+
+    private transient static final Logger LOG = Logger.getLogger(RetryInterceptor.class.getName());
+
+    private final RetryPolicy policy;
+
+    public RetryInterceptor(RetryPolicy policy) {
+        this.policy = Objects.requireNonNull(policy);
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+
+        final RetryBudget budget = policy.getBudget();
+        budget.onRequest();
+
+        final String method = methodOf(chain.request());
+
+        IOException failure = null;
+
+        for(int attempt = 1; ; attempt++) {
+
+            final Response response;
+            try{
+                response = chain.proceed();
+            }catch(IOException e) {
+                if(failure != null) {
+                    e.addSuppressed(failure);
+                }
+                if(attempt >= policy.getMaxAttempts() || !policy.isRetryable(method, e) || !budget.tryAcquire()) {
+                    throw e;
+                }
+                failure = e;
+                final long delay = policy.getDelayMillis(attempt);
+                if(LOG.isLoggable(Level.FINE)) {
+                    LOG.log(Level.FINE, "Retrying {0} {1} in {2}ms, after: {3}", 
+                            new Object[]{method, chain.request().getUrl(), delay, e});
+                }
+                this.sleep(delay);
+                continue;
+            }
+
+            final int code = response.getCode();
+            if(attempt >= policy.getMaxAttempts() || !policy.isRetryable(method, code)) {
+                return response;
+            }
+
+            long delay = policy.getDelayMillis(attempt);
+            if(code == 429 || code == 503) {
+                final long retryAfter = RetryAfter.getMillis(response.getUrlConnection());
+                if(retryAfter > policy.getMaxRetryAfterMillis()) {
+                    LOG.fine(() -> "Not retrying, Retry-After of " + retryAfter + "ms exceeds limit of " + 
+                            policy.getMaxRetryAfterMillis() + "ms, for: " + chain.request().getUrl());
+                    return response;
+                }
+                if(retryAfter >= 0) {
+                    delay = retryAfter;
+                }
+            }
+
+            if(!budget.tryAcquire()) {
+                LOG.fine(() -> "Not retrying, retry budget exhausted, for: " + chain.request().getUrl());
+                return response;
+            }
+
+            if(LOG.isLoggable(Level.FINE)) {
+                LOG.log(Level.FINE, "Retrying {0} {1} in {2}ms, after response code: {3}", 
+                        new Object[]{method, chain.request().getUrl(), delay, code});
+            }
+            try{
+                response.close();
+            }catch(IOException e) {
+                LOG.log(Level.FINE, "Failed to close response before retry", e);
+            }
+            this.sleep(delay);
+        }
+    }
+
+    /**
+     * Requests without a method are sent as POST if they have a body, 
+     * otherwise GET
+     */
+    private static String methodOf(RequestBuilder request) {
+        final String method = request.getMethod();
+        if(method != null) {
+            return method;
+        }
+        return request.body().hasOutput() ? "POST" : "GET";
+    }
+
+    protected void sleep(long millis) throws InterruptedIOException {
+        if(millis <= 0) {
+            return;
+        }
+        try{
+            Thread.sleep(millis);
+        }catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            final InterruptedIOException ioe = new InterruptedIOException("Interrupted while waiting to retry");
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
+
+    public RetryPolicy getPolicy() {
+        return policy;
+    }
+}
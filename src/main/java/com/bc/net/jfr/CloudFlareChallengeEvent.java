@@ -0,0 +1,58 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Emitted by {@link com.bc.net.cloudflare.CloudFlareResponse#getInputStream(java.net.URLConnection)}
+ * when a response is checked for a CloudFlare challenge. The duration 
+ * includes reading the challenge, the delay and sending the answer.
+ */
+@Name("com.bc.net.CloudFlareChallenge")
+@Label("CloudFlare Challenge")
+@Category({"bcnet", "HTTP"})
+@Description("Detecting and answering a CloudFlare javascript challenge")
+public final class CloudFlareChallengeEvent extends Event {
+
+    @Label("Host")
+    public String host;
+
+    @Label("Method")
+    public String method;
+
+    @Label("Response Code")
+    @Description("The code of the response which was checked for a challenge")
+    public int status;
+
+    @Label("Challenge Size")
+    @DataAmount(DataAmount.BYTES)
+    public long bytes;
+
+    @Label("Answered")
+    public boolean answered;
+
+    @Label("Delay")
+    @Timespan(Timespan.MILLISECONDS)
+    public long delay;
+}
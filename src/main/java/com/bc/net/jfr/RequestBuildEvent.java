@@ -0,0 +1,47 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Emitted by {@link com.bc.net.impl.RequestBuilderImpl#build()}. The duration
+ * covers opening the connection, setting the headers and cookies, and 
+ * writing any request body.
+ */
+@Name("com.bc.net.RequestBuild")
+@Label("HTTP Request Build")
+@Category({"bcnet", "HTTP"})
+@Description("Opening a connection and sending the request")
+public final class RequestBuildEvent extends Event {
+
+    @Label("Host")
+    public String host;
+
+    @Label("Method")
+    public String method;
+
+    @Label("Request Body Size")
+    @Description("-1 if there was no request body")
+    @DataAmount(DataAmount.BYTES)
+    public long bytes;
+}
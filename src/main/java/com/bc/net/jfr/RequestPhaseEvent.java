@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Emitted by {@link com.bc.net.metrics.JfrRequestListener}
+ */
+@Name("com.bc.net.RequestPhase")
+@Label("HTTP Request Phase")
+@Category({"bcnet", "HTTP"})
+@Description("The time taken by one stage of an HTTP request")
+@StackTrace(false)
+public final class RequestPhaseEvent extends Event {
+
+    @Label("Host")
+    public String host;
+
+    @Label("Phase")
+    @Description("One of connect, write, headers or body")
+    public String phase;
+
+    @Label("Phase Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    public long nanos;
+
+    @Label("Bytes")
+    @DataAmount(DataAmount.BYTES)
+    public long bytes;
+
+    @Label("Response Code")
+    public int code;
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Emitted by {@link com.bc.net.impl.ResponseImpl#getInputStream(java.net.URLConnection)}
+ * once the response body has been read to the end, or closed. The duration 
+ * covers waiting for the response headers and reading the body. No event 
+ * is emitted for a body which is never read to the end nor closed.
+ */
+@Name("com.bc.net.ResponseStream")
+@Label("HTTP Response Stream")
+@Category({"bcnet", "HTTP"})
+@Description("Receiving and decoding a response")
+public final class ResponseStreamEvent extends Event {
+
+    @Label("Host")
+    public String host;
+
+    @Label("Method")
+    public String method;
+
+    @Label("Response Code")
+    public int status;
+
+    @Label("Content Encoding")
+    public String contentEncoding;
+
+    @Label("Headers Duration")
+    @Description("Time waiting for the response headers")
+    @Timespan(Timespan.NANOSECONDS)
+    public long headersDuration;
+
+    @Label("Decode Duration")
+    @Description("Time decompressing the body, excluding time waiting for input")
+    @Timespan(Timespan.NANOSECONDS)
+    public long decodeDuration;
+
+    @Label("Bytes Received")
+    @DataAmount(DataAmount.BYTES)
+    public long bytes;
+
+    @Label("Bytes Decoded")
+    @DataAmount(DataAmount.BYTES)
+    public long decodedBytes;
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative values, e.g durations in nanoseconds.
+ * <p>
+ * Values are counted in buckets, 8 to each power of 2, so that percentiles 
+ * are accurate to within 12.5% while using a fixed 4KB of memory.
+ * Values below 8 are counted exactly.
+ * </p>
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray buckets;
+    private final LongAdder count;
+    private final LongAdder sum;
+    private final LongAccumulator max;
+
+    public Histogram() {
+        this.buckets = new AtomicLongArray(indexOf(Long.MAX_VALUE) + 1);
+        this.count = new LongAdder();
+        this.sum = new LongAdder();
+        this.max = new LongAccumulator(Math::max, 0);
+    }
+
+    /**
+     * @param value The value to record. Negative values are recorded as 0
+     */
+    public void record(long value) {
+        if(value < 0) {
+            value = 0;
+        }
+        this.buckets.incrementAndGet(indexOf(value));
+        this.count.increment();
+        this.sum.add(value);
+        this.max.accumulate(value);
+    }
+
+    /**
+     * @param percentile A value between 0 and 100 inclusive, e.g 99.9
+     * @return The highest value that may be in the bucket containing the 
+     * input percentile, or 0 if no values have been recorded
+     */
+    public long getPercentile(double percentile) {
+        if(percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100, found: " + percentile);
+        }
+        final long total = this.getCount();
+        if(total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long)Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for(int i = 0; i < this.buckets.length(); i++) {
+            seen += this.buckets.get(i);
+            if(seen >= rank) {
+                return Math.min(upperBoundOf(i), this.getMax());
+            }
+        }
+        return this.getMax();
+    }
+
+    public double getMean() {
+        final long n = this.getCount();
+        return n == 0 ? 0 : (double)this.sum.sum() / n;
+    }
+
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    public long getSum() {
+        return this.sum.sum();
+    }
+
+    public long getMax() {
+        return this.max.get();
+    }
+
+    public void reset() {
+        for(int i = 0; i < this.buckets.length(); i++) {
+            this.buckets.set(i, 0);
+        }
+        this.count.reset();
+        this.sum.reset();
+        this.max.reset();
+    }
+
+    static int indexOf(long value) {
+        if(value < SUB_BUCKETS) {
+            return (int)value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        final int sub = (int)(value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBoundOf(int index) {
+        if(index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        final long sub = index % SUB_BUCKETS;
+        final long lower = (SUB_BUCKETS + sub) << shift;
+        final long upper = lower + (1L << shift) - 1;
+        return upper < 0 ? Long.MAX_VALUE : upper;
+    }
+
+    @Override
+    public String toString() {
+        return "{count=" + this.getCount() + ", mean=" + (long)this.getMean() + 
+                ", p50=" + this.getPercentile(50) + ", p99=" + this.getPercentile(99) + 
+                ", max=" + this.getMax() + '}';
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.metrics;
+
+import com.bc.net.RequestListener;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records request timings in memory, across all hosts. Durations are in 
+ * nanoseconds. Usage:
+ * <pre><code>
+ * final HistogramRequestListener metrics = new HistogramRequestListener();
+ * final RequestTemplate template = RequestTemplate.DEFAULT.withListener(metrics);
+ * ...
+ * System.out.println(metrics);
+ * </code></pre>
+ */
+public class HistogramRequestListener implements RequestListener {
+
+    private final Histogram connect = new Histogram();
+    private final Histogram requestWrite = new Histogram();
+    private final Histogram timeToHeaders = new Histogram();
+    private final Histogram decode = new Histogram();
+    private final Histogram responseBytes = new Histogram();
+    
+    /**
+     * Counts of responses by class, e.g index 2 for 2xx. Index 0 for 
+     * responses without a valid code.
+     */
+    private final AtomicLongArray responseCodes = new AtomicLongArray(6);
+
+    @Override
+    public void onConnected(URL url, long nanos) {
+        this.connect.record(nanos);
+    }
+
+    @Override
+    public void onRequestWritten(URL url, long bytes, long nanos) {
+        this.requestWrite.record(nanos);
+    }
+
+    @Override
+    public void onResponseHeaders(URL url, int code, long nanos) {
+        this.timeToHeaders.record(nanos);
+        final int index = code / 100;
+        this.responseCodes.incrementAndGet(index > 0 && index < 6 ? index : 0);
+    }
+
+    @Override
+    public void onBodyRead(URL url, long bytes, long decodedBytes, long decodeNanos) {
+        this.responseBytes.record(bytes);
+        this.decode.record(decodeNanos);
+    }
+
+    /**
+     * @param codeClass The first digit of the response code e.g 2 for 2xx, 
+     * or 0 for responses without a valid code
+     * @return The number of responses in the input class
+     */
+    public long getResponseCount(int codeClass) {
+        return this.responseCodes.get(codeClass);
+    }
+
+    public void reset() {
+        this.connect.reset();
+        this.requestWrite.reset();
+        this.timeToHeaders.reset();
+        this.decode.reset();
+        this.responseBytes.reset();
+        for(int i = 0; i < this.responseCodes.length(); i++) {
+            this.responseCodes.set(i, 0);
+        }
+    }
+
+    public Histogram getConnect() {
+        return connect;
+    }
+
+    public Histogram getRequestWrite() {
+        return requestWrite;
+    }
+
+    public Histogram getTimeToHeaders() {
+        return timeToHeaders;
+    }
+
+    public Histogram getDecode() {
+        return decode;
+    }
+
+    public Histogram getResponseBytes() {
+        return responseBytes;
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "{connect=" + connect + 
+                ", requestWrite=" + requestWrite + ", timeToHeaders=" + timeToHeaders + 
+                ", decode=" + decode + ", responseBytes=" + responseBytes + 
+                ", responseCodes=" + responseCodes + '}';
+    }
+}
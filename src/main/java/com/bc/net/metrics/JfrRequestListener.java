@@ -0,0 +1,69 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.metrics;
+
+import com.bc.net.RequestListener;
+import com.bc.net.jfr.RequestPhaseEvent;
+import java.net.URL;
+
+/**
+ * Emits a {@link RequestPhaseEvent} for each stage of the requests this 
+ * listener is set on, to be viewed with JDK Mission Control, or 
+ * <tt>jfr print --events com.bc.net.RequestPhase</tt>.
+ * When no recording is enabled for the event, no event is created.
+ * @see com.bc.net.jfr
+ */
+public class JfrRequestListener implements RequestListener {
+
+    private static final RequestPhaseEvent PROBE = new RequestPhaseEvent();
+
+    @Override
+    public void onConnected(URL url, long nanos) {
+        this.commit(url, "connect", nanos, 0, 0);
+    }
+
+    @Override
+    public void onRequestWritten(URL url, long bytes, long nanos) {
+        this.commit(url, "write", nanos, bytes, 0);
+    }
+
+    @Override
+    public void onResponseHeaders(URL url, int code, long nanos) {
+        this.commit(url, "headers", nanos, 0, code);
+    }
+
+    /**
+     * The duration of the body phase is the time spent decoding
+     */
+    @Override
+    public void onBodyRead(URL url, long bytes, long decodedBytes, long decodeNanos) {
+        this.commit(url, "body", decodeNanos, bytes, 0);
+    }
+
+    private void commit(URL url, String phase, long nanos, long bytes, int code) {
+        if(!PROBE.isEnabled()) {
+            return;
+        }
+        final RequestPhaseEvent event = new RequestPhaseEvent();
+        event.host = url == null ? null : url.getHost();
+        event.phase = phase;
+        event.nanos = nanos;
+        event.bytes = bytes;
+        event.code = code;
+        event.commit();
+    }
+}
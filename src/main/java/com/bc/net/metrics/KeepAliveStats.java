@@ -0,0 +1,135 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.metrics;
+
+import com.bc.net.RequestListener;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts, by host, the responses closed and how many of those left their
+ * connection reusable, i.e the body was read or drained to the end and the
+ * server did not ask for the connection to be closed. Usage:
+ * <pre><code>
+ * final KeepAliveStats stats = new KeepAliveStats();
+ * final RequestTemplate template = RequestTemplate.DEFAULT.withListener(stats);
+ * ...
+ * System.out.println(stats.get("example.com").getReuseRate());
+ * </code></pre>
+ * Responses only count once {@link com.bc.net.Response#close() closed}.
+ */
+public class KeepAliveStats implements RequestListener {
+
+    private final ConcurrentHashMap<String, Host> hosts = new ConcurrentHashMap<>();
+
+    @Override
+    public void onClosed(URL url, boolean reusable, long drainedBytes) {
+        final String name = url.getHost() == null ? "" : url.getHost().toLowerCase();
+        this.hosts.computeIfAbsent(name, Host::new).record(reusable, drainedBytes);
+    }
+
+    /**
+     * @param host The host name
+     * @return The statistics of the host, or null if none
+     */
+    public Host get(String host) {
+        return this.hosts.get(host.toLowerCase());
+    }
+
+    /**
+     * @return The statistics of each host, ordered by host name
+     */
+    public Map<String, Host> getHosts() {
+        return Collections.unmodifiableMap(new TreeMap<>(this.hosts));
+    }
+
+    public void reset() {
+        this.hosts.clear();
+    }
+
+    public static final class Host {
+
+        private final String name;
+        private final LongAdder closed = new LongAdder();
+        private final LongAdder reusable = new LongAdder();
+        private final LongAdder drained = new LongAdder();
+        private final LongAdder drainedBytes = new LongAdder();
+
+        private Host(String name) {
+            this.name = name;
+        }
+
+        private void record(boolean reusable, long drainedBytes) {
+            this.closed.increment();
+            if(reusable) {
+                this.reusable.increment();
+            }
+            if(drainedBytes > 0) {
+                this.drained.increment();
+                this.drainedBytes.add(drainedBytes);
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getClosed() {
+            return closed.sum();
+        }
+
+        public long getReusable() {
+            return reusable.sum();
+        }
+
+        /**
+         * @return The number of responses closed before their body was read 
+         * to the end, and whose unread bytes were then skipped
+         */
+        public long getDrained() {
+            return drained.sum();
+        }
+
+        public long getDrainedBytes() {
+            return drainedBytes.sum();
+        }
+
+        /**
+         * @return The fraction of closed responses which left their
+         * connection reusable, or 0 if none was closed
+         */
+        public double getReuseRate() {
+            final long total = this.getClosed();
+            return total == 0 ? 0 : (double)this.getReusable() / total;
+        }
+
+        @Override
+        public String toString() {
+            return name + "{closed=" + getClosed() + ", reusable=" + getReusable() + 
+                    ", drained=" + getDrained() + ", drainedBytes=" + getDrainedBytes() + '}';
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + this.getHosts().values();
+    }
+}
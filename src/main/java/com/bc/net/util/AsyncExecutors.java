@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executors used by the asynchronous methods of this library, when the
+ * caller does not provide one.
+ */
+public final class AsyncExecutors {
+
+    private transient static final Logger LOG = Logger.getLogger(AsyncExecutors.class.getName());
+
+    private static class DefaultHolder {
+        private static final ExecutorService INSTANCE =
+                Executors.newCachedThreadPool(new DaemonThreadFactory("bcnet-async-"));
+    }
+
+    private static class VirtualHolder {
+        private static final ExecutorService INSTANCE = newVirtualThreadPerTaskExecutor();
+    }
+
+    /**
+     * Executors#newVirtualThreadPerTaskExecutor, looked up reflectively 
+     * as this library is compiled for an older JVM. Null if not available.
+     */
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR;
+    static{
+        Method method;
+        try{
+            method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        }catch(NoSuchMethodException | SecurityException e) {
+            method = null;
+        }
+        NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = method;
+    }
+
+    private AsyncExecutors() { }
+
+    public static boolean isVirtualThreadsSupported() {
+        return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * @return A shared executor which runs each task on a new virtual thread.
+     * On JVMs without virtual threads, a cached pool of daemon threads is 
+     * used instead.
+     */
+    public static ExecutorService getVirtualThreadPerTask() {
+        return VirtualHolder.INSTANCE;
+    }
+
+    /**
+     * The returned executor should be shut down when no longer required.
+     * On JVMs without virtual threads, a cached pool of daemon threads is 
+     * returned instead.
+     * @return A new executor which runs each task on a new virtual thread.
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if(NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null) {
+            try{
+                return (ExecutorService)NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+            }catch(ReflectiveOperationException e) {
+                LOG.log(Level.WARNING, "Failed to create virtual thread executor", e);
+            }
+        }else{
+            LOG.fine("Virtual threads not supported, using platform threads");
+        }
+        return Executors.newCachedThreadPool(new DaemonThreadFactory("bcnet-task-"));
+    }
+
+    /**
+     * @return A shared, unbounded pool of daemon threads. Threads idle for
+     * 60 seconds are released.
+     */
+    public static ExecutorService getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    public static class DaemonThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        public DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
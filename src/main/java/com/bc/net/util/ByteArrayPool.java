@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A bounded pool of equal sized byte arrays, for copying large bodies
+ * without allocating a new buffer each time. Arrays are allocated when
+ * the pool is empty, and dropped when it is full. Thread-safe, and does 
+ * not use thread locals, so is suitable for virtual threads.
+ */
+public final class ByteArrayPool {
+
+    private static class DefaultHolder {
+        private static final ByteArrayPool INSTANCE = new ByteArrayPool(64 * 1024, 
+                Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+    }
+
+    private final int bufferSize;
+
+    private final ArrayBlockingQueue<byte[]> pool;
+
+    public ByteArrayPool(int bufferSize, int maxPooled) {
+        if(bufferSize < 1 || maxPooled < 1) {
+            throw new IllegalArgumentException("Buffer size and max pooled must be positive, found: " + 
+                    bufferSize + ", max pooled: " + maxPooled);
+        }
+        this.bufferSize = bufferSize;
+        this.pool = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    /**
+     * @return A shared pool of 64KB arrays
+     */
+    public static ByteArrayPool getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    public byte[] acquire() {
+        final byte [] buffer = this.pool.poll();
+        return buffer == null ? new byte[this.bufferSize] : buffer;
+    }
+
+    /**
+     * @param buffer An array obtained from {@link #acquire()}. Must not be 
+     * used by the caller after this method is called.
+     */
+    public void release(byte [] buffer) {
+        if(buffer != null && buffer.length == this.bufferSize) {
+            this.pool.offer(buffer);
+        }
+    }
+
+    /**
+     * Copies all bytes from the input stream to the output stream, using
+     * a buffer from this pool. Does not close or flush either stream.
+     * @param from The input stream to read from
+     * @param to The output stream to write to
+     * @return The number of bytes copied
+     * @throws IOException 
+     */
+    public long copy(InputStream from, OutputStream to) throws IOException {
+        final byte [] buffer = this.acquire();
+        try{
+            long total = 0;
+            int n;
+            while((n = from.read(buffer)) != -1) {
+                to.write(buffer, 0, n);
+                total += n;
+            }
+            return total;
+        }finally{
+            this.release(buffer);
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.util;
+
+import com.bc.net.ContentDecoder;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The {@link ContentDecoder content decoders} available to responses, by 
+ * content coding. Requests sent by {@link com.bc.net.RequestBuilder#response()}
+ * advertise these via the {@code Accept-Encoding} header, unless the caller 
+ * sets that header. Connections from {@link com.bc.net.RequestBuilder#build()}
+ * do not, as their bodies are read without decoding.
+ * <p>
+ * {@code gzip} and {@code deflate} are always available, and decoded with
+ * inflaters from {@link InflaterPool#getDefault() the default pool}. {@code br} is 
+ * available when either {@code org.brotli:dec} or {@code brotli4j} is on 
+ * the classpath, and {@code zstd} when either {@code zstd-jni} or 
+ * {@code aircompressor} is. These are looked up reflectively, so are not 
+ * required at compile time. {@code org.brotli:dec} and {@code zstd-jni} are
+ * declared as optional dependencies, to be added by applications wanting
+ * these codings.
+ * </p>
+ */
+public final class ContentDecoders {
+
+    private transient static final Logger LOG = Logger.getLogger(ContentDecoders.class.getName());
+
+    private static final ReentrantLock LOCK = new ReentrantLock();
+
+    /**
+     * Guarded by {@link #LOCK}
+     */
+    private static final Set<String> ADVERTISED = new LinkedHashSet<>();
+
+    /**
+     * Replaced on each change, so reads need no lock
+     */
+    private static volatile Map<String, ContentDecoder> decoders = Collections.emptyMap();
+
+    private static volatile String acceptEncoding = "";
+
+    static{
+        register("gzip", (in) -> InflaterPool.getDefault().gzip(in));
+        register("deflate", ContentDecoders::inflate);
+        // Legacy alias, not advertised
+        put("x-gzip", (in) -> InflaterPool.getDefault().gzip(in), false);
+        final ContentDecoder brotli = find(
+                "org.brotli.dec.BrotliInputStream", 
+                "com.aayushatharva.brotli4j.decoder.BrotliInputStream");
+        if(brotli != null) {
+            register("br", brotli);
+        }
+        final ContentDecoder zstd = find(
+                "com.github.luben.zstd.ZstdInputStream", 
+                "io.airlift.compress.zstd.ZstdInputStream");
+        if(zstd != null) {
+            register("zstd", zstd);
+        }
+        LOG.fine(() -> "Content decoders: " + acceptEncoding);
+    }
+
+    private ContentDecoders() { }
+
+    /**
+     * Adds or replaces the decoder of a content coding, and advertises it
+     * in the {@code Accept-Encoding} header of subsequent requests.
+     * @param encoding The content coding, e.g br
+     * @param decoder The decoder of the content coding
+     */
+    public static void register(String encoding, ContentDecoder decoder) {
+        put(encoding, decoder, true);
+    }
+
+    /**
+     * @param encoding The content coding, e.g gzip
+     * @return The decoder of the content coding, or null if none
+     */
+    public static ContentDecoder get(String encoding) {
+        return decoders.get(encoding.toLowerCase(Locale.ROOT));
+    }
+
+    public static boolean isSupported(String encoding) {
+        return get(encoding) != null;
+    }
+
+    /**
+     * @return The supported content codings, as a value of the 
+     * {@code Accept-Encoding} header e.g {@code gzip, deflate, br}
+     */
+    public static String getAcceptEncoding() {
+        return acceptEncoding;
+    }
+
+    /**
+     * Decodes the input stream according to the value of the 
+     * {@code Content-Encoding} header. Multiple codings are listed in the 
+     * order applied, so are decoded in reverse.
+     * <p>
+     * An empty body is returned as is, as are bodies with any coding which 
+     * is not supported, in which case a warning is logged.
+     * </p>
+     * @param in The body to decode
+     * @param contentEncoding The value of the Content-Encoding header, may be null
+     * @return The decoded body
+     * @throws IOException If the stream could not be read, or is not of
+     * the stated coding
+     */
+    public static InputStream decode(InputStream in, String contentEncoding) throws IOException {
+        if(contentEncoding == null || contentEncoding.isEmpty()) {
+            return in;
+        }
+        final String [] codings = contentEncoding.split(",");
+        final ContentDecoder [] selected = new ContentDecoder[codings.length];
+        int count = 0;
+        for(String coding : codings) {
+            coding = coding.trim();
+            if(coding.isEmpty() || "identity".equalsIgnoreCase(coding)) {
+                continue;
+            }
+            final ContentDecoder decoder = get(coding);
+            if(decoder == null) {
+                LOG.warning(() -> "Unsupported Content-Encoding: " + contentEncoding + ", body not decoded");
+                return in;
+            }
+            selected[count++] = decoder;
+        }
+        if(count == 0) {
+            return in;
+        }
+        // e.g the body of a HEAD request, or 204 or 304 response
+        final PushbackInputStream pushback = new PushbackInputStream(in, 1);
+        final int first = pushback.read();
+        if(first == -1) {
+            return pushback;
+        }
+        pushback.unread(first);
+        in = pushback;
+        for(int i = count - 1; i >= 0; i--) {
+            in = selected[i].decode(in);
+        }
+        return in;
+    }
+
+    private static void put(String encoding, ContentDecoder decoder, boolean advertise) {
+        final String key = encoding.trim().toLowerCase(Locale.ROOT);
+        if(key.isEmpty()) {
+            throw new IllegalArgumentException("Encoding is empty");
+        }
+        LOCK.lock();
+        try{
+            final Map<String, ContentDecoder> update = new LinkedHashMap<>(decoders);
+            update.put(key, Objects.requireNonNull(decoder));
+            decoders = Collections.unmodifiableMap(update);
+            if(advertise && ADVERTISED.add(key)) {
+                acceptEncoding = String.join(", ", ADVERTISED);
+            }
+        }finally{
+            LOCK.unlock();
+        }
+    }
+
+    /**
+     * The deflate coding is meant to be zlib-wrapped, but some servers send
+     * raw deflate. Tells the two apart by the zlib header.
+     */
+    private static InputStream inflate(InputStream in) throws IOException {
+        final PushbackInputStream pushback = new PushbackInputStream(in, 2);
+        final byte [] header = new byte[2];
+        final int n = pushback.readNBytes(header, 0, 2);
+        pushback.unread(header, 0, n);
+        return InflaterPool.getDefault().inflate(pushback, !isZlibHeader(header, n));
+    }
+
+    static boolean isZlibHeader(byte [] header, int length) {
+        if(length < 2) {
+            return false;
+        }
+        final int cmf = header[0] & 0xFF;
+        final int flg = header[1] & 0xFF;
+        return (cmf & 0x0F) == 8 && (cmf >> 4) <= 7 && ((cmf << 8) | flg) % 31 == 0;
+    }
+
+    /**
+     * @return A decoder which constructs the first of the named stream 
+     * classes found, or null if none was found
+     */
+    private static ContentDecoder find(String... classNames) {
+        for(String className : classNames) {
+            try{
+                // Initialized here so that any failure to load a native library shows now
+                final Class<?> type = Class.forName(className, true, ContentDecoders.class.getClassLoader());
+                if(!InputStream.class.isAssignableFrom(type)) {
+                    continue;
+                }
+                if(className.startsWith("com.aayushatharva.brotli4j") && !isBrotli4jAvailable()) {
+                    continue;
+                }
+                final Constructor<?> constructor = type.getConstructor(InputStream.class);
+                LOG.fine(() -> "Found decoder: " + className);
+                return (in) -> {
+                    try{
+                        return (InputStream)constructor.newInstance(in);
+                    }catch(InvocationTargetException e) {
+                        if(e.getCause() instanceof IOException) {
+                            throw (IOException)e.getCause();
+                        }
+                        throw new IOException(e.getCause());
+                    }catch(ReflectiveOperationException e) {
+                        throw new IOException(e);
+                    }
+                };
+            }catch(ClassNotFoundException | NoSuchMethodException ignored) {
+            }catch(LinkageError | RuntimeException e) {
+                LOG.log(Level.FINE, "Failed to load decoder: " + className, e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * brotli4j needs its native library loaded before use
+     */
+    private static boolean isBrotli4jAvailable() {
+        try{
+            final Class<?> loader = Class.forName("com.aayushatharva.brotli4j.Brotli4jLoader");
+            return Boolean.TRUE.equals(loader.getMethod("isAvailable").invoke(null));
+        }catch(ReflectiveOperationException | LinkageError | RuntimeException e) {
+            LOG.log(Level.FINE, "brotli4j not available", e);
+            return false;
+        }
+    }
+}
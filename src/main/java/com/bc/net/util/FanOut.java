@@ -0,0 +1,191 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.util;
+
+import com.bc.net.RequestTemplate;
+import com.bc.net.Response;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Structured fan-out/fan-in of blocking calls, each on its own virtual 
+ * thread where supported.
+ * <p>
+ * All tasks are forked in a scope which does not outlive the call. If any 
+ * task fails, the others are cancelled and the first failure is thrown. 
+ * Either way, the call waits for the tasks to end before returning. As a
+ * blocking read may not respond to cancellation, the wait is bounded, 
+ * after which any task still running is logged and left to finish.
+ * </p>
+ * Usage:
+ * <pre><code>
+ * final List&lt;Response&gt; responses = FanOut.responses(template, urls);
+ * </code></pre>
+ */
+public final class FanOut {
+
+    private transient static final Logger LOG = Logger.getLogger(FanOut.class.getName());
+
+    /**
+     * How long to wait for cancelled tasks to end, when not otherwise given
+     */
+    public static final long DEFAULT_TERMINATION_TIMEOUT_MILLIS = 30_000;
+
+    private FanOut() { }
+
+    /**
+     * Calls {@link com.bc.net.RequestBuilder#response()} for each URL, 
+     * each on its own thread. Cancelled requests are waited for up to the 
+     * read timeout of the template, if set, else for 
+     * {@link #DEFAULT_TERMINATION_TIMEOUT_MILLIS}.
+     * @param template Creates the request for each URL
+     * @param urls The URLs to fetch
+     * @return The responses, in the order of the input URLs
+     * @throws IOException The first failure, after the others are cancelled
+     * and any responses received are closed
+     * @throws InterruptedException If interrupted while waiting, after any
+     * responses received are closed
+     */
+    public static List<Response> responses(RequestTemplate template, Collection<URL> urls) 
+            throws IOException, InterruptedException {
+        final Collection<Response> received = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean abandoned = new AtomicBoolean();
+        final List<Callable<Response>> tasks = new ArrayList<>(urls.size());
+        for(URL url : urls) {
+            tasks.add(() -> {
+                final Response response = template.newRequest(url).response();
+                received.add(response);
+                // Received after the others were closed
+                if(abandoned.get() && received.remove(response)) {
+                    closeQuietly(response);
+                }
+                return response;
+            });
+        }
+        final long timeout = template.getReadTimeout() > 0 ? 
+                template.getReadTimeout() : DEFAULT_TERMINATION_TIMEOUT_MILLIS;
+        try{
+            return invokeAll(tasks, timeout, TimeUnit.MILLISECONDS);
+        }catch(InterruptedException e) {
+            closeAll(abandoned, received);
+            throw e;
+        }catch(ExecutionException e) {
+            closeAll(abandoned, received);
+            final Throwable cause = e.getCause();
+            if(cause instanceof IOException) {
+                throw (IOException)cause;
+            }else if(cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }else if(cause instanceof Error) {
+                throw (Error)cause;
+            }else{
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    private static void closeAll(AtomicBoolean abandoned, Collection<Response> received) {
+        abandoned.set(true);
+        final Iterator<Response> iter = received.iterator();
+        while(iter.hasNext()) {
+            final Response response = iter.next();
+            if(received.remove(response)) {
+                closeQuietly(response);
+            }
+        }
+    }
+
+    private static void closeQuietly(Response response) {
+        try{
+            response.close();
+        }catch(IOException | RuntimeException e) {
+            LOG.log(Level.FINE, "Failed to close response", e);
+        }
+    }
+
+    /**
+     * Cancelled tasks are waited for up to {@link #DEFAULT_TERMINATION_TIMEOUT_MILLIS}.
+     * @param <T> The type of the result of each task
+     * @param tasks The tasks to run concurrently
+     * @return The results, in the order of the input tasks
+     * @throws ExecutionException Wrapping the first failure, after the 
+     * other tasks have been cancelled
+     * @throws InterruptedException If interrupted while waiting, the tasks 
+     * are cancelled
+     * @see #invokeAll(java.util.Collection, long, java.util.concurrent.TimeUnit) 
+     */
+    public static <T> List<T> invokeAll(Collection<? extends Callable<T>> tasks) 
+            throws ExecutionException, InterruptedException {
+        return invokeAll(tasks, DEFAULT_TERMINATION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param <T> The type of the result of each task
+     * @param tasks The tasks to run concurrently
+     * @param terminationTimeout How long to wait for cancelled tasks to end
+     * @param unit The unit of the timeout
+     * @return The results, in the order of the input tasks
+     * @throws ExecutionException Wrapping the first failure, after the 
+     * other tasks have been cancelled
+     * @throws InterruptedException If interrupted while waiting, the tasks 
+     * are cancelled
+     */
+    public static <T> List<T> invokeAll(Collection<? extends Callable<T>> tasks, 
+            long terminationTimeout, TimeUnit unit) 
+            throws ExecutionException, InterruptedException {
+
+        final ExecutorService scope = AsyncExecutors.newVirtualThreadPerTaskExecutor();
+        final List<Future<T>> futures = new ArrayList<>(tasks.size());
+        try{
+            final ExecutorCompletionService<T> completion = new ExecutorCompletionService<>(scope);
+            for(Callable<T> task : tasks) {
+                futures.add(completion.submit(task));
+            }
+
+            // Join in order of completion, so that a failure is seen at once
+            for(int i = 0; i < futures.size(); i++) {
+                completion.take().get();
+            }
+
+            final List<T> results = new ArrayList<>(futures.size());
+            for(Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        }finally{
+            scope.shutdownNow();
+            if(!scope.awaitTermination(terminationTimeout, unit)) {
+                LOG.warning(() -> "Tasks still running " + unit.toMillis(terminationTimeout) + 
+                        "ms after being cancelled, e.g blocked in a read without a timeout");
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Inflater;
+
+/**
+ * A bounded pool of {@link Inflater inflaters}. Each inflater holds native
+ * memory which is otherwise only freed once the inflater is garbage 
+ * collected. Inflaters are allocated when the pool is empty, and 
+ * {@link Inflater#end() ended} when it is full. Thread-safe.
+ * <p>
+ * The streams returned by {@link #gzip(java.io.InputStream)} and 
+ * {@link #inflate(java.io.InputStream, boolean)} give back their inflater
+ * when read to the end or closed.
+ * </p>
+ */
+public final class InflaterPool {
+
+    private static class DefaultHolder {
+        private static final InflaterPool INSTANCE = new InflaterPool(
+                Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+    }
+
+    /**
+     * For zlib-wrapped input
+     */
+    private final ArrayBlockingQueue<Inflater> wrapped;
+
+    /**
+     * For raw deflate input, as used by gzip
+     */
+    private final ArrayBlockingQueue<Inflater> raw;
+
+    /**
+     * @param maxPooled The maximum number of inflaters kept, of each of the
+     * zlib-wrapped and raw kinds
+     */
+    public InflaterPool(int maxPooled) {
+        if(maxPooled < 1) {
+            throw new IllegalArgumentException("Max pooled must be positive, found: " + maxPooled);
+        }
+        this.wrapped = new ArrayBlockingQueue<>(maxPooled);
+        this.raw = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    public static InflaterPool getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * @param nowrap true for raw deflate input, false for zlib-wrapped input
+     * @return An inflater, to be {@link #release(java.util.zip.Inflater, boolean) released}
+     * when no longer required
+     */
+    public Inflater acquire(boolean nowrap) {
+        final Inflater inflater = (nowrap ? this.raw : this.wrapped).poll();
+        return inflater == null ? new Inflater(nowrap) : inflater;
+    }
+
+    /**
+     * @param inflater An inflater obtained from {@link #acquire(boolean)}. 
+     * Must not be used by the caller after this method is called.
+     * @param nowrap The value with which the inflater was acquired
+     */
+    public void release(Inflater inflater, boolean nowrap) {
+        if(inflater == null) {
+            return;
+        }
+        inflater.reset();
+        if(!(nowrap ? this.raw : this.wrapped).offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Reads the gzip header before returning, as does 
+     * {@link java.util.zip.GZIPInputStream}. Concatenated gzip members are 
+     * decoded as one stream, and the checksum and size of each is verified.
+     * @param in The gzip stream
+     * @return A stream of the decoded bytes
+     * @throws IOException If the input is not in gzip format, or could not be read
+     */
+    public InputStream gzip(InputStream in) throws IOException {
+        return InflatingInputStream.gzip(in, this);
+    }
+
+    /**
+     * @param in The deflate stream
+     * @param nowrap true for raw deflate input, false for zlib-wrapped input
+     * @return A stream of the decoded bytes
+     */
+    public InputStream inflate(InputStream in, boolean nowrap) {
+        return new InflatingInputStream(in, this, nowrap, false);
+    }
+
+    public int getPooledCount() {
+        return this.wrapped.size() + this.raw.size();
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.util;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Inflates deflate, zlib or gzip input with an inflater and input buffer 
+ * borrowed from pools, both given back once the end of the input is 
+ * reached or the stream is closed. Not thread-safe.
+ * <p>
+ * The input buffer is a heap array rather than a direct buffer: the source 
+ * is an {@link InputStream}, which reads only into arrays, so a direct 
+ * buffer would add a copy of every byte, while the inflater reads a heap
+ * array in place.
+ * </p>
+ */
+final class InflatingInputStream extends FilterInputStream {
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final InflaterPool pool;
+
+    private final boolean nowrap;
+
+    /**
+     * Null unless gzip
+     */
+    private final CRC32 crc;
+
+    private Inflater inflater;
+
+    private byte [] buffer;
+
+    /**
+     * Bytes of {@link #buffer} from position to limit are yet to be 
+     * given to the inflater, or read as gzip header or trailer
+     */
+    private int position;
+
+    private int limit;
+
+    private boolean eof;
+
+    private boolean closed;
+
+    private final byte [] single = new byte[1];
+
+    static InflatingInputStream gzip(InputStream in, InflaterPool pool) throws IOException {
+        final InflatingInputStream gzip = new InflatingInputStream(in, pool, true, true);
+        try{
+            gzip.readHeader();
+        }catch(IOException | RuntimeException e) {
+            gzip.close();
+            throw e;
+        }
+        return gzip;
+    }
+
+    InflatingInputStream(InputStream in, InflaterPool pool, boolean nowrap, boolean gzip) {
+        super(in);
+        this.pool = pool;
+        this.nowrap = nowrap;
+        this.crc = gzip ? new CRC32() : null;
+        this.inflater = pool.acquire(nowrap);
+        this.buffer = ByteArrayPool.getDefault().acquire();
+    }
+
+    @Override
+    public int read() throws IOException {
+        return this.read(this.single, 0, 1) == -1 ? -1 : this.single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(this.closed) {
+            throw new IOException("Stream closed");
+        }
+        if(len == 0) {
+            return 0;
+        }
+        while(!this.eof) {
+            final int n;
+            try{
+                n = this.inflater.inflate(b, off, len);
+            }catch(DataFormatException e) {
+                final String message = e.getMessage();
+                throw new ZipException(message == null ? "Invalid deflate data format" : message);
+            }
+            if(n > 0) {
+                if(this.crc != null) {
+                    this.crc.update(b, off, n);
+                }
+                return n;
+            }
+            if(this.inflater.finished()) {
+                this.position = this.limit - this.inflater.getRemaining();
+                if(this.crc == null || !this.readTrailer()) {
+                    this.eof = true;
+                    this.release();
+                }
+            }else if(this.inflater.needsDictionary()) {
+                throw new ZipException("Preset dictionary not supported");
+            }else if(this.inflater.needsInput()) {
+                if(this.fill() == -1) {
+                    throw new EOFException("Unexpected end of compressed input");
+                }
+                this.inflater.setInput(this.buffer, this.position, this.limit - this.position);
+                this.position = this.limit;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        final byte [] skipped = new byte[(int)Math.min(n, 2048)];
+        long total = 0;
+        while(total < n) {
+            final int r = this.read(skipped, 0, (int)Math.min(skipped.length, n - total));
+            if(r == -1) {
+                break;
+            }
+            total += r;
+        }
+        return total;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if(this.closed) {
+            throw new IOException("Stream closed");
+        }
+        return this.eof ? 0 : 1;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) { }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(!this.closed) {
+            this.closed = true;
+            this.release();
+            super.close();
+        }
+    }
+
+    private void release() {
+        if(this.inflater != null) {
+            this.pool.release(this.inflater, this.nowrap);
+            this.inflater = null;
+        }
+        if(this.buffer != null) {
+            ByteArrayPool.getDefault().release(this.buffer);
+            this.buffer = null;
+        }
+    }
+
+    /**
+     * Verifies the trailer of the current gzip member
+     * @return true if another member follows, in which case its header 
+     * has been read and the inflater reset for it
+     */
+    private boolean readTrailer() throws IOException {
+        final long expectedCrc = this.readInt() & 0xFFFFFFFFL;
+        final long expectedSize = this.readInt() & 0xFFFFFFFFL;
+        if(expectedCrc != this.crc.getValue() || expectedSize != (this.inflater.getBytesWritten() & 0xFFFFFFFFL)) {
+            throw new ZipException("Corrupt GZIP trailer");
+        }
+        // As GZIPInputStream, look for another member only in input already available
+        if(this.position == this.limit && this.in.available() <= 0) {
+            return false;
+        }
+        if(this.position == this.limit && this.fill() == -1) {
+            return false;
+        }
+        if((this.buffer[this.position] & 0xFF) != (GZIP_MAGIC & 0xFF)) {
+            // Trailing garbage is ignored
+            return false;
+        }
+        this.inflater.reset();
+        this.crc.reset();
+        this.readHeader();
+        return true;
+    }
+
+    private void readHeader() throws IOException {
+        final CRC32 headerCrc = new CRC32();
+        if(this.readShort(headerCrc) != GZIP_MAGIC) {
+            throw new ZipException("Not in GZIP format");
+        }
+        if(this.readByte(headerCrc) != 8) {
+            throw new ZipException("Unsupported compression method");
+        }
+        final int flags = this.readByte(headerCrc);
+        // Modification time, extra flags and operating system
+        for(int i = 0; i < 6; i++) {
+            this.readByte(headerCrc);
+        }
+        if((flags & FEXTRA) == FEXTRA) {
+            for(int n = this.readShort(headerCrc); n > 0; n--) {
+                this.readByte(headerCrc);
+            }
+        }
+        if((flags & FNAME) == FNAME) {
+            while(this.readByte(headerCrc) != 0) { }
+        }
+        if((flags & FCOMMENT) == FCOMMENT) {
+            while(this.readByte(headerCrc) != 0) { }
+        }
+        if((flags & FHCRC) == FHCRC) {
+            final int expected = (int)headerCrc.getValue() & 0xFFFF;
+            if(this.readShort(null) != expected) {
+                throw new ZipException("Corrupt GZIP header");
+            }
+        }
+        if(this.position < this.limit) {
+            this.inflater.setInput(this.buffer, this.position, this.limit - this.position);
+            this.position = this.limit;
+        }
+    }
+
+    private int readInt() throws IOException {
+        return this.readShort(null) | (this.readShort(null) << 16);
+    }
+
+    private int readShort(CRC32 checksum) throws IOException {
+        return this.readByte(checksum) | (this.readByte(checksum) << 8);
+    }
+
+    private int readByte(CRC32 checksum) throws IOException {
+        if(this.position == this.limit && this.fill() == -1) {
+            throw new EOFException("Unexpected end of GZIP input");
+        }
+        final int b = this.buffer[this.position++] & 0xFF;
+        if(checksum != null) {
+            checksum.update(b);
+        }
+        return b;
+    }
+
+    /**
+     * Replaces the buffered input, all of which must have been consumed
+     */
+    private int fill() throws IOException {
+        final int n = this.in.read(this.buffer, 0, this.buffer.length);
+        this.position = 0;
+        this.limit = Math.max(0, n);
+        return n;
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes and decodes <tt>application/x-www-form-urlencoded</tt> text, 
+ * with the same output as {@link java.net.URLEncoder} and 
+ * {@link java.net.URLDecoder}, but without looking up the charset by name
+ * or creating intermediate strings.
+ * <p>
+ * Characters are classified by table. Text which needs no encoding or 
+ * decoding is returned, or appended, as is. ASCII, and for UTF-8 all
+ * characters, are encoded without a {@link java.nio.charset.CharsetEncoder}.
+ * </p>
+ * Usage:
+ * <pre><code>
+ * final StringBuilder query = new StringBuilder("q=");
+ * PercentCodec.encode("café au lait", StandardCharsets.UTF_8, query);
+ * // q=caf%C3%A9+au+lait
+ * </code></pre>
+ */
+public final class PercentCodec {
+
+    private static final char [] HEX = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * ASCII characters which are not encoded: a-z A-Z 0-9 . - * _
+     */
+    private static final boolean [] SAFE = new boolean[128];
+    static{
+        for(char ch = 'a'; ch <= 'z'; ch++) {
+            SAFE[ch] = true;
+        }
+        for(char ch = 'A'; ch <= 'Z'; ch++) {
+            SAFE[ch] = true;
+        }
+        for(char ch = '0'; ch <= '9'; ch++) {
+            SAFE[ch] = true;
+        }
+        SAFE['.'] = true;
+        SAFE['-'] = true;
+        SAFE['*'] = true;
+        SAFE['_'] = true;
+    }
+
+    private PercentCodec() { }
+
+    /**
+     * @param s The text to encode
+     * @param charset The charset of the encoded bytes
+     * @return The encoded text, the input itself if it needs no encoding
+     */
+    public static String encode(CharSequence s, Charset charset) {
+        final int first = firstUnsafe(s);
+        if(first == -1) {
+            return s.toString();
+        }
+        final StringBuilder builder = new StringBuilder(s.length() + 16);
+        builder.append(s, 0, first);
+        encode(s, first, charset, builder);
+        return builder.toString();
+    }
+
+    /**
+     * @param s The text to encode
+     * @param charset The charset of the encoded bytes
+     * @param appendTo The builder the encoded text is appended to
+     * @return The input builder
+     */
+    public static StringBuilder encode(CharSequence s, Charset charset, StringBuilder appendTo) {
+        final int first = firstUnsafe(s);
+        if(first == -1) {
+            return appendTo.append(s);
+        }
+        appendTo.append(s, 0, first);
+        encode(s, first, charset, appendTo);
+        return appendTo;
+    }
+
+    /**
+     * The encoded text is ASCII, so is written a byte per character.
+     * @param s The text to encode
+     * @param charset The charset of the encoded bytes
+     * @param out The buffer the encoded text is written to
+     * @return The input buffer
+     * @throws java.nio.BufferOverflowException If the buffer has too little room
+     */
+    public static ByteBuffer encode(CharSequence s, Charset charset, ByteBuffer out) {
+        final int first = firstUnsafe(s);
+        final int end = first == -1 ? s.length() : first;
+        for(int i = 0; i < end; i++) {
+            out.put((byte)s.charAt(i));
+        }
+        if(first != -1) {
+            final StringBuilder encoded = encode(s, first, charset, new StringBuilder(s.length() - first + 16));
+            for(int i = 0; i < encoded.length(); i++) {
+                out.put((byte)encoded.charAt(i));
+            }
+        }
+        return out;
+    }
+
+    private static int firstUnsafe(CharSequence s) {
+        final int length = s.length();
+        for(int i = 0; i < length; i++) {
+            final char ch = s.charAt(i);
+            if(ch >= 128 || !SAFE[ch]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static StringBuilder encode(CharSequence s, int start, Charset charset, StringBuilder out) {
+        final boolean utf8 = StandardCharsets.UTF_8.equals(charset);
+        final boolean asciiCompatible = utf8 || StandardCharsets.ISO_8859_1.equals(charset) || 
+                StandardCharsets.US_ASCII.equals(charset);
+        final int length = s.length();
+        int i = start;
+        while(i < length) {
+            final char ch = s.charAt(i);
+            if(ch < 128 && SAFE[ch]) {
+                out.append(ch);
+                ++i;
+            }else if(ch == ' ') {
+                out.append('+');
+                ++i;
+            }else if(ch < 128 && asciiCompatible) {
+                appendEscaped(out, ch);
+                ++i;
+            }else if(utf8) {
+                i = appendUtf8(s, i, out);
+            }else{
+                // Encode the whole run of unsafe characters at once, so that
+                // stateful charsets and surrogate pairs are handled as by URLEncoder
+                int end = i + 1;
+                while(end < length && isUnsafeNonSpace(s.charAt(end))) {
+                    ++end;
+                }
+                for(byte b : s.subSequence(i, end).toString().getBytes(charset)) {
+                    appendEscaped(out, b);
+                }
+                i = end;
+            }
+        }
+        return out;
+    }
+
+    private static boolean isUnsafeNonSpace(char ch) {
+        return ch >= 128 || (!SAFE[ch] && ch != ' ');
+    }
+
+    /**
+     * @return The index of the next character to encode
+     */
+    private static int appendUtf8(CharSequence s, int i, StringBuilder out) {
+        final char ch = s.charAt(i);
+        if(ch < 0x80) {
+            appendEscaped(out, ch);
+        }else if(ch < 0x800) {
+            appendEscaped(out, 0xC0 | (ch >> 6));
+            appendEscaped(out, 0x80 | (ch & 0x3F));
+        }else if(Character.isHighSurrogate(ch) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+            final int cp = Character.toCodePoint(ch, s.charAt(i + 1));
+            appendEscaped(out, 0xF0 | (cp >> 18));
+            appendEscaped(out, 0x80 | ((cp >> 12) & 0x3F));
+            appendEscaped(out, 0x80 | ((cp >> 6) & 0x3F));
+            appendEscaped(out, 0x80 | (cp & 0x3F));
+            return i + 2;
+        }else if(Character.isSurrogate(ch)) {
+            // Unpaired, replaced by '?' as String.getBytes does
+            appendEscaped(out, '?');
+        }else{
+            appendEscaped(out, 0xE0 | (ch >> 12));
+            appendEscaped(out, 0x80 | ((ch >> 6) & 0x3F));
+            appendEscaped(out, 0x80 | (ch & 0x3F));
+        }
+        return i + 1;
+    }
+
+    private static void appendEscaped(StringBuilder out, int b) {
+        out.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+    }
+
+    /**
+     * @param s The text to decode
+     * @param charset The charset of the encoded bytes
+     * @return The decoded text, the input itself if it needs no decoding
+     * @throws IllegalArgumentException If an escape is not valid
+     */
+    public static String decode(CharSequence s, Charset charset) {
+        return decode(s, 0, s.length(), charset);
+    }
+
+    /**
+     * Decodes as {@link java.net.URLDecoder#decode(java.lang.String, java.lang.String)},
+     * straight from the input.
+     * @param s The text containing the part to decode
+     * @param start The start of the part to decode, inclusive
+     * @param end The end of the part to decode, exclusive
+     * @param charset The charset of the encoded bytes
+     * @return The decoded text
+     * @throws IllegalArgumentException If an escape is not valid
+     */
+    public static String decode(CharSequence s, int start, int end, Charset charset) {
+        int i = start;
+        while(i < end && s.charAt(i) != '%' && s.charAt(i) != '+') {
+            ++i;
+        }
+        if(i == end) {
+            return s.subSequence(start, end).toString();
+        }
+        final StringBuilder builder = new StringBuilder(end - start);
+        builder.append(s, start, i);
+        byte [] bytes = null;
+        while(i < end) {
+            final char ch = s.charAt(i);
+            if(ch == '+') {
+                builder.append(' ');
+                ++i;
+            }else if(ch == '%') {
+                if(bytes == null) {
+                    bytes = new byte[(end - i) / 3];
+                }
+                int pos = 0;
+                while(i + 2 < end && s.charAt(i) == '%') {
+                    // As Integer.parseInt used by URLDecoder, allow a leading '+', 
+                    // or a leading '-' where the value is zero
+                    final char sign = s.charAt(i + 1);
+                    final int lo = Character.digit(s.charAt(i + 2), 16);
+                    final int hi = sign == '+' || (sign == '-' && lo == 0) ? 0 : Character.digit(sign, 16);
+                    if(hi == -1 || lo == -1) {
+                        throw new IllegalArgumentException("URLDecoder: Illegal hex characters in escape (%) pattern - " + 
+                                s.subSequence(i, i + 3));
+                    }
+                    bytes[pos++] = (byte)((hi << 4) + lo);
+                    i += 3;
+                }
+                if(i < end && s.charAt(i) == '%') {
+                    throw new IllegalArgumentException("URLDecoder: Incomplete trailing escape (%) pattern");
+                }
+                builder.append(new String(bytes, 0, pos, charset));
+            }else{
+                builder.append(ch);
+                ++i;
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -2,14 +2,16 @@ package com.bc.net.util;
 
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
-import java.net.URLEncoder;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 /**
  * @(#)QueryParametersConverter.java   25-Dec-2013 02:35:40
@@ -27,6 +29,24 @@ public class QueryParametersConverter implements Serializable {
 
     private static final Logger LOG = Logger.getLogger(QueryParametersConverter.class.getName());
     
+    /**
+     * Whether a class overrides the conversion of values, in which case 
+     * values are always converted by {@link #convertValue(java.lang.Object, java.lang.Object, boolean, java.lang.String)}
+     */
+    private static final ClassValue<Boolean> CONVERTS_VALUES = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try{
+                return type.getMethod("convertValue", Object.class, Object.class, boolean.class, String.class)
+                        .getDeclaringClass() != QueryParametersConverter.class ||
+                        type.getMethod("urlEncode", Object.class, String.class)
+                        .getDeclaringClass() != QueryParametersConverter.class;
+            }catch(NoSuchMethodException e) {
+                throw new AssertionError(e);
+            }
+        }
+    };
+    
     private final boolean emptyStringsAllowed;
     
     private final boolean nullsAllowed;
@@ -107,75 +127,207 @@ public class QueryParametersConverter implements Serializable {
             throw new NullPointerException();
         }
         
-        if(queryString.startsWith("?")) {
-            queryString = queryString.substring(1);
-        }
-        
         if(LOG.isLoggable(Level.FINER)) {
             LOG.log(Level.FINER, 
                     "Separator {0}. nulls allowed: {1}, empty strings allowed: {2}, query: {3}", 
                     new Object[]{separator, nullsAllowed, emptyStringsAllowed, queryString}); 
         }
 
-        LinkedHashMap<String, String> result = new LinkedHashMap<>();
+        final LinkedHashMap<String, String> result = new LinkedHashMap<>();
 
-        String [] queryPairs = queryString.split(separator);
+        this.forEachPair(queryString, separator, null, (key, val) -> 
+                result.put(this.reverseKey(key, val), this.reverseValue(key, val, decode, charset)));
+        
+        LOG.log(Level.FINER, "Output: {0}", result);        
 
-        for(int i=0; i<queryPairs.length; i++) {
-            
-            if(LOG.isLoggable(Level.FINEST)) {
-                LOG.log(Level.FINEST, "Pair[{0}]: {1}", new Object[]{i, queryPairs[i]});
+        return result;
+    }
+    
+    /**
+     * Parses the input query with the separator of this instance, without 
+     * decoding.
+     * @param query The query, with or without a leading <tt>'?'</tt>
+     * @param consumer Receives the key and value of each pair, in order
+     * @see #forEachPair(java.lang.CharSequence, java.lang.String, java.nio.charset.Charset, java.util.function.BiConsumer) 
+     */
+    public void forEachPair(CharSequence query, BiConsumer<String, String> consumer) {
+        this.forEachPair(query, separator, null, consumer);
+    }
+    
+    /**
+     * Parses the input query with the separator of this instance.
+     * @param query The query, with or without a leading <tt>'?'</tt>
+     * @param charset The charset with which to decode values
+     * @param consumer Receives the key and decoded value of each pair, in order
+     * @see #forEachPair(java.lang.CharSequence, java.lang.String, java.nio.charset.Charset, java.util.function.BiConsumer) 
+     */
+    public void forEachPair(CharSequence query, Charset charset, BiConsumer<String, String> consumer) {
+        this.forEachPair(query, separator, charset, consumer);
+    }
+    
+    /**
+     * Parses the input query in one pass, without creating a map. Pairs are 
+     * split as by {@link #toMap(java.lang.String, java.lang.String, boolean, java.lang.String)},
+     * i.e as if by <tt>String.split(separator)</tt> then <tt>split("=")</tt>,
+     * with keys and values trimmed. Separators containing regular expression
+     * characters are still treated as regular expressions.
+     * <p>
+     * Unlike <tt>toMap</tt>, {@link #reverseKey(java.lang.String, java.lang.String)} 
+     * and {@link #reverseValue(java.lang.String, java.lang.String, boolean, java.lang.String)}
+     * are not called. Values are decoded straight from the input, by
+     * {@link PercentCodec#decode(java.lang.CharSequence, int, int, java.nio.charset.Charset)}.
+     * </p>
+     * @param query The query, with or without a leading <tt>'?'</tt>
+     * @param separator The separator between query pairs
+     * @param charset The charset with which to decode values, or <tt>null</tt>
+     * to not decode
+     * @param consumer Receives the key and value of each pair, in order
+     * @throws IllegalArgumentException If decoding and a value has an invalid escape
+     */
+    public void forEachPair(CharSequence query, String separator, Charset charset, 
+            BiConsumer<String, String> consumer) {
+        
+        final int start = query.length() > 0 && query.charAt(0) == '?' ? 1 : 0;
+        final int end = query.length();
+        
+        if(!isLiteral(separator)) {
+            for(String pair : Pattern.compile(separator).split(query.subSequence(start, end))) {
+                this.acceptPair(pair, 0, pair.length(), charset, consumer);
             }
-
-            String [] parts = queryPairs[i].split("=");
-            
-            String key;
-            String val;
-            
-            if(parts == null || parts.length == 0) {
-                continue;
-            }else if (parts.length == 1) {
-                if(this.emptyStringsAllowed) {
-                    key = parts[0];
-                    val = ""; //We prefer an empty String to null -> Query standards
-                }else{
-                    continue;
-                }
-            }else if(parts.length == 2) {
-                key = parts[0];
-                val = parts[1];
+            return;
+        }
+        
+        // As String.split, we drop trailing empty pairs but not leading ones,
+        // so empty pairs are held back until a non-empty pair follows
+        int pendingEmpty = 0;
+        boolean matched = false;
+        int pairStart = start;
+        while(true) {
+            final int at = indexOf(query, separator, pairStart, end);
+            final int pairEnd = at == -1 ? end : at;
+            if(pairEnd == pairStart) {
+                ++pendingEmpty;
             }else{
-                
-                final int index = separatorIndex < 0 ? 0 : separatorIndex >= parts.length-1 ? parts.length - 2 : separatorIndex;
-
-                StringBuilder builder = new StringBuilder();
-                for(int partIndex=0; partIndex<index+1; partIndex++) {
-                    builder.append(parts[partIndex]);
-                    if(partIndex < index) {
-                        builder.append('=');
-                    }
+                for(; pendingEmpty > 0; --pendingEmpty) {
+                    this.acceptPair(query, pairStart, pairStart, charset, consumer);
                 }
-                key = builder.toString();
-                
-                builder.setLength(0);
-                for(int partIndex=index+1; partIndex<parts.length; partIndex++) {
-                    builder.append(parts[partIndex]);
-                    if(partIndex < parts.length-1) {
-                        builder.append('=');
-                    }
+                this.acceptPair(query, pairStart, pairEnd, charset, consumer);
+            }
+            if(at == -1) {
+                break;
+            }
+            matched = true;
+            pairStart = at + separator.length();
+        }
+        
+        // An input without separators is a single pair, even if empty
+        if(!matched && pendingEmpty == 1) {
+            this.acceptPair(query, start, start, charset, consumer);
+        }
+    }
+    
+    private void acceptPair(CharSequence query, int start, int end, 
+            Charset charset, BiConsumer<String, String> consumer) {
+        
+        // As split("="), ignore trailing '='
+        int last = end;
+        while(last > start && query.charAt(last - 1) == '=') {
+            --last;
+        }
+        
+        if(last == start && last < end) {
+            // Only '=', no parts
+            return;
+        }
+        
+        // Find the '=' at separatorIndex, or the last if there are fewer
+        final int target = separatorIndex < 0 ? 0 : separatorIndex;
+        int count = 0;
+        int at = -1;
+        for(int i = start; i < last; i++) {
+            if(query.charAt(i) == '=') {
+                at = i;
+                if(count++ == target) {
+                    break;
                 }
-                val = builder.toString();
             }
-            
-            key = key.trim();
-            val = val == null ? null : val.trim();
-            
-            result.put(this.reverseKey(key, val), this.reverseValue(key, val, decode, charset));
         }
         
-        LOG.log(Level.FINER, "Output: {0}", result);        
-
-        return result;
+        final String key;
+        final String val;
+        if(at == -1) {
+            if(!this.emptyStringsAllowed) {
+                return;
+            }
+            key = substring(query, start, last);
+            val = ""; //We prefer an empty String to null -> Query standards
+        }else{
+            key = substring(query, start, at);
+            final int valStart = trimStart(query, at + 1, last);
+            final int valEnd = trimEnd(query, valStart, last);
+            val = charset == null ? query.subSequence(valStart, valEnd).toString() : 
+                    PercentCodec.decode(query, valStart, valEnd, charset);
+        }
+        
+        consumer.accept(key, val);
+    }
+    
+    private static String substring(CharSequence s, int start, int end) {
+        start = trimStart(s, start, end);
+        return s.subSequence(start, trimEnd(s, start, end)).toString();
+    }
+    
+    /**
+     * As String#trim
+     */
+    private static int trimStart(CharSequence s, int start, int end) {
+        while(start < end && s.charAt(start) <= ' ') {
+            ++start;
+        }
+        return start;
+    }
+    
+    private static int trimEnd(CharSequence s, int start, int end) {
+        while(end > start && s.charAt(end - 1) <= ' ') {
+            --end;
+        }
+        return end;
+    }
+    
+    private static int indexOf(CharSequence s, String target, int from, int end) {
+        if(s instanceof String) {
+            return ((String)s).indexOf(target, from);
+        }
+        final char first = target.charAt(0);
+        final int max = end - target.length();
+        outer:
+        for(int i = from; i <= max; i++) {
+            if(s.charAt(i) != first) {
+                continue;
+            }
+            for(int j = 1; j < target.length(); j++) {
+                if(s.charAt(i + j) != target.charAt(j)) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+    
+    /**
+     * @return true if the separator, as a regular expression, only matches itself
+     */
+    private static boolean isLiteral(String separator) {
+        if(separator.isEmpty()) {
+            return false;
+        }
+        for(int i = 0; i < separator.length(); i++) {
+            if(".$|()[]{}^?*+\\".indexOf(separator.charAt(i)) != -1) {
+                return false;
+            }
+        }
+        return true;
     }
     
     public String reverseKey(String key, String value) {
@@ -262,6 +414,42 @@ public class QueryParametersConverter implements Serializable {
         return true;
     }
 
+    /**
+     * Appends the pair, encoding the value straight into the input builder.
+     * If a subclass overrides {@link #convertValue(java.lang.Object, java.lang.Object, boolean, java.lang.String)}
+     * or {@link #urlEncode(java.lang.Object, java.lang.String)}, the value 
+     * is instead converted by <tt>convertValue</tt>, as by 
+     * {@link #appendQueryPair(java.lang.Object, java.lang.Object, java.lang.StringBuilder, boolean, java.lang.String)}
+     * @param key The key of the pair
+     * @param val The value of the pair
+     * @param appendTo The builder to append the pair to
+     * @param charset The charset with which to encode the value, or <tt>null</tt>
+     * to not encode
+     * @return <tt>true</tt> if the pair was appended, otherwise <tt>false</tt>
+     */
+    public boolean appendQueryPair(Object key, Object val, StringBuilder appendTo, Charset charset) {
+
+        if(!this.emptyStringsAllowed && val instanceof String && ((String)val).isEmpty()) {
+            return false;
+        }
+
+        if(!this.nullsAllowed && val == null) {
+            return false;
+        }
+
+        appendTo.append(this.convertKey(key, val));
+        appendTo.append('=');
+        if(CONVERTS_VALUES.get(this.getClass())) {
+            appendTo.append(this.convertValue(key, val, charset != null, charset == null ? null : charset.name()));
+        }else if(val != null && charset != null) {
+            PercentCodec.encode(val instanceof CharSequence ? (CharSequence)val : val.toString(), charset, appendTo);
+        }else{
+            appendTo.append(val);
+        }
+        
+        return true;
+    }
+
     public Object convertKey(Object key, Object val) {
         return key;
     }
@@ -278,14 +466,10 @@ public class QueryParametersConverter implements Serializable {
      * @param charset The name of the charset to use in URL encoding the input value
      * @return The URL encoded value
      * @throws java.lang.RuntimeException if {@link java.io.UnsupportedEncodingException} is thrown
+     * @see PercentCodec#encode(java.lang.CharSequence, java.nio.charset.Charset) 
     */
     public Object urlEncode(Object val, String charset) {
-        try {
-            val = val == null ? null : URLEncoder.encode(val.toString(), charset);
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
-        }
-        return val;
+        return val == null ? null : PercentCodec.encode(val.toString(), charsetOf(charset));
     }
 
     /**
@@ -293,14 +477,21 @@ public class QueryParametersConverter implements Serializable {
      * @param charset The name of the charset to use in URL encoding the input value
      * @return The URL decoded value
      * @throws java.lang.RuntimeException if {@link java.io.UnsupportedEncodingException} is thrown
+     * @see PercentCodec#decode(java.lang.CharSequence, java.nio.charset.Charset) 
     */
     public Object urlDecode(Object val, String charset) {
-        try {
-            val = val == null ? null : URLDecoder.decode(val.toString(), charset);
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
+        return val == null ? null : PercentCodec.decode(val.toString(), charsetOf(charset));
+    }
+    
+    private static Charset charsetOf(String charset) {
+        try{
+            return Charset.forName(Objects.requireNonNull(charset, "charset"));
+        }catch(IllegalArgumentException e) {
+            // Illegal or unsupported name, as thrown by URLEncoder/URLDecoder
+            final UnsupportedEncodingException uee = new UnsupportedEncodingException(charset);
+            uee.initCause(e);
+            throw new RuntimeException(uee);
         }
-        return val;
     }
 
     public final int getSeparatorIndex() {
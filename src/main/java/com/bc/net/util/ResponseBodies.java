@@ -0,0 +1,232 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Arrays;
+
+/**
+ * Reads response bodies as bytes or text. Buffers are presized from the
+ * length of the body where known, and text is decoded as it is read, 
+ * rather than being first collected as bytes.
+ * <p>
+ * A byte order mark takes precedence over the charset given, and is
+ * not returned as part of the text. Malformed input is replaced, not 
+ * reported.
+ * </p>
+ */
+public final class ResponseBodies {
+
+    private static final int DEFAULT_CAPACITY = 8192;
+
+    /**
+     * Limits the presized buffer, in case of a wrong or hostile length
+     */
+    private static final int MAX_INITIAL_CAPACITY = 8 * 1024 * 1024;
+
+    private ResponseBodies() { }
+
+    /**
+     * @param contentType The value of the Content-Type header, 
+     * e.g <code>text/html; charset=UTF-8</code>. May be null.
+     * @return The charset named by the content type, or null if none, or 
+     * if the charset is not supported
+     */
+    public static Charset charsetOf(String contentType) {
+        if(contentType == null) {
+            return null;
+        }
+        for(String param : contentType.split(";")) {
+            final int n = param.indexOf('=');
+            if(n == -1 || !"charset".equalsIgnoreCase(param.substring(0, n).trim())) {
+                continue;
+            }
+            String name = param.substring(n + 1).trim();
+            if(name.length() > 1 && name.charAt(0) == '"' && name.charAt(name.length() - 1) == '"') {
+                name = name.substring(1, name.length() - 1);
+            }
+            try{
+                return Charset.forName(name);
+            }catch(IllegalCharsetNameException | UnsupportedCharsetException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the input stream to the end. Does not close the stream.
+     * @param in The stream to read
+     * @param lengthHint The expected length, or -1 if not known
+     * @param limit The maximum number of bytes to read
+     * @return The bytes read
+     * @throws IOException If the stream could not be read, or has more 
+     * bytes than the limit
+     */
+    public static byte[] readBytes(InputStream in, long lengthHint, int limit) throws IOException {
+        if(limit < 0) {
+            throw new IllegalArgumentException("Limit must not be negative, found: " + limit);
+        }
+        byte [] buffer = new byte[initialCapacity(lengthHint, limit)];
+        int count = 0;
+        while(true) {
+            if(count == buffer.length) {
+                // Check for more, before growing the buffer
+                final int b = in.read();
+                if(b == -1) {
+                    return buffer;
+                }
+                if(count >= limit) {
+                    throw new IOException("Body exceeds limit of " + limit + " bytes");
+                }
+                buffer = Arrays.copyOf(buffer, (int)Math.min(limit, Math.max(count * 2L, DEFAULT_CAPACITY)));
+                buffer[count++] = (byte)b;
+            }
+            final int n = in.read(buffer, count, buffer.length - count);
+            if(n == -1) {
+                return count == buffer.length ? buffer : Arrays.copyOf(buffer, count);
+            }
+            count += n;
+        }
+    }
+
+    /**
+     * Reads the input stream to the end, decoding as it reads. Does not 
+     * close the stream.
+     * @param in The stream to read
+     * @param charset The charset to decode with, unless a byte order mark
+     * says otherwise
+     * @param lengthHint The expected length in bytes, or -1 if not known
+     * @return The text read
+     * @throws IOException If the stream could not be read
+     */
+    public static String readString(InputStream in, Charset charset, long lengthHint) throws IOException {
+        final PushbackInputStream pushback = new PushbackInputStream(in, 3);
+        final CharsetDecoder decoder = newDecoder(bomCharset(pushback, charset));
+        CharBuffer output = CharBuffer.allocate(initialCapacity(
+                lengthHint < 0 ? -1 : (long)(lengthHint * decoder.averageCharsPerByte()), Integer.MAX_VALUE));
+        final ByteArrayPool pool = ByteArrayPool.getDefault();
+        final byte [] bytes = pool.acquire();
+        try{
+            final ByteBuffer input = ByteBuffer.wrap(bytes, 0, 0);
+            boolean endOfInput = false;
+            while(true) {
+                if(!endOfInput) {
+                    input.compact();
+                    final int n = pushback.read(bytes, input.position(), input.remaining());
+                    if(n == -1) {
+                        endOfInput = true;
+                    }else{
+                        input.position(input.position() + n);
+                    }
+                    input.flip();
+                }
+                final CoderResult result = decoder.decode(input, output, endOfInput);
+                if(result.isOverflow()) {
+                    output = grow(output);
+                }else if(result.isError()) {
+                    // Not expected, errors are replaced
+                    result.throwException();
+                }else if(endOfInput) {
+                    while(decoder.flush(output).isOverflow()) {
+                        output = grow(output);
+                    }
+                    break;
+                }
+            }
+        }catch(CharacterCodingException e) {
+            throw new IOException(e);
+        }finally{
+            pool.release(bytes);
+        }
+        output.flip();
+        return output.toString();
+    }
+
+    /**
+     * @param in The stream to read
+     * @param charset The charset to decode with, unless a byte order mark
+     * says otherwise
+     * @return A reader which decodes the input stream as it is read. 
+     * Closing the reader closes the stream.
+     * @throws IOException If the byte order mark could not be read
+     */
+    public static Reader newReader(InputStream in, Charset charset) throws IOException {
+        final PushbackInputStream pushback = new PushbackInputStream(in, 3);
+        return new InputStreamReader(pushback, newDecoder(bomCharset(pushback, charset)));
+    }
+
+    /**
+     * Consumes any byte order mark at the start of the stream
+     * @return The charset of the byte order mark, or the input charset if none
+     */
+    private static Charset bomCharset(PushbackInputStream in, Charset charset) throws IOException {
+        final byte [] head = new byte[3];
+        final int n = in.readNBytes(head, 0, 3);
+        final int b0 = n > 0 ? head[0] & 0xFF : -1;
+        final int b1 = n > 1 ? head[1] & 0xFF : -1;
+        final int b2 = n > 2 ? head[2] & 0xFF : -1;
+        if(b0 == 0xEF && b1 == 0xBB && b2 == 0xBF) {
+            return StandardCharsets.UTF_8;
+        }
+        if(b0 == 0xFE && b1 == 0xFF) {
+            in.unread(head, 2, n - 2);
+            return StandardCharsets.UTF_16BE;
+        }
+        if(b0 == 0xFF && b1 == 0xFE) {
+            in.unread(head, 2, n - 2);
+            return StandardCharsets.UTF_16LE;
+        }
+        in.unread(head, 0, n);
+        return charset;
+    }
+
+    private static CharsetDecoder newDecoder(Charset charset) {
+        return charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    private static CharBuffer grow(CharBuffer buffer) {
+        final int capacity = buffer.capacity();
+        if(capacity == Integer.MAX_VALUE - 8) {
+            throw new OutOfMemoryError("Body too large");
+        }
+        final CharBuffer larger = CharBuffer.allocate((int)Math.min(Integer.MAX_VALUE - 8, Math.max(capacity * 2L, DEFAULT_CAPACITY)));
+        buffer.flip();
+        return larger.put(buffer);
+    }
+
+    private static int initialCapacity(long lengthHint, int limit) {
+        final long capacity = lengthHint < 0 ? DEFAULT_CAPACITY : Math.min(lengthHint, MAX_INITIAL_CAPACITY);
+        return (int)Math.min(capacity, limit);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.util;
+
+import java.net.URLConnection;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Parses the <tt>Retry-After</tt> header, which is either a number of
+ * seconds or an HTTP date.
+ * @see <a href="https://tools.ietf.org/html/rfc7231#section-7.1.3">RFC 7231, 7.1.3</a>
+ */
+public final class RetryAfter {
+
+    public static final String HEADER = "Retry-After";
+
+    private RetryAfter() { }
+
+    /**
+     * @param connection The connection whose response headers are read
+     * @return The milliseconds to wait before retrying, or -1 if the header
+     * is absent or not valid
+     */
+    public static long getMillis(URLConnection connection) {
+        return parseMillis(connection.getHeaderField(HEADER), System.currentTimeMillis());
+    }
+
+    /**
+     * @param value The value of the header, may be <tt>null</tt>
+     * @param nowMillis The current time, used when the value is a date
+     * @return The milliseconds to wait before retrying, or -1 if the value
+     * is <tt>null</tt> or not valid. A date in the past returns 0.
+     */
+    public static long parseMillis(String value, long nowMillis) {
+        if(value == null) {
+            return -1;
+        }
+        value = value.trim();
+        if(value.isEmpty()) {
+            return -1;
+        }
+        if(isDigits(value)) {
+            // Too large to be meaningful, wait as long as allowed
+            if(value.length() > 12) {
+                return Long.MAX_VALUE;
+            }
+            return Long.parseLong(value) * 1000;
+        }
+        try{
+            final long at = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME)
+                    .toInstant().toEpochMilli();
+            return Math.max(0, at - nowMillis);
+        }catch(DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    private static boolean isDigits(String value) {
+        for(int i = 0; i < value.length(); i++) {
+            final char ch = value.charAt(i);
+            if(ch < '0' || ch > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -85,6 +85,8 @@ public class ConnectionManager {
     
     private InputStream inputStream;
     
+    private com.bc.net.Response response;
+    
     private RetryConnectionFilter retryAfterExceptionFilter;
     
     private final CookieProcessor cookieProcessor;
@@ -113,6 +115,7 @@ public class ConnectionManager {
         this.responseMessage = null;
         this.connection = null;
         this.inputStream = null;
+        this.response = null;
 // Cookies are available for reuse across connection operations
 //        this.cookies.clear();
     }
@@ -191,8 +194,19 @@ log(Level.FINER, "@stop(int). Is running: {0}", this.isStopped());
         }
     }
 
+    /**
+     * Closes the response if any, which lets the connection be kept alive.
+     * Disconnects only if there was no response to close.
+     */
     public void disconnect() {
-        if(this.getConnection() instanceof HttpURLConnection) {
+        if(this.response != null) {
+            try{
+                this.response.close();
+            }catch(IOException e) {
+                LOG.log(Level.WARNING, "Exception closing.", e);
+            }
+            this.response = null;
+        }else if(this.getConnection() instanceof HttpURLConnection) {
             ((HttpURLConnection)this.getConnection()).disconnect();
         }
     }
@@ -559,6 +573,7 @@ final long tb4 = System.currentTimeMillis();
             this.responseMessage = res.getMessage();
             
             this.inputStream = res.getInputStream();
+            this.response = res;
             
 log(Level.FINER, 
 "Done getting input stream. Spent, time: {0}, memory: {1}", 
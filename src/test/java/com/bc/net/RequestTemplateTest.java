@@ -0,0 +1,60 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.net;
+
+import java.util.concurrent.Executor;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+public class RequestTemplateTest {
+
+    @Test
+    public void fromCopiesSettings() {
+        final RequestBuilder builder = RequestTemplate.DEFAULT.newRequest()
+                .connectTimeout(1_000).readTimeout(2_000).followRedirects(false)
+                .method("PUT").add("Accept", "text/html");
+        final RequestTemplate template = RequestTemplate.from(builder);
+        assertEquals(1_000, template.getConnectTimeout());
+        assertEquals(2_000, template.getReadTimeout());
+        assertEquals(false, template.isFollowRedirects());
+        assertEquals("PUT", template.getMethod());
+        assertEquals("text/html", template.getHeaders().get("Accept"));
+        assertEquals("PUT", template.newRequest().getMethod());
+    }
+
+    @Test
+    public void fromLeavesTheDefaultExecutorUnset() {
+        assertNull(RequestTemplate.from(RequestTemplate.DEFAULT.newRequest()).getExecutor());
+        final Executor executor = Runnable::run;
+        final RequestTemplate template = RequestTemplate.from(RequestTemplate.DEFAULT.newRequest().executor(executor));
+        assertSame(executor, template.getExecutor());
+        assertSame(executor, template.newRequest().getExecutor());
+    }
+
+    @Test
+    public void fromCarriesTheCharset() {
+        assertNull(RequestTemplate.from(RequestTemplate.DEFAULT.newRequest()).getCharset());
+        final RequestTemplate template = RequestTemplate.from(RequestTemplate.DEFAULT.newRequest().charset("ISO-8859-1"));
+        assertEquals("ISO-8859-1", template.getCharset());
+        final RequestBuilder request = template.newRequest();
+        assertEquals("ISO-8859-1", request.body().getCharset());
+        assertEquals("ISO-8859-1", request.getRequestProperties().get("Accept-Charset"));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.net;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void idempotentMethodsAreRetried() {
+        final RetryPolicy policy = RetryPolicy.DEFAULT;
+        for(String method : new String[]{"GET", "HEAD", "OPTIONS", "TRACE", "PUT", "DELETE", "get"}) {
+            assertTrue(method, policy.isRetryable(method));
+            assertTrue(method, policy.isRetryable(method, 503));
+            assertTrue(method, policy.isRetryable(method, new SocketTimeoutException()));
+        }
+        assertFalse(policy.isRetryable("GET", 500));
+        assertFalse(policy.isRetryable("GET", 404));
+    }
+
+    @Test
+    public void nonIdempotentMethodsAreNotRetried() {
+        final RetryPolicy policy = RetryPolicy.DEFAULT;
+        for(String method : new String[]{"POST", "PATCH"}) {
+            assertFalse(method, policy.isRetryable(method));
+            assertFalse(method, policy.isRetryable(method, 503));
+            assertFalse(method, policy.isRetryable(method, new SocketTimeoutException()));
+            // Never sent, so safe to retry
+            assertTrue(method, policy.isRetryable(method, new ConnectException()));
+            assertTrue(method, policy.withRetryNonIdempotent(true).isRetryable(method, 503));
+        }
+    }
+
+    @Test
+    public void permanentFailuresAreNotRetried() {
+        final RetryPolicy policy = RetryPolicy.DEFAULT.withRetryNonIdempotent(true);
+        assertFalse(policy.isRetryable("GET", new UnknownHostException("example.invalid")));
+        assertFalse(policy.isRetryable("GET", new ResponseTooLargeException("Too large", 10)));
+        assertTrue(policy.isRetryable("GET", new IOException()));
+    }
+
+    @Test
+    public void backoff() {
+        final RetryPolicy policy = RetryPolicy.DEFAULT.withBackoff(100, 1_000, 2).withJitter(0);
+        assertEquals(100, policy.getDelayMillis(1));
+        assertEquals(200, policy.getDelayMillis(2));
+        assertEquals(800, policy.getDelayMillis(4));
+        assertEquals(1_000, policy.getDelayMillis(5));
+        final RetryPolicy jittered = policy.withJitter(0.5);
+        for(int i = 0; i < 100; i++) {
+            final long delay = jittered.getDelayMillis(3);
+            // Truncated, so a fraction just under the jitter gives the lower bound
+            assertTrue(String.valueOf(delay), delay >= 200 && delay <= 400);
+        }
+    }
+
+    @Test
+    public void budgetExhaustion() {
+        final RetryBudget budget = new RetryBudget(0.5, 2);
+        assertTrue(budget.tryAcquire());
+        assertTrue(budget.tryAcquire());
+        assertFalse(budget.tryAcquire());
+        // Half a token per request
+        budget.onRequest();
+        assertFalse(budget.tryAcquire());
+        budget.onRequest();
+        assertTrue(budget.tryAcquire());
+        assertFalse(budget.tryAcquire());
+        // Never more than the maximum
+        for(int i = 0; i < 100; i++) {
+            budget.onRequest();
+        }
+        assertEquals(2.0, budget.getTokens(), 0.0);
+    }
+}
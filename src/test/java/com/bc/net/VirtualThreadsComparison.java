@@ -0,0 +1,144 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net;
+
+import com.bc.net.util.AsyncExecutors;
+import com.sun.net.httpserver.HttpServer;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares platform threads in a fixed pool with virtual threads, for
+ * many concurrent blocking fetches against a slow local server.
+ * <p>
+ * Prints the peak number of live platform threads on the client side, and 
+ * the growth in heap use once all requests are in flight. Run on a JVM 
+ * with virtual threads (21 or later) for a meaningful comparison, e.g:
+ * </p>
+ * <pre>java -Xmx512m -cp ... com.bc.net.VirtualThreadsComparison 2000 200</pre>
+ */
+public class VirtualThreadsComparison {
+
+    private static final String SERVER_THREAD_PREFIX = "test-server-";
+
+    public static void main(String... args) throws Exception {
+
+        final int requests = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        final int poolSize = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        final int delayMillis = 500;
+
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), requests);
+        server.setExecutor(Executors.newCachedThreadPool(new AsyncExecutors.DaemonThreadFactory(SERVER_THREAD_PREFIX)));
+        server.createContext("/", (exchange) -> {
+            try{
+                Thread.sleep(delayMillis);
+            }catch(InterruptedException ignored) { }
+            final byte [] body = "OK".getBytes();
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+
+        final URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+
+        try{
+            System.out.println("Virtual threads supported: " + AsyncExecutors.isVirtualThreadsSupported() +
+                    ", requests: " + requests + ", fixed pool size: " + poolSize + ", server delay: " + delayMillis + "ms");
+
+            final ExecutorService fixed = Executors.newFixedThreadPool(poolSize);
+            try{
+                run("Fixed pool", RequestTemplate.DEFAULT.withExecutor(fixed), url, requests);
+            }finally{
+                fixed.shutdown();
+            }
+
+            run("Virtual threads", RequestTemplate.DEFAULT.withVirtualThreads(), url, requests);
+
+        }finally{
+            server.stop(0);
+            System.exit(0);
+        }
+    }
+
+    private static void run(String name, RequestTemplate template, URL url, int requests) throws Exception {
+
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        final AtomicInteger peakThreads = new AtomicInteger();
+        final Thread sampler = new Thread(() -> {
+            while(!Thread.currentThread().isInterrupted()) {
+                peakThreads.accumulateAndGet(countClientPlatformThreads(), Math::max);
+                try{
+                    Thread.sleep(5);
+                }catch(InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        sampler.setDaemon(true);
+
+        System.gc();
+        sampler.start();
+        final long heapBefore = memory.getHeapMemoryUsage().getUsed();
+        final long start = System.nanoTime();
+
+        final List<CompletableFuture<Response>> futures = new ArrayList<>(requests);
+        for(int i = 0; i < requests; i++) {
+            futures.add(template.newRequest(url).responseAsync());
+        }
+
+        final long heapInFlight = memory.getHeapMemoryUsage().getUsed();
+
+        for(CompletableFuture<Response> future : futures) {
+            try(InputStream in = future.join().getInputStream()) {
+                in.readAllBytes();
+            }
+        }
+
+        final long millis = (System.nanoTime() - start) / 1_000_000;
+
+        sampler.interrupt();
+        sampler.join();
+
+        System.out.println(name + ". Time: " + millis + "ms, peak client platform threads: " +
+                peakThreads.get() + ", heap growth while in flight: " +
+                ((heapInFlight - heapBefore) / 1024) + "KB");
+    }
+
+    /**
+     * Virtual threads are not included by Thread#getAllStackTraces()
+     */
+    private static int countClientPlatformThreads() {
+        int count = 0;
+        for(Thread thread : Thread.getAllStackTraces().keySet()) {
+            if(!thread.getName().startsWith(SERVER_THREAD_PREFIX)) {
+                ++count;
+            }
+        }
+        return count;
+    }
+}
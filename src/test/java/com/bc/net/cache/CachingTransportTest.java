@@ -0,0 +1,230 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.net.cache;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachingTransportTest {
+
+    private static final long NOW = 1_600_000_000_000L;
+
+    private HttpServer server;
+
+    private final AtomicInteger hits = new AtomicInteger();
+
+    private volatile String lastIfNoneMatch;
+
+    private volatile Consumer<HttpExchange> handler;
+
+    private CachingTransport transport;
+
+    @Before
+    public void setUp() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/", (exchange) -> {
+            this.hits.incrementAndGet();
+            this.lastIfNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            try{
+                this.handler.accept(exchange);
+            }finally{
+                exchange.close();
+            }
+        });
+        this.server.start();
+        this.transport = new CachingTransport(new MemoryCacheStore(1024 * 1024));
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop(0);
+    }
+
+    @Test
+    public void freshResponseIsServedFromStore() throws IOException {
+        this.handler = (exchange) -> respond(exchange, 200, "max-age=60", "fresh");
+        assertEquals("fresh", this.get("/fresh", null));
+        assertEquals("fresh", this.get("/fresh", null));
+        assertEquals(1, this.hits.get());
+    }
+
+    @Test
+    public void noStoreIsNotStored() throws IOException {
+        this.handler = (exchange) -> respond(exchange, 200, "no-store, max-age=60", "body");
+        this.get("/no-store", null);
+        this.get("/no-store", null);
+        assertEquals(2, this.hits.get());
+    }
+
+    @Test
+    public void staleResponseIsRevalidated() throws IOException {
+        this.handler = (exchange) -> {
+            exchange.getResponseHeaders().add("ETag", "\"v1\"");
+            if("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.getResponseHeaders().add("Cache-Control", "max-age=60");
+                sendHeaders(exchange, 304, -1);
+            }else{
+                respond(exchange, 200, "max-age=0", "original");
+            }
+        };
+        assertEquals("original", this.get("/etag", null));
+        assertNull(this.lastIfNoneMatch);
+        // Stale, so revalidated and the stored body served
+        assertEquals("original", this.get("/etag", null));
+        assertEquals("\"v1\"", this.lastIfNoneMatch);
+        assertEquals(2, this.hits.get());
+        // The 304 made the entry fresh
+        assertEquals("original", this.get("/etag", null));
+        assertEquals(2, this.hits.get());
+    }
+
+    @Test
+    public void varyHeadersMustMatch() throws IOException {
+        this.handler = (exchange) -> {
+            exchange.getResponseHeaders().add("Vary", "Accept-Language");
+            respond(exchange, 200, "max-age=60", exchange.getRequestHeaders().getFirst("Accept-Language"));
+        };
+        assertEquals("en", this.get("/vary", (conn) -> conn.setRequestProperty("Accept-Language", "en")));
+        assertEquals("en", this.get("/vary", (conn) -> conn.setRequestProperty("Accept-Language", "en")));
+        assertEquals(1, this.hits.get());
+        assertEquals("fr", this.get("/vary", (conn) -> conn.setRequestProperty("Accept-Language", "fr")));
+        assertEquals(2, this.hits.get());
+    }
+
+    @Test
+    public void onlyIfCached() throws IOException {
+        this.handler = (exchange) -> respond(exchange, 200, "max-age=60", "cached");
+        final URL url = this.url("/only");
+        HttpURLConnection conn = (HttpURLConnection)this.transport.openConnection(url);
+        conn.setRequestProperty("Cache-Control", "only-if-cached");
+        assertEquals(HttpURLConnection.HTTP_GATEWAY_TIMEOUT, conn.getResponseCode());
+        assertEquals(0, this.hits.get());
+
+        this.get("/only", null);
+        assertEquals("cached", this.get("/only", (c) -> c.setRequestProperty("Cache-Control", "only-if-cached")));
+        assertEquals(1, this.hits.get());
+    }
+
+    @Test
+    public void freshnessLifetime() {
+        assertEquals(60_000, lifetime(headers("Cache-Control", "max-age=60")));
+        // max-age takes precedence over Expires
+        assertEquals(5_000, lifetime(headers(
+                "Cache-Control", "max-age=5", "Date", date(NOW), "Expires", date(NOW + 60_000))));
+        assertEquals(60_000, lifetime(headers("Date", date(NOW), "Expires", date(NOW + 60_000))));
+        // An invalid Expires is already expired
+        assertEquals(0, lifetime(headers("Date", date(NOW), "Expires", "0")));
+        // Heuristic, a tenth of the time since last modified
+        assertEquals(1_000, lifetime(headers("Date", date(NOW), "Last-Modified", date(NOW - 10_000))));
+    }
+
+    @Test
+    public void isFresh() {
+        final CacheEntry entry = entry(headers("Cache-Control", "max-age=60", "Date", date(NOW)));
+        assertTrue(CachePolicy.isFresh(entry, CacheControl.NONE, NOW + 59_000));
+        assertFalse(CachePolicy.isFresh(entry, CacheControl.NONE, NOW + 60_000));
+        assertFalse(CachePolicy.isFresh(entry, CacheControl.parse("max-age=10"), NOW + 20_000));
+        assertFalse(CachePolicy.isFresh(entry, CacheControl.parse("min-fresh=30"), NOW + 40_000));
+        assertTrue(CachePolicy.isFresh(entry, CacheControl.parse("max-stale=30"), NOW + 80_000));
+        assertFalse(CachePolicy.isFresh(entry, CacheControl.parse("no-cache"), NOW));
+        // An Age from an upstream cache is added
+        final CacheEntry aged = entry(headers("Cache-Control", "max-age=60", "Date", date(NOW), "Age", "50"));
+        assertFalse(CachePolicy.isFresh(aged, CacheControl.NONE, NOW + 10_000));
+        // must-revalidate ignores max-stale
+        final CacheEntry strict = entry(headers("Cache-Control", "max-age=60, must-revalidate", "Date", date(NOW)));
+        assertFalse(CachePolicy.isFresh(strict, CacheControl.parse("max-stale=30"), NOW + 80_000));
+    }
+
+    private String get(String path, Consumer<HttpURLConnection> setup) throws IOException {
+        final HttpURLConnection conn = (HttpURLConnection)this.transport.openConnection(this.url(path));
+        if(setup != null) {
+            setup.accept(conn);
+        }
+        assertEquals(200, conn.getResponseCode());
+        try(InputStream in = conn.getInputStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private URL url(String path) throws IOException {
+        return new URL("http://127.0.0.1:" + this.server.getAddress().getPort() + path);
+    }
+
+    private static void respond(HttpExchange exchange, int code, String cacheControl, String body) {
+        final byte [] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Cache-Control", cacheControl);
+        sendHeaders(exchange, code, bytes.length);
+        try{
+            exchange.getResponseBody().write(bytes);
+        }catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void sendHeaders(HttpExchange exchange, int code, long length) {
+        try{
+            exchange.sendResponseHeaders(code, length);
+        }catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static long lifetime(Map<String, List<String>> headers) {
+        final CacheEntry entry = entry(headers);
+        return CachePolicy.freshnessLifetime(entry, CacheControl.parse(entry.getHeaders("Cache-Control")));
+    }
+
+    private static CacheEntry entry(Map<String, List<String>> headers) {
+        return new CacheEntry("key", 200, "OK", headers, Collections.emptyMap(), NOW, NOW, CacheEntry.Body.of(new byte[0]));
+    }
+
+    private static Map<String, List<String>> headers(String... nameValues) {
+        final Map<String, List<String>> headers = new LinkedHashMap<>();
+        for(int i = 0; i < nameValues.length; i += 2) {
+            headers.put(nameValues[i], Collections.singletonList(nameValues[i + 1]));
+        }
+        return headers;
+    }
+
+    private static String date(long millis) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC));
+    }
+}
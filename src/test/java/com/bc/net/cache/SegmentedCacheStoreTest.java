@@ -0,0 +1,172 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.net.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SegmentedCacheStoreTest {
+
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    private Path directory;
+
+    private SegmentedCacheStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("segmented-cache-test");
+        this.store = new SegmentedCacheStore(this.directory, 16 * SEGMENT_SIZE, SEGMENT_SIZE);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.store.close();
+        try(Stream<Path> files = Files.walk(this.directory)) {
+            for(Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Test
+    public void reopenRestoresEntriesAndRemovals() throws IOException {
+        this.store.put("a", entry("a", body('a', 100)));
+        this.store.put("b", entry("b", body('b', 100)));
+        this.store.put("a", entry("a", body('A', 50)));
+        this.store.remove("b");
+
+        this.reopen();
+
+        assertEquals(1, this.store.getCount());
+        assertEquals(new String(body('A', 50), StandardCharsets.US_ASCII), this.read("a"));
+        assertNull(this.store.get("b"));
+    }
+
+    @Test
+    public void partlyWrittenRecordEndsScan() throws IOException {
+        this.store.put("a", entry("a", body('a', 100)));
+        this.store.put("b", entry("b", body('b', 100)));
+        this.store.close();
+
+        // As if the process died while writing b, its checksum no longer matches
+        final Path segment = this.segments().get(0);
+        final byte [] bytes = Files.readAllBytes(segment);
+        final int at = indexOf(bytes, body('b', 100));
+        bytes[at + 50] = 'x';
+        Files.write(segment, bytes);
+
+        this.store = new SegmentedCacheStore(this.directory, 16 * SEGMENT_SIZE, SEGMENT_SIZE);
+        assertEquals(body('a', 100).length, this.read("a").length());
+        assertNull(this.store.get("b"));
+
+        // The torn record is overwritten by the next
+        this.store.put("c", entry("c", body('c', 10)));
+        this.reopen();
+        assertEquals(2, this.store.getCount());
+        assertEquals("cccccccccc", this.read("c"));
+        assertNull(this.store.get("b"));
+    }
+
+    @Test
+    public void truncatedSegmentKeepsWholeRecords() throws IOException {
+        // Each entry takes more than a quarter of a segment, so four fill several
+        final int bodySize = SEGMENT_SIZE / 3;
+        for(char ch = 'a'; ch <= 'e'; ch++) {
+            this.store.put(String.valueOf(ch), entry(String.valueOf(ch), body(ch, bodySize)));
+        }
+        this.store.close();
+        final List<Path> segments = this.segments();
+        assertTrue(segments.size() > 1);
+
+        // Cut the last record of the first, sealed, segment in half
+        final Path first = segments.get(0);
+        final byte [] bytes = Files.readAllBytes(first);
+        final int lastBody = indexOf(bytes, body('b', bodySize));
+        try(FileChannel channel = FileChannel.open(first, StandardOpenOption.WRITE)) {
+            channel.truncate(lastBody + bodySize / 2);
+        }
+
+        this.store = new SegmentedCacheStore(this.directory, 16 * SEGMENT_SIZE, SEGMENT_SIZE);
+        assertEquals(bodySize, this.read("a").length());
+        assertNull(this.store.get("b"));
+        for(char ch = 'c'; ch <= 'e'; ch++) {
+            assertEquals(new String(body(ch, bodySize), StandardCharsets.US_ASCII), this.read(String.valueOf(ch)));
+        }
+        assertEquals(4, this.store.getCount());
+    }
+
+    private void reopen() throws IOException {
+        this.store.close();
+        this.store = new SegmentedCacheStore(this.directory, 16 * SEGMENT_SIZE, SEGMENT_SIZE);
+    }
+
+    private String read(String key) throws IOException {
+        final CacheEntry entry = this.store.get(key);
+        assertEquals(key, entry.getKey());
+        try(InputStream in = entry.getBody().openStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.US_ASCII);
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        try(Stream<Path> files = Files.list(this.directory)) {
+            return files.filter((file) -> Files.isRegularFile(file)).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static CacheEntry entry(String key, byte [] body) {
+        return new CacheEntry(key, 200, "OK", 
+                Collections.singletonMap("Content-Type", Collections.singletonList("text/plain")), 
+                Collections.emptyMap(), 1000, 2000, CacheEntry.Body.of(body));
+    }
+
+    private static byte [] body(char ch, int length) {
+        final byte [] body = new byte[length];
+        Arrays.fill(body, (byte)ch);
+        return body;
+    }
+
+    private static int indexOf(byte [] bytes, byte [] target) {
+        final ByteBuffer wanted = ByteBuffer.wrap(target);
+        for(int i = 0; i <= bytes.length - target.length; i++) {
+            if(ByteBuffer.wrap(bytes, i, target.length).equals(wanted)) {
+                return i;
+            }
+        }
+        throw new AssertionError("Not found");
+    }
+}
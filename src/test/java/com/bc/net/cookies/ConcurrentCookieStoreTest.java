@@ -0,0 +1,133 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.net.cookies;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class ConcurrentCookieStoreTest {
+
+    /**
+     * Each cookie is created a millisecond after the last, so that the 
+     * order of cookies of equal path length is known
+     */
+    private final AtomicLong clock = new AtomicLong(System.currentTimeMillis());
+
+    @Test
+    public void sendsMatchingCookiesInOrder() throws MalformedURLException {
+        final CookieStore store = new ConcurrentCookieStore();
+        store.add(parse("root=1; Path=/", "https://www.example.com/"));
+        store.add(parse("docs=2; Path=/docs", "https://www.example.com/"));
+        store.add(parse("domain=3; Domain=example.com", "https://www.example.com/"));
+        store.add(parse("other=4", "https://other.example.com/"));
+        store.add(parse("secure=5; Secure", "https://www.example.com/"));
+
+        assertEquals("docs=2; root=1; domain=3; secure=5", store.getHeader(new URL("https://www.example.com/docs/a")));
+        assertEquals("root=1; domain=3", store.getHeader(new URL("http://www.example.com/")));
+        assertEquals("domain=3", store.getHeader(new URL("https://example.com/")));
+        assertNull(store.getHeader(new URL("https://example.org/")));
+        assertEquals(5, store.getAll().size());
+    }
+
+    @Test
+    public void replacesAndRemoves() throws MalformedURLException {
+        final CookieStore store = new ConcurrentCookieStore();
+        final URL url = new URL("https://example.com/");
+        store.add(parse("a=1", "https://example.com/"));
+        store.add(parse("b=1", "https://example.com/"));
+        store.add(parse("a=2", "https://example.com/"));
+        assertEquals("a=2; b=1", store.getHeader(url));
+        // Same name on another path is another cookie
+        store.add(parse("a=3; Path=/x", "https://example.com/"));
+        assertEquals(3, store.getAll().size());
+        // An expired cookie removes the cookie it matches
+        store.add(parse("a=; Max-Age=0", "https://example.com/"));
+        assertEquals("b=1", store.getHeader(url));
+        store.clear();
+        assertTrue(store.getAll().isEmpty());
+    }
+
+    @Test
+    public void expiredCookiesAreNotSent() throws Exception {
+        final CookieStore store = new ConcurrentCookieStore();
+        final URL url = new URL("https://example.com/");
+        store.add(parse("short=1; Max-Age=1", "https://example.com/"));
+        store.add(parse("long=1; Max-Age=3600", "https://example.com/"));
+        assertEquals(2, store.get(url).size());
+        assertEquals(1, store.removeExpired(this.clock.get() + 2_000));
+        assertEquals("long=1", store.getHeader(url));
+    }
+
+    @Test
+    public void maxPerDomainKeepsNewest() throws MalformedURLException {
+        final CookieStore store = new ConcurrentCookieStore(2);
+        store.add(parse("a=1", "https://example.com/"));
+        store.add(parse("b=1", "https://www.example.com/"));
+        store.add(parse("c=1", "https://example.com/"));
+        // The oldest of the domain is dropped, across its hosts
+        assertEquals(2, store.getAll().size());
+        assertEquals("c=1", store.getHeader(new URL("https://example.com/")));
+        assertEquals("b=1", store.getHeader(new URL("https://www.example.com/")));
+    }
+
+    @Test
+    public void concurrentAdds() throws Exception {
+        final ConcurrentCookieStore store = new ConcurrentCookieStore(1000);
+        final int threads = 8;
+        final int perThread = 100;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<?>> futures = new ArrayList<>();
+        try{
+            for(int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for(int i = 0; i < perThread; i++) {
+                        store.add(parse("t" + thread + "_" + i + "=" + i, "https://example.com/"));
+                        store.getHeader(new URL("https://example.com/"));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for(Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        }finally{
+            executor.shutdownNow();
+        }
+        assertEquals(threads * perThread, store.get(new URL("https://example.com/")).size());
+    }
+
+    private Cookie parse(String header, String url) throws MalformedURLException {
+        return Cookie.parse(header, new URL(url), this.clock.incrementAndGet());
+    }
+}
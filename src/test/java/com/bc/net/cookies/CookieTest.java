@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.net.cookies;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class CookieTest {
+
+    private static final long NOW = 1_600_000_000_000L;
+
+    @Test
+    public void domainMatching() throws MalformedURLException {
+        final Cookie cookie = parse("a=1; Domain=.Example.com", "https://www.example.com/");
+        assertEquals("example.com", cookie.getDomain());
+        assertFalse(cookie.isHostOnly());
+        assertTrue(cookie.matches(url("https://example.com/"), NOW));
+        assertTrue(cookie.matches(url("https://a.b.example.com/"), NOW));
+        assertFalse(cookie.matches(url("https://notexample.com/"), NOW));
+        assertFalse(cookie.matches(url("https://example.org/"), NOW));
+    }
+
+    @Test
+    public void hostOnlyWithoutDomain() throws MalformedURLException {
+        final Cookie cookie = parse("a=1", "https://www.example.com/");
+        assertTrue(cookie.isHostOnly());
+        assertTrue(cookie.matches(url("https://www.example.com/"), NOW));
+        assertFalse(cookie.matches(url("https://sub.www.example.com/"), NOW));
+        assertFalse(cookie.matches(url("https://example.com/"), NOW));
+    }
+
+    @Test
+    public void foreignDomainIsRejected() {
+        assertNull(parse("a=1; Domain=example.org", "https://www.example.com/"));
+        assertNull(parse("a=1; Domain=www.example.com", "https://example.com/"));
+        assertNull(parse("a=1; Domain=0.0.1", "https://127.0.0.1/"));
+    }
+
+    @Test
+    public void publicSuffixIsRejected() throws MalformedURLException {
+        assertNull(parse("a=1; Domain=com", "https://example.com/"));
+        assertNull(parse("a=1; Domain=co.uk", "https://example.co.uk/"));
+        assertNull(parse("a=1; Domain=com.au", "https://shop.example.com.au/"));
+        assertNull(parse("a=1; Domain=github.io", "https://user.github.io/"));
+        // Allowed for the host of that name, as a host-only cookie
+        final Cookie own = parse("a=1; Domain=co.uk", "https://co.uk/");
+        assertTrue(own.isHostOnly());
+        assertFalse(own.matches(url("https://example.co.uk/"), NOW));
+        assertTrue(parse("a=1; Domain=example.co.uk", "https://www.example.co.uk/")
+                .matches(url("https://shop.example.co.uk/"), NOW));
+        // Three letter second level labels of generic top level domains are not suffixes
+        assertTrue(parse("a=1; Domain=ibm.com", "https://www.ibm.com/")
+                .matches(url("https://ibm.com/"), NOW));
+    }
+
+    @Test
+    public void registrableDomain() {
+        assertEquals("example.com", Cookie.registrableDomainOf("a.b.example.com"));
+        assertEquals("example.co.uk", Cookie.registrableDomainOf("www.example.co.uk"));
+        assertEquals("co.uk", Cookie.registrableDomainOf("co.uk"));
+        assertEquals("127.0.0.1", Cookie.registrableDomainOf("127.0.0.1"));
+        assertEquals("localhost", Cookie.registrableDomainOf("localhost"));
+    }
+
+    @Test
+    public void pathMatching() throws MalformedURLException {
+        final Cookie cookie = parse("a=1; Path=/docs", "https://example.com/");
+        assertTrue(cookie.matches(url("https://example.com/docs"), NOW));
+        assertTrue(cookie.matches(url("https://example.com/docs/"), NOW));
+        assertTrue(cookie.matches(url("https://example.com/docs/web/page?q=1"), NOW));
+        assertFalse(cookie.matches(url("https://example.com/docsets"), NOW));
+        assertFalse(cookie.matches(url("https://example.com/"), NOW));
+        // The default is the directory of the URL
+        assertEquals("/a/b", parse("a=1", "https://example.com/a/b/c").getPath());
+        assertEquals("/", parse("a=1", "https://example.com/a").getPath());
+        assertEquals("/", parse("a=1; Path=relative", "https://example.com/a").getPath());
+    }
+
+    @Test
+    public void secure() throws MalformedURLException {
+        final Cookie cookie = parse("a=1; Secure; HttpOnly", "https://example.com/");
+        assertTrue(cookie.isSecure());
+        assertTrue(cookie.isHttpOnly());
+        assertTrue(cookie.matches(url("https://example.com/"), NOW));
+        assertFalse(cookie.matches(url("http://example.com/"), NOW));
+        assertTrue(parse("a=1", "https://example.com/").matches(url("http://example.com/"), NOW));
+    }
+
+    @Test
+    public void expiry() throws MalformedURLException {
+        final Cookie session = parse("a=1", "https://example.com/");
+        assertFalse(session.isPersistent());
+        assertFalse(session.isExpired(Long.MAX_VALUE - 1));
+
+        final Cookie maxAge = parse("a=1; Max-Age=60", "https://example.com/");
+        assertEquals(NOW + 60_000, maxAge.getExpiresAt());
+        assertTrue(maxAge.matches(url("https://example.com/"), NOW + 59_999));
+        assertFalse(maxAge.matches(url("https://example.com/"), NOW + 60_000));
+
+        assertTrue(parse("a=1; Max-Age=0", "https://example.com/").isExpired(NOW));
+        assertTrue(parse("a=1; Max-Age=-1", "https://example.com/").isExpired(NOW));
+
+        final Cookie expires = parse("a=1; Expires=Sun, 13 Sep 2020 12:26:40 GMT", "https://example.com/");
+        assertEquals(NOW, expires.getExpiresAt());
+        assertEquals(NOW, parse("a=1; Expires=Sunday, 13-Sep-20 12:26:40 GMT", "https://example.com/").getExpiresAt());
+        // Max-Age takes precedence
+        assertEquals(NOW + 1_000, parse("a=1; Expires=Sun, 13 Sep 2020 12:26:40 GMT; Max-Age=1", 
+                "https://example.com/").getExpiresAt());
+    }
+
+    @Test
+    public void invalidHeaders() {
+        assertNull(parse("novalue", "https://example.com/"));
+        assertNull(parse("=1", "https://example.com/"));
+        assertEquals("quoted", parse("a=\"quoted\"", "https://example.com/").getValue());
+    }
+
+    private static Cookie parse(String header, String url) {
+        try{
+            return Cookie.parse(header, new URL(url), NOW);
+        }catch(MalformedURLException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static URL url(String url) throws MalformedURLException {
+        return new URL(url);
+    }
+}
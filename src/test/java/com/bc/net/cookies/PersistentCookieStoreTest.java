@@ -0,0 +1,160 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.net.cookies;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import static org.junit.Assert.assertEquals;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PersistentCookieStoreTest {
+
+    private Path directory;
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("persistent-cookie-test");
+        this.file = this.directory.resolve("cookies.log");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.file);
+        try(Stream<Path> files = Files.list(this.directory)) {
+            for(Path each : files.collect(Collectors.toList())) {
+                Files.deleteIfExists(each);
+            }
+        }
+        Files.deleteIfExists(this.directory);
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        final URL url = new URL("https://www.example.com/docs/page");
+        try(PersistentCookieStore store = new PersistentCookieStore(this.file)) {
+            store.add(parse("session=1", url));
+            store.add(parse("persistent=1; Max-Age=3600; Path=/docs; Secure; HttpOnly", url));
+            store.add(parse("domain=1; Domain=example.com; Max-Age=3600", url));
+            store.add(parse("replaced=1; Max-Age=3600", url));
+            store.add(parse("replaced=2; Max-Age=3600", url));
+            store.add(parse("removed=1; Max-Age=3600", url));
+            store.add(parse("removed=; Max-Age=0", url));
+        }
+        final List<String> expected;
+        try(PersistentCookieStore store = new PersistentCookieStore(this.file)) {
+            expected = describe(store.getAll());
+            assertEquals(4, expected.size());
+            assertEquals("session=1; persistent=1; domain=1; replaced=2", store.getHeader(url));
+            // Secure is restored, so the cookie is not sent over http
+            assertEquals("session=1; domain=1; replaced=2", 
+                    store.getHeader(new URL("http://www.example.com/docs/page")));
+        }
+        // Loading again, after the log was compacted or not, gives the same cookies
+        try(PersistentCookieStore store = new PersistentCookieStore(this.file)) {
+            assertEquals(expected, describe(store.getAll()));
+        }
+    }
+
+    @Test
+    public void sessionCookiesNotPersisted() throws IOException {
+        final URL url = new URL("https://example.com/");
+        try(PersistentCookieStore store = new PersistentCookieStore(this.file, false)) {
+            store.add(parse("session=1", url));
+            store.add(parse("persistent=1; Max-Age=3600", url));
+            assertEquals("session=1; persistent=1", store.getHeader(url));
+        }
+        try(PersistentCookieStore store = new PersistentCookieStore(this.file, false)) {
+            assertEquals("persistent=1", store.getHeader(url));
+        }
+    }
+
+    @Test
+    public void clearIsPersisted() throws IOException {
+        final URL url = new URL("https://example.com/");
+        try(PersistentCookieStore store = new PersistentCookieStore(this.file)) {
+            store.add(parse("a=1", url));
+            store.clear();
+            store.add(parse("b=1", url));
+        }
+        try(PersistentCookieStore store = new PersistentCookieStore(this.file)) {
+            assertEquals("b=1", store.getHeader(url));
+        }
+    }
+
+    @Test
+    public void tornTailIsDropped() throws IOException {
+        final URL url = new URL("https://example.com/");
+        try(PersistentCookieStore store = new PersistentCookieStore(this.file)) {
+            store.add(parse("a=1", url));
+        }
+        final long intact = Files.size(this.file);
+        try(PersistentCookieStore store = new PersistentCookieStore(this.file)) {
+            store.add(parse("b=1", url));
+        }
+        // As if the process died while writing b
+        final byte [] bytes = Files.readAllBytes(this.file);
+        Files.write(this.file, Arrays.copyOf(bytes, bytes.length - 3));
+
+        try(PersistentCookieStore store = new PersistentCookieStore(this.file)) {
+            assertEquals("a=1", store.getHeader(url));
+            // The log was rewritten without the torn record, so later changes are kept
+            assertEquals(intact, Files.size(this.file));
+            store.add(parse("c=1", url));
+        }
+        try(PersistentCookieStore store = new PersistentCookieStore(this.file)) {
+            assertEquals("a=1; c=1", store.getHeader(url));
+        }
+    }
+
+    @Test
+    public void damagedRecordIsDropped() throws IOException {
+        final URL url = new URL("https://example.com/");
+        try(PersistentCookieStore store = new PersistentCookieStore(this.file)) {
+            store.add(parse("a=1", url));
+            store.add(parse("b=value", url));
+        }
+        // A flipped bit in the value of b fails its CRC
+        final byte [] bytes = Files.readAllBytes(this.file);
+        final int at = new String(bytes, StandardCharsets.ISO_8859_1).lastIndexOf("value");
+        bytes[at] ^= 1;
+        Files.write(this.file, bytes);
+
+        try(PersistentCookieStore store = new PersistentCookieStore(this.file)) {
+            assertEquals("a=1", store.getHeader(url));
+        }
+    }
+
+    private static Cookie parse(String header, URL url) {
+        return Cookie.parse(header, url, System.currentTimeMillis());
+    }
+
+    private static List<String> describe(List<Cookie> cookies) {
+        return cookies.stream().map(Cookie::toString).sorted().collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.net.impl;
+
+import com.bc.net.BatchFetcher;
+import com.bc.net.RequestListener;
+import com.bc.net.RequestTemplate;
+import com.bc.net.Response;
+import com.bc.net.util.AsyncExecutors;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchFetcherImplTest {
+
+    private HttpServer server;
+
+    private ExecutorService serverExecutor;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    private final Map<String, AtomicInteger> inFlightByHost = new ConcurrentHashMap<>();
+
+    private final Map<String, AtomicInteger> maxInFlightByHost = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp() throws IOException {
+        this.serverExecutor = Executors.newCachedThreadPool();
+        // On all addresses, so that 127.0.0.1 and localhost are two hosts of one server
+        this.server = HttpServer.create(new InetSocketAddress(0), 0);
+        this.server.setExecutor(this.serverExecutor);
+        this.server.createContext("/", (exchange) -> {
+            final String host = exchange.getRequestHeaders().getFirst("Host").replaceFirst(":\\d+$", "");
+            final AtomicInteger hostCount = this.inFlightByHost.computeIfAbsent(host, (k) -> new AtomicInteger());
+            final AtomicInteger hostMax = this.maxInFlightByHost.computeIfAbsent(host, (k) -> new AtomicInteger());
+            this.maxInFlight.accumulateAndGet(this.inFlight.incrementAndGet(), Math::max);
+            hostMax.accumulateAndGet(hostCount.incrementAndGet(), Math::max);
+            try{
+                Thread.sleep(50);
+            }catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }finally{
+                hostCount.decrementAndGet();
+                this.inFlight.decrementAndGet();
+            }
+            final byte [] body = "OK".getBytes();
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        this.server.start();
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop(0);
+        this.serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void perHostLimit() throws Exception {
+        final BatchFetcher.Result result = new BatchFetcherImpl(10, 2).fetch(this.urls("127.0.0.1", 8), new Closing());
+        assertEquals(8, result.getSucceeded());
+        assertEquals(2, this.maxInFlightByHost.get("127.0.0.1").get());
+    }
+
+    @Test
+    public void globalLimit() throws Exception {
+        final List<URL> urls = this.urls("127.0.0.1", 6);
+        urls.addAll(this.urls("localhost", 6));
+        final BatchFetcher.Result result = new BatchFetcherImpl(3, 3).fetch(urls, new Closing());
+        assertEquals(12, result.getSucceeded());
+        assertEquals(3, this.maxInFlight.get());
+    }
+
+    @Test
+    public void hostsShareTheGlobalLimit() throws Exception {
+        final List<URL> urls = new ArrayList<>();
+        for(int i = 0; i < 4; i++) {
+            urls.addAll(this.urls("127.0.0.1", 1));
+            urls.addAll(this.urls("localhost", 1));
+        }
+        final BatchFetcher.Result result = new BatchFetcherImpl(4, 2).fetch(urls, new Closing());
+        assertEquals(8, result.getSucceeded());
+        assertEquals(4, this.maxInFlight.get());
+        assertEquals(2, this.maxInFlightByHost.get("127.0.0.1").get());
+        assertEquals(2, this.maxInFlightByHost.get("localhost").get());
+    }
+
+    @Test
+    public void failuresAreCounted() throws Exception {
+        final List<URL> urls = this.urls("127.0.0.1", 2);
+        // Nothing listens on port 1
+        urls.add(new URL("http://127.0.0.1:1/"));
+        final BatchFetcher.Result result = new BatchFetcherImpl(2, 2).fetch(urls, new Closing());
+        assertEquals(2, result.getSucceeded());
+        assertEquals(1, result.getFailed());
+    }
+
+    @Test
+    public void responseIsClosedWhenTheListenerThrows() throws Exception {
+        final AtomicInteger closed = new AtomicInteger();
+        final RequestTemplate template = RequestTemplate.DEFAULT.withListener(new RequestListener() {
+            @Override
+            public void onClosed(URL url, boolean reusable, long drainedBytes) {
+                closed.incrementAndGet();
+            }
+        });
+        final BatchFetcher fetcher = new BatchFetcherImpl(template, AsyncExecutors.getDefault(), 2, 2);
+        final BatchFetcher.Result result = fetcher.fetch(this.urls("127.0.0.1", 3), (url, response) -> {
+            throw new IllegalStateException("Listener failed for: " + url);
+        });
+        assertEquals(3, result.getSucceeded());
+        assertEquals(3, closed.get());
+    }
+
+    private List<URL> urls(String host, int count) throws IOException {
+        final List<URL> urls = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            urls.add(new URL("http://" + host + ':' + this.server.getAddress().getPort() + "/" + host + '/' + i));
+        }
+        return urls;
+    }
+
+    private static final class Closing implements BatchFetcher.Listener {
+        @Override
+        public void onResponse(URL url, Response response) {
+            try{
+                response.close();
+            }catch(IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
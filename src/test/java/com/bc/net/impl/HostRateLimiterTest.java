@@ -0,0 +1,173 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.net.impl;
+
+import com.bc.net.RequestTemplate;
+import com.bc.net.Response;
+import com.bc.net.Transport;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class HostRateLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void burstThenRate() throws MalformedURLException {
+        final HostRateLimiter limiter = new HostRateLimiter(1, 3);
+        final URL url = new URL("http://example.com/");
+        for(int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.reserve(url));
+        }
+        // Each request past the burst waits one more interval
+        assertAbout(SECOND, limiter.reserve(url));
+        assertAbout(2 * SECOND, limiter.reserve(url));
+        assertEquals(2, limiter.get("example.com").getThrottled());
+        assertEquals(5, limiter.get("EXAMPLE.com").getRequests());
+    }
+
+    @Test
+    public void hostsAreIndependent() throws MalformedURLException {
+        final HostRateLimiter limiter = new HostRateLimiter(10, 1);
+        assertEquals(0, limiter.reserve(new URL("http://a.example.com/")));
+        assertEquals(0, limiter.reserve(new URL("http://b.example.com/")));
+        assertTrue(limiter.reserve(new URL("http://a.example.com/x")) > 0);
+    }
+
+    @Test
+    public void refill() throws Exception {
+        final HostRateLimiter limiter = new HostRateLimiter(50, 2);
+        final URL url = new URL("http://example.com/");
+        limiter.reserve(url);
+        limiter.reserve(url);
+        assertTrue(limiter.reserve(url) > 0);
+        // 20ms per permit, the whole burst is back after the wait plus 40ms
+        Thread.sleep(100);
+        assertEquals(0, limiter.reserve(url));
+        assertEquals(0, limiter.reserve(url));
+        assertTrue(limiter.reserve(url) > 0);
+    }
+
+    @Test
+    public void rateLimitedResponsesSlowDown() throws MalformedURLException {
+        final HostRateLimiter limiter = new HostRateLimiter(10, 1);
+        final URL url = new URL("http://example.com/");
+        limiter.reserve(url);
+        limiter.onResponse(url, 429, -1);
+        assertEquals(5.0, limiter.get("example.com").getPermitsPerSecond(), 0.01);
+        assertEquals(1, limiter.get("example.com").getRateLimited());
+        for(int i = 0; i < 100; i++) {
+            limiter.onResponse(url, 200, -1);
+        }
+        assertEquals(10.0, limiter.get("example.com").getPermitsPerSecond(), 0.01);
+    }
+
+    @Test
+    public void retryAfterPauses() throws MalformedURLException {
+        final HostRateLimiter limiter = new HostRateLimiter(10, 5);
+        final URL url = new URL("http://example.com/");
+        limiter.reserve(url);
+        limiter.onResponse(url, 503, 2_000);
+        assertAbout(2 * SECOND, limiter.reserve(url));
+    }
+
+    @Test
+    public void idleHostsAreEvicted() throws Exception {
+        final HostRateLimiter limiter = new HostRateLimiter(100, 1, 50, TimeUnit.MILLISECONDS);
+        limiter.reserve(new URL("http://a.example.com/"));
+        limiter.reserve(new URL("http://slow.example.com/"));
+        limiter.onResponse(new URL("http://slow.example.com/"), 429, -1);
+        Thread.sleep(120);
+        limiter.reserve(new URL("http://b.example.com/"));
+        assertNull(limiter.get("a.example.com"));
+        // Not evicted while slowed down, as its rate would be lost
+        assertEquals(1, limiter.get("slow.example.com").getRequests());
+        assertEquals(1, limiter.get("b.example.com").getRequests());
+    }
+
+    @Test
+    public void asyncRequestsWaitBeforeTheTransport() throws Exception {
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", (exchange) -> {
+            final byte [] body = "OK".getBytes();
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        try{
+            // Like HttpClientTransport, connects without using the executor
+            final List<Long> calls = Collections.synchronizedList(new ArrayList<>());
+            final Transport transport = new Transport() {
+                @Override
+                public URLConnection openConnection(URL url) throws IOException {
+                    return url.openConnection();
+                }
+                @Override
+                public CompletableFuture<URLConnection> connectAsync(URLConnection connection, Executor executor) {
+                    calls.add(System.nanoTime());
+                    return CompletableFuture.supplyAsync(() -> {
+                        try{
+                            ((HttpURLConnection)connection).getResponseCode();
+                            return connection;
+                        }catch(IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                }
+            };
+            final URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+            // Warmed up, so that the first request does not outlast the interval
+            RequestTemplate.DEFAULT.withTransport(transport).newRequest(url).responseAsync().get(5, TimeUnit.SECONDS).close();
+            calls.clear();
+            final RequestTemplate template = RequestTemplate.DEFAULT
+                    .withTransport(transport).withRateLimiter(new HostRateLimiter(2, 1));
+            final CompletableFuture<Response> first = template.newRequest(url).responseAsync();
+            final CompletableFuture<Response> second = template.newRequest(url).responseAsync();
+            first.get(5, TimeUnit.SECONDS).close();
+            second.get(5, TimeUnit.SECONDS).close();
+            assertEquals(2, calls.size());
+            final long gap = Math.abs(calls.get(1) - calls.get(0));
+            assertTrue("Expected about 500ms between calls, found " + TimeUnit.NANOSECONDS.toMillis(gap) + "ms", 
+                    gap > TimeUnit.MILLISECONDS.toNanos(400));
+        }finally{
+            server.stop(0);
+        }
+    }
+
+    private static void assertAbout(long expected, long actual) {
+        assertTrue("Expected about " + expected + ", found " + actual, 
+                actual <= expected && actual > expected - TimeUnit.MILLISECONDS.toNanos(100));
+    }
+}
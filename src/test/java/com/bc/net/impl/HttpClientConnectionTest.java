@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.net.impl;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HttpClientConnectionTest {
+
+    private static final int LENGTH = 1024 * 1024;
+
+    private HttpServer server;
+
+    private HttpClient client;
+
+    private final CountDownLatch received = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws IOException {
+        this.client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/", (exchange) -> {
+            this.received.countDown();
+            final byte [] body = exchange.getRequestBody().readAllBytes();
+            final byte [] reply = (body.length + ":" + Arrays.hashCode(body)).getBytes(StandardCharsets.US_ASCII);
+            exchange.sendResponseHeaders(200, reply.length);
+            exchange.getResponseBody().write(reply);
+            exchange.close();
+        });
+        this.server.createContext("/redirect", (exchange) -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().add("Location", "/");
+            exchange.sendResponseHeaders(307, -1);
+            exchange.close();
+        });
+        this.server.start();
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop(0);
+    }
+
+    @Test
+    public void fixedLengthBodyIsStreamed() throws Exception {
+        final byte [] body = body();
+        final HttpClientConnection connection = this.open("/");
+        connection.setFixedLengthStreamingMode(body.length);
+        try(OutputStream out = connection.getOutputStream()) {
+            out.write(body, 0, body.length / 2);
+            // Sent before the whole body is written
+            assertTrue(this.received.await(5, TimeUnit.SECONDS));
+            out.write(body, body.length / 2, body.length - body.length / 2);
+        }
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(body.length + ":" + Arrays.hashCode(body), read(connection));
+    }
+
+    @Test
+    public void bufferedBodyIsSentOnConnect() throws Exception {
+        final byte [] body = body();
+        final HttpClientConnection connection = this.open("/");
+        try(OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        }
+        assertEquals(1, this.received.getCount());
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(body.length + ":" + Arrays.hashCode(body), read(connection));
+    }
+
+    @Test
+    public void streamedBodyIsNotSentAgainOnRedirect() throws Exception {
+        final byte [] body = "a=1".getBytes(StandardCharsets.US_ASCII);
+        final HttpClientConnection streamed = this.open("/redirect");
+        streamed.setFixedLengthStreamingMode(body.length);
+        try(OutputStream out = streamed.getOutputStream()) {
+            out.write(body);
+        }
+        assertEquals(307, streamed.getResponseCode());
+
+        final HttpClientConnection buffered = this.open("/redirect");
+        try(OutputStream out = buffered.getOutputStream()) {
+            out.write(body);
+        }
+        assertEquals(200, buffered.getResponseCode());
+        assertEquals(body.length + ":" + Arrays.hashCode(body), read(buffered));
+    }
+
+    private HttpClientConnection open(String path) throws IOException {
+        final URL url = new URL("http://127.0.0.1:" + this.server.getAddress().getPort() + path);
+        final HttpClientConnection connection = new HttpClientConnection(url, this.client);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        return connection;
+    }
+
+    private static byte [] body() {
+        final byte [] body = new byte[LENGTH];
+        for(int i = 0; i < body.length; i++) {
+            body[i] = (byte)(i * 31);
+        }
+        return body;
+    }
+
+    private static String read(HttpURLConnection connection) throws IOException {
+        try(InputStream in = connection.getInputStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.US_ASCII);
+        }
+    }
+}
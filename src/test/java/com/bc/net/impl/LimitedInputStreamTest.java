@@ -0,0 +1,202 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.net.impl;
+
+import com.bc.net.BodyLimits;
+import com.bc.net.ResponseTooLargeException;
+import com.bc.net.util.ContentDecoders;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class LimitedInputStreamTest {
+
+    @Test
+    public void withinLimit() throws IOException {
+        final byte [] body = bytes(100);
+        final LimitedInputStream in = new LimitedInputStream(new ByteArrayInputStream(body), 100, 100);
+        assertArrayEquals(body, in.readAllBytes());
+        assertEquals(100, in.getCount());
+    }
+
+    @Test
+    public void declaredLengthOverLimitFailsBeforeReading() throws IOException {
+        final Tracking source = new Tracking(new ByteArrayInputStream(bytes(100)));
+        final LimitedInputStream in = new LimitedInputStream(source, 10, 100);
+        try{
+            in.read();
+            fail("Read a body declared larger than the limit");
+        }catch(ResponseTooLargeException e) {
+            assertEquals(10, e.getLimit());
+        }
+        assertEquals(0, source.reads);
+        assertTrue(source.closed);
+    }
+
+    @Test
+    public void readsAtMostOneByteOverLimit() throws IOException {
+        final Tracking source = new Tracking(new ByteArrayInputStream(bytes(100)));
+        final LimitedInputStream in = new LimitedInputStream(source, 10, -1);
+        try{
+            in.readAllBytes();
+            fail("Read a body larger than the limit");
+        }catch(ResponseTooLargeException e) {
+            assertEquals(10, e.getLimit());
+        }
+        assertEquals(11, in.getCount());
+        assertTrue(source.closed);
+    }
+
+    @Test
+    public void gzipBombTripsTheRatio() throws IOException {
+        // 256MB of zeros compress to about 256KB, a ratio of about 1000
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try(GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            final byte [] zeros = new byte[1024 * 1024];
+            for(int i = 0; i < 256; i++) {
+                gzip.write(zeros);
+            }
+        }
+        final byte [] bomb = out.toByteArray();
+        final Tracking source = new Tracking(new ByteArrayInputStream(bomb));
+        final LimitedInputStream encoded = new LimitedInputStream(source, -1, bomb.length);
+        final LimitedInputStream decoded = new LimitedInputStream(
+                ContentDecoders.decode(encoded, "gzip"), -1, encoded, 100, -1);
+        encoded.closeOnFail(decoded);
+        final byte [] buffer = new byte[8192];
+        try{
+            while(decoded.read(buffer) != -1) { }
+            fail("Read a body beyond the ratio");
+        }catch(ResponseTooLargeException e) {
+            assertEquals(100, e.getLimit());
+        }
+        // Stopped as soon as the ratio was exceeded, long before the end
+        assertTrue(decoded.getCount() > BodyLimits.RATIO_CHECK_MIN_BYTES);
+        assertTrue(decoded.getCount() <= 100 * encoded.getCount() + buffer.length);
+        assertTrue(encoded.getCount() < bomb.length / 2);
+        assertTrue(source.closed);
+    }
+
+    @Test
+    public void compressibleBodyWithinRatio() throws IOException {
+        // A ratio of about 10, as is usual for text
+        final byte [] body = text(4 * 1024 * 1024);
+        final byte [] gzipped = gzip(body);
+        final LimitedInputStream encoded = new LimitedInputStream(new ByteArrayInputStream(gzipped), -1, gzipped.length);
+        final LimitedInputStream decoded = new LimitedInputStream(
+                ContentDecoders.decode(encoded, "gzip"), -1, encoded, 100, -1);
+        assertArrayEquals(body, decoded.readAllBytes());
+    }
+
+    @Test
+    public void closeOnFailClosesTheOuterStream() throws IOException {
+        // Incompressible, so the encoded limit trips while decoding. Unlike
+        // gzip, the decoder reads no more than the zlib header up front.
+        final byte [] deflated = deflate(bytes(10_000));
+        final Tracking source = new Tracking(new ByteArrayInputStream(deflated));
+        final LimitedInputStream encoded = new LimitedInputStream(source, 1_000, -1);
+        final Tracking decoder = new Tracking(ContentDecoders.decode(encoded, "deflate"));
+        encoded.closeOnFail(decoder);
+        try{
+            decoder.readAllBytes();
+            fail("Read a body larger than the limit");
+        }catch(ResponseTooLargeException e) {
+            assertEquals(1_000, e.getLimit());
+        }
+        assertTrue(decoder.closed);
+        assertTrue(source.closed);
+    }
+
+    @Test
+    public void closesOnlyItselfByDefault() throws IOException {
+        final Tracking source = new Tracking(new ByteArrayInputStream(bytes(100)));
+        final LimitedInputStream encoded = new LimitedInputStream(source, 10, -1);
+        final Tracking outer = new Tracking(encoded);
+        try{
+            outer.readAllBytes();
+            fail("Read a body larger than the limit");
+        }catch(ResponseTooLargeException expected) { }
+        assertTrue(source.closed);
+        assertFalse(outer.closed);
+    }
+
+    static byte [] bytes(int n) {
+        final byte [] bytes = new byte[n];
+        new Random(n).nextBytes(bytes);
+        return bytes;
+    }
+
+    static byte [] text(int n) {
+        final Random random = new Random(n);
+        final byte [] text = new byte[n];
+        for(int i = 0; i < n; i++) {
+            text[i] = (byte)('a' + random.nextInt(16));
+        }
+        return text;
+    }
+
+    static byte [] gzip(byte [] bytes) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try(GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    static byte [] deflate(byte [] bytes) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try(DeflaterOutputStream deflate = new DeflaterOutputStream(out)) {
+            deflate.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    static final class Tracking extends FilterInputStream {
+        int reads;
+        boolean closed;
+        Tracking(InputStream in) {
+            super(in);
+        }
+        @Override
+        public int read() throws IOException {
+            ++this.reads;
+            return super.read();
+        }
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            ++this.reads;
+            return super.read(b, off, len);
+        }
+        @Override
+        public void close() throws IOException {
+            this.closed = true;
+            super.close();
+        }
+    }
+}
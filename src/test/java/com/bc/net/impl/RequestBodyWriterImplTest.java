@@ -0,0 +1,164 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.net.impl;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RequestBodyWriterImplTest {
+
+    private static final String NON_ASCII = "café üß 日本 & a=b";
+
+    private HttpServer server;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/known.txt", (exchange) -> {
+            final byte [] body = NON_ASCII.getBytes("UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        this.server.createContext("/chunked.txt", (exchange) -> {
+            exchange.sendResponseHeaders(200, 0);
+            exchange.getResponseBody().write(NON_ASCII.getBytes("UTF-8"));
+            exchange.close();
+        });
+        this.server.start();
+        this.file = File.createTempFile("request-body-test", ".bin");
+        final byte [] bytes = new byte[100_000];
+        Arrays.fill(bytes, (byte)0xe9);
+        Files.write(this.file.toPath(), bytes);
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop(0);
+        this.file.delete();
+    }
+
+    @Test
+    public void noBody() throws IOException {
+        assertEquals(-1, new RequestBodyWriterImpl<>().contentLength());
+    }
+
+    @Test
+    public void urlEncodedNonAscii() throws IOException {
+        for(String charset : new String[]{"UTF-8", "ISO-8859-1", "UTF-16"}) {
+            final RequestBodyWriterImpl<Object> body = new RequestBodyWriterImpl<>();
+            body.charset(charset);
+            body.param("q", NON_ASCII, true);
+            body.param("é", "x", true);
+            assertLength(charset, body);
+        }
+    }
+
+    @Test
+    public void unencodedValuesDependOnTheCharset() throws IOException {
+        final long [] lengths = new long[3];
+        final String [] charsets = {"UTF-8", "ISO-8859-1", "UTF-16"};
+        for(int i = 0; i < charsets.length; i++) {
+            final RequestBodyWriterImpl<Object> body = new RequestBodyWriterImpl<>();
+            body.param("q", "café", false);
+            // Set after the parameter, so any cached bytes must be discarded
+            body.charset(charsets[i]);
+            lengths[i] = assertLength(charsets[i], body);
+        }
+        assertEquals(7, lengths[0]);
+        assertEquals(6, lengths[1]);
+        // With a byte order mark
+        assertEquals(14, lengths[2]);
+    }
+
+    @Test
+    public void multipartWithFile() throws IOException {
+        for(String charset : new String[]{"UTF-8", "ISO-8859-1"}) {
+            final RequestBodyWriterImpl<Object> body = new RequestBodyWriterImpl<>();
+            body.charset(charset);
+            body.multiPartParam("name", NON_ASCII);
+            body.file("éfile", this.file);
+            body.multiPartParam("after", "1");
+            assertLength(charset, body);
+        }
+    }
+
+    @Test
+    public void multipartWithUrls() throws IOException {
+        final RequestBodyWriterImpl<Object> body = new RequestBodyWriterImpl<>();
+        body.multiPartParam("name", NON_ASCII);
+        body.url("http", this.url("/known.txt"));
+        body.url("file", this.file.toURI().toURL());
+        assertLength("UTF-8", body);
+    }
+
+    @Test
+    public void multipartWithUnknownLength() throws IOException {
+        final RequestBodyWriterImpl<Object> body = new RequestBodyWriterImpl<>();
+        body.file("file", this.file);
+        body.url("chunked", this.url("/chunked.txt"));
+        assertEquals(-1, body.contentLength());
+    }
+
+    @Test
+    public void unsupportedCharset() throws IOException {
+        final RequestBodyWriterImpl<Object> body = new RequestBodyWriterImpl<>();
+        body.multiPartParam("name", "value");
+        body.param("q", "café", false);
+        body.charset("x-no-such-charset");
+        assertEquals(-1, body.contentLength());
+        try{
+            body.write(new ByteArrayOutputStream());
+            fail("Wrote with an unsupported charset");
+        }catch(UnsupportedEncodingException expected) { }
+        // Encoding a parameter fails as it always has, unchecked
+        try{
+            body.param("q", "café", true);
+            fail("Encoded with an unsupported charset");
+        }catch(RuntimeException e) {
+            assertTrue(e.getCause() instanceof UnsupportedEncodingException);
+        }
+    }
+
+    private URL url(String path) throws IOException {
+        return new URL("http://127.0.0.1:" + this.server.getAddress().getPort() + path);
+    }
+
+    private static long assertLength(String message, RequestBodyWriterImpl<?> body) throws IOException {
+        final long expected = body.contentLength();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.write(out);
+        assertEquals(message, expected, out.size());
+        return expected;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.net.impl;
+
+import com.bc.net.BodyLimits;
+import com.bc.net.CookieProcessor;
+import com.bc.net.RequestListener;
+import com.bc.net.Response;
+import com.bc.net.ResponseTooLargeException;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResponseImplTest {
+
+    private static final int SMALL = 10 * 1024;
+
+    private static final int LARGE = 200 * 1024;
+
+    private HttpServer server;
+
+    private final List<Long> drained = new ArrayList<>();
+
+    private final List<Boolean> reusable = new ArrayList<>();
+
+    private final RequestListener listener = new RequestListener() {
+        @Override
+        public void onClosed(URL url, boolean reuse, long drainedBytes) {
+            reusable.add(reuse);
+            drained.add(drainedBytes);
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        final byte [] bomb = bomb();
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/small", (exchange) -> {
+            exchange.sendResponseHeaders(200, SMALL);
+            exchange.getResponseBody().write(LimitedInputStreamTest.bytes(SMALL));
+            exchange.close();
+        });
+        this.server.createContext("/large", (exchange) -> {
+            exchange.sendResponseHeaders(200, LARGE);
+            exchange.getResponseBody().write(LimitedInputStreamTest.bytes(LARGE));
+            exchange.close();
+        });
+        this.server.createContext("/bomb", (exchange) -> {
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, bomb.length);
+            exchange.getResponseBody().write(bomb);
+            exchange.close();
+        });
+        this.server.start();
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop(0);
+    }
+
+    @Test
+    public void unreadBodyIsDrainedOnClose() throws IOException {
+        this.open("/small", BodyLimits.NONE).close();
+        assertEquals(Long.valueOf(SMALL), this.drained.get(0));
+        assertEquals(Boolean.TRUE, this.reusable.get(0));
+    }
+
+    @Test
+    public void bodyOverDrainLimitIsNotDrained() throws IOException {
+        final Response response = this.open("/large", BodyLimits.NONE.withMaxDrainBytes(1024));
+        response.getInputStream().read(new byte[100]);
+        response.close();
+        // Stops once past the limit
+        assertEquals(Long.valueOf(1025), this.drained.get(0));
+        assertEquals(Boolean.FALSE, this.reusable.get(0));
+        // Closing again is a no-op
+        response.close();
+        assertEquals(1, this.drained.size());
+    }
+
+    @Test
+    public void contentLengthOverLimitFailsFast() throws IOException {
+        final Response response = this.open("/large", BodyLimits.NONE.withMaxEncodedBytes(LARGE - 1));
+        try{
+            response.getInputStream().read();
+            fail("Read a body declared larger than the limit");
+        }catch(ResponseTooLargeException e) {
+            assertEquals(LARGE - 1, e.getLimit());
+        }
+        // Closed on failure, without reading beyond the drain limit
+        assertEquals(1, this.drained.size());
+        assertTrue(this.drained.get(0) <= BodyLimits.DEFAULT_MAX_DRAIN_BYTES + 1);
+        response.close();
+        assertEquals(1, this.drained.size());
+    }
+
+    @Test
+    public void gzipBombFails() throws IOException {
+        final Response response = this.open("/bomb", BodyLimits.NONE.withMaxRatio(100));
+        final byte [] buffer = new byte[8192];
+        try{
+            while(response.getInputStream().read(buffer) != -1) { }
+            fail("Read a body beyond the ratio");
+        }catch(ResponseTooLargeException e) {
+            assertEquals(100, e.getLimit());
+        }
+        assertEquals(1, this.reusable.size());
+        response.close();
+    }
+
+    private Response open(String path, BodyLimits limits) throws IOException {
+        final URL url = new URL("http://127.0.0.1:" + this.server.getAddress().getPort() + path);
+        return new ResponseImpl(url.openConnection(), CookieProcessor.NO_COOKIES, this.listener, limits);
+    }
+
+    private static byte [] bomb() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try(GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            final byte [] zeros = new byte[1024 * 1024];
+            for(int i = 0; i < 64; i++) {
+                gzip.write(zeros);
+            }
+        }
+        return out.toByteArray();
+    }
+}
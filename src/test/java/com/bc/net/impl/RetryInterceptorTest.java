@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.net.impl;
+
+import com.bc.net.RequestTemplate;
+import com.bc.net.Response;
+import com.bc.net.RetryBudget;
+import com.bc.net.RetryPolicy;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RetryInterceptorTest {
+
+    private HttpServer server;
+
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    private volatile String retryAfter;
+
+    private final List<Long> delays = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/", (exchange) -> {
+            this.attempts.incrementAndGet();
+            exchange.getRequestBody().readAllBytes();
+            if(this.retryAfter != null) {
+                exchange.getResponseHeaders().add("Retry-After", this.retryAfter);
+            }
+            // With a body, as error responses without one fail on construction
+            final byte [] body = "Unavailable".getBytes(StandardCharsets.US_ASCII);
+            exchange.sendResponseHeaders(503, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        this.server.start();
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop(0);
+    }
+
+    @Test
+    public void getIsRetriedUntilAttemptsRunOut() throws IOException {
+        final RetryPolicy policy = this.policy(new RetryBudget(0.1, 10));
+        assertEquals(503, this.send(policy, "GET"));
+        assertEquals(3, this.attempts.get());
+        assertEquals(Arrays.asList(100L, 200L), this.delays);
+    }
+
+    @Test
+    public void postIsNotRetried() throws IOException {
+        final RetryPolicy policy = this.policy(new RetryBudget(0.1, 10));
+        assertEquals(503, this.send(policy, "POST"));
+        assertEquals(1, this.attempts.get());
+        assertEquals(503, this.send(policy.withRetryNonIdempotent(true), "POST"));
+        assertEquals(4, this.attempts.get());
+    }
+
+    @Test
+    public void retryAfterIsUsed() throws IOException {
+        this.retryAfter = "2";
+        assertEquals(503, this.send(this.policy(new RetryBudget(0.1, 10)), "GET"));
+        assertEquals(Arrays.asList(2_000L, 2_000L), this.delays);
+    }
+
+    @Test
+    public void longRetryAfterIsNotWaitedFor() throws IOException {
+        this.retryAfter = "120";
+        assertEquals(503, this.send(this.policy(new RetryBudget(0.1, 10)).withMaxRetryAfterMillis(60_000), "GET"));
+        assertEquals(1, this.attempts.get());
+        assertEquals(Collections.emptyList(), this.delays);
+    }
+
+    @Test
+    public void budgetExhaustionStopsRetries() throws IOException {
+        final RetryPolicy policy = this.policy(new RetryBudget(0.1, 3));
+        // Three tokens, two used by the first request, one by the second
+        this.send(policy, "GET");
+        this.send(policy, "GET");
+        assertEquals(5, this.attempts.get());
+        this.send(policy, "GET");
+        assertEquals(6, this.attempts.get());
+    }
+
+    private RetryPolicy policy(RetryBudget budget) {
+        return RetryPolicy.DEFAULT.withBackoff(100, 1_000, 2).withJitter(0).withBudget(budget);
+    }
+
+    private int send(RetryPolicy policy, String method) throws IOException {
+        final RetryInterceptor interceptor = new RetryInterceptor(policy) {
+            @Override
+            protected void sleep(long millis) {
+                delays.add(millis);
+            }
+        };
+        final URL url = new URL("http://127.0.0.1:" + this.server.getAddress().getPort() + "/");
+        try(Response response = RequestTemplate.DEFAULT.withInterceptor(interceptor).newRequest(url).method(method).response()) {
+            return response.getCode();
+        }
+    }
+}
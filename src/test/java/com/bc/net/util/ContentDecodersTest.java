@@ -0,0 +1,161 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.net.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class ContentDecodersTest {
+
+    private static final byte [] TEXT = "Stacked codings are decoded in reverse".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The {@link #TEXT} gzipped, then compressed with brotli
+     */
+    private static final String GZIP_THEN_BR = "0b1b801f8b08000000000002030b2e494cce4e4d5148ce4fc9cc4b2f56482c4a55484905f2806299790a45a965a945c5a900cc7da1102600000003";
+
+    @Test
+    public void stackedCodingsAreDecodedInReverse() throws IOException {
+        final byte [] body = gzip(zlib(TEXT));
+        assertArrayEquals(TEXT, decode(body, "deflate, gzip"));
+        try{
+            decode(body, "gzip, deflate");
+            fail("Decoded codings in the order listed");
+        }catch(IOException expected) { }
+    }
+
+    @Test
+    public void gzipThenBrotli() throws IOException {
+        Assume.assumeTrue("No brotli decoder on the classpath", ContentDecoders.isSupported("br"));
+        assertArrayEquals(TEXT, decode(hex(GZIP_THEN_BR), "gzip, br"));
+    }
+
+    @Test
+    public void identityAndCase() throws IOException {
+        assertArrayEquals(TEXT, decode(gzip(TEXT), "identity, GZIP"));
+        assertArrayEquals(TEXT, decode(gzip(TEXT), "x-gzip"));
+        assertArrayEquals(TEXT, decode(TEXT, " identity "));
+    }
+
+    @Test
+    public void unsupportedCodingIsNotDecoded() throws IOException {
+        final InputStream in = new ByteArrayInputStream(TEXT);
+        assertSame(in, ContentDecoders.decode(in, "gzip, x-unknown"));
+        assertSame(in, ContentDecoders.decode(in, null));
+    }
+
+    @Test
+    public void deflateIsSniffed() throws IOException {
+        assertArrayEquals(TEXT, decode(zlib(TEXT), "deflate"));
+        assertArrayEquals(TEXT, decode(raw(TEXT), "deflate"));
+        // Two bytes, shorter than the zlib header and checksum
+        assertArrayEquals(new byte[0], decode(raw(new byte[0]), "deflate"));
+    }
+
+    @Test
+    public void emptyBodyIsNotDecoded() throws IOException {
+        // e.g the body of a HEAD request, which would fail as gzip
+        assertArrayEquals(new byte[0], decode(new byte[0], "gzip"));
+        assertArrayEquals(new byte[0], decode(new byte[0], "deflate, gzip"));
+    }
+
+    @Test
+    public void firstByteIsPushedBack() throws IOException {
+        // One byte per read, so that the byte read to check for an empty 
+        // body, and the header, are read separately from the rest
+        for(byte [] body : new byte[][]{gzip(TEXT), zlib(TEXT), raw(TEXT)}) {
+            final String coding = body[0] == (byte)0x1f ? "gzip" : "deflate";
+            final InputStream in = ContentDecoders.decode(new OneByteInputStream(body), coding);
+            assertArrayEquals(coding, TEXT, in.readAllBytes());
+        }
+    }
+
+    @Test
+    public void acceptEncodingListsTheRegisteredCodings() {
+        final String accept = ContentDecoders.getAcceptEncoding();
+        assertEquals(accept, true, accept.startsWith("gzip, deflate"));
+        assertEquals(accept, false, accept.contains("x-gzip"));
+    }
+
+    private static byte [] decode(byte [] body, String contentEncoding) throws IOException {
+        try(InputStream in = ContentDecoders.decode(new ByteArrayInputStream(body), contentEncoding)) {
+            return in.readAllBytes();
+        }
+    }
+
+    static byte [] gzip(byte [] bytes) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try(GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    static byte [] zlib(byte [] bytes) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try(DeflaterOutputStream deflate = new DeflaterOutputStream(out)) {
+            deflate.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    static byte [] raw(byte [] bytes) throws IOException {
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try(DeflaterOutputStream deflate = new DeflaterOutputStream(out, deflater)) {
+            deflate.write(bytes);
+        }finally{
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    private static byte [] hex(String hex) {
+        final byte [] bytes = new byte[hex.length() / 2];
+        for(int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte)Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    static final class OneByteInputStream extends ByteArrayInputStream {
+        OneByteInputStream(byte [] bytes) {
+            super(bytes);
+        }
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(1, len));
+        }
+        @Override
+        public synchronized int available() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.net.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class InflaterPoolTest {
+
+    private static final byte [] TEXT = "Inflaters are given back exactly once".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    public void releasedOnceOnClose() throws IOException {
+        final InflaterPool pool = new InflaterPool(4);
+        final InputStream in = pool.gzip(new ByteArrayInputStream(ContentDecodersTest.gzip(TEXT)));
+        assertEquals(0, pool.getPooledCount());
+        in.read();
+        in.close();
+        assertEquals(1, pool.getPooledCount());
+        in.close();
+        assertEquals(1, pool.getPooledCount());
+        try{
+            in.read();
+            fail("Read after close");
+        }catch(IOException expected) { }
+    }
+
+    @Test
+    public void releasedOnceAtTheEnd() throws IOException {
+        final InflaterPool pool = new InflaterPool(4);
+        final InputStream in = pool.inflate(new ByteArrayInputStream(ContentDecodersTest.zlib(TEXT)), false);
+        assertArrayEquals(TEXT, in.readAllBytes());
+        // Given back at the end of the input, not again on close
+        assertEquals(1, pool.getPooledCount());
+        assertEquals(-1, in.read());
+        in.close();
+        in.close();
+        assertEquals(1, pool.getPooledCount());
+    }
+
+    @Test
+    public void releasedWhenNotGzip() throws IOException {
+        final InflaterPool pool = new InflaterPool(4);
+        try{
+            pool.gzip(new ByteArrayInputStream(TEXT));
+            fail("Accepted input which is not gzip");
+        }catch(ZipException expected) { }
+        assertEquals(1, pool.getPooledCount());
+    }
+
+    @Test
+    public void inflatersAreReusedAfterReset() throws IOException {
+        final InflaterPool pool = new InflaterPool(4);
+        for(int i = 0; i < 3; i++) {
+            try(InputStream in = pool.gzip(new ByteArrayInputStream(ContentDecodersTest.gzip(TEXT)))) {
+                // Closed before the end, so the inflater is mid-stream when released
+                in.read(new byte[4]);
+            }
+            try(InputStream in = pool.inflate(new ByteArrayInputStream(ContentDecodersTest.raw(TEXT)), true)) {
+                assertArrayEquals(TEXT, in.readAllBytes());
+            }
+        }
+        // gzip uses raw inflaters, so one served all
+        assertEquals(1, pool.getPooledCount());
+    }
+
+    @Test
+    public void kindsArePooledApart() {
+        final InflaterPool pool = new InflaterPool(1);
+        final Inflater raw = pool.acquire(true);
+        final Inflater wrapped = pool.acquire(false);
+        pool.release(raw, true);
+        pool.release(wrapped, false);
+        assertEquals(2, pool.getPooledCount());
+        assertSame(wrapped, pool.acquire(false));
+        assertSame(raw, pool.acquire(true));
+    }
+
+    @Test
+    public void excessInflatersAreEnded() {
+        final InflaterPool pool = new InflaterPool(1);
+        final Inflater first = pool.acquire(true);
+        final Inflater second = pool.acquire(true);
+        assertNotSame(first, second);
+        pool.release(first, true);
+        pool.release(second, true);
+        assertEquals(1, pool.getPooledCount());
+        try{
+            second.getBytesRead();
+            fail("Inflater not ended");
+        }catch(NullPointerException | IllegalStateException expected) { }
+    }
+}
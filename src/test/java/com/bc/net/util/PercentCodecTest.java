@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bc.net.util;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+public class PercentCodecTest {
+
+    private static final Charset [] CHARSETS = {
+        StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1, 
+        StandardCharsets.US_ASCII, StandardCharsets.UTF_16
+    };
+
+    private static final String [] VALUES = {
+        "", "plain_value-1.0*", "A to Z & more=", "0^9", "\",", 
+        "café naïve über", "/path/to/page.html?x=", "€ 😀 \uDFFF end"
+    };
+
+    @Test
+    public void encodeSafeText() {
+        final String value = "plain_value-1.0*";
+        assertSame(value, PercentCodec.encode(value, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void encode() throws UnsupportedEncodingException {
+        for(Charset charset : CHARSETS) {
+            for(String value : VALUES) {
+                final String expected = URLEncoder.encode(value, charset.name());
+                assertEquals(expected, PercentCodec.encode(value, charset));
+                assertEquals("?" + expected, PercentCodec.encode(value, charset, new StringBuilder("?")).toString());
+                final ByteBuffer buffer = PercentCodec.encode(value, charset, ByteBuffer.allocate(256));
+                buffer.flip();
+                assertEquals(expected, StandardCharsets.US_ASCII.decode(buffer).toString());
+            }
+        }
+    }
+
+    @Test
+    public void decode() throws UnsupportedEncodingException {
+        for(Charset charset : CHARSETS) {
+            for(String value : VALUES) {
+                final String encoded = URLEncoder.encode(value, charset.name());
+                assertEquals(URLDecoder.decode(encoded, charset.name()), PercentCodec.decode(encoded, charset));
+            }
+        }
+        assertEquals(URLDecoder.decode("%+1%-0a+b", "UTF-8"), PercentCodec.decode("%+1%-0a+b", StandardCharsets.UTF_8));
+        assertEquals("b c", PercentCodec.decode("a=b+c", 2, 5, StandardCharsets.UTF_8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decodeIncompleteEscape() {
+        PercentCodec.decode("abc%2", StandardCharsets.UTF_8);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decodeIllegalEscape() {
+        PercentCodec.decode("%zz", StandardCharsets.UTF_8);
+    }
+}
@@ -16,7 +16,10 @@
 package com.bc.net.util;
 
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -85,4 +88,69 @@ System.out.println("Params: "+outputParams_2);
         
         assertEquals(outputParams_1, outputParams_2);
     }
+
+    @Test
+    public void forEachPairLiteralSeparator() {
+        final QueryParametersConverter instance = new QueryParametersConverter("&");
+        assertEquals(Arrays.asList("a=1", "b=x+y", "c=3"), pairs(instance, "?a=1&&b=x+y&c= 3 &", "&"));
+        assertEquals(Arrays.asList("a=1", "b=2"), pairs(instance, "a=1&amp;b=2", "&amp;"));
+        assertEquals(Arrays.asList(), pairs(instance, "", "&"));
+        // Keys without '=' are dropped, unless empty strings are allowed
+        assertEquals(Arrays.asList("b=2"), pairs(instance, "a&b=2", "&"));
+        assertEquals(Arrays.asList("a=", "b=2"), pairs(new QueryParametersConverter(true, "&"), "a&b=2", "&"));
+    }
+
+    @Test
+    public void forEachPairRegexSeparator() {
+        final QueryParametersConverter instance = new QueryParametersConverter("&");
+        assertEquals(Arrays.asList("a=1", "b=2", "c=3"), pairs(instance, "a=1;b=2&c=3", "[;&]"));
+        assertEquals(Arrays.asList("a=1", "b=2"), pairs(instance, "a=1 ; b=2", "\\s*;\\s*"));
+        // A separator with regular expression characters is not taken literally,
+        // here ".?x" takes the value of 'a' with it, leaving 'a' no value
+        assertEquals(Arrays.asList("b=2"), pairs(instance, "a=1xb=2", ".?x"));
+    }
+
+    @Test
+    public void forEachPairLiteralMatchesRegex() {
+        final QueryParametersConverter instance = new QueryParametersConverter("&");
+        for(String query : new String[]{"a=1&b=2", "&a=1", "a=1&&", "=&a==1=&b", "&", "a=1"}) {
+            assertEquals(query, pairs(instance, query, "[&]"), pairs(instance, query, "&"));
+            assertEquals(query, pairs(instance, query, "&"), pairs(instance, new StringBuilder(query), "&"));
+        }
+    }
+
+    @Test
+    public void forEachPairSeparatorIndex() {
+        final String query = "a=b=c=d";
+        assertEquals(Arrays.asList("a=b=c=d"), pairs(new QueryParametersConverter(false, false, -1, "&"), query, "&"));
+        assertEquals(Arrays.asList("a=b=c=d"), pairs(new QueryParametersConverter(false, false, 0, "&"), query, "&"));
+        final List<String> keys = new ArrayList<>();
+        new QueryParametersConverter(false, false, 1, "&").forEachPair(query, (k, v) -> keys.add(k + '|' + v));
+        new QueryParametersConverter(false, false, 9, "&").forEachPair(query, (k, v) -> keys.add(k + '|' + v));
+        new QueryParametersConverter(false, false, -1, "&").forEachPair(query, (k, v) -> keys.add(k + '|' + v));
+        assertEquals(Arrays.asList("a=b|c=d", "a=b=c|d", "a|b=c=d"), keys);
+    }
+
+    @Test
+    public void forEachPairDecodes() {
+        final List<String> values = new ArrayList<>();
+        new QueryParametersConverter().forEachPair("q=A+to+Z&r=%E2%82%AC", StandardCharsets.UTF_8, (k, v) -> values.add(v));
+        assertEquals(Arrays.asList("A to Z", "\u20ac"), values);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void forEachPairIllegalEscape() {
+        new QueryParametersConverter().forEachPair("a=1&b=%zz", StandardCharsets.UTF_8, (k, v) -> { });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void forEachPairIncompleteEscape() {
+        new QueryParametersConverter().forEachPair("a=%2", StandardCharsets.UTF_8, (k, v) -> { });
+    }
+
+    private static List<String> pairs(QueryParametersConverter instance, CharSequence query, String separator) {
+        final List<String> pairs = new ArrayList<>();
+        instance.forEachPair(query, separator, null, (k, v) -> pairs.add(k + '=' + v));
+        return pairs;
+    }
 }
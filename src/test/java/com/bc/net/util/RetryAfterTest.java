@@ -0,0 +1,58 @@
+/*
+ * Copyright 2018 NUROX Ltd.
+ *
+ * Licensed under the NUROX Ltd Software License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.looseboxes.com/legal/licenses/software.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bc.net.util;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class RetryAfterTest {
+
+    private static final long NOW = 1_600_000_000_000L;
+
+    @Test
+    public void parseSeconds() {
+        assertEquals(0, RetryAfter.parseMillis("0", NOW));
+        assertEquals(120_000, RetryAfter.parseMillis("120", NOW));
+        assertEquals(5_000, RetryAfter.parseMillis(" 5 ", NOW));
+        assertEquals(Long.MAX_VALUE, RetryAfter.parseMillis("99999999999999999999", NOW));
+    }
+
+    @Test
+    public void parseDate() {
+        assertEquals(30_000, RetryAfter.parseMillis(date(NOW + 30_000), NOW));
+        // A date in the past means now
+        assertEquals(0, RetryAfter.parseMillis(date(NOW - 30_000), NOW));
+    }
+
+    @Test
+    public void parseInvalid() {
+        assertEquals(-1, RetryAfter.parseMillis(null, NOW));
+        assertEquals(-1, RetryAfter.parseMillis("", NOW));
+        assertEquals(-1, RetryAfter.parseMillis("-5", NOW));
+        assertEquals(-1, RetryAfter.parseMillis("1.5", NOW));
+        assertEquals(-1, RetryAfter.parseMillis("tomorrow", NOW));
+    }
+
+    private static String date(long millis) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC));
+    }
+}